@@ -38,6 +38,7 @@ import su.sres.securesms.avatar.AvatarPickerStorage;
 import su.sres.securesms.crypto.AttachmentSecretProvider;
 import su.sres.securesms.crypto.DatabaseSecretProvider;
 import su.sres.securesms.database.LogDatabase;
+import su.sres.securesms.database.QueryMonitor;
 import su.sres.securesms.database.ShadowDatabase;
 import su.sres.securesms.database.SqlCipherLibraryLoader;
 import su.sres.securesms.dependencies.ApplicationDependencies;
@@ -86,12 +87,15 @@ import su.sres.securesms.util.DynamicTheme;
 import su.sres.securesms.util.FeatureFlags;
 import su.sres.securesms.util.TextSecurePreferences;
 import su.sres.securesms.util.Util;
+import su.sres.core.util.concurrent.CallerStackCapture;
+import su.sres.core.util.concurrent.LockProfiler;
 import su.sres.core.util.concurrent.SignalExecutors;
 import su.sres.securesms.util.VersionTracker;
 import su.sres.securesms.util.dynamiclanguage.DynamicLanguageContextWrapper;
 
 import org.whispersystems.libsignal.logging.SignalProtocolLoggerProvider;
 
+import java.io.File;
 import java.security.Security;
 import java.util.concurrent.TimeUnit;
 
@@ -132,7 +136,10 @@ public class ApplicationContext extends Application implements AppForegroundObse
     long startTime = System.currentTimeMillis();
 
     if (FeatureFlags.internalUser()) {
-      Tracer.getInstance().setMaxBufferSize(35_000);
+      Tracer.getInstance().startRecording(new File(getCacheDir(), "traces"));
+      QueryMonitor.getInstance().setEnabled(true);
+      LockProfiler.getInstance().setEnabled(true);
+      LockProfiler.getInstance().setTraceCounters(true);
     }
 
     super.onCreate();
@@ -163,6 +170,11 @@ public class ApplicationContext extends Application implements AppForegroundObse
                   Conscrypt.setUseEngineSocketByDefault(true);
                 }
               })
+              .addForemost("caller-stacks", () -> {
+                if (SignalStore.internalValues().fullCallerStacks()) {
+                  CallerStackCapture.setStrategy(CallerStackCapture.Strategy.FULL);
+                }
+              })
               .executeForemost();
 
     // checking at subsequent launches of the app, if the server is already known as set in SignalStore, then no need for delay, just initialize immediately
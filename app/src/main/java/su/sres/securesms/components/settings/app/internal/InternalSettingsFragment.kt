@@ -14,7 +14,6 @@ import su.sres.securesms.components.settings.DSLSettingsAdapter
 import su.sres.securesms.components.settings.DSLSettingsFragment
 import su.sres.securesms.components.settings.DSLSettingsText
 import su.sres.securesms.components.settings.configure
-import su.sres.securesms.database.LocalMetricsDatabase
 import su.sres.securesms.database.ShadowDatabase
 import su.sres.securesms.dependencies.ApplicationDependencies
 import su.sres.securesms.jobs.DownloadLatestEmojiDataJob
@@ -28,6 +27,7 @@ import su.sres.securesms.keyvalue.SignalStore
 import su.sres.securesms.payments.DataExportUtil
 import su.sres.securesms.util.ConversationUtil
 import su.sres.securesms.util.FeatureFlags
+import su.sres.securesms.util.LocalMetrics
 import su.sres.securesms.util.concurrent.SimpleTask
 
 class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__internal_preferences) {
@@ -98,6 +98,15 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
         }
       )
 
+      switchPref(
+        title = DSLSettingsText.from(R.string.preferences__internal_full_caller_stacks),
+        summary = DSLSettingsText.from(R.string.preferences__internal_full_caller_stacks_description),
+        isChecked = state.fullCallerStacks,
+        onClick = {
+          viewModel.setFullCallerStacks(!state.fullCallerStacks)
+        }
+      )
+
       /* dividerPref()
 
       sectionHeaderPref(R.string.preferences__internal_storage_service)
@@ -355,7 +364,7 @@ class InternalSettingsFragment : DSLSettingsFragment(R.string.preferences__inter
   }
 
   private fun clearAllLocalMetricsState() {
-    LocalMetricsDatabase.getInstance(ApplicationDependencies.getApplication()).clear()
+    LocalMetrics.getInstance().clear()
     Toast.makeText(context, "Cleared all local metrics state.", Toast.LENGTH_SHORT).show()
   }
 
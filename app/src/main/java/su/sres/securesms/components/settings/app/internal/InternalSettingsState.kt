@@ -16,4 +16,5 @@ data class InternalSettingsState(
   val removeSenderKeyMinimium: Boolean,
   val delayResends: Boolean,
   val disableStorageService: Boolean,
+  val fullCallerStacks: Boolean,
 )
\ No newline at end of file
@@ -3,6 +3,7 @@ package su.sres.securesms.components.settings.app.internal
 import androidx.lifecycle.LiveData
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
+import su.sres.core.util.concurrent.CallerStackCapture
 import su.sres.securesms.keyvalue.InternalValues
 import su.sres.securesms.keyvalue.SignalStore
 import su.sres.securesms.util.livedata.Store
@@ -35,6 +36,12 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     refresh()
   }
 
+  fun setFullCallerStacks(enabled: Boolean) {
+    preferenceDataStore.putBoolean(InternalValues.FULL_CALLER_STACKS, enabled)
+    CallerStackCapture.setStrategy(if (enabled) CallerStackCapture.Strategy.FULL else CallerStackCapture.Strategy.SAMPLED)
+    refresh()
+  }
+
   fun setGv2DoNotCreateGv2Groups(enabled: Boolean) {
     preferenceDataStore.putBoolean(InternalValues.GV2_DO_NOT_CREATE_GV2, enabled)
     refresh()
@@ -97,7 +104,8 @@ class InternalSettingsViewModel(private val repository: InternalSettingsReposito
     emojiVersion = null,
     removeSenderKeyMinimium = SignalStore.internalValues().removeSenderKeyMinimum(),
     delayResends = SignalStore.internalValues().delayResends(),
-    disableStorageService = SignalStore.internalValues().storageServiceDisabled()
+    disableStorageService = SignalStore.internalValues().storageServiceDisabled(),
+    fullCallerStacks = SignalStore.internalValues().fullCallerStacks()
   )
 
   class Factory(private val repository: InternalSettingsRepository) : ViewModelProvider.Factory {
@@ -15,15 +15,16 @@ import su.sres.securesms.jobs.MultiDeviceContactUpdateJob;
 import su.sres.securesms.jobs.RotateProfileKeyJob;
 import su.sres.securesms.keyvalue.SignalStore;
 import su.sres.core.util.logging.Log;
-import su.sres.securesms.recipients.RecipientId;
 import su.sres.securesms.registration.RegistrationUtil;
 import su.sres.securesms.util.TextSecurePreferences;
 import su.sres.signalservice.api.SignalServiceAccountManager;
 import su.sres.signalservice.api.push.ACI;
 import su.sres.signalservice.api.storage.protos.DirectoryResponse;
-import su.sres.signalservice.internal.util.JsonUtil;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -67,44 +68,16 @@ public class DirectoryHelper {
       } else {
         // perform incremental update with subsequent UUID migration (if necessary)
 
-        boolean isUuidMigrated = SignalStore.misc().getDirectoryMigratedToUuids();
-        boolean toMigrate      = false;
+        // this will be triggered only for old installations which were already active when UUIDs were not yet supported on the server side
+        boolean toMigrate = !SignalStore.misc().getDirectoryMigratedToUuids() && directoryResult.hasEntriesWithAci();
 
-        Map<String, String> incrementalUpdate = directoryResult.getUpdateContents().get();
+        Map<String, ACI> registered   = directoryResult.getRegistered();
+        List<String>     unregistered = directoryResult.getUnregistered();
 
-        for (Map.Entry<String, String> entry : incrementalUpdate.entrySet()) {
+        recipientDatabase.applyDirectoryUpdate(registered, unregistered);
 
-          String userLogin = entry.getKey();
-
-          // this will effectively skip an empty incremental update
-          if (userLogin.equals("")) continue;
-
-          String      field = entry.getValue();
-          ACI         uuid  = null;
-          RecipientId id    = recipientDatabase.getOrInsertFromUserLogin(userLogin);
-
-          // removal
-          if (field.equals("-1")) {
-            recipientDatabase.markUnregistered(id);
-            recipientDatabase.setProfileSharing(id, false);
-            removed++;
-          } else {
-
-            if (!field.equals("")) {
-              DirectoryEntryValue entryValue = JsonUtil.fromJson(field, DirectoryEntryValue.class);
-              uuid = ACI.from(entryValue.getUuid());
-            }
-
-            // this will be triggered only for old installations which were already active when UUIDs were not yet supported on the server side
-            if (!isUuidMigrated && (uuid != null)) {
-              toMigrate = true;
-            }
-
-            recipientDatabase.markRegistered(id, uuid);
-            recipientDatabase.setProfileSharing(id, true);
-            inserted++;
-          }
-        }
+        inserted = registered.size();
+        removed  = unregistered.size();
 
         Log.i(TAG, String.format("Incremental update to version %s successful. Inserted %s entries, removed %s entries", remoteVersion, inserted, removed));
 
@@ -113,24 +86,12 @@ public class DirectoryHelper {
 
           Log.i(TAG, "Server now supports UUIDs in directory! Proceeding to migration.");
 
-          PlainDirectoryResult result = getDirectoryResult(context, accountManager, true);
+          PlainDirectoryResult result   = getDirectoryResult(context, accountManager, true);
+          Map<String, ACI>     migrated = result.getRegistered();
 
-          int ins = 0;
+          recipientDatabase.applyDirectoryUpdate(migrated, Collections.emptyList());
 
-          Map<String, String> fullUpdate = result.getUpdateContents().get();
-
-          for (Map.Entry<String, String> entry : fullUpdate.entrySet()) {
-
-            RecipientId         id         = recipientDatabase.getOrInsertFromUserLogin(entry.getKey());
-            DirectoryEntryValue entryValue = JsonUtil.fromJson(entry.getValue(), DirectoryEntryValue.class);
-            ACI                 uuid       = ACI.from(entryValue.getUuid());
-
-            recipientDatabase.markRegistered(id, uuid);
-            recipientDatabase.setProfileSharing(id, true);
-            ins++;
-          }
-
-          Log.i(TAG, String.format("Directory migration successful. Inserted UUIDs for %s entries", ins));
+          Log.i(TAG, String.format("Directory migration successful. Inserted UUIDs for %s entries", migrated.size()));
           SignalStore.misc().setDirectoryMigratedToUuids(true);
         }
       }
@@ -176,58 +137,35 @@ public class DirectoryHelper {
   public static PlainDirectoryResult getDirectoryResult(@NonNull Context context, @NonNull SignalServiceAccountManager accountManager, boolean forceFull)
       throws IOException
   {
-    DirectoryResponse directoryResponse = accountManager.getDirectoryResponse(SignalStore.serviceConfigurationValues().getCurrentDirVer(), forceFull);
+    PlainDirectoryResult result            = new PlainDirectoryResult();
+    DirectoryResponse    directoryResponse = accountManager.getDirectoryResponse(SignalStore.serviceConfigurationValues().getCurrentDirVer(), forceFull, result);
+
+    result.onResponse(directoryResponse);
 
     //  TextSecurePreferences.setHasSuccessfullyRetrievedDirectory(context, true);
-    return new PlainDirectoryResult(directoryResponse);
+    return result;
   }
 
-  private static Pair<Integer, Integer> fullUpdate(RecipientDatabase db, PlainDirectoryResult result) throws IOException {
-    int inserted = 0;
-    int removed  = 0;
-
-    boolean uuidSupported = true;
-
-    Set<String>         currentUserLogins  = db.getAllUserLogins();
-    Map<String, String> fullUpdate         = result.getUpdateContents().get();
-    Set<String>         userLoginsToInsert = fullUpdate.keySet();
+  /**
+   * Diffs the full directory against the logins we already have, and applies the whole thing in a
+   * single bulk update.
+   */
+  private static Pair<Integer, Integer> fullUpdate(RecipientDatabase db, PlainDirectoryResult result) {
+    Set<String>      currentUserLogins = db.getAllUserLogins();
+    Map<String, ACI> registered        = result.getRegistered();
+    List<String>     unregistered      = new ArrayList<>();
 
     for (String userLogin : currentUserLogins) {
-
-      RecipientId id = db.getOrInsertFromUserLogin(userLogin);
-
-      if (!userLoginsToInsert.contains(userLogin)) {
-        db.markUnregistered(id);
-        db.setProfileSharing(id, false);
-        removed++;
+      if (!registered.containsKey(userLogin)) {
+        unregistered.add(userLogin);
       }
     }
 
-    for (Map.Entry<String, String> entry : fullUpdate.entrySet()) {
-
-      RecipientId id    = db.getOrInsertFromUserLogin(entry.getKey());
-      String      field = entry.getValue();
-      ACI         uuid  = null;
-
-      if (field.equals("")) {
-        uuidSupported = false;
-      } else {
-        DirectoryEntryValue entryValue = JsonUtil.fromJson(field, DirectoryEntryValue.class);
-        uuid = ACI.from(entryValue.getUuid());
-      }
-
-      db.markRegistered(id, uuid);
-      db.setProfileSharing(id, true);
-      inserted++;
-    }
+    db.applyDirectoryUpdate(registered, unregistered);
 
     // since we've got and recorded full directory while uuid is supported on the server side, we can assume the migration is done
-    if (uuidSupported) SignalStore.misc().setDirectoryMigratedToUuids(true);
+    if (!result.hasEntriesWithoutAci()) SignalStore.misc().setDirectoryMigratedToUuids(true);
 
-    return new Pair<>(inserted, removed);
+    return new Pair<>(registered.size(), unregistered.size());
   }
 }
-
-
-
-
@@ -1,20 +1,56 @@
 package su.sres.securesms.contacts.sync;
 
-import org.whispersystems.libsignal.util.guava.Optional;
+import androidx.annotation.NonNull;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import su.sres.signalservice.api.push.ACI;
+import su.sres.signalservice.api.storage.DirectoryEntryListener;
 import su.sres.signalservice.api.storage.protos.DirectoryResponse;
 import su.sres.signalservice.api.storage.protos.DirectoryUpdate;
+import su.sres.signalservice.internal.util.JsonUtil;
+
+/**
+ * The result of a directory request. The entries are converted as they come off the wire, so only
+ * the logins and their ACIs are kept rather than the raw JSON of every entry.
+ */
+public class PlainDirectoryResult implements DirectoryEntryListener {
+
+  private final Map<String, ACI> registered   = new HashMap<>();
+  private final List<String>     unregistered = new ArrayList<>();
+
+  private boolean hasEntriesWithAci;
+  private boolean hasEntriesWithoutAci;
+  private boolean isUpdate;
+  private boolean isFullUpdate;
+  private long    version;
+
+  PlainDirectoryResult() {}
+
+  @Override
+  public void onEntry(@NonNull String userLogin, @NonNull String value) throws IOException {
+    // this will effectively skip an empty incremental update
+    if (userLogin.equals("")) return;
+
+    // removal
+    if (value.equals("-1")) {
+      unregistered.add(userLogin);
+    } else if (value.equals("")) {
+      hasEntriesWithoutAci = true;
+      registered.put(userLogin, null);
+    } else {
+      DirectoryEntryValue entryValue = JsonUtil.fromJson(value, DirectoryEntryValue.class);
+
+      hasEntriesWithAci = true;
+      registered.put(userLogin, ACI.from(entryValue.getUuid()));
+    }
+  }
 
-public class PlainDirectoryResult {
-
-  private Optional<Map<String, String>> updateContents;
-  private boolean                       isUpdate;
-  private boolean                       isFullUpdate;
-  private long                          version;
-
-  PlainDirectoryResult(DirectoryResponse directoryResponse) {
+  void onResponse(@NonNull DirectoryResponse directoryResponse) {
     DirectoryResponse.StatusOrUpdateCase responseType = directoryResponse.getStatusOrUpdateCase();
 
     version = directoryResponse.getVersion();
@@ -23,9 +59,7 @@ public class PlainDirectoryResult {
 
       case DIRECTORY_UPDATE:
         isUpdate = true;
-        DirectoryUpdate directoryUpdate = directoryResponse.getDirectoryUpdate();
-        DirectoryUpdate.Type updateType = directoryUpdate.getType();
-        updateContents = Optional.of(directoryUpdate.getDirectoryEntryMap());
+        DirectoryUpdate.Type updateType = directoryResponse.getDirectoryUpdate().getType();
 
         switch (updateType) {
           case FULL:
@@ -40,12 +74,29 @@ public class PlainDirectoryResult {
       default:
         isUpdate = false;
         isFullUpdate = false;
-        updateContents = Optional.absent();
     }
   }
 
-  public Optional<Map<String, String>> getUpdateContents() {
-    return updateContents;
+  /**
+   * @return Logins that are registered, mapped to their ACI if the directory has one.
+   */
+  public @NonNull Map<String, ACI> getRegistered() {
+    return registered;
+  }
+
+  /**
+   * @return Logins that have been removed. Only incremental updates have these.
+   */
+  public @NonNull List<String> getUnregistered() {
+    return unregistered;
+  }
+
+  public boolean hasEntriesWithAci() {
+    return hasEntriesWithAci;
+  }
+
+  public boolean hasEntriesWithoutAci() {
+    return hasEntriesWithoutAci;
   }
 
   public long getVersion() {
@@ -59,4 +110,4 @@ public class PlainDirectoryResult {
   public boolean isFullUpdate() {
     return isFullUpdate;
   }
-}
\ No newline at end of file
+}
@@ -1,6 +1,7 @@
 package su.sres.securesms.conversation;
 
 import android.content.Context;
+import android.database.Cursor;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -68,14 +69,19 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
 
   @Override
   public @NonNull List<ConversationMessage> load(int start, int length, @NonNull CancellationSignal cancellationSignal) {
-    Stopwatch           stopwatch        = new Stopwatch("load(" + start + ", " + length + "), thread " + threadId);
+    return load(start, length, null, cancellationSignal);
+  }
+
+  @Override
+  public @NonNull List<ConversationMessage> load(int start, int length, @Nullable ConversationMessage previous, @NonNull CancellationSignal cancellationSignal) {
+    Stopwatch           stopwatch        = new Stopwatch("load(" + start + ", " + length + (previous != null ? ", seek" : "") + "), thread " + threadId);
     MmsSmsDatabase      db               = ShadowDatabase.mmsSms();
     List<MessageRecord> records          = new ArrayList<>(length);
     MentionHelper       mentionHelper    = new MentionHelper();
     AttachmentHelper    attachmentHelper = new AttachmentHelper();
     ReactionHelper      reactionHelper   = new ReactionHelper();
 
-    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(db.getConversation(threadId, start, length))) {
+    try (MmsSmsDatabase.Reader reader = MmsSmsDatabase.readerFor(getConversationCursor(db, start, length, previous))) {
       MessageRecord record;
       while ((record = reader.getNext()) != null && !cancellationSignal.isCanceled()) {
         records.add(record);
@@ -123,6 +129,19 @@ class ConversationDataSource implements PagedDataSource<MessageId, ConversationM
     return messages;
   }
 
+  /**
+   * If we already have the message before this page, we can seek past it instead of making the
+   * database skip over everything before {@code start}.
+   */
+  private @NonNull Cursor getConversationCursor(@NonNull MmsSmsDatabase db, int start, int length, @Nullable ConversationMessage previous) {
+    if (previous != null && !(previous.getMessageRecord() instanceof InMemoryMessageRecord)) {
+      MessageRecord record = previous.getMessageRecord();
+      return db.getConversationAfter(threadId, record.getDateReceived(), record.isMms(), record.getId(), length);
+    } else {
+      return db.getConversation(threadId, start, length);
+    }
+  }
+
   @Override
   public @Nullable ConversationMessage load(@NonNull MessageId messageId) {
     Stopwatch       stopwatch = new Stopwatch("load(" + messageId + "), thread " + threadId);
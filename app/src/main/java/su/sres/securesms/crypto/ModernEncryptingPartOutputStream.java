@@ -4,10 +4,13 @@ package su.sres.securesms.crypto;
 import androidx.annotation.NonNull;
 import android.util.Pair;
 
+import su.sres.core.util.Conversions;
+
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
@@ -54,6 +57,39 @@ public class ModernEncryptingPartOutputStream {
     }
   }
 
+  /**
+   * Continues a file that isn't inline, previously written with {@code random}, from
+   * {@code offset}. Anything after {@code offset} is dropped. The offset must be a multiple of 16,
+   * so that it falls on a counter boundary.
+   */
+  public static OutputStream createForAppend(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file, long offset)
+      throws IOException
+  {
+    if (offset % 16 != 0) {
+      throw new IllegalArgumentException("Offset must be a multiple of 16: " + offset);
+    }
+
+    try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+      randomAccessFile.setLength(offset);
+    }
+
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      byte[] iv  = new byte[16];
+      byte[] key = mac.doFinal(random);
+      Conversions.longTo4ByteArray(iv, 12, offset / 16);
+
+      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(key, "AES"), new IvParameterSpec(iv));
+
+      return new CipherOutputStream(new FileOutputStream(file, true), cipher);
+    } catch (NoSuchAlgorithmException | InvalidKeyException | InvalidAlgorithmParameterException | NoSuchPaddingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   public static long getPlaintextLength(long cipherTextLength) {
     return cipherTextLength - 32;
   }
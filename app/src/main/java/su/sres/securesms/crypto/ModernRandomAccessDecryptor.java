@@ -0,0 +1,221 @@
+package su.sres.securesms.crypto;
+
+import androidx.annotation.NonNull;
+
+import su.sres.core.util.Conversions;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.GeneralSecurityException;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Reads arbitrary ranges of a file written by {@link ModernEncryptingPartOutputStream}.
+ * <p>
+ * {@link ModernDecryptingPartInputStream} has to reopen the file and derive the key every time it's
+ * created, which adds up when a media player makes thousands of small reads. This derives the key
+ * once and keeps the file open. Since the file is AES-CTR, the counter for any offset can be
+ * computed directly, so each read only decrypts the {@link #CACHE_SIZE} bytes around it, and reads
+ * that land in the same range are served from the last one we decrypted.
+ */
+public final class ModernRandomAccessDecryptor implements Closeable {
+
+  private static final int HEADER_SIZE = 32;
+  private static final int AES_BLOCK   = 16;
+
+  static final int CACHE_SIZE = 8192;
+
+  private final FileChannel   channel;
+  private final long          dataStart;
+  private final long          length;
+  private final SecretKeySpec key;
+  private final Cipher        cipher;
+  private final byte[]        iv;
+  private final ByteBuffer    cipherText;
+  private final byte[]        cache;
+
+  private long cacheStart  = -1;
+  private int  cacheLength = 0;
+
+  /**
+   * For files where the random part of the key is stored separately.
+   */
+  public static @NonNull ModernRandomAccessDecryptor open(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull File file) throws IOException {
+    return new ModernRandomAccessDecryptor(attachmentSecret, random, new FileInputStream(file).getChannel(), 0);
+  }
+
+  /**
+   * For files that start with the random part of the key.
+   */
+  public static @NonNull ModernRandomAccessDecryptor open(@NonNull AttachmentSecret attachmentSecret, @NonNull File file) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel();
+    ByteBuffer  random  = ByteBuffer.allocate(HEADER_SIZE);
+
+    try {
+      while (random.hasRemaining()) {
+        if (channel.read(random, random.position()) == -1) {
+          throw new IOException("Prematurely reached end of stream!");
+        }
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+
+    return new ModernRandomAccessDecryptor(attachmentSecret, random.array(), channel, HEADER_SIZE);
+  }
+
+  private ModernRandomAccessDecryptor(@NonNull AttachmentSecret attachmentSecret, @NonNull byte[] random, @NonNull FileChannel channel, long dataStart) throws IOException {
+    try {
+      Mac mac = Mac.getInstance("HmacSHA256");
+      mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+      this.key        = new SecretKeySpec(mac.doFinal(random), "AES");
+      this.cipher     = Cipher.getInstance("AES/CTR/NoPadding");
+      this.iv         = new byte[16];
+      this.channel    = channel;
+      this.dataStart  = dataStart;
+      this.length     = Math.max(0, channel.size() - dataStart);
+      this.cipherText = ByteBuffer.allocate(CACHE_SIZE);
+      this.cache      = new byte[CACHE_SIZE];
+    } catch (NoSuchAlgorithmException | InvalidKeyException | NoSuchPaddingException e) {
+      channel.close();
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * @return The length of the decrypted data.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  /**
+   * Reads up to {@code length} bytes starting at {@code position}. Only returns fewer if the end of
+   * the file is reached.
+   *
+   * @return The number of bytes read, or -1 if position is at or past the end of the file.
+   */
+  public synchronized int read(long position, @NonNull byte[] buffer, int offset, int length) throws IOException {
+    if (position >= this.length) {
+      return -1;
+    }
+
+    int totalRead = 0;
+
+    while (length > 0 && position < this.length) {
+      if (position < cacheStart || position >= cacheStart + cacheLength) {
+        fill(position - (position % CACHE_SIZE));
+      }
+
+      int cacheOffset = (int) (position - cacheStart);
+      int read        = Math.min(length, cacheLength - cacheOffset);
+
+      System.arraycopy(cache, cacheOffset, buffer, offset, read);
+
+      position  += read;
+      offset    += read;
+      length    -= read;
+      totalRead += read;
+    }
+
+    return totalRead;
+  }
+
+  /**
+   * @return A stream of the decrypted data starting at {@code position}. Closing it closes this.
+   */
+  public @NonNull InputStream createInputStream(long position) {
+    return new DecryptingInputStream(position);
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    channel.close();
+  }
+
+  private void fill(long start) throws IOException {
+    cipherText.clear();
+    cipherText.limit((int) Math.min(CACHE_SIZE, length - start));
+
+    while (cipherText.hasRemaining()) {
+      if (channel.read(cipherText, dataStart + start + cipherText.position()) == -1) {
+        throw new IOException("Prematurely reached end of stream!");
+      }
+    }
+
+    Conversions.longTo4ByteArray(iv, 12, start / AES_BLOCK);
+
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, key, new IvParameterSpec(iv));
+      cacheLength = cipher.doFinal(cipherText.array(), 0, cipherText.limit(), cache, 0);
+      cacheStart  = start;
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    } catch (GeneralSecurityException e) {
+      cacheStart = -1;
+      throw new IOException(e);
+    }
+  }
+
+  private final class DecryptingInputStream extends InputStream {
+
+    private long position;
+
+    private DecryptingInputStream(long position) {
+      this.position = position;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] single = new byte[1];
+      return read(single, 0, 1) == -1 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(@NonNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+
+      int read = ModernRandomAccessDecryptor.this.read(position, buffer, offset, length);
+
+      if (read > 0) {
+        position += read;
+      }
+
+      return read;
+    }
+
+    @Override
+    public long skip(long n) {
+      long skipped = Math.max(0, Math.min(n, length - position));
+      position += skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return (int) Math.min(Integer.MAX_VALUE, Math.max(0, length - position));
+    }
+
+    @Override
+    public void close() throws IOException {
+      ModernRandomAccessDecryptor.this.close();
+    }
+  }
+}
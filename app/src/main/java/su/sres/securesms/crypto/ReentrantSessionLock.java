@@ -1,21 +1,52 @@
 package su.sres.securesms.crypto;
 
+import androidx.annotation.NonNull;
+
 import su.sres.signalservice.api.SignalSessionLock;
 
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
- * An implementation of {@link SignalSessionLock} that is backed by a {@link ReentrantLock}.
+ * An implementation of {@link SignalSessionLock} that is backed by a {@link ReentrantReadWriteLock}.
+ *
+ * {@link #INSTANCE} gives exclusive access to every session. {@link #forAddress(String)} gives
+ * access to the sessions of every device of a single address, which lets work for different
+ * addresses (like decrypting messages from different senders) run at the same time, while still
+ * being excluded by anyone holding {@link #INSTANCE}.
+ *
+ * The locks themselves are in {@link SessionLocks}.
  */
 public enum ReentrantSessionLock implements SignalSessionLock {
 
   INSTANCE;
 
-  private static final ReentrantLock LOCK = new ReentrantLock();
-
   @Override
   public Lock acquire() {
-    LOCK.lock();
-    return LOCK::unlock;
+    if (SessionLocks.LOCK.getReadHoldCount() > 0 && !SessionLocks.LOCK.isWriteLockedByCurrentThread()) {
+      throw new AssertionError("Cannot acquire the global session lock while holding an address lock!");
+    }
+
+    SessionLocks.GLOBAL.lock();
+    return SessionLocks.GLOBAL::unlock;
+  }
+
+  /**
+   * A lock that only covers the sessions for the given address. It covers every device of that
+   * address, not just one, because work on one device's session can change the others (e.g. an
+   * identity change archives the sessions of all sibling devices).
+   *
+   * Addresses share a fixed number of underlying locks, so two different addresses may occasionally
+   * wait on each other, but the same address will always wait on itself.
+   */
+  public static @NonNull SignalSessionLock forAddress(@NonNull String name) {
+    return () -> {
+      SessionLocks.SHARED.lock();
+      SessionLocks.forAddress(name).lock();
+
+      return () -> {
+        SessionLocks.forAddress(name).unlock();
+        SessionLocks.SHARED.unlock();
+      };
+    };
   }
 }
@@ -0,0 +1,43 @@
+package su.sres.securesms.crypto;
+
+import androidx.annotation.NonNull;
+
+import su.sres.core.util.concurrent.LockProfiler;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The locks behind {@link ReentrantSessionLock}. They're declared here rather than in the enum,
+ * where {@link Lock} would mean {@link su.sres.signalservice.api.SignalSessionLock.Lock}.
+ *
+ * All of these are wrapped with {@link LockProfiler}, since they're some of our most contended locks.
+ * They're only taken from {@link ReentrantSessionLock}, so that's who they're profiled as.
+ */
+final class SessionLocks {
+
+  private static final int ADDRESS_LOCK_COUNT = 64;
+
+  static final ReentrantReadWriteLock LOCK   = new ReentrantReadWriteLock();
+  static final Lock                   GLOBAL = LockProfiler.getInstance().wrap("Session lock", LOCK.writeLock(), ReentrantSessionLock.class);
+  static final Lock                   SHARED = LockProfiler.getInstance().wrapShared("Session lock (shared)", LOCK.readLock(), ReentrantSessionLock.class);
+
+  private static final Lock[] ADDRESS_LOCKS = new Lock[ADDRESS_LOCK_COUNT];
+
+  static {
+    for (int i = 0; i < ADDRESS_LOCKS.length; i++) {
+      ADDRESS_LOCKS[i] = LockProfiler.getInstance().wrap("Session lock (address)", new ReentrantLock(), ReentrantSessionLock.class);
+    }
+  }
+
+  private SessionLocks() {}
+
+  /**
+   * Addresses share a fixed number of locks, so two different addresses may occasionally wait on
+   * each other, but the same address will always get the same lock.
+   */
+  static @NonNull Lock forAddress(@NonNull String name) {
+    return ADDRESS_LOCKS[name.hashCode() & (ADDRESS_LOCK_COUNT - 1)];
+  }
+}
@@ -17,6 +17,7 @@ import org.whispersystems.libsignal.SignalProtocolAddress;
 import org.whispersystems.libsignal.protocol.CiphertextMessage;
 import org.whispersystems.libsignal.state.SessionRecord;
 
+import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -125,6 +126,7 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
     synchronized (LOCK) {
       SessionRecord session = ShadowDatabase.sessions().load(address);
       if (session != null) {
+        session = copyOf(session);
         session.archiveCurrentState();
         ShadowDatabase.sessions().store(address, session);
       }
@@ -169,6 +171,18 @@ public class TextSecureSessionStore implements SignalServiceSessionStore {
     }
   }
 
+  /**
+   * Loaded records can be shared with whoever else is holding the same address's session, so we
+   * archive a copy rather than changing it out from under them.
+   */
+  private static @NonNull SessionRecord copyOf(@NonNull SessionRecord record) {
+    try {
+      return new SessionRecord(record.serialize());
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+  }
+
   private static boolean isActive(@Nullable SessionRecord record) {
     return record != null &&
            record.hasSenderChain() &&
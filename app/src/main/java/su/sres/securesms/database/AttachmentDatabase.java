@@ -77,8 +77,10 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -600,12 +602,39 @@ public class AttachmentDatabase extends Database {
   public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull InputStream inputStream)
       throws MmsException
   {
-    DatabaseAttachment placeholder  = getAttachment(attachmentId);
-    SQLiteDatabase     database     = databaseHelper.getSignalWritableDatabase();
-    ContentValues      values       = new ContentValues();
-    DataInfo           oldInfo      = getAttachmentDataFileInfo(attachmentId, DATA);
-    DataInfo           dataInfo     = setAttachmentData(inputStream, attachmentId);
-    File               transferFile = getTransferFile(databaseHelper.getSignalReadableDatabase(), attachmentId);
+    DataInfo oldInfo      = getAttachmentDataFileInfo(attachmentId, DATA);
+    DataInfo dataInfo     = setAttachmentData(inputStream, attachmentId);
+    File     transferFile = getTransferFile(databaseHelper.getSignalReadableDatabase(), attachmentId);
+
+    updatePlaceholderData(mmsId, attachmentId, oldInfo, dataInfo);
+
+    if (transferFile != null) {
+      //noinspection ResultOfMethodCallIgnored
+      transferFile.delete();
+    }
+  }
+
+  /**
+   * Writes an attachment that's being downloaded straight into the placeholder's transfer file,
+   * which is encrypted like any other part file, and makes it the attachment's data once
+   * {@code writer} finishes.
+   * <p>
+   * If the writer fails with an IOException, the transfer file is kept, and the next call picks up
+   * where it left off. If it fails with an MmsException, the transfer file is deleted.
+   */
+  public void insertAttachmentsForPlaceholder(long mmsId, @NonNull AttachmentId attachmentId, @NonNull ResumableDataWriter writer)
+      throws IOException, MmsException
+  {
+    DataInfo oldInfo  = getAttachmentDataFileInfo(attachmentId, DATA);
+    DataInfo dataInfo = writeTransferFile(attachmentId, writer);
+
+    updatePlaceholderData(mmsId, attachmentId, oldInfo, dataInfo);
+  }
+
+  private void updatePlaceholderData(long mmsId, @NonNull AttachmentId attachmentId, @Nullable DataInfo oldInfo, @NonNull DataInfo dataInfo) {
+    DatabaseAttachment placeholder = getAttachment(attachmentId);
+    SQLiteDatabase     database    = databaseHelper.getSignalWritableDatabase();
+    ContentValues      values      = new ContentValues();
 
     if (oldInfo != null) {
       updateAttachmentDataHash(database, oldInfo.hash, dataInfo);
@@ -638,11 +667,6 @@ public class AttachmentDatabase extends Database {
       notifyConversationListListeners();
       notifyAttachmentListeners();
     }
-
-    if (transferFile != null) {
-      //noinspection ResultOfMethodCallIgnored
-      transferFile.delete();
-    }
   }
 
   private static @Nullable
@@ -877,22 +901,104 @@ public class AttachmentDatabase extends Database {
     Log.i(TAG, "[updateAttachmentTransformProperties] Updated " + updateCount + " rows.");
   }
 
-  public @NonNull
-  File getOrCreateTransferFile(@NonNull AttachmentId attachmentId) throws IOException {
-    SQLiteDatabase db       = databaseHelper.getSignalWritableDatabase();
-    File           existing = getTransferFile(db, attachmentId);
+  /**
+   * Deletes the partially downloaded data for an attachment, so the next download starts over.
+   */
+  public void deleteTransferFile(@NonNull AttachmentId attachmentId) {
+    SQLiteDatabase db           = databaseHelper.getSignalWritableDatabase();
+    File           transferFile = getTransferFile(db, attachmentId);
 
-    if (existing != null) {
-      return existing;
+    if (transferFile != null) {
+      //noinspection ResultOfMethodCallIgnored
+      transferFile.delete();
     }
 
-    File          transferFile = newTransferFile();
-    ContentValues values       = new ContentValues();
+    ContentValues values = new ContentValues();
+    values.putNull(TRANSFER_FILE);
+    values.putNull(DATA_RANDOM);
+
+    db.update(TABLE_NAME, values, PART_ID_WHERE + " AND " + DATA + " IS NULL", attachmentId.toStrings());
+  }
+
+  /**
+   * The transfer file holds the plaintext downloaded so far, encrypted the same way as a part file.
+   * Until the download finishes the placeholder has no data, so its {@link #DATA_RANDOM} column holds
+   * the random for the transfer file instead. A transfer file without one was written by an older
+   * version, when these held ciphertext, so it's thrown away.
+   */
+  private @NonNull TransferFile getOrCreateTransferFile(@NonNull AttachmentId attachmentId) throws IOException {
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { TRANSFER_FILE, DATA, DATA_RANDOM }, PART_ID_WHERE, attachmentId.toStrings(), null, null, "1")) {
+      if (cursor != null && cursor.moveToFirst()) {
+        String path   = CursorUtil.requireString(cursor, TRANSFER_FILE);
+        byte[] random = CursorUtil.requireBlob(cursor, DATA_RANDOM);
+
+        if (path != null && random != null && CursorUtil.requireString(cursor, DATA) == null) {
+          return new TransferFile(new File(path), random);
+        } else if (path != null) {
+          Log.i(TAG, "Discarding transfer file without a random for " + attachmentId);
+          //noinspection ResultOfMethodCallIgnored
+          new File(path).delete();
+        }
+      }
+    }
+
+    File   transferFile = newTransferFile();
+    byte[] random       = new byte[32];
+    new SecureRandom().nextBytes(random);
+
+    ContentValues values = new ContentValues();
     values.put(TRANSFER_FILE, transferFile.getAbsolutePath());
+    values.put(DATA_RANDOM, random);
 
-    db.update(TABLE_NAME, values, PART_ID_WHERE, attachmentId.toStrings());
+    // Same guard as deleteTransferFile, so we never replace the random of data that's already there
+    if (db.update(TABLE_NAME, values, PART_ID_WHERE + " AND " + DATA + " IS NULL", attachmentId.toStrings()) == 0) {
+      Log.w(TAG, "Attachment " + attachmentId + " already has data, not recording its transfer file");
+    }
 
-    return transferFile;
+    return new TransferFile(transferFile, random);
+  }
+
+  private @NonNull DataInfo writeTransferFile(@NonNull AttachmentId attachmentId, @NonNull ResumableDataWriter writer)
+      throws IOException, MmsException
+  {
+    TransferFile  transferFile   = getOrCreateTransferFile(attachmentId);
+    long          existingLength = transferFile.file.length() - (transferFile.file.length() % 16);
+    MessageDigest messageDigest;
+    long          length;
+
+    try {
+      messageDigest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new AssertionError(e);
+    }
+
+    if (existingLength > 0) {
+      Log.i(TAG, "Resuming download of " + attachmentId + " after " + existingLength + " bytes");
+    }
+
+    try (OutputStream out      = new DigestOutputStream(ModernEncryptingPartOutputStream.createForAppend(attachmentSecret, transferFile.random, transferFile.file, existingLength), messageDigest);
+         InputStream  existing = new DigestInputStream(ModernDecryptingPartInputStream.createFor(attachmentSecret, transferFile.random, transferFile.file, 0), messageDigest))
+    {
+      length = writer.write(existing, existingLength, out);
+    } catch (MmsException e) {
+      Log.w(TAG, "Failed to write " + attachmentId + ", discarding transfer file");
+      deleteTransferFile(attachmentId);
+      throw e;
+    }
+
+    String             hash           = Base64.encodeBytes(messageDigest.digest());
+    Optional<DataInfo> sharedDataInfo = findDuplicateDataFileInfo(databaseHelper.getSignalWritableDatabase(), hash, attachmentId);
+
+    if (sharedDataInfo.isPresent()) {
+      Log.i(TAG, "[writeTransferFile] Duplicate data file found! " + sharedDataInfo.get().file.getAbsolutePath());
+      //noinspection ResultOfMethodCallIgnored
+      transferFile.file.delete();
+      return sharedDataInfo.get();
+    }
+
+    return new DataInfo(transferFile.file, length, transferFile.random, hash);
   }
 
   private @Nullable
@@ -1109,12 +1215,38 @@ public class AttachmentDatabase extends Database {
       throws MmsException
   {
     try {
-      File                       tempFile          = newFile();
-      MessageDigest              messageDigest     = MessageDigest.getInstance("SHA-256");
-      DigestInputStream          digestInputStream = new DigestInputStream(in, messageDigest);
-      Pair<byte[], OutputStream> out               = ModernEncryptingPartOutputStream.createFor(attachmentSecret, tempFile, false);
-      long                       length            = StreamUtil.copy(digestInputStream, out.second);
-      String                     hash              = Base64.encodeBytes(digestInputStream.getMessageDigest().digest());
+      return setAttachmentData(destination, out -> StreamUtil.copy(in, out), attachmentId);
+    } catch (IOException e) {
+      throw new MmsException(e);
+    }
+  }
+
+  /**
+   * Writes the data from {@code writer} to a temporary part file, and only moves it to
+   * {@code destination} once the writer has finished. If the writer throws, the temporary file is
+   * deleted.
+   */
+  private @NonNull
+  DataInfo setAttachmentData(@NonNull File destination,
+                             @NonNull DataWriter writer,
+                             @Nullable AttachmentId attachmentId)
+      throws IOException, MmsException
+  {
+    try {
+      File                       tempFile      = newFile();
+      MessageDigest              messageDigest = MessageDigest.getInstance("SHA-256");
+      Pair<byte[], OutputStream> out           = ModernEncryptingPartOutputStream.createFor(attachmentSecret, tempFile, false);
+      long                       length;
+
+      try (OutputStream digestOutputStream = new DigestOutputStream(out.second, messageDigest)) {
+        length = writer.write(digestOutputStream);
+      } catch (IOException | MmsException | RuntimeException e) {
+        Log.w(TAG, "Failed to write attachment data, discarding " + tempFile.getPath());
+        tempFile.delete();
+        throw e;
+      }
+
+      String hash = Base64.encodeBytes(messageDigest.digest());
 
       if (!tempFile.renameTo(destination)) {
         Log.w(TAG, "Couldn't rename " + tempFile.getPath() + " to " + destination.getPath());
@@ -1135,7 +1267,7 @@ public class AttachmentDatabase extends Database {
       }
 
       return new DataInfo(destination, length, out.first, hash);
-    } catch (IOException | NoSuchAlgorithmException e) {
+    } catch (NoSuchAlgorithmException e) {
       throw new MmsException(e);
     }
   }
@@ -1429,6 +1561,40 @@ public class AttachmentDatabase extends Database {
     return EncryptedMediaDataSource.createFor(attachmentSecret, dataInfo.file, dataInfo.random, dataInfo.length);
   }
 
+  /**
+   * Writes the plaintext of an attachment that's being downloaded, continuing from whatever an
+   * earlier attempt managed to write.
+   */
+  public interface ResumableDataWriter {
+    /**
+     * @param existing       The plaintext written by earlier attempts, which has to be read in full
+     *                       before anything is written to {@code out}.
+     * @param existingLength The length of {@code existing}, always a multiple of 16.
+     * @return The total number of bytes, including the existing ones.
+     */
+    long write(@NonNull InputStream existing, long existingLength, @NonNull OutputStream out) throws IOException, MmsException;
+  }
+
+  /**
+   * Writes the plaintext of an attachment. If this throws, anything it wrote is discarded.
+   */
+  private interface DataWriter {
+    /**
+     * @return The number of bytes written.
+     */
+    long write(@NonNull OutputStream out) throws IOException, MmsException;
+  }
+
+  private static final class TransferFile {
+    private final File   file;
+    private final byte[] random;
+
+    private TransferFile(@NonNull File file, @NonNull byte[] random) {
+      this.file   = file;
+      this.random = random;
+    }
+  }
+
   private static class DataInfo {
     private final File   file;
     private final long   length;
@@ -24,8 +24,8 @@ public class GroupReceiptDatabase extends Database {
   private static final String ID           = "_id";
   public  static final String MMS_ID       = "mms_id";
           static final String RECIPIENT_ID = "address";
-  private static final String STATUS       = "status";
-  private static final String TIMESTAMP    = "timestamp";
+          static final String STATUS       = "status";
+          static final String TIMESTAMP    = "timestamp";
   private static final String UNIDENTIFIED = "unidentified";
 
   public static final int STATUS_UNKNOWN     = -1;
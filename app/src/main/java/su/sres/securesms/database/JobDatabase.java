@@ -5,6 +5,7 @@ import android.content.ContentValues;
 import android.database.Cursor;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import com.annimon.stream.Stream;
 
@@ -21,6 +22,7 @@ import su.sres.securesms.jobmanager.persistence.FullSpec;
 import su.sres.securesms.jobmanager.persistence.JobSpec;
 import su.sres.securesms.util.CursorUtil;
 
+import java.nio.charset.StandardCharsets;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -194,7 +196,7 @@ public class JobDatabase extends SQLiteOpenHelper implements ShadowDatabaseOpenH
     getWritableDatabase().update(Jobs.TABLE_NAME, contentValues, query, args);
   }
 
-  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+  public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull byte[] serializedData) {
     ContentValues contentValues = new ContentValues();
     contentValues.put(Jobs.IS_RUNNING, isRunning ? 1 : 0);
     contentValues.put(Jobs.RUN_ATTEMPT, runAttempt);
@@ -348,12 +350,29 @@ public class JobDatabase extends SQLiteOpenHelper implements ShadowDatabaseOpenH
                        cursor.getInt(cursor.getColumnIndexOrThrow(Jobs.RUN_ATTEMPT)),
                        cursor.getInt(cursor.getColumnIndexOrThrow(Jobs.MAX_ATTEMPTS)),
                        cursor.getLong(cursor.getColumnIndexOrThrow(Jobs.LIFESPAN)),
-                       cursor.getString(cursor.getColumnIndexOrThrow(Jobs.SERIALIZED_DATA)),
-                       cursor.getString(cursor.getColumnIndexOrThrow(Jobs.SERIALIZED_INPUT_DATA)),
+                       getSerializedData(cursor, Jobs.SERIALIZED_DATA),
+                       getSerializedData(cursor, Jobs.SERIALIZED_INPUT_DATA),
                        cursor.getInt(cursor.getColumnIndexOrThrow(Jobs.IS_RUNNING)) == 1,
                        false);
   }
 
+  /**
+   * Job data used to be stored as JSON text, but is now written as a blob. SQLite will happily
+   * store either in the same column, so we read whichever one is there.
+   */
+  private static @Nullable byte[] getSerializedData(@NonNull Cursor cursor, @NonNull String column) {
+    int index = cursor.getColumnIndexOrThrow(column);
+
+    switch (cursor.getType(index)) {
+      case Cursor.FIELD_TYPE_NULL:
+        return null;
+      case Cursor.FIELD_TYPE_BLOB:
+        return cursor.getBlob(index);
+      default:
+        return cursor.getString(index).getBytes(StandardCharsets.UTF_8);
+    }
+  }
+
   private @NonNull ConstraintSpec constraintSpecFromCursor(@NonNull Cursor cursor) {
     return new ConstraintSpec(cursor.getString(cursor.getColumnIndexOrThrow(Constraints.JOB_SPEC_ID)),
                               cursor.getString(cursor.getColumnIndexOrThrow(Constraints.FACTORY_KEY)),
@@ -8,8 +8,8 @@ import net.zetetic.database.sqlcipher.SQLiteOpenHelper
 import su.sres.core.util.logging.Log
 import su.sres.securesms.crypto.DatabaseSecret
 import su.sres.securesms.crypto.DatabaseSecretProvider
-import su.sres.securesms.database.model.LocalMetricsEvent
 import su.sres.securesms.util.CursorUtil
+import su.sres.securesms.util.LatencyHistogram
 import su.sres.securesms.util.SqlUtil
 import java.util.concurrent.TimeUnit
 
@@ -18,8 +18,9 @@ import java.util.concurrent.TimeUnit
  *
  * These metrics are only ever included in debug logs in an aggregate fashion (i.e. p50, p90, p99) and are never automatically uploaded anywhere.
  *
- * The performance of insertions is important, but given insertions frequency isn't crazy-high, we can also optimize for retrieval performance.
- * SQLite isn't amazing at statistical analysis, so having indices that speeds those operations up is encouraged.
+ * We don't keep individual events. [su.sres.securesms.util.LocalMetrics] keeps a [LatencyHistogram] for every event and split in memory, and every so often it
+ * checkpoints whatever was recorded since the last checkpoint into a row here. Rows are small, and merging them is cheap, so reading metrics
+ * is just a matter of adding up every row that hasn't aged out yet.
  *
  * This is it's own separate physical database, so it cannot do joins or queries with any other tables.
  */
@@ -43,32 +44,28 @@ class LocalMetricsDatabase private constructor(
 
     private val MAX_AGE = TimeUnit.DAYS.toMillis(7)
 
-    private const val DATABASE_VERSION = 1
+    private const val DATABASE_VERSION = 2
     private const val DATABASE_NAME = "shadow-local-metrics.db"
 
-    private const val TABLE_NAME = "events"
+    private const val TABLE_NAME = "histograms"
     private const val ID = "_id"
     private const val CREATED_AT = "created_at"
-    private const val EVENT_ID = "event_id"
     private const val EVENT_NAME = "event_name"
     private const val SPLIT_NAME = "split_name"
-    private const val DURATION = "duration"
+    private const val BUCKETS = "buckets"
 
     private val CREATE_TABLE = """
       CREATE TABLE $TABLE_NAME (
         $ID INTEGER PRIMARY KEY,
-        $CREATED_AT INTEGER NOT NULL, 
-        $EVENT_ID TEXT NOT NULL,
+        $CREATED_AT INTEGER NOT NULL,
         $EVENT_NAME TEXT NOT NULL,
-        $SPLIT_NAME TEXT NOT NULL,
-        $DURATION INTEGER NOT NULL
+        $SPLIT_NAME TEXT,
+        $BUCKETS BLOB NOT NULL
       )
     """.trimIndent()
 
     private val CREATE_INDEXES = arrayOf(
-      "CREATE INDEX events_create_at_index ON $TABLE_NAME ($CREATED_AT)",
-      "CREATE INDEX events_event_name_split_name_index ON $TABLE_NAME ($EVENT_NAME, $SPLIT_NAME)",
-      "CREATE INDEX events_duration_index ON $TABLE_NAME ($DURATION)"
+      "CREATE INDEX histograms_created_at_index ON $TABLE_NAME ($CREATED_AT)"
     )
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
@@ -89,27 +86,22 @@ class LocalMetricsDatabase private constructor(
     }
   }
 
-  private object EventTotals {
-    const val VIEW_NAME = "event_totals"
-
-    val CREATE_VIEW = """
-      CREATE VIEW $VIEW_NAME AS
-        SELECT $EVENT_ID, $EVENT_NAME, SUM($DURATION) AS $DURATION
-        FROM $TABLE_NAME
-        GROUP BY $EVENT_ID
-    """.trimIndent()
-  }
-
   override fun onCreate(db: SQLiteDatabase) {
     Log.i(TAG, "onCreate()")
 
     db.execSQL(CREATE_TABLE)
     CREATE_INDEXES.forEach { db.execSQL(it) }
-
-    db.execSQL(EventTotals.CREATE_VIEW)
   }
 
   override fun onUpgrade(db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
+    Log.i(TAG, "onUpgrade($oldVersion, $newVersion)")
+
+    if (oldVersion < 2) {
+      db.execSQL("DROP VIEW IF EXISTS event_totals")
+      db.execSQL("DROP TABLE IF EXISTS events")
+      db.execSQL(CREATE_TABLE)
+      CREATE_INDEXES.forEach { db.execSQL(it) }
+    }
   }
 
   override fun onOpen(db: SQLiteDatabase) {
@@ -121,20 +113,22 @@ class LocalMetricsDatabase private constructor(
     return writableDatabase
   }
 
-  fun insert(currentTime: Long, event: LocalMetricsEvent) {
+  /**
+   * Stores the provided histograms, and removes any that have aged out.
+   */
+  fun insert(currentTime: Long, histograms: List<HistogramCheckpoint>) {
     val db = writableDatabase
 
     db.beginTransaction()
     try {
-      event.splits.forEach { split ->
+      histograms.forEach { checkpoint ->
         db.insert(
           TABLE_NAME, null,
           ContentValues().apply {
-            put(CREATED_AT, event.createdAt)
-            put(EVENT_ID, event.eventId)
-            put(EVENT_NAME, event.eventName)
-            put(SPLIT_NAME, split.name)
-            put(DURATION, split.duration)
+            put(CREATED_AT, currentTime)
+            put(EVENT_NAME, checkpoint.eventName)
+            put(SPLIT_NAME, checkpoint.splitName)
+            put(BUCKETS, checkpoint.histogram.serialize())
           }
         )
       }
@@ -151,108 +145,37 @@ class LocalMetricsDatabase private constructor(
     writableDatabase.delete(TABLE_NAME, null, null)
   }
 
-  fun getMetrics(): List<EventMetrics> {
-    val db = readableDatabase
-
-    db.beginTransaction()
-    try {
-      val events: Map<String, List<String>> = getUniqueEventNames()
-
-      val metrics: List<EventMetrics> = events.map { (eventName: String, splits: List<String>) ->
-        EventMetrics(
-          name = eventName,
-          count = getCount(eventName),
-          p50 = eventPercent(eventName, 50),
-          p90 = eventPercent(eventName, 90),
-          p99 = eventPercent(eventName, 99),
-          splits = splits.map { splitName ->
-            SplitMetrics(
-              name = splitName,
-              p50 = splitPercent(eventName, splitName, 50),
-              p90 = splitPercent(eventName, splitName, 90),
-              p99 = splitPercent(eventName, splitName, 99)
-            )
-          }
-        )
-      }
-
-      db.setTransactionSuccessful()
-
-      return metrics
-    } finally {
-      db.endTransaction()
-    }
-  }
-
-  private fun getUniqueEventNames(): Map<String, List<String>> {
-    val events = mutableMapOf<String, MutableList<String>>()
+  /**
+   * @return Every stored histogram that hasn't aged out, oldest first. There may be several for the same event and split.
+   */
+  fun getHistograms(currentTime: Long): List<HistogramCheckpoint> {
+    val histograms = mutableListOf<HistogramCheckpoint>()
 
-    readableDatabase.rawQuery("SELECT DISTINCT $EVENT_NAME, $SPLIT_NAME FROM $TABLE_NAME", null).use { cursor ->
+    readableDatabase.query(TABLE_NAME, arrayOf(EVENT_NAME, SPLIT_NAME, BUCKETS), "$CREATED_AT >= ?", SqlUtil.buildArgs(currentTime - MAX_AGE), null, null, "$ID ASC").use { cursor ->
       while (cursor.moveToNext()) {
-        val eventName = CursorUtil.requireString(cursor, EVENT_NAME)
-        val splitName = CursorUtil.requireString(cursor, SPLIT_NAME)
-
-        events.getOrPut(eventName) {
-          mutableListOf()
-        }.add(splitName)
-      }
-    }
-
-    return events
-  }
-
-  private fun getCount(eventName: String): Long {
-    readableDatabase.rawQuery("SELECT COUNT(DISTINCT $EVENT_ID) FROM $TABLE_NAME WHERE $EVENT_NAME = ?", SqlUtil.buildArgs(eventName)).use { cursor ->
-      return if (cursor.moveToFirst()) {
-        cursor.getLong(0)
-      } else {
-        0
+        val buckets = CursorUtil.requireBlob(cursor, BUCKETS)
+
+        try {
+          histograms += HistogramCheckpoint(
+            eventName = CursorUtil.requireString(cursor, EVENT_NAME),
+            splitName = CursorUtil.getString(cursor, SPLIT_NAME).orNull(),
+            histogram = LatencyHistogram.deserialize(buckets)
+          )
+        } catch (e: IllegalArgumentException) {
+          Log.w(TAG, "Skipping a malformed histogram.", e)
+        }
       }
     }
-  }
 
-  private fun eventPercent(eventName: String, percent: Int): Long {
-    return percentile(EventTotals.VIEW_NAME, "$EVENT_NAME = '$eventName'", percent)
+    return histograms
   }
 
-  private fun splitPercent(eventName: String, splitName: String, percent: Int): Long {
-    return percentile(TABLE_NAME, "$EVENT_NAME = '$eventName' AND $SPLIT_NAME = '$splitName'", percent)
-  }
-
-  private fun percentile(table: String, where: String, percent: Int): Long {
-    val query: String = """
-      SELECT $DURATION
-      FROM $table
-      WHERE $where
-      ORDER BY $DURATION ASC
-      LIMIT 1
-      OFFSET (SELECT COUNT(*)
-              FROM $table
-              WHERE $where) * $percent / 100 - 1
-    """.trimIndent()
-
-    readableDatabase.rawQuery(query, null).use { cursor ->
-      return if (cursor.moveToFirst()) {
-        cursor.getLong(0)
-      } else {
-        -1
-      }
-    }
-  }
-
-  data class EventMetrics(
-    val name: String,
-    val count: Long,
-    val p50: Long,
-    val p90: Long,
-    val p99: Long,
-    val splits: List<SplitMetrics>
-  )
-
-  data class SplitMetrics(
-    val name: String,
-    val p50: Long,
-    val p90: Long,
-    val p99: Long
+  /**
+   * @param splitName The split this histogram is for, or null if it's for the event's total duration.
+   */
+  data class HistogramCheckpoint(
+    val eventName: String,
+    val splitName: String?,
+    val histogram: LatencyHistogram
   )
-}
\ No newline at end of file
+}
@@ -0,0 +1,81 @@
+package su.sres.securesms.database;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Packs log lines into the compressed blocks stored by {@link LogDatabase}. A block is the number
+ * of lines followed by each line's UTF-8 length and bytes, all deflated together. Lines are
+ * length-prefixed rather than separated so that multi-line bodies (like stack traces) come back
+ * exactly as they were written.
+ */
+final class LogBlockCodec {
+
+  /** Don't trust a count read from disk with a huge allocation. */
+  private static final int MAX_INITIAL_CAPACITY = 1024;
+
+  private LogBlockCodec() {}
+
+  static @NonNull byte[] encode(@NonNull List<String> lines) {
+    ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+    Deflater              deflater   = new Deflater();
+
+    try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(byteStream, deflater))) {
+      out.writeInt(lines.size());
+
+      for (String line : lines) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+      }
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    } finally {
+      deflater.end();
+    }
+
+    return byteStream.toByteArray();
+  }
+
+  static @NonNull List<String> decode(@NonNull byte[] block) throws IOException {
+    Inflater inflater = new Inflater();
+
+    try (DataInputStream in = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(block), inflater))) {
+      int count = in.readInt();
+
+      if (count < 0) {
+        throw new IOException("Bad line count: " + count);
+      }
+
+      List<String> lines = new ArrayList<>(Math.min(count, MAX_INITIAL_CAPACITY));
+
+      for (int i = 0; i < count; i++) {
+        int length = in.readInt();
+
+        if (length < 0) {
+          throw new IOException("Bad line length: " + length);
+        }
+
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        lines.add(new String(bytes, StandardCharsets.UTF_8));
+      }
+
+      return lines;
+    } finally {
+      inflater.end();
+    }
+  }
+}
@@ -2,10 +2,10 @@ package su.sres.securesms.database
 
 import android.annotation.SuppressLint
 import android.app.Application
-import android.content.ContentValues
-import android.database.Cursor
+import androidx.annotation.VisibleForTesting
 import net.zetetic.database.sqlcipher.SQLiteDatabase
 import net.zetetic.database.sqlcipher.SQLiteOpenHelper
+import net.zetetic.database.sqlcipher.SQLiteStatement
 import su.sres.core.util.logging.Log
 import su.sres.securesms.crypto.DatabaseSecret
 import su.sres.securesms.crypto.DatabaseSecretProvider
@@ -15,6 +15,7 @@ import su.sres.securesms.util.CursorUtil
 import su.sres.securesms.util.SqlUtil
 import su.sres.securesms.util.Stopwatch
 import java.io.Closeable
+import java.io.IOException
 import java.util.concurrent.TimeUnit
 
 /**
@@ -23,6 +24,9 @@ import java.util.concurrent.TimeUnit
  * Logs are very performance critical. Even though this database is written to on a low-priority background thread, we want to keep throughput high and ensure
  * that we aren't creating excess garbage.
  *
+ * Rather than one row per line, each batch of logs is written as compressed blocks of lines (see [LogBlockCodec]). Every block belongs to the hour its first
+ * line was logged in, so retention is a matter of dropping whole hours, and it only needs to run once an hour rather than on every write.
+ *
  * This is it's own separate physical database, so it cannot do joins or queries with any other tables.
  */
 class LogDatabase private constructor(
@@ -46,30 +50,50 @@ class LogDatabase private constructor(
     private val MAX_FILE_SIZE = ByteUnit.MEGABYTES.toBytes(20)
     private val DEFAULT_LIFESPAN = TimeUnit.DAYS.toMillis(3)
     private val LONGER_LIFESPAN = TimeUnit.DAYS.toMillis(14)
+    private val HOUR = TimeUnit.HOURS.toMillis(1)
+
+    /** The most lines we'll put in one block. */
+    const val MAX_BLOCK_LINES = 1000
+
+    /** How many blocks a [Reader] pulls in per query. */
+    private const val BATCH_SIZE = 8
 
-    private const val DATABASE_VERSION = 2
+    private const val DATABASE_VERSION = 3
     private const val DATABASE_NAME = "shadow-logs.db"
 
-    private const val TABLE_NAME = "log"
+    private const val TABLE_NAME = "log_block"
     private const val ID = "_id"
-    private const val CREATED_AT = "created_at"
+    private const val HOUR_START = "hour_start"
     private const val KEEP_LONGER = "keep_longer"
-    private const val BODY = "body"
+    private const val FIRST_CREATED_AT = "first_created_at"
+    private const val LAST_CREATED_AT = "last_created_at"
+    private const val LINE_COUNT = "line_count"
     private const val SIZE = "size"
+    private const val BODY = "body"
 
-    private val CREATE_TABLE = """
+    @JvmField
+    @VisibleForTesting
+    val CREATE_TABLE = """
       CREATE TABLE $TABLE_NAME (
         $ID INTEGER PRIMARY KEY,
-        $CREATED_AT INTEGER, 
+        $HOUR_START INTEGER,
         $KEEP_LONGER INTEGER DEFAULT 0,
-        $BODY TEXT,
-        $SIZE INTEGER
+        $FIRST_CREATED_AT INTEGER,
+        $LAST_CREATED_AT INTEGER,
+        $LINE_COUNT INTEGER,
+        $SIZE INTEGER,
+        $BODY BLOB
       )
     """.trimIndent()
 
-    private val CREATE_INDEXES = arrayOf(
-      "CREATE INDEX keep_longer_index ON $TABLE_NAME ($KEEP_LONGER)",
-      "CREATE INDEX log_created_at_keep_longer_index ON $TABLE_NAME ($CREATED_AT, $KEEP_LONGER)"
+    @VisibleForTesting
+    const val INSERT = "INSERT INTO $TABLE_NAME ($HOUR_START, $KEEP_LONGER, $FIRST_CREATED_AT, $LAST_CREATED_AT, $LINE_COUNT, $SIZE, $BODY) VALUES (?, ?, ?, ?, ?, ?, ?)"
+
+    @JvmField
+    @VisibleForTesting
+    val CREATE_INDEXES = arrayOf(
+      "CREATE INDEX log_block_hour_start_keep_longer_index ON $TABLE_NAME ($HOUR_START, $KEEP_LONGER)",
+      "CREATE INDEX log_block_last_created_at_index ON $TABLE_NAME ($LAST_CREATED_AT)"
     )
 
     @SuppressLint("StaticFieldLeak") // We hold an Application context, not a view context
@@ -88,8 +112,16 @@ class LogDatabase private constructor(
       }
       return instance!!
     }
+
+    private fun hourOf(time: Long): Long {
+      return time - time % HOUR
+    }
   }
 
+  /** Only touched by the thread calling [insert], which reuses these for every batch. */
+  private val blockLines: MutableList<String> = mutableListOf()
+  private var lastRetentionHour: Long = -1
+
   override fun onCreate(db: SQLiteDatabase) {
     Log.i(TAG, "onCreate()")
     db.execSQL(CREATE_TABLE)
@@ -105,6 +137,13 @@ class LogDatabase private constructor(
       db.execSQL("CREATE INDEX keep_longer_index ON log (keep_longer)")
       db.execSQL("CREATE INDEX log_created_at_keep_longer_index ON log (created_at, keep_longer)")
     }
+
+    if (oldVersion < 3) {
+      db.execSQL("DROP TABLE log")
+      db.execSQL("CREATE TABLE log_block (_id INTEGER PRIMARY KEY, hour_start INTEGER, keep_longer INTEGER DEFAULT 0, first_created_at INTEGER, last_created_at INTEGER, line_count INTEGER, size INTEGER, body BLOB)")
+      db.execSQL("CREATE INDEX log_block_hour_start_keep_longer_index ON log_block (hour_start, keep_longer)")
+      db.execSQL("CREATE INDEX log_block_last_created_at_index ON log_block (last_created_at)")
+    }
   }
 
   override fun onOpen(db: SQLiteDatabase) {
@@ -116,20 +155,28 @@ class LogDatabase private constructor(
     return writableDatabase
   }
 
+  /**
+   * Writes the logs as blocks of at most [MAX_BLOCK_LINES] lines, in the order given. A new block is started whenever the hour or whether the lines are kept
+   * longer changes, so reading the blocks back in order gives the lines back in order. Expired hours are dropped the first time we write in a new hour.
+   */
   fun insert(logs: List<LogEntry>, currentTime: Long) {
     val db = writableDatabase
+    val currentHour = hourOf(currentTime)
 
     db.beginTransaction()
     try {
-      logs.forEach { log ->
-        db.insert(TABLE_NAME, null, buildValues(log))
+      db.compileStatement(INSERT).use { statement ->
+        insertBlocks(statement, logs)
       }
 
-      db.delete(
-        TABLE_NAME,
-        "($CREATED_AT < ? AND $KEEP_LONGER = ?) OR ($CREATED_AT < ? AND $KEEP_LONGER = ?)",
-        SqlUtil.buildArgs(currentTime - DEFAULT_LIFESPAN, 0, currentTime - LONGER_LIFESPAN, 1)
-      )
+      if (currentHour != lastRetentionHour) {
+        db.delete(
+          TABLE_NAME,
+          "($HOUR_START < ? AND $KEEP_LONGER = ?) OR ($HOUR_START < ? AND $KEEP_LONGER = ?)",
+          SqlUtil.buildArgs(hourOf(currentTime - DEFAULT_LIFESPAN), 0, hourOf(currentTime - LONGER_LIFESPAN), 1)
+        )
+        lastRetentionHour = currentHour
+      }
 
       db.setTransactionSuccessful()
     } finally {
@@ -137,24 +184,20 @@ class LogDatabase private constructor(
     }
   }
 
-  fun getAllBeforeTime(time: Long): Reader {
-    return CursorReader(readableDatabase.query(TABLE_NAME, arrayOf(BODY), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null))
-  }
-
-  fun getRangeBeforeTime(start: Int, length: Int, time: Long): List<String> {
-    val lines = mutableListOf<String>()
-
-    readableDatabase.query(TABLE_NAME, arrayOf(BODY), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null, "$start,$length").use { cursor ->
-      while (cursor.moveToNext()) {
-        lines.add(CursorUtil.requireString(cursor, BODY))
-      }
-    }
-
-    return lines
+  /**
+   * Reads every log in a block written entirely before [time], starting at the [start]th one. Blocks are read a few at a time, so this is safe to use on a
+   * full database without pulling it all into memory.
+   */
+  @JvmOverloads
+  fun getAllBeforeTime(time: Long, start: Int = 0): Reader {
+    return BlockReader(time, start)
   }
 
+  /**
+   * Drops the oldest blocks until the logs we don't keep longer fit in [MAX_FILE_SIZE]. Sizes are of the uncompressed text, so this bounds the size of a
+   * submitted log rather than the size of the database.
+   */
   fun trimToSize() {
-    val currentTime = System.currentTimeMillis()
     val stopwatch = Stopwatch("trim")
 
     val sizeOfSpecialLogs: Long = getSize("$KEEP_LONGER = ?", arrayOf("1"))
@@ -167,40 +210,32 @@ class LogDatabase private constructor(
       return
     }
 
-    val sizeDiffThreshold = MAX_FILE_SIZE * 0.01
-
-    var lhs: Long = currentTime - DEFAULT_LIFESPAN
-    var rhs: Long = currentTime
-    var mid: Long = 0
-    var sizeOfChunk: Long
+    var sizeOfNewer: Long = 0
+    var cutoffId: Long = -1
 
-    while (lhs < rhs - 2) {
-      mid = (lhs + rhs) / 2
-      sizeOfChunk = getSize("$CREATED_AT > ? AND $CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, currentTime, 0))
+    readableDatabase.query(TABLE_NAME, arrayOf(ID, SIZE), "$KEEP_LONGER = ?", arrayOf("0"), null, null, "$ID DESC").use { cursor ->
+      while (cursor.moveToNext()) {
+        sizeOfNewer += CursorUtil.requireLong(cursor, SIZE)
 
-      if (sizeOfChunk > remainingSize) {
-        lhs = mid
-      } else if (sizeOfChunk < remainingSize) {
-        if (remainingSize - sizeOfChunk < sizeDiffThreshold) {
+        if (sizeOfNewer > remainingSize) {
+          cutoffId = CursorUtil.requireLong(cursor, ID)
           break
-        } else {
-          rhs = mid
         }
-      } else {
-        break
       }
     }
 
-    stopwatch.split("binary-search")
+    stopwatch.split("find-cutoff")
 
-    writableDatabase.delete(TABLE_NAME, "$CREATED_AT < ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(mid, 0))
+    if (cutoffId >= 0) {
+      writableDatabase.delete(TABLE_NAME, "$ID <= ? AND $KEEP_LONGER = ?", SqlUtil.buildArgs(cutoffId, 0))
+    }
 
     stopwatch.split("delete")
     stopwatch.stop(TAG)
   }
 
   fun getLogCountBeforeTime(time: Long): Int {
-    readableDatabase.query(TABLE_NAME, arrayOf("COUNT(*)"), "$CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null).use { cursor ->
+    readableDatabase.query(TABLE_NAME, arrayOf("SUM($LINE_COUNT)"), "$LAST_CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, null).use { cursor ->
       return if (cursor.moveToFirst()) {
         cursor.getInt(0)
       } else {
@@ -209,15 +244,6 @@ class LogDatabase private constructor(
     }
   }
 
-  private fun buildValues(log: LogEntry): ContentValues {
-    return ContentValues().apply {
-      put(CREATED_AT, log.createdAt)
-      put(KEEP_LONGER, if (log.keepLonger) 1 else 0)
-      put(BODY, log.body)
-      put(SIZE, log.body.length)
-    }
-  }
-
   private fun getSize(query: String?, args: Array<String>?): Long {
     readableDatabase.query(TABLE_NAME, arrayOf("SUM($SIZE)"), query, args, null, null, null).use { cursor ->
       return if (cursor.moveToFirst()) {
@@ -228,20 +254,159 @@ class LogDatabase private constructor(
     }
   }
 
+  private fun insertBlocks(statement: SQLiteStatement, logs: List<LogEntry>) {
+    var blockStart = 0
+
+    for (i in 1..logs.size) {
+      if (i == logs.size ||
+        i - blockStart == MAX_BLOCK_LINES ||
+        logs[i].keepLonger != logs[blockStart].keepLonger ||
+        hourOf(logs[i].createdAt) != hourOf(logs[blockStart].createdAt)
+      ) {
+        insertBlock(statement, logs, blockStart, i)
+        blockStart = i
+      }
+    }
+  }
+
+  private fun insertBlock(statement: SQLiteStatement, logs: List<LogEntry>, start: Int, end: Int) {
+    var firstCreatedAt = Long.MAX_VALUE
+    var lastCreatedAt = Long.MIN_VALUE
+    var size: Long = 0
+
+    for (i in start until end) {
+      val log = logs[i]
+      firstCreatedAt = minOf(firstCreatedAt, log.createdAt)
+      lastCreatedAt = maxOf(lastCreatedAt, log.createdAt)
+      size += log.body.length
+      blockLines.add(log.body)
+    }
+
+    try {
+      statement.bindLong(1, hourOf(logs[start].createdAt))
+      statement.bindLong(2, if (logs[start].keepLonger) 1 else 0)
+      statement.bindLong(3, firstCreatedAt)
+      statement.bindLong(4, lastCreatedAt)
+      statement.bindLong(5, (end - start).toLong())
+      statement.bindLong(6, size)
+      statement.bindBlob(7, LogBlockCodec.encode(blockLines))
+      statement.executeInsert()
+    } finally {
+      blockLines.clear()
+    }
+  }
+
   interface Reader : Iterator<String>, Closeable
 
-  class CursorReader(private val cursor: Cursor) : Reader {
+  /**
+   * Reads [BATCH_SIZE] blocks at a time, decompressing one block at a time. Only finding the starting block means looking at the line counts of the blocks
+   * before it. Every batch after the first picks up from the last ID we read, so reading the whole table is linear, and no cursor is held open between batches.
+   * That also means it's fine to keep one of these around and continue reading from it later.
+   *
+   * Only blocks written entirely before the cutoff time are read. Since logs are written shortly after they're made, and callers make sure pending writes
+   * have finished, that's everything but the logs written while we were reading.
+   */
+  private inner class BlockReader(private val time: Long, private val start: Int) : Reader {
+    private var blocks: List<ByteArray> = emptyList()
+    private var blockPosition = 0
+    private var lines: List<String> = emptyList()
+    private var linePosition = 0
+    private var nextId: Long = -1
+    private var linesToSkip = 0
+    private var exhausted = false
+
     override fun hasNext(): Boolean {
-      return !cursor.isLast && cursor.count > 0
+      while (linePosition >= lines.size) {
+        if (!nextBlock()) {
+          return false
+        }
+      }
+
+      return true
     }
 
     override fun next(): String {
-      cursor.moveToNext()
-      return CursorUtil.requireString(cursor, BODY)
+      if (!hasNext()) {
+        throw NoSuchElementException()
+      }
+
+      return lines[linePosition++]
     }
 
     override fun close() {
-      cursor.close()
+      blocks = emptyList()
+      lines = emptyList()
+      exhausted = true
+    }
+
+    private fun nextBlock(): Boolean {
+      if (blockPosition >= blocks.size) {
+        if (exhausted) {
+          return false
+        }
+
+        readBatch()
+
+        if (blocks.isEmpty()) {
+          return false
+        }
+      }
+
+      lines = try {
+        LogBlockCodec.decode(blocks[blockPosition++])
+      } catch (e: IOException) {
+        throw IllegalStateException("Failed to decode a log block!", e)
+      }
+
+      linePosition = minOf(linesToSkip, lines.size)
+      linesToSkip = 0
+
+      return true
+    }
+
+    private fun readBatch() {
+      if (nextId < 0) {
+        nextId = findStartBlock()
+      }
+
+      val batch: MutableList<ByteArray> = ArrayList(BATCH_SIZE)
+
+      readableDatabase.query(TABLE_NAME, arrayOf(ID, BODY), "$LAST_CREATED_AT < ? AND $ID >= ?", SqlUtil.buildArgs(time, nextId), null, null, "$ID ASC", "$BATCH_SIZE").use { cursor ->
+        while (cursor.moveToNext()) {
+          nextId = CursorUtil.requireLong(cursor, ID) + 1
+          batch.add(CursorUtil.requireBlob(cursor, BODY))
+        }
+      }
+
+      blocks = batch
+      blockPosition = 0
+      exhausted = batch.size < BATCH_SIZE
+    }
+
+    /**
+     * @return The ID of the block holding the [start]th line, having set how many lines of it to skip.
+     */
+    private fun findStartBlock(): Long {
+      if (start == 0) {
+        return 0
+      }
+
+      var linesBefore = 0
+
+      readableDatabase.query(TABLE_NAME, arrayOf(ID, LINE_COUNT), "$LAST_CREATED_AT < ?", SqlUtil.buildArgs(time), null, null, "$ID ASC").use { cursor ->
+        while (cursor.moveToNext()) {
+          val lineCount = CursorUtil.requireInt(cursor, LINE_COUNT)
+
+          if (linesBefore + lineCount > start) {
+            linesToSkip = start - linesBefore
+            return CursorUtil.requireLong(cursor, ID)
+          }
+
+          linesBefore += lineCount
+        }
+      }
+
+      return Long.MAX_VALUE
     }
   }
-}
\ No newline at end of file
+}
@@ -348,6 +348,44 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: Shad
     }
   }
 
+  /**
+   * Same as [deleteEntriesForRecipient], but for a batch of delivery receipts from any number of recipients. All of the entries are removed with a single
+   * statement, and orphaned payloads are only cleaned up once.
+   */
+  fun deleteEntriesForRecipients(receipts: List<DeliveredEntry>) {
+    if (!FeatureFlags.retryReceipts()) return
+    if (receipts.isEmpty()) return
+
+    val db = databaseHelper.signalWritableDatabase
+
+    db.beginTransaction()
+    try {
+      val query = receipts
+        .groupBy({ Pair(it.recipientId, it.device) }, { it.dateSent })
+        .map { (recipientDevice, dateSent) ->
+          """(
+            ${RecipientTable.RECIPIENT_ID} = ${recipientDevice.first.serialize()} AND
+            ${RecipientTable.DEVICE} = ${recipientDevice.second} AND
+            ${RecipientTable.PAYLOAD_ID} IN (
+              SELECT ${PayloadTable.ID} 
+              FROM ${PayloadTable.TABLE_NAME} 
+              WHERE ${PayloadTable.DATE_SENT} IN (${dateSent.joinToString(",")})
+            )
+          )"""
+        }
+        .joinToString(" OR ")
+
+      db.delete(RecipientTable.TABLE_NAME, query, null)
+
+      val cleanQuery = "${PayloadTable.ID} NOT IN (SELECT ${RecipientTable.PAYLOAD_ID} FROM ${RecipientTable.TABLE_NAME})"
+      db.delete(PayloadTable.TABLE_NAME, cleanQuery, null)
+
+      db.setTransactionSuccessful()
+    } finally {
+      db.endTransaction()
+    }
+  }
+
   fun deleteAll() {
     if (!FeatureFlags.retryReceipts()) return
 
@@ -377,4 +415,6 @@ class MessageSendLogDatabase constructor(context: Context?, databaseHelper: Shad
   }
 
   private data class RecipientDevice(val recipientId: RecipientId, val devices: List<Int>)
+
+  data class DeliveredEntry(val dateSent: Long, val recipientId: RecipientId, val device: Int)
 }
\ No newline at end of file
@@ -60,6 +60,13 @@ public class MmsSmsDatabase extends Database {
   public static final String MMS_TRANSPORT = "mms";
   public static final String SMS_TRANSPORT = "sms";
 
+  /**
+   * Orders a conversation newest-first. The transport and ID break ties on the date, so that every
+   * message has a stable position, which {@link #getConversationAfter} relies on.
+   */
+  private static final String CONVERSATION_ORDER       = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + TRANSPORT + " DESC, " + MmsSmsColumns.ID + " DESC";
+  private static final String CONVERSATION_TABLE_ORDER = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC, " + MmsSmsColumns.ID + " DESC";
+
   private static final String[] PROJECTION = { MmsSmsColumns.ID,
                                                MmsSmsColumns.UNIQUE_ROW_ID,
                                                SmsDatabase.BODY,
@@ -107,13 +114,14 @@ public class MmsSmsDatabase extends Database {
                                                MmsSmsColumns.VIEWED_RECEIPT_COUNT,
                                                MmsSmsColumns.RECEIPT_TIMESTAMP };
 
-  private static final String SNIPPET_QUERY = "SELECT " + MmsSmsColumns.ID + ", 0 AS " + TRANSPORT + ", " + SmsDatabase.TYPE + " AS " + MmsSmsColumns.NORMALIZED_TYPE + ", " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + SmsDatabase.TABLE_NAME + " " +
-                                              "WHERE " + MmsSmsColumns.THREAD_ID + " = ? AND " + SmsDatabase.TYPE + " NOT IN (" + SmsDatabase.Types.PROFILE_CHANGE_TYPE + ", " + SmsDatabase.Types.GV1_MIGRATION_TYPE + ", " + SmsDatabase.Types.CHANGE_LOGIN_TYPE + ") AND " + SmsDatabase.TYPE + " & " + GROUP_V2_LEAVE_BITS + " != " + GROUP_V2_LEAVE_BITS + " " +
-                                              "UNION ALL " +
-                                              "SELECT " + MmsSmsColumns.ID + ", 1 AS " + TRANSPORT + ", " + MmsDatabase.MESSAGE_BOX + " AS " + MmsSmsColumns.NORMALIZED_TYPE + ", " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + MmsDatabase.TABLE_NAME + " " +
-                                              "WHERE " + MmsSmsColumns.THREAD_ID + " = ? AND " + MmsDatabase.MESSAGE_BOX + " & " + GROUP_V2_LEAVE_BITS + " != " + GROUP_V2_LEAVE_BITS + " " +
-                                              "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
-                                              "LIMIT 1";
+  @VisibleForTesting
+  static final String SNIPPET_QUERY = "SELECT " + MmsSmsColumns.ID + ", 0 AS " + TRANSPORT + ", " + SmsDatabase.TYPE + " AS " + MmsSmsColumns.NORMALIZED_TYPE + ", " + SmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + SmsDatabase.TABLE_NAME + " " +
+                                      "WHERE " + MmsSmsColumns.THREAD_ID + " = ? AND " + SmsDatabase.TYPE + " NOT IN (" + SmsDatabase.Types.PROFILE_CHANGE_TYPE + ", " + SmsDatabase.Types.GV1_MIGRATION_TYPE + ", " + SmsDatabase.Types.CHANGE_LOGIN_TYPE + ") AND " + SmsDatabase.TYPE + " & " + GROUP_V2_LEAVE_BITS + " != " + GROUP_V2_LEAVE_BITS + " " +
+                                      "UNION ALL " +
+                                      "SELECT " + MmsSmsColumns.ID + ", 1 AS " + TRANSPORT + ", " + MmsDatabase.MESSAGE_BOX + " AS " + MmsSmsColumns.NORMALIZED_TYPE + ", " + MmsDatabase.DATE_RECEIVED + " AS " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " FROM " + MmsDatabase.TABLE_NAME + " " +
+                                      "WHERE " + MmsSmsColumns.THREAD_ID + " = ? AND " + MmsDatabase.MESSAGE_BOX + " & " + GROUP_V2_LEAVE_BITS + " != " + GROUP_V2_LEAVE_BITS + " " +
+                                      "ORDER BY " + MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC " +
+                                      "LIMIT 1";
 
   public MmsSmsDatabase(Context context, ShadowDatabase databaseHelper) {
     super(context, databaseHelper);
@@ -192,13 +200,44 @@ public class MmsSmsDatabase extends Database {
   }
 
   public Cursor getConversation(long threadId, long offset, long limit) {
-    SQLiteDatabase db        = databaseHelper.getSignalReadableDatabase();
-    String         order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String         selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
-    String         limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
-    String         query     = buildQuery(PROJECTION, selection, order, limitStr, false);
+    SQLiteDatabase db = databaseHelper.getSignalReadableDatabase();
+    return db.rawQuery(buildConversationQuery(threadId, offset, limit), null);
+  }
+
+  @VisibleForTesting
+  static @NonNull String buildConversationQuery(long threadId, long offset, long limit) {
+    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    String limitStr  = limit > 0 || offset > 0 ? offset + ", " + limit : null;
+
+    return buildQuery(PROJECTION, selection, CONVERSATION_ORDER, limitStr, false);
+  }
+
+  /**
+   * Returns the {@code limit} messages that come directly after the given message in the order of
+   * {@link #getConversation(long, long, long)}.
+   * <p>
+   * Rather than skipping rows with an OFFSET, this seeks on the (thread_id, date_received) index of
+   * each table, so it takes the same amount of time no matter how deep into the thread it is.
+   */
+  public Cursor getConversationAfter(long threadId, long dateReceived, boolean isMms, long id, long limit) {
+    SQLiteDatabase db = databaseHelper.getSignalReadableDatabase();
+    return db.rawQuery(buildConversationAfterQuery(threadId, dateReceived, isMms, id, limit), null);
+  }
+
+  @VisibleForTesting
+  static @NonNull String buildConversationAfterQuery(long threadId, long dateReceived, boolean isMms, long id, long limit) {
+    String smsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + SmsDatabase.DATE_RECEIVED + " <= " + dateReceived;
+    String mmsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsDatabase.DATE_RECEIVED + " <= " + dateReceived;
+
+    // Ties on the date are broken by transport (SMS before MMS) and then by descending ID
+    if (isMms) {
+      smsSelection += " AND " + SmsDatabase.DATE_RECEIVED + " < " + dateReceived;
+      mmsSelection += " AND (" + MmsDatabase.DATE_RECEIVED + " < " + dateReceived + " OR " + MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID + " < " + id + ")";
+    } else {
+      smsSelection += " AND (" + SmsDatabase.DATE_RECEIVED + " < " + dateReceived + " OR " + SmsDatabase.TABLE_NAME + "." + SmsDatabase.ID + " < " + id + ")";
+    }
 
-    return db.rawQuery(query, null);
+    return buildQuery(PROJECTION, smsSelection, mmsSelection, CONVERSATION_ORDER, String.valueOf(limit), false, CONVERSATION_TABLE_ORDER);
   }
 
   public Cursor getConversation(long threadId) {
@@ -434,25 +473,50 @@ public class MmsSmsDatabase extends Database {
    * @return All of the messages that didn't result in updates.
    */
   private @NonNull Collection<SyncMessageId> incrementReceiptCounts(@NonNull List<SyncMessageId> syncMessageIds, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+    List<ReceiptUpdate> receipts = new ArrayList<>(syncMessageIds.size());
+
+    for (SyncMessageId id : syncMessageIds) {
+      receipts.add(new ReceiptUpdate(id, timestamp, receiptType));
+    }
+
+    Collection<SyncMessageId> unhandled = new HashSet<>();
+
+    for (ReceiptUpdate receipt : incrementReceiptCounts(receipts)) {
+      unhandled.add(receipt.getSyncMessageId());
+    }
+
+    return unhandled;
+  }
+
+  /**
+   * Applies receipts of any type, each with its own timestamp, in a single transaction. Every
+   * affected thread is only updated once, no matter how many receipts touched it.
+   *
+   * @return All of the receipts that didn't result in updates.
+   */
+  public @NonNull Collection<ReceiptUpdate> incrementReceiptCounts(@NonNull List<ReceiptUpdate> receipts) {
     SQLiteDatabase            db             = databaseHelper.getSignalWritableDatabase();
     ThreadDatabase            threadDatabase = ShadowDatabase.threads();
     Set<ThreadUpdate>         threadUpdates  = new HashSet<>();
-    Collection<SyncMessageId> unhandled      = new HashSet<>();
+    Collection<ReceiptUpdate> unhandled      = new HashSet<>();
 
     db.beginTransaction();
     try {
-      for (SyncMessageId id : syncMessageIds) {
-        Set<ThreadUpdate> updates = incrementReceiptCountInternal(id, timestamp, receiptType);
+      for (ReceiptUpdate receipt : receipts) {
+        Set<ThreadUpdate> updates = incrementReceiptCountInternal(receipt.getSyncMessageId(), receipt.getTimestamp(), receipt.getReceiptType());
 
         if (updates.size() > 0) {
           threadUpdates.addAll(updates);
         } else {
-          unhandled.add(id);
+          unhandled.add(receipt);
         }
       }
 
+      Set<Long> threadIds = new HashSet<>(threadUpdates.size());
       for (ThreadUpdate update : threadUpdates) {
-        threadDatabase.updateSilently(update.getThreadId(), false);
+        if (threadIds.add(update.getThreadId())) {
+          threadDatabase.updateSilently(update.getThreadId(), false);
+        }
       }
 
       db.setTransactionSuccessful();
@@ -488,51 +552,114 @@ public class MmsSmsDatabase extends Database {
   }
 
   public int getQuotedMessagePosition(long threadId, long quoteId, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    boolean isOwnNumber  = Recipient.resolved(recipientId).isSelf();
+    String  smsSelection = MmsSmsColumns.THREAD_ID + " = ? AND " + SmsDatabase.DATE_SENT + " = ?";
+    String  mmsSelection = MmsSmsColumns.THREAD_ID + " = ? AND " + MmsDatabase.DATE_SENT + " = ?";
+    String  recipient    = isOwnNumber ? "" : " AND " + MmsSmsColumns.RECIPIENT_ID + " = ?";
 
-    try (Cursor cursor = queryTables(new String[] { MmsSmsColumns.NORMALIZED_DATE_SENT, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED }, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+    String[] args = isOwnNumber ? SqlUtil.buildArgs(threadId, quoteId)
+                                : SqlUtil.buildArgs(threadId, quoteId, recipientId);
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean quoteIdMatches     = cursor.getLong(0) == quoteId;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    return getMessagePosition(threadId, smsSelection + recipient, mmsSelection + recipient, args);
+  }
+
+  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
+    boolean isOwnNumber  = Recipient.resolved(recipientId).isSelf();
+    String  smsSelection = MmsSmsColumns.THREAD_ID + " = ? AND " + SmsDatabase.DATE_RECEIVED + " = ?";
+    String  mmsSelection = MmsSmsColumns.THREAD_ID + " = ? AND " + MmsDatabase.DATE_RECEIVED + " = ?";
+    String  recipient    = isOwnNumber ? "" : " AND " + MmsSmsColumns.RECIPIENT_ID + " = ?";
+
+    String[] args = isOwnNumber ? SqlUtil.buildArgs(threadId, receivedTimestamp)
+                                : SqlUtil.buildArgs(threadId, receivedTimestamp, recipientId);
+
+    return getMessagePosition(threadId, smsSelection + recipient, mmsSelection + recipient, args);
+  }
+
+  /**
+   * Finds the first message in conversation order that matches the selection for its table, and
+   * returns its position in the results of {@link #getConversation(long, long, long)}.
+   * <p>
+   * Both the lookup and the count are served by the thread indexes, so neither has to walk the
+   * whole thread.
+   *
+   * @return The position, or -1 if there is no such message or it has been remotely deleted.
+   */
+  private int getMessagePosition(long threadId, @NonNull String smsSelection, @NonNull String mmsSelection, @NonNull String[] args) {
+    SQLiteDatabase db = databaseHelper.getSignalReadableDatabase();
 
-        if (quoteIdMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
+    long    dateReceived  = -1;
+    long    id            = -1;
+    boolean isMms         = false;
+    boolean remoteDeleted = false;
+
+    String[] smsProjection = new String[] { SmsDatabase.ID, SmsDatabase.DATE_RECEIVED, MmsSmsColumns.REMOTE_DELETED };
+    try (Cursor cursor = db.query(SmsDatabase.TABLE_NAME, smsProjection, smsSelection, args, null, null, null)) {
+      while (cursor.moveToNext()) {
+        long rowId   = cursor.getLong(0);
+        long rowDate = cursor.getLong(1);
+
+        if (rowDate > dateReceived || (rowDate == dateReceived && rowId > id)) {
+          dateReceived  = rowDate;
+          id            = rowId;
+          remoteDeleted = cursor.getInt(2) == 1;
         }
       }
     }
-    return -1;
-  }
 
-  public int getMessagePositionInConversation(long threadId, long receivedTimestamp, @NonNull RecipientId recipientId) {
-    String order     = MmsSmsColumns.NORMALIZED_DATE_RECEIVED + " DESC";
-    String selection = MmsSmsColumns.THREAD_ID + " = " + threadId;
+    String[] mmsProjection = new String[] { MmsDatabase.ID, MmsDatabase.DATE_RECEIVED, MmsSmsColumns.REMOTE_DELETED };
+    try (Cursor cursor = db.query(MmsDatabase.TABLE_NAME, mmsProjection, mmsSelection, args, null, null, null)) {
+      while (cursor.moveToNext()) {
+        long rowId   = cursor.getLong(0);
+        long rowDate = cursor.getLong(1);
+
+        // An SMS sorts before an MMS with the same date, so an MMS has to be strictly newer to win a tie
+        if (rowDate > dateReceived || (rowDate == dateReceived && isMms && rowId > id)) {
+          dateReceived  = rowDate;
+          id            = rowId;
+          isMms         = true;
+          remoteDeleted = cursor.getInt(2) == 1;
+        }
+      }
+    }
 
-    try (Cursor cursor = queryTables(new String[] { MmsSmsColumns.NORMALIZED_DATE_RECEIVED, MmsSmsColumns.RECIPIENT_ID, MmsSmsColumns.REMOTE_DELETED }, selection, order, null)) {
-      boolean isOwnNumber = Recipient.resolved(recipientId).isSelf();
+    if (id == -1 || remoteDeleted) {
+      return -1;
+    }
 
-      while (cursor != null && cursor.moveToNext()) {
-        boolean timestampMatches   = cursor.getLong(0) == receivedTimestamp;
-        boolean recipientIdMatches = recipientId.equals(RecipientId.from(cursor.getLong(1)));
+    return getConversationPosition(threadId, dateReceived, isMms, id);
+  }
 
-        if (timestampMatches && (recipientIdMatches || isOwnNumber)) {
-          if (CursorUtil.requireBoolean(cursor, MmsSmsColumns.REMOTE_DELETED)) {
-            return -1;
-          } else {
-            return cursor.getPosition();
-          }
-        }
+  /**
+   * Counts the messages that come before the given message in the order of
+   * {@link #getConversation(long, long, long)}. Mirrors {@link #getConversationAfter}.
+   */
+  @VisibleForTesting
+  int getConversationPosition(long threadId, long dateReceived, boolean isMms, long id) {
+    try (Cursor cursor = databaseHelper.getSignalReadableDatabase().rawQuery(buildConversationPositionQuery(threadId, dateReceived, isMms, id), null)) {
+      if (cursor.moveToFirst()) {
+        return cursor.getInt(0);
       }
     }
+
     return -1;
   }
 
+  @VisibleForTesting
+  static @NonNull String buildConversationPositionQuery(long threadId, long dateReceived, boolean isMms, long id) {
+    String smsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + SmsDatabase.DATE_RECEIVED + " >= " + dateReceived;
+    String mmsSelection = MmsSmsColumns.THREAD_ID + " = " + threadId + " AND " + MmsDatabase.DATE_RECEIVED + " >= " + dateReceived;
+
+    if (isMms) {
+      mmsSelection += " AND (" + MmsDatabase.DATE_RECEIVED + " > " + dateReceived + " OR " + MmsDatabase.ID + " > " + id + ")";
+    } else {
+      smsSelection += " AND (" + SmsDatabase.DATE_RECEIVED + " > " + dateReceived + " OR " + SmsDatabase.ID + " > " + id + ")";
+      mmsSelection += " AND " + MmsDatabase.DATE_RECEIVED + " > " + dateReceived;
+    }
+
+    return "SELECT (SELECT COUNT(*) FROM " + SmsDatabase.TABLE_NAME + " WHERE " + smsSelection + ") + " +
+           "(SELECT COUNT(*) FROM " + MmsDatabase.TABLE_NAME + " WHERE " + mmsSelection + ")";
+  }
+
   boolean hasReceivedAnyCallsSince(long threadId, long timestamp) {
     return ShadowDatabase.sms().hasReceivedAnyCallsSince(threadId, timestamp);
   }
@@ -602,6 +729,22 @@ public class MmsSmsDatabase extends Database {
   }
 
   private static @NonNull String buildQuery(String[] projection, String selection, String order, String limit, boolean includeAttachments) {
+    return buildQuery(projection, selection, selection, order, limit, includeAttachments, null);
+  }
+
+  /**
+   * @param subQueryOrder If set, each table is also sorted by this and cut off at {@code limit} on
+   *                      its own, which lets it stop walking its index early. Only valid when
+   *                      {@code limit} has no offset.
+   */
+  private static @NonNull String buildQuery(String[] projection,
+                                            String smsSelection,
+                                            String mmsSelection,
+                                            String order,
+                                            String limit,
+                                            boolean includeAttachments,
+                                            @Nullable String subQueryOrder)
+  {
     String attachmentJsonJoin;
     if (includeAttachments) {
       attachmentJsonJoin = "json_group_array(json_object(" + "'" + AttachmentDatabase.ROW_ID + "', " + AttachmentDatabase.TABLE_NAME + "." + AttachmentDatabase.ROW_ID + ", " +
@@ -794,8 +937,13 @@ public class MmsSmsDatabase extends Database {
 
     String mmsGroupBy = includeAttachments ? MmsDatabase.TABLE_NAME + "." + MmsDatabase.ID : null;
 
-    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, selection, null, mmsGroupBy, null);
-    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, selection, null, null, null);
+    String mmsSubQuery = mmsQueryBuilder.buildUnionSubQuery(TRANSPORT, mmsProjection, mmsColumnsPresent, 4, MMS_TRANSPORT, mmsSelection, null, mmsGroupBy, null);
+    String smsSubQuery = smsQueryBuilder.buildUnionSubQuery(TRANSPORT, smsProjection, smsColumnsPresent, 4, SMS_TRANSPORT, smsSelection, null, null, null);
+
+    if (subQueryOrder != null) {
+      mmsSubQuery = "SELECT * FROM (SELECT * FROM (" + mmsSubQuery + ") ORDER BY " + subQueryOrder + " LIMIT " + limit + ")";
+      smsSubQuery = "SELECT * FROM (SELECT * FROM (" + smsSubQuery + ") ORDER BY " + subQueryOrder + " LIMIT " + limit + ")";
+    }
 
     SQLiteQueryBuilder unionQueryBuilder = new SQLiteQueryBuilder();
     String             unionQuery        = unionQueryBuilder.buildUnionQuery(new String[] { smsSubQuery, mmsSubQuery }, order, limit);
@@ -862,4 +1010,44 @@ public class MmsSmsDatabase extends Database {
       cursor.close();
     }
   }
+
+  public static final class ReceiptUpdate {
+    private final SyncMessageId               syncMessageId;
+    private final long                        timestamp;
+    private final MessageDatabase.ReceiptType receiptType;
+
+    private ReceiptUpdate(@NonNull SyncMessageId syncMessageId, long timestamp, @NonNull MessageDatabase.ReceiptType receiptType) {
+      this.syncMessageId = syncMessageId;
+      this.timestamp     = timestamp;
+      this.receiptType   = receiptType;
+    }
+
+    public static @NonNull ReceiptUpdate delivery(@NonNull SyncMessageId syncMessageId, long timestamp) {
+      return new ReceiptUpdate(syncMessageId, timestamp, MessageDatabase.ReceiptType.DELIVERY);
+    }
+
+    public static @NonNull ReceiptUpdate read(@NonNull SyncMessageId syncMessageId, long timestamp) {
+      return new ReceiptUpdate(syncMessageId, timestamp, MessageDatabase.ReceiptType.READ);
+    }
+
+    public @NonNull SyncMessageId getSyncMessageId() {
+      return syncMessageId;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public boolean isDelivery() {
+      return receiptType == MessageDatabase.ReceiptType.DELIVERY;
+    }
+
+    public boolean isRead() {
+      return receiptType == MessageDatabase.ReceiptType.READ;
+    }
+
+    @NonNull MessageDatabase.ReceiptType getReceiptType() {
+      return receiptType;
+    }
+  }
 }
@@ -0,0 +1,584 @@
+package su.sres.securesms.database;
+
+import android.database.Cursor;
+import android.database.CursorWrapper;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import su.sres.securesms.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Opt-in instrumentation for the {@link SQLiteDatabase} wrapper, so we can tell which queries are
+ * slow in the wild without attaching a profiler.
+ *
+ * When enabled, it keeps:
+ * - A count and a duration histogram for every query shape. A shape is the SQL with its literals
+ *   replaced by ?, and IN (?, ?, ...) lists collapsed to IN (?), so the same query with different
+ *   arguments lands in the same place.
+ * - The last {@link #SLOW_QUERY_BUFFER_SIZE} queries and transactions that took longer than
+ *   {@link #SLOW_QUERY_THRESHOLD}, along with the thread that ran them and how long the enclosing
+ *   transaction waited for the database lock.
+ *
+ * Most of the work of a query happens as the cursor is read, not when it's created, so queries
+ * hand back a cursor that keeps timing itself until it's closed.
+ *
+ * When disabled, the wrapper does nothing more than check {@link #isEnabled()}.
+ */
+public final class QueryMonitor {
+
+  private static final QueryMonitor INSTANCE = new QueryMonitor();
+
+  public static final long SLOW_QUERY_THRESHOLD   = TimeUnit.MILLISECONDS.toNanos(50);
+  public static final int  SLOW_QUERY_BUFFER_SIZE = 128;
+
+  /** Past this many shapes, everything new is lumped into {@link #OTHER_SHAPE}. */
+  private static final int MAX_SHAPES = 500;
+
+  /** Cache of raw SQL to its shape. Cleared when it gets too big, since queries with inlined ids never repeat. */
+  private static final int MAX_CACHED_SHAPES = 1000;
+
+  static final String OTHER_SHAPE       = "<other>";
+  static final String TRANSACTION_SHAPE = "<transaction>";
+
+  private final Map<String, ShapeStats>         shapes;
+  private final Map<String, String>             shapeCache;
+  private final AtomicReferenceArray<SlowQuery> slowQueries;
+  private final AtomicLong                      slowQueryCount;
+  private final ThreadLocal<TransactionState>   transactions;
+
+  private volatile boolean enabled;
+
+  public static @NonNull QueryMonitor getInstance() {
+    return INSTANCE;
+  }
+
+  @VisibleForTesting
+  QueryMonitor() {
+    this.shapes         = new ConcurrentHashMap<>();
+    this.shapeCache     = new ConcurrentHashMap<>();
+    this.slowQueries    = new AtomicReferenceArray<>(SLOW_QUERY_BUFFER_SIZE);
+    this.slowQueryCount = new AtomicLong(0);
+    this.transactions   = new ThreadLocal<TransactionState>() {
+      @Override
+      protected TransactionState initialValue() {
+        return new TransactionState();
+      }
+    };
+  }
+
+  public void setEnabled(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * @return A start time to pass to the other methods, or 0 if we're not enabled.
+   */
+  long start() {
+    return enabled ? System.nanoTime() : 0;
+  }
+
+  void onBeginTransaction(long startTime) {
+    if (startTime == 0) {
+      return;
+    }
+
+    TransactionState transaction = transactions.get();
+
+    if (transaction.depth++ == 0) {
+      long now = System.nanoTime();
+
+      transaction.lockWait  = now - startTime;
+      transaction.heldSince = now;
+    }
+  }
+
+  void onEndTransaction() {
+    TransactionState transaction = transactions.get();
+
+    if (transaction.depth == 0 || --transaction.depth > 0) {
+      return;
+    }
+
+    long held = System.nanoTime() - transaction.heldSince;
+
+    record(TRANSACTION_SHAPE, null, Thread.currentThread().getName(), held, transaction.lockWait);
+
+    transaction.lockWait = 0;
+  }
+
+  /**
+   * Records a statement that has fully run by the time it returns.
+   */
+  void onStatement(long startTime, @NonNull String methodName, @Nullable String table, @Nullable String sql) {
+    if (startTime == 0) {
+      return;
+    }
+
+    long duration = System.nanoTime() - startTime;
+
+    record(shapeOf(methodName, table, sql), explainableSql(methodName, table, sql), Thread.currentThread().getName(), duration, currentLockWait());
+  }
+
+  /**
+   * Records a query once its cursor is closed, counting the time spent creating it and reading it.
+   */
+  @Nullable Cursor onQuery(long startTime, @NonNull String methodName, @Nullable String table, @Nullable String sql, @Nullable Cursor cursor) {
+    if (startTime == 0 || cursor == null) {
+      return cursor;
+    }
+
+    long duration = System.nanoTime() - startTime;
+
+    return new MonitoredCursor(cursor, shapeOf(methodName, table, sql), explainableSql(methodName, table, sql), duration, currentLockWait());
+  }
+
+  /**
+   * @return Every shape we've seen, with the ones we've spent the most time on first.
+   */
+  public @NonNull List<ShapeSummary> getShapes() {
+    List<ShapeSummary> summaries = new ArrayList<>(shapes.size());
+
+    for (Map.Entry<String, ShapeStats> entry : shapes.entrySet()) {
+      ShapeStats stats = entry.getValue();
+
+      summaries.add(new ShapeSummary(entry.getKey(),
+                                     stats.explainSql,
+                                     stats.count.get(),
+                                     stats.totalTime.get(),
+                                     stats.maxTime.get(),
+                                     stats.micros.getPercentile(50),
+                                     stats.micros.getPercentile(90),
+                                     stats.micros.getPercentile(99)));
+    }
+
+    Collections.sort(summaries, (lhs, rhs) -> Long.compare(rhs.getTotalTime(), lhs.getTotalTime()));
+
+    return summaries;
+  }
+
+  /**
+   * @return The most recent slow queries, newest first.
+   */
+  public @NonNull List<SlowQuery> getSlowQueries() {
+    List<SlowQuery> queries = new ArrayList<>(SLOW_QUERY_BUFFER_SIZE);
+    long            newest  = slowQueryCount.get();
+
+    for (long i = newest - 1; i >= Math.max(0, newest - SLOW_QUERY_BUFFER_SIZE); i--) {
+      SlowQuery query = slowQueries.get((int) (i % SLOW_QUERY_BUFFER_SIZE));
+
+      if (query != null) {
+        queries.add(query);
+      }
+    }
+
+    return queries;
+  }
+
+  private void record(@NonNull String shape, @Nullable String explainSql, @NonNull String thread, long duration, long lockWait) {
+    getOrCreateStats(shape, explainSql).record(duration);
+
+    if (duration >= SLOW_QUERY_THRESHOLD) {
+      long index = slowQueryCount.getAndIncrement();
+      slowQueries.set((int) (index % SLOW_QUERY_BUFFER_SIZE), new SlowQuery(System.currentTimeMillis(), thread, shape, duration, lockWait));
+    }
+  }
+
+  private @NonNull ShapeStats getOrCreateStats(@NonNull String shape, @Nullable String explainSql) {
+    ShapeStats stats = shapes.get(shape);
+
+    if (stats != null) {
+      return stats;
+    }
+
+    if (shapes.size() >= MAX_SHAPES) {
+      shape      = OTHER_SHAPE;
+      explainSql = null;
+    }
+
+    ShapeStats created  = new ShapeStats(explainSql);
+    ShapeStats existing = shapes.putIfAbsent(shape, created);
+
+    return existing != null ? existing : created;
+  }
+
+  private long currentLockWait() {
+    TransactionState transaction = transactions.get();
+    return transaction.depth > 0 ? transaction.lockWait : 0;
+  }
+
+  private @NonNull String shapeOf(@NonNull String methodName, @Nullable String table, @Nullable String sql) {
+    if (table == null) {
+      return sql != null ? normalize(sql) : methodName;
+    }
+
+    StringBuilder shape = new StringBuilder(methodName).append(' ').append(table);
+
+    if (sql != null) {
+      shape.append(" WHERE ").append(normalize(sql));
+    }
+
+    return shape.toString();
+  }
+
+  /**
+   * @return Something we can run EXPLAIN QUERY PLAN on that does the same lookup as the statement,
+   *         or null if there isn't one worth looking at.
+   */
+  private @Nullable String explainableSql(@NonNull String methodName, @Nullable String table, @Nullable String sql) {
+    if (table == null) {
+      return sql != null ? normalize(sql) : null;
+    } else if (methodName.startsWith("query")) {
+      return "SELECT * FROM " + table + (sql != null ? " WHERE " + normalize(sql) : "");
+    } else if (methodName.startsWith("delete")) {
+      return "DELETE FROM " + table + (sql != null ? " WHERE " + normalize(sql) : "");
+    } else {
+      return null;
+    }
+  }
+
+  private @NonNull String normalize(@NonNull String sql) {
+    String shape = shapeCache.get(sql);
+
+    if (shape == null) {
+      shape = normalizeSql(sql);
+
+      if (shapeCache.size() >= MAX_CACHED_SHAPES) {
+        shapeCache.clear();
+      }
+      shapeCache.put(sql, shape);
+    }
+
+    return shape;
+  }
+
+  /**
+   * Replaces string and number literals with ?, collapses lists of ? into a single one, and
+   * collapses runs of whitespace.
+   */
+  @VisibleForTesting
+  static @NonNull String normalizeSql(@NonNull String sql) {
+    StringBuilder out = new StringBuilder(sql.length());
+    int           i   = 0;
+
+    while (i < sql.length()) {
+      char c = sql.charAt(i);
+
+      if (Character.isWhitespace(c)) {
+        while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+          i++;
+        }
+        if (out.length() > 0 && i < sql.length()) {
+          out.append(' ');
+        }
+      } else if (c == '\'') {
+        i++;
+        while (i < sql.length()) {
+          if (sql.charAt(i) == '\'') {
+            if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+              i += 2;
+            } else {
+              break;
+            }
+          } else {
+            i++;
+          }
+        }
+        i++;
+        appendParameter(out);
+      } else if (c == '"' || c == '`' || c == '[') {
+        char close = c == '[' ? ']' : c;
+        int  end   = sql.indexOf(close, i + 1);
+
+        end = end == -1 ? sql.length() : end + 1;
+        out.append(sql, i, end);
+        i = end;
+      } else if (isDigit(c) && !isIdentifierPart(out)) {
+        while (i < sql.length() && (isDigit(sql.charAt(i)) || sql.charAt(i) == '.')) {
+          i++;
+        }
+        appendParameter(out);
+      } else if (c == '?') {
+        i++;
+        while (i < sql.length() && isDigit(sql.charAt(i))) {
+          i++;
+        }
+        appendParameter(out);
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+
+    return out.toString();
+  }
+
+  /**
+   * Appends a ?, unless it continues a list of them, like (?, ?, ?), in which case we drop it and
+   * the comma before it.
+   */
+  private static void appendParameter(@NonNull StringBuilder out) {
+    int end = out.length();
+
+    while (end > 0 && out.charAt(end - 1) == ' ') {
+      end--;
+    }
+
+    if (end > 0 && out.charAt(end - 1) == ',') {
+      int previous = end - 1;
+
+      while (previous > 0 && out.charAt(previous - 1) == ' ') {
+        previous--;
+      }
+
+      if (previous > 0 && out.charAt(previous - 1) == '?' && (previous < 2 || !isIdentifierChar(out.charAt(previous - 2)))) {
+        out.setLength(previous);
+        return;
+      }
+    }
+
+    out.append('?');
+  }
+
+  private static boolean isIdentifierPart(@NonNull StringBuilder out) {
+    return out.length() > 0 && isIdentifierChar(out.charAt(out.length() - 1));
+  }
+
+  private static boolean isIdentifierChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
+  }
+
+  private static final class ShapeStats {
+    private final String           explainSql;
+    private final AtomicLong       count     = new AtomicLong();
+    private final AtomicLong       totalTime = new AtomicLong();
+    private final AtomicLong       maxTime   = new AtomicLong();
+    private final LatencyHistogram micros    = new LatencyHistogram();
+
+    private ShapeStats(@Nullable String explainSql) {
+      this.explainSql = explainSql;
+    }
+
+    void record(long duration) {
+      count.incrementAndGet();
+      totalTime.addAndGet(duration);
+      micros.record(TimeUnit.NANOSECONDS.toMicros(duration));
+
+      long max = maxTime.get();
+      while (duration > max && !maxTime.compareAndSet(max, duration)) {
+        max = maxTime.get();
+      }
+    }
+  }
+
+  private static final class TransactionState {
+    private int  depth;
+    private long lockWait;
+    private long heldSince;
+  }
+
+  public static final class ShapeSummary {
+    private final String shape;
+    private final String explainSql;
+    private final long   count;
+    private final long   totalTime;
+    private final long   maxTime;
+    private final long   p50Micros;
+    private final long   p90Micros;
+    private final long   p99Micros;
+
+    ShapeSummary(@NonNull String shape, @Nullable String explainSql, long count, long totalTime, long maxTime, long p50Micros, long p90Micros, long p99Micros) {
+      this.shape      = shape;
+      this.explainSql = explainSql;
+      this.count      = count;
+      this.totalTime  = totalTime;
+      this.maxTime    = maxTime;
+      this.p50Micros  = p50Micros;
+      this.p90Micros  = p90Micros;
+      this.p99Micros  = p99Micros;
+    }
+
+    public @NonNull String getShape() {
+      return shape;
+    }
+
+    /**
+     * @return SQL that does the same lookup, for use with EXPLAIN QUERY PLAN, if there is any.
+     */
+    public @Nullable String getExplainSql() {
+      return explainSql;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    /** In nanoseconds. */
+    public long getTotalTime() {
+      return totalTime;
+    }
+
+    /** In nanoseconds. */
+    public long getMaxTime() {
+      return maxTime;
+    }
+
+    public long getP50Micros() {
+      return p50Micros;
+    }
+
+    public long getP90Micros() {
+      return p90Micros;
+    }
+
+    public long getP99Micros() {
+      return p99Micros;
+    }
+  }
+
+  public static final class SlowQuery {
+    private final long   timestamp;
+    private final String thread;
+    private final String shape;
+    private final long   duration;
+    private final long   lockWait;
+
+    SlowQuery(long timestamp, @NonNull String thread, @NonNull String shape, long duration, long lockWait) {
+      this.timestamp = timestamp;
+      this.thread    = thread;
+      this.shape     = shape;
+      this.duration  = duration;
+      this.lockWait  = lockWait;
+    }
+
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    public @NonNull String getThread() {
+      return thread;
+    }
+
+    public @NonNull String getShape() {
+      return shape;
+    }
+
+    /** In nanoseconds. */
+    public long getDuration() {
+      return duration;
+    }
+
+    /** How long the enclosing transaction waited for the database lock, in nanoseconds, or 0 if there wasn't one. */
+    public long getLockWait() {
+      return lockWait;
+    }
+  }
+
+  /**
+   * Keeps track of the time spent moving through the cursor, since that's when the query actually
+   * runs, and records the total once it's closed.
+   */
+  private final class MonitoredCursor extends CursorWrapper {
+
+    private final String shape;
+    private final String explainSql;
+    private final String thread;
+    private final long   lockWait;
+
+    private long    duration;
+    private boolean recorded;
+
+    MonitoredCursor(@NonNull Cursor cursor, @NonNull String shape, @Nullable String explainSql, long duration, long lockWait) {
+      super(cursor);
+      this.shape      = shape;
+      this.explainSql = explainSql;
+      this.thread     = Thread.currentThread().getName();
+      this.duration   = duration;
+      this.lockWait   = lockWait;
+    }
+
+    @Override
+    public int getCount() {
+      long start = System.nanoTime();
+      int  count = super.getCount();
+      duration += System.nanoTime() - start;
+      return count;
+    }
+
+    @Override
+    public boolean move(int offset) {
+      long    start = System.nanoTime();
+      boolean moved = super.move(offset);
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public boolean moveToPosition(int position) {
+      long    start = System.nanoTime();
+      boolean moved = super.moveToPosition(position);
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public boolean moveToFirst() {
+      long    start = System.nanoTime();
+      boolean moved = super.moveToFirst();
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public boolean moveToLast() {
+      long    start = System.nanoTime();
+      boolean moved = super.moveToLast();
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public boolean moveToNext() {
+      long    start = System.nanoTime();
+      boolean moved = super.moveToNext();
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public boolean moveToPrevious() {
+      long    start = System.nanoTime();
+      boolean moved = super.moveToPrevious();
+      duration += System.nanoTime() - start;
+      return moved;
+    }
+
+    @Override
+    public void close() {
+      super.close();
+
+      if (!recorded) {
+        recorded = true;
+        record(shape, explainSql, thread, duration, lockWait);
+      }
+    }
+  }
+}
@@ -54,6 +54,7 @@ import su.sres.securesms.dependencies.ApplicationDependencies;
 import su.sres.securesms.groups.GroupId;
 import su.sres.core.util.logging.Log;
 import su.sres.securesms.profiles.ProfileName;
+import su.sres.securesms.recipients.LiveRecipientCache;
 import su.sres.securesms.recipients.Recipient;
 import su.sres.securesms.recipients.RecipientId;
 import su.sres.securesms.util.Base64;
@@ -105,9 +106,11 @@ public class RecipientDatabase extends Database {
 
   private static final String TAG = Log.tag(RecipientDatabase.class);
 
+  private static final int DIRECTORY_TRANSACTION_SIZE = 1000;
+
   static final         String TABLE_NAME               = "recipient";
   public static final  String ID                       = "_id";
-  private static final String ACI_COLUMN                = "aci";
+  static final         String ACI_COLUMN                = "aci";
   private static final String USERNAME                 = "username";
   public static final  String PHONE                    = "phone";
   public static final  String EMAIL                    = "email";
@@ -120,7 +123,7 @@ public class RecipientDatabase extends Database {
   private static final String CALL_VIBRATE             = "call_vibrate";
   private static final String NOTIFICATION_CHANNEL     = "notification_channel";
   private static final String MUTE_UNTIL               = "mute_until";
-  private static final String AVATAR_COLOR             = "color";
+  static final         String AVATAR_COLOR             = "color";
   private static final String SEEN_INVITE_REMINDER     = "seen_invite_reminder";
   private static final String DEFAULT_SUBSCRIPTION_ID  = "default_subscription_id";
   private static final String MESSAGE_EXPIRATION_TIME  = "message_expiration_time";
@@ -136,12 +139,12 @@ public class RecipientDatabase extends Database {
   private static final String PROFILE_KEY              = "profile_key";
   private static final String PROFILE_KEY_CREDENTIAL   = "profile_key_credential";
   private static final String SIGNAL_PROFILE_AVATAR    = "signal_profile_avatar";
-  private static final String PROFILE_SHARING          = "profile_sharing";
+  static final         String PROFILE_SHARING          = "profile_sharing";
   private static final String LAST_PROFILE_FETCH       = "last_profile_fetch";
   private static final String UNIDENTIFIED_ACCESS_MODE = "unidentified_access_mode";
   static final         String FORCE_SMS_SELECTION      = "force_sms_selection";
   private static final String CAPABILITIES             = "capabilities";
-  private static final String STORAGE_SERVICE_ID       = "storage_service_key";
+  static final         String STORAGE_SERVICE_ID       = "storage_service_key";
   private static final String PROFILE_GIVEN_NAME       = "signal_profile_name";
   private static final String PROFILE_FAMILY_NAME      = "profile_family_name";
   private static final String PROFILE_JOINED_NAME      = "profile_joined_name";
@@ -2214,6 +2217,166 @@ public class RecipientDatabase extends Database {
     }
   }
 
+  /**
+   * Applies a directory update in bulk. Logins we don't have yet are inserted already registered,
+   * and existing recipients are only written if something actually changed. The work is committed
+   * every {@link #DIRECTORY_TRANSACTION_SIZE} recipients, and listeners are notified once at the end
+   * rather than once per recipient. Only the changed recipients that are in the recipient cache are
+   * refreshed, since a full directory has far more entries than the cache can hold.
+   *
+   * @param registered   Logins that are registered, mapped to their ACI if the directory has one.
+   * @param unregistered Logins that are no longer registered. Unknown logins are ignored.
+   */
+  public void applyDirectoryUpdate(@NonNull Map<String, ACI> registered, @NonNull Collection<String> unregistered) {
+    SQLiteDatabase           db       = databaseHelper.getSignalWritableDatabase();
+    Map<String, RecipientId> existing = getAllUserLoginIds();
+    Set<RecipientId>         changed  = new HashSet<>();
+    int                      pending  = 0;
+
+    db.beginTransaction();
+    try {
+      for (Map.Entry<String, ACI> entry : registered.entrySet()) {
+        RecipientId id = applyDirectoryRegistered(entry.getKey(), entry.getValue(), existing.get(entry.getKey()));
+
+        if (id != null) {
+          changed.add(id);
+        }
+
+        if (++pending % DIRECTORY_TRANSACTION_SIZE == 0) {
+          db.setTransactionSuccessful();
+          db.endTransaction();
+          db.beginTransaction();
+        }
+      }
+
+      for (String userLogin : unregistered) {
+        RecipientId id = existing.get(userLogin);
+
+        if (id == null) {
+          continue;
+        }
+
+        ContentValues values = new ContentValues(3);
+        values.put(REGISTERED, RegisteredState.NOT_REGISTERED.getId());
+        values.put(PROFILE_SHARING, 0);
+        values.putNull(STORAGE_SERVICE_ID);
+
+        if (update(id, values)) {
+          changed.add(id);
+        }
+
+        if (++pending % DIRECTORY_TRANSACTION_SIZE == 0) {
+          db.setTransactionSuccessful();
+          db.endTransaction();
+          db.beginTransaction();
+        }
+      }
+
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+
+    Log.i(TAG, "[applyDirectoryUpdate] Registered: " + registered.size() + ", Unregistered: " + unregistered.size() + ", Changed: " + changed.size());
+
+    if (!changed.isEmpty()) {
+      LiveRecipientCache recipientCache = ApplicationDependencies.getRecipientCache();
+
+      for (RecipientId id : changed) {
+        if (recipientCache.isCached(id)) {
+          Recipient.live(id).refresh();
+        }
+      }
+
+      notifyConversationListListeners();
+    }
+  }
+
+  /**
+   * Marks a single directory entry as registered with profile sharing enabled. Must be called
+   * within a transaction, and does not trigger any recipient refreshes.
+   *
+   * @return The ID of the recipient if anything was written, otherwise null.
+   */
+  private @Nullable RecipientId applyDirectoryRegistered(@NonNull String userLogin, @Nullable ACI aci, @Nullable RecipientId id) {
+    ensureInTransaction();
+
+    SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
+
+    if (id == null) {
+      ContentValues values = new ContentValues(6);
+      values.put(PHONE, userLogin);
+      values.put(AVATAR_COLOR, AvatarColor.random().serialize());
+      values.put(REGISTERED, RegisteredState.REGISTERED.getId());
+      values.put(PROFILE_SHARING, 1);
+      values.put(STORAGE_SERVICE_ID, Base64.encodeBytes(StorageSyncHelper.generateKey()));
+
+      if (aci != null) {
+        values.put(ACI_COLUMN, aci.toString().toLowerCase());
+      }
+
+      long rowId = db.insert(TABLE_NAME, null, values);
+
+      if (rowId >= 0) {
+        return RecipientId.from(rowId);
+      }
+
+      Log.w(TAG, "[applyDirectoryUpdate] Failed to insert a new recipient. Possibly merging.");
+      id = getAndPossiblyMerge(aci, userLogin, true);
+    }
+
+    ContentValues registeredValues = new ContentValues(2);
+    registeredValues.put(REGISTERED, RegisteredState.REGISTERED.getId());
+
+    if (aci != null) {
+      registeredValues.put(ACI_COLUMN, aci.toString().toLowerCase());
+    }
+
+    boolean changed;
+
+    try {
+      changed = update(id, registeredValues);
+    } catch (SQLiteConstraintException e) {
+      Log.w(TAG, "[applyDirectoryUpdate] Hit a conflict when trying to update " + id + ". Possibly merging.");
+
+      id      = getAndPossiblyMerge(aci, userLogin, true);
+      changed = true;
+
+      Log.w(TAG, "[applyDirectoryUpdate] Merged into " + id);
+    }
+
+    if (changed) {
+      setStorageIdIfNotSet(id);
+    }
+
+    ContentValues profileSharingValues = new ContentValues(1);
+    profileSharingValues.put(PROFILE_SHARING, 1);
+
+    if (update(id, profileSharingValues)) {
+      rotateStorageId(id);
+      changed = true;
+    }
+
+    return changed ? id : null;
+  }
+
+  private @NonNull Map<String, RecipientId> getAllUserLoginIds() {
+    SQLiteDatabase           db      = databaseHelper.getSignalReadableDatabase();
+    Map<String, RecipientId> results = new HashMap<>();
+
+    try (Cursor cursor = db.query(TABLE_NAME, new String[] { ID, PHONE }, PHONE + " NOT NULL", null, null, null, null)) {
+      while (cursor != null && cursor.moveToNext()) {
+        String userLogin = cursor.getString(cursor.getColumnIndexOrThrow(PHONE));
+
+        if (!TextUtils.isEmpty(userLogin)) {
+          results.put(userLogin, RecipientId.from(cursor.getLong(cursor.getColumnIndexOrThrow(ID))));
+        }
+      }
+    }
+
+    return results;
+  }
+
   public @NonNull List<RecipientId> getUninvitedRecipientsForInsights() {
     SQLiteDatabase    db      = databaseHelper.getSignalReadableDatabase();
     List<RecipientId> results = new LinkedList<>();
@@ -2974,6 +3137,8 @@ public class RecipientDatabase extends Database {
       ContentValues values = new ContentValues();
             values.put(SessionDatabase.ADDRESS, aciSettings.aci.toString());
       db.update(SessionDatabase.TABLE_NAME, values, SessionDatabase.ADDRESS + " = ?", SqlUtil.buildArgs(e164Settings.e164));
+      sessionDatabase.invalidateCacheFor(e164Settings.e164);
+      sessionDatabase.invalidateCacheFor(aciSettings.aci.toString());
     } else if (!hasE164Session && hasUuidSession) {
       Log.w(TAG, "Had a session for ACI, but not E164. No action necessary.", IMPORTANT_LOG_DURATION);
     } else {
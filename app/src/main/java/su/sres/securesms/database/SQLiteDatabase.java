@@ -7,10 +7,13 @@ import net.zetetic.database.SQLException;
 import net.zetetic.database.sqlcipher.SQLiteStatement;
 import net.zetetic.database.sqlcipher.SQLiteTransactionListener;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import su.sres.core.util.concurrent.LockProfiler;
 import su.sres.core.util.tracing.Tracer;
 
 /**
@@ -32,12 +35,35 @@ public class SQLiteDatabase {
   private static final String KEY_THREAD = "thread";
   private static final String NAME_LOCK  = "LOCK";
 
+  /** Wrappers are created all the time, so the lock trackers are kept per underlying database. */
+  private static final Map<net.zetetic.database.sqlcipher.SQLiteDatabase, LockProfiler.Tracker> LOCK_TRACKERS = new ConcurrentHashMap<>();
+
   private final net.zetetic.database.sqlcipher.SQLiteDatabase wrapped;
   private final Tracer                                tracer;
+  private final QueryMonitor                          queryMonitor;
+  private final LockProfiler                          lockProfiler;
 
   public SQLiteDatabase(net.zetetic.database.sqlcipher.SQLiteDatabase wrapped) {
-    this.wrapped = wrapped;
-    this.tracer  = Tracer.getInstance();
+    this.wrapped      = wrapped;
+    this.tracer       = Tracer.getInstance();
+    this.queryMonitor = QueryMonitor.getInstance();
+    this.lockProfiler = LockProfiler.getInstance();
+  }
+
+  /**
+   * SQLCipher doesn't let us wrap its write lock, so we report on it from around beginTransaction()
+   * and endTransaction() instead. The release has to be reported while we still hold the lock, so
+   * the hold time doesn't include the commit itself.
+   */
+  private LockProfiler.Tracker getLockTracker() {
+    LockProfiler.Tracker tracker = LOCK_TRACKERS.get(wrapped);
+
+    if (tracker == null) {
+      tracker = lockProfiler.getTracker("SQLCipher " + new File(wrapped.getPath()).getName(), SQLiteDatabase.class);
+      LOCK_TRACKERS.put(wrapped, tracker);
+    }
+
+    return tracker;
   }
 
   private void traceLockStart() {
@@ -59,10 +85,14 @@ public class SQLiteDatabase {
       traceLockStart();
     }
 
+    long start = queryMonitor.start();
+
     tracer.start(methodName, KEY_QUERY, query);
     returnable.run();
     tracer.end(methodName);
 
+    queryMonitor.onStatement(start, methodName, null, query);
+
     if (locked) {
       traceLockEnd();
     }
@@ -85,10 +115,14 @@ public class SQLiteDatabase {
       params.put(KEY_TABLE, table);
     }
 
+    long start = queryMonitor.start();
+
     tracer.start(methodName, params);
     E result = returnable.run();
     tracer.end(methodName);
 
+    result = monitor(start, methodName, table, query, result);
+
     if (locked) {
       traceLockEnd();
     }
@@ -96,6 +130,20 @@ public class SQLiteDatabase {
     return result;
   }
 
+  /**
+   * Queries only really run as their cursor is read, so they get handed off to the monitor as a
+   * cursor that times itself. Everything else is done by the time it returns.
+   */
+  @SuppressWarnings("unchecked")
+  private <E> E monitor(long start, String methodName, String table, String query, E result) {
+    if (result instanceof Cursor) {
+      return (E) queryMonitor.onQuery(start, methodName, table, query, (Cursor) result);
+    } else {
+      queryMonitor.onStatement(start, methodName, table, query);
+      return result;
+    }
+  }
+
   public net.zetetic.database.sqlcipher.SQLiteDatabase getSqlCipherDatabase() {
     return wrapped;
   }
@@ -111,11 +159,23 @@ public class SQLiteDatabase {
 
   public void beginTransaction() {
     traceLockStart();
+    long start     = queryMonitor.start();
+    long lockStart = lockProfiler.isEnabled() ? System.nanoTime() : 0;
     trace("beginTransaction()", wrapped::beginTransaction);
+    queryMonitor.onBeginTransaction(start);
+
+    if (lockStart != 0) {
+      getLockTracker().onAcquired(lockStart);
+    }
   }
 
   public void endTransaction() {
+    if (lockProfiler.isEnabled()) {
+      getLockTracker().onReleased();
+    }
+
     trace("endTransaction()", wrapped::endTransaction);
+    queryMonitor.onEndTransaction();
     traceLockEnd();
   }
 
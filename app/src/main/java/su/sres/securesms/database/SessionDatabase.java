@@ -14,20 +14,31 @@ import org.whispersystems.libsignal.SignalProtocolAddress;
 import org.whispersystems.libsignal.state.SessionRecord;
 
 import su.sres.securesms.util.CursorUtil;
+import su.sres.securesms.util.LRUCache;
 import su.sres.securesms.util.SqlUtil;
 import su.sres.signalservice.api.push.SignalServiceAddress;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-
+import java.util.Map;
+
+/**
+ * Stores our sessions. Loaded records are kept in a bounded write-through cache, since the same
+ * sessions tend to be loaded over and over again when sending to large groups or draining a backlog
+ * of messages. Records handed out by {@link #load} may be shared with other callers, so they should
+ * only be modified while holding the session lock, and must then be passed back to {@link #store}.
+ */
 public class SessionDatabase extends Database {
 
   private static final String TAG = Log.tag(SessionDatabase.class);
 
+  private static final int CACHE_SIZE = 500;
+
   public static final String TABLE_NAME = "sessions";
 
   private static final String ID      = "_id";
@@ -41,6 +52,11 @@ public class SessionDatabase extends Database {
                                             RECORD + " BLOB NOT NULL, " +
                                             "UNIQUE(" + ADDRESS + "," + DEVICE + "));";
 
+  private final Map<SignalProtocolAddress, SessionRecord> cache = new LRUCache<>(CACHE_SIZE);
+
+  private long cacheHits;
+  private long cacheMisses;
+
   SessionDatabase(Context context, ShadowDatabase databaseHelper) {
     super(context, databaseHelper);
   }
@@ -52,6 +68,8 @@ public class SessionDatabase extends Database {
 
     SQLiteDatabase db = databaseHelper.getSignalWritableDatabase();
 
+    removeFromCache(address);
+
     try (SQLiteStatement statement = db.compileStatement("INSERT INTO " + TABLE_NAME + " (" + ADDRESS + ", " + DEVICE + ", " + RECORD + ") VALUES (?, ?, ?) " +
                                                          "ON CONFLICT (" + ADDRESS + ", " + DEVICE + ") DO UPDATE SET " + RECORD + " = excluded." + RECORD))
     {
@@ -60,9 +78,17 @@ public class SessionDatabase extends Database {
       statement.bindBlob(3, record.serialize());
       statement.execute();
     }
+
+    addToCache(db, address, record);
   }
 
   public @Nullable SessionRecord load(@NonNull SignalProtocolAddress address) {
+    SessionRecord cached = getFromCache(address);
+
+    if (cached != null) {
+      return cached;
+    }
+
     SQLiteDatabase database   = databaseHelper.getSignalReadableDatabase();
     String[]       projection = new String[] { RECORD };
     String         selection  = ADDRESS + " = ? AND " + DEVICE + " = ?";
@@ -71,7 +97,9 @@ public class SessionDatabase extends Database {
     try (Cursor cursor = database.query(TABLE_NAME, projection, selection, args, null, null, null)) {
       if (cursor.moveToFirst()) {
         try {
-          return new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
+          SessionRecord record = new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
+          addToCache(database, address, record);
+          return record;
         } catch (IOException e) {
           Log.w(TAG, e);
         }
@@ -89,8 +117,17 @@ public class SessionDatabase extends Database {
     HashMap<SignalProtocolAddress, SessionRecord> sessions = new LinkedHashMap<>(addresses.size());
 
     for (SignalProtocolAddress address : addresses) {
-      args.add(SqlUtil.buildArgs(address.getName(), address.getDeviceId()));
-      sessions.put(address, null);
+      SessionRecord cached = getFromCache(address);
+
+      if (cached == null) {
+        args.add(SqlUtil.buildArgs(address.getName(), address.getDeviceId()));
+      }
+
+      sessions.put(address, cached);
+    }
+
+    if (args.isEmpty()) {
+      return new ArrayList<>(sessions.values());
     }
 
     String[] projection = new String[] { ADDRESS, DEVICE, RECORD };
@@ -102,8 +139,11 @@ public class SessionDatabase extends Database {
           int    device  = CursorUtil.requireInt(cursor, DEVICE);
 
           try {
-            SessionRecord record = new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
-            sessions.put(new SignalProtocolAddress(address, device), record);
+            SessionRecord         record          = new SessionRecord(cursor.getBlob(cursor.getColumnIndexOrThrow(RECORD)));
+            SignalProtocolAddress protocolAddress = new SignalProtocolAddress(address, device);
+
+            sessions.put(protocolAddress, record);
+            addToCache(database, protocolAddress, record);
           } catch (IOException e) {
             Log.w(TAG, e);
           }
@@ -198,11 +238,13 @@ public class SessionDatabase extends Database {
     String[]       args      = SqlUtil.buildArgs(address.getName(), address.getDeviceId());
 
     database.delete(TABLE_NAME, selection, args);
+    removeFromCache(address);
   }
 
   public void deleteAllFor(@NonNull String addressName) {
     SQLiteDatabase database = databaseHelper.getSignalWritableDatabase();
     database.delete(TABLE_NAME, ADDRESS + " = ?", SqlUtil.buildArgs(addressName));
+    invalidateCacheFor(addressName);
   }
 
   public boolean hasSessionFor(@NonNull String addressName) {
@@ -215,6 +257,102 @@ public class SessionDatabase extends Database {
     }
   }
 
+  public @NonNull CacheStats getCacheStats() {
+    synchronized (cache) {
+      return new CacheStats(cacheHits, cacheMisses, cache.size());
+    }
+  }
+
+  /**
+   * Must be called after changing the rows for an address without going through this class.
+   */
+  void invalidateCacheFor(@NonNull String addressName) {
+    synchronized (cache) {
+      Iterator<SignalProtocolAddress> iterator = cache.keySet().iterator();
+
+      while (iterator.hasNext()) {
+        if (iterator.next().getName().equals(addressName)) {
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  void clearCache() {
+    synchronized (cache) {
+      cache.clear();
+    }
+  }
+
+  @Override
+  public void reset(ShadowDatabase databaseHelper) {
+    super.reset(databaseHelper);
+    clearCache();
+  }
+
+  private @Nullable SessionRecord getFromCache(@NonNull SignalProtocolAddress address) {
+    synchronized (cache) {
+      SessionRecord record = cache.get(address);
+
+      if (record != null) {
+        cacheHits++;
+      } else {
+        cacheMisses++;
+      }
+
+      return record;
+    }
+  }
+
+  /**
+   * Anything read or written inside of a transaction could still be rolled back, so we only cache
+   * it when we're outside of one.
+   */
+  private void addToCache(@NonNull SQLiteDatabase database, @NonNull SignalProtocolAddress address, @NonNull SessionRecord record) {
+    if (database.inTransaction()) {
+      return;
+    }
+
+    synchronized (cache) {
+      cache.put(address, record);
+    }
+  }
+
+  private void removeFromCache(@NonNull SignalProtocolAddress address) {
+    synchronized (cache) {
+      cache.remove(address);
+    }
+  }
+
+  public static final class CacheStats {
+    private final long hits;
+    private final long misses;
+    private final int  size;
+
+    private CacheStats(long hits, long misses, int size) {
+      this.hits   = hits;
+      this.misses = misses;
+      this.size   = size;
+    }
+
+    public long getHits() {
+      return hits;
+    }
+
+    public long getMisses() {
+      return misses;
+    }
+
+    public int getSize() {
+      return size;
+    }
+
+    public float getHitRate() {
+      long total = hits + misses;
+      return total > 0 ? (float) hits / total : 0;
+    }
+  }
+
   public static final class SessionRow {
     private final String        address;
     private final int           deviceId;
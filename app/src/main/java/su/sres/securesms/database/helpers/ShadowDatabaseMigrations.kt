@@ -70,8 +70,9 @@ object ShadowDatabaseMigrations {
   private const val SENDER_KEY_UUID = 96
   private const val SENDER_KEY_SHARED_TIMESTAMP = 97
   private const val REACTION_REFACTOR = 98
+  private const val THREAD_DATE_SENT_INDEX = 99
 
-  const val DATABASE_VERSION = 98
+  const val DATABASE_VERSION = 99
 
   @JvmStatic
   fun migrate(context: Context, db: SQLiteDatabase, oldVersion: Int, newVersion: Int) {
@@ -1276,6 +1277,11 @@ object ShadowDatabaseMigrations {
       db.execSQL("UPDATE sms SET reactions = NULL WHERE reactions NOT NULL")
       db.execSQL("UPDATE mms SET reactions = NULL WHERE reactions NOT NULL")
     }
+
+    if (oldVersion < THREAD_DATE_SENT_INDEX) {
+      db.execSQL("CREATE INDEX IF NOT EXISTS sms_thread_date_sent_index ON sms (thread_id, date_sent)")
+      db.execSQL("CREATE INDEX IF NOT EXISTS mms_thread_date_sent_index ON mms (thread_id, date)")
+    }
   }
 
   private fun migrateReaction(db: SQLiteDatabase, cursor: Cursor, isMms: Boolean) {
@@ -21,6 +21,7 @@ import su.sres.securesms.database.PendingRetryReceiptCache;
 import su.sres.securesms.messages.BackgroundMessageRetriever;
 import su.sres.securesms.messages.IncomingMessageObserver;
 import su.sres.securesms.messages.IncomingMessageProcessor;
+import su.sres.securesms.messages.IncomingReceiptBuffer;
 import su.sres.securesms.groups.GroupsV2Authorization;
 import su.sres.securesms.groups.GroupsV2AuthorizationMemoryValueCache;
 import su.sres.securesms.groups.v2.processing.GroupsV2StateProcessor;
@@ -89,6 +90,7 @@ public class ApplicationDependencies {
   private static volatile GroupsV2StateProcessor       groupsV2StateProcessor;
   private static volatile GroupsV2Operations           groupsV2Operations;
   private static volatile EarlyMessageCache            earlyMessageCache;
+  private static volatile IncomingReceiptBuffer        incomingReceiptBuffer;
   private static volatile TypingStatusRepository       typingStatusRepository;
   private static volatile TypingStatusSender           typingStatusSender;
   private static volatile DatabaseObserver             databaseObserver;
@@ -394,6 +396,17 @@ public class ApplicationDependencies {
     return earlyMessageCache;
   }
 
+  public static @NonNull IncomingReceiptBuffer getIncomingReceiptBuffer() {
+    if (incomingReceiptBuffer == null) {
+      synchronized (LOCK) {
+        if (incomingReceiptBuffer == null) {
+          incomingReceiptBuffer = provider.provideIncomingReceiptBuffer();
+        }
+      }
+    }
+    return incomingReceiptBuffer;
+  }
+
   public static @NonNull MessageNotifier getMessageNotifier() {
     if (messageNotifier == null) {
       synchronized (LOCK) {
@@ -665,6 +678,8 @@ public class ApplicationDependencies {
 
     @NonNull EarlyMessageCache provideEarlyMessageCache();
 
+    @NonNull IncomingReceiptBuffer provideIncomingReceiptBuffer();
+
     @NonNull MessageNotifier provideMessageNotifier();
 
     @NonNull IncomingMessageObserver provideIncomingMessageObserver();
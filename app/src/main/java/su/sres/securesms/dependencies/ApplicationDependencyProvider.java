@@ -25,11 +25,12 @@ import su.sres.securesms.jobs.TypingSendJob;
 import su.sres.securesms.keyvalue.SignalStore;
 import su.sres.securesms.messages.IncomingMessageObserver;
 import su.sres.securesms.messages.IncomingMessageProcessor;
+import su.sres.securesms.messages.IncomingReceiptBuffer;
 import su.sres.securesms.crypto.storage.SignalProtocolStoreImpl;
 import su.sres.securesms.messages.BackgroundMessageRetriever;
+import su.sres.securesms.jobmanager.BinaryDataSerializer;
 import su.sres.securesms.jobmanager.JobManager;
 import su.sres.securesms.jobmanager.JobMigrator;
-import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
 import su.sres.securesms.jobs.FastJobStorage;
 import su.sres.securesms.jobs.JobManagerFactories;
 import su.sres.securesms.megaphone.MegaphoneRepository;
@@ -72,6 +73,8 @@ import su.sres.signalservice.api.util.UptimeSleepTimer;
 import su.sres.signalservice.api.websocket.WebSocketFactory;
 import su.sres.signalservice.internal.websocket.WebSocketConnection;
 
+import java.util.Collections;
+
 /**
  * Implementation of {@link ApplicationDependencies.Provider} that provides real app dependencies.
  */
@@ -151,11 +154,11 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
   @Override
   public @NonNull JobManager provideJobManager() {
     JobManager.Configuration config = new JobManager.Configuration.Builder()
-        .setDataSerializer(new JsonDataSerializer())
+        .setDataSerializer(new BinaryDataSerializer())
         .setJobFactories(JobManagerFactories.getJobFactories(context))
         .setConstraintFactories(JobManagerFactories.getConstraintFactories(context))
         .setConstraintObservers(JobManagerFactories.getConstraintObservers(context))
-        .setJobStorage(new FastJobStorage(JobDatabase.getInstance(context)))
+        .setJobStorage(new FastJobStorage(JobDatabase.getInstance(context), Collections.singleton(PushDecryptMessageJob.QUEUE)))
         .setJobMigrator(new JobMigrator(TextSecurePreferences.getJobManagerVersion(context), JobManager.CURRENT_VERSION, JobManagerFactories.getJobMigrations(context)))
         .addReservedJobRunner(new FactoryJobPredicate(PushDecryptMessageJob.KEY, PushProcessMessageJob.KEY, MarkerJob.KEY))
         .addReservedJobRunner(new FactoryJobPredicate(PushTextSendJob.KEY, PushMediaSendJob.KEY, PushGroupSendJob.KEY, ReactionSendJob.KEY, TypingSendJob.KEY, GroupCallUpdateSendJob.KEY))
@@ -178,6 +181,11 @@ public class ApplicationDependencyProvider implements ApplicationDependencies.Pr
     return new EarlyMessageCache();
   }
 
+  @Override
+  public @NonNull IncomingReceiptBuffer provideIncomingReceiptBuffer() {
+    return new IncomingReceiptBuffer();
+  }
+
   @Override
   public @NonNull MessageNotifier provideMessageNotifier() {
     return new OptimizedMessageNotifier(context);
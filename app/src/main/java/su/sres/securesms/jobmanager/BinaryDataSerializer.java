@@ -0,0 +1,342 @@
+package su.sres.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import su.sres.core.util.logging.Log;
+import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A compact, length-prefixed binary format for {@link Data}. Blobs are written as raw bytes rather
+ * than as Base64 strings inside of JSON.
+ *
+ * The format is a marker byte, a version byte, and then each of the typed maps in a fixed order,
+ * each written as a count followed by its key/value pairs. Anything that doesn't start with the
+ * marker is assumed to be a legacy JSON payload and is handed to {@link JsonDataSerializer}.
+ *
+ * Lives next to {@link Data} so that it can read the underlying maps directly.
+ */
+public final class BinaryDataSerializer implements Data.Serializer {
+
+    private static final String TAG = Log.tag(BinaryDataSerializer.class);
+
+    /** Can never be the first byte of a JSON document. */
+    static final byte MARKER  = (byte) 0xD7;
+    static final byte VERSION = 1;
+
+    private final Data.Serializer legacySerializer = new JsonDataSerializer();
+
+    @Override
+    public @NonNull byte[] serialize(@NonNull Data data) {
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(estimateSize(data));
+            DataOutputStream      out  = new DataOutputStream(baos);
+
+            out.writeByte(MARKER);
+            out.writeByte(VERSION);
+
+            writeCount(out, data.strings.size());
+            for (Map.Entry<String, String> entry : data.strings.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+
+            writeCount(out, data.stringArrays.size());
+            for (Map.Entry<String, String[]> entry : data.stringArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (String value : entry.getValue()) {
+                    writeString(out, value);
+                }
+            }
+
+            writeCount(out, data.integers.size());
+            for (Map.Entry<String, Integer> entry : data.integers.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+
+            writeCount(out, data.integerArrays.size());
+            for (Map.Entry<String, int[]> entry : data.integerArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (int value : entry.getValue()) {
+                    out.writeInt(value);
+                }
+            }
+
+            writeCount(out, data.longs.size());
+            for (Map.Entry<String, Long> entry : data.longs.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+
+            writeCount(out, data.longArrays.size());
+            for (Map.Entry<String, long[]> entry : data.longArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (long value : entry.getValue()) {
+                    out.writeLong(value);
+                }
+            }
+
+            writeCount(out, data.floats.size());
+            for (Map.Entry<String, Float> entry : data.floats.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeFloat(entry.getValue());
+            }
+
+            writeCount(out, data.floatArrays.size());
+            for (Map.Entry<String, float[]> entry : data.floatArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (float value : entry.getValue()) {
+                    out.writeFloat(value);
+                }
+            }
+
+            writeCount(out, data.doubles.size());
+            for (Map.Entry<String, Double> entry : data.doubles.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeDouble(entry.getValue());
+            }
+
+            writeCount(out, data.doubleArrays.size());
+            for (Map.Entry<String, double[]> entry : data.doubleArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (double value : entry.getValue()) {
+                    out.writeDouble(value);
+                }
+            }
+
+            writeCount(out, data.booleans.size());
+            for (Map.Entry<String, Boolean> entry : data.booleans.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeBoolean(entry.getValue());
+            }
+
+            writeCount(out, data.booleanArrays.size());
+            for (Map.Entry<String, boolean[]> entry : data.booleanArrays.entrySet()) {
+                writeString(out, entry.getKey());
+                writeCount(out, entry.getValue().length);
+                for (boolean value : entry.getValue()) {
+                    out.writeBoolean(value);
+                }
+            }
+
+            writeCount(out, data.blobs.size());
+            for (Map.Entry<String, byte[]> entry : data.blobs.entrySet()) {
+                writeString(out, entry.getKey());
+                writeBytes(out, entry.getValue());
+            }
+
+            out.flush();
+            return baos.toByteArray();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize.", e);
+            throw new AssertionError(e);
+        }
+    }
+
+    @Override
+    public @NonNull Data deserialize(@NonNull byte[] serialized) {
+        if (serialized.length < 2 || serialized[0] != MARKER) {
+            return legacySerializer.deserialize(serialized);
+        }
+
+        if (serialized[1] != VERSION) {
+            throw new AssertionError("Unknown data version: " + serialized[1]);
+        }
+
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(serialized, 2, serialized.length - 2));
+
+            Map<String, String> strings = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                strings.put(requireString(in), readString(in));
+            }
+
+            Map<String, String[]> stringArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String   key   = requireString(in);
+                String[] value = new String[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = readString(in);
+                }
+                stringArrays.put(key, value);
+            }
+
+            Map<String, Integer> integers = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                integers.put(requireString(in), in.readInt());
+            }
+
+            Map<String, int[]> integerArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String key   = requireString(in);
+                int[]  value = new int[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = in.readInt();
+                }
+                integerArrays.put(key, value);
+            }
+
+            Map<String, Long> longs = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                longs.put(requireString(in), in.readLong());
+            }
+
+            Map<String, long[]> longArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String key   = requireString(in);
+                long[] value = new long[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = in.readLong();
+                }
+                longArrays.put(key, value);
+            }
+
+            Map<String, Float> floats = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                floats.put(requireString(in), in.readFloat());
+            }
+
+            Map<String, float[]> floatArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String  key   = requireString(in);
+                float[] value = new float[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = in.readFloat();
+                }
+                floatArrays.put(key, value);
+            }
+
+            Map<String, Double> doubles = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                doubles.put(requireString(in), in.readDouble());
+            }
+
+            Map<String, double[]> doubleArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String   key   = requireString(in);
+                double[] value = new double[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = in.readDouble();
+                }
+                doubleArrays.put(key, value);
+            }
+
+            Map<String, Boolean> booleans = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                booleans.put(requireString(in), in.readBoolean());
+            }
+
+            Map<String, boolean[]> booleanArrays = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                String    key   = requireString(in);
+                boolean[] value = new boolean[readCount(in)];
+                for (int j = 0; j < value.length; j++) {
+                    value[j] = in.readBoolean();
+                }
+                booleanArrays.put(key, value);
+            }
+
+            Map<String, byte[]> blobs = new HashMap<>();
+            for (int i = 0, count = readCount(in); i < count; i++) {
+                blobs.put(requireString(in), readBytes(in));
+            }
+
+            return new Data(strings, stringArrays, integers, integerArrays, longs, longArrays, floats, floatArrays, doubles, doubleArrays, booleans, booleanArrays, blobs);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to deserialize.", e);
+            throw new AssertionError(e);
+        }
+    }
+
+    private static int estimateSize(@NonNull Data data) {
+        int size = 64;
+        for (byte[] blob : data.blobs.values()) {
+            size += blob != null ? blob.length + 16 : 0;
+        }
+        return size;
+    }
+
+    private static void writeCount(@NonNull DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readCount(@NonNull DataInputStream in) throws IOException {
+        int value = 0;
+        int shift = 0;
+
+        while (shift < 32) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+
+            shift += 7;
+        }
+
+        throw new IOException("Malformed length!");
+    }
+
+    /**
+     * Nullable values are written with their length + 1, so that 0 can represent null.
+     */
+    private static void writeBytes(@NonNull DataOutputStream out, @Nullable byte[] value) throws IOException {
+        if (value == null) {
+            writeCount(out, 0);
+        } else {
+            writeCount(out, value.length + 1);
+            out.write(value);
+        }
+    }
+
+    private static @Nullable byte[] readBytes(@NonNull DataInputStream in) throws IOException {
+        int length = readCount(in);
+
+        if (length == 0) {
+            return null;
+        }
+
+        byte[] value = new byte[length - 1];
+        in.readFully(value);
+        return value;
+    }
+
+    private static void writeString(@NonNull DataOutputStream out, @Nullable String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+    }
+
+    private static @Nullable String readString(@NonNull DataInputStream in) throws IOException {
+        byte[] value = readBytes(in);
+        return value != null ? new String(value, StandardCharsets.UTF_8) : null;
+    }
+
+    private static @NonNull String requireString(@NonNull DataInputStream in) throws IOException {
+        String value = readString(in);
+
+        if (value == null) {
+            throw new IOException("Missing key!");
+        }
+
+        return value;
+    }
+}
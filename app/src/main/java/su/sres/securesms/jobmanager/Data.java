@@ -18,18 +18,19 @@ public class Data {
 
     public static final Data EMPTY = new Data.Builder().build();
 
-    @JsonProperty private final Map<String, String>    strings;
-    @JsonProperty private final Map<String, String[]>  stringArrays;
-    @JsonProperty private final Map<String, Integer>   integers;
-    @JsonProperty private final Map<String, int[]>     integerArrays;
-    @JsonProperty private final Map<String, Long>      longs;
-    @JsonProperty private final Map<String, long[]>    longArrays;
-    @JsonProperty private final Map<String, Float>     floats;
-    @JsonProperty private final Map<String, float[]>   floatArrays;
-    @JsonProperty private final Map<String, Double>    doubles;
-    @JsonProperty private final Map<String, double[]>  doubleArrays;
-    @JsonProperty private final Map<String, Boolean>   booleans;
-    @JsonProperty private final Map<String, boolean[]> booleanArrays;
+    @JsonProperty final Map<String, String>    strings;
+    @JsonProperty final Map<String, String[]>  stringArrays;
+    @JsonProperty final Map<String, Integer>   integers;
+    @JsonProperty final Map<String, int[]>     integerArrays;
+    @JsonProperty final Map<String, Long>      longs;
+    @JsonProperty final Map<String, long[]>    longArrays;
+    @JsonProperty final Map<String, Float>     floats;
+    @JsonProperty final Map<String, float[]>   floatArrays;
+    @JsonProperty final Map<String, Double>    doubles;
+    @JsonProperty final Map<String, double[]>  doubleArrays;
+    @JsonProperty final Map<String, Boolean>   booleans;
+    @JsonProperty final Map<String, boolean[]> booleanArrays;
+    @JsonProperty final Map<String, byte[]>    blobs;
 
     public Data(@JsonProperty("strings")       @NonNull Map<String, String>    strings,
                 @JsonProperty("stringArrays")  @NonNull Map<String, String[]>  stringArrays,
@@ -42,7 +43,8 @@ public class Data {
                 @JsonProperty("doubles")       @NonNull Map<String, Double>    doubles,
                 @JsonProperty("doubleArrays")  @NonNull Map<String, double[]>  doubleArrays,
                 @JsonProperty("booleans")      @NonNull Map<String, Boolean>   booleans,
-                @JsonProperty("booleanArrays") @NonNull Map<String, boolean[]> booleanArrays)
+                @JsonProperty("booleanArrays") @NonNull Map<String, boolean[]> booleanArrays,
+                @JsonProperty("blobs")         @Nullable Map<String, byte[]>   blobs)
     {
         this.strings       = strings;
         this.stringArrays  = stringArrays;
@@ -56,18 +58,32 @@ public class Data {
         this.doubleArrays  = doubleArrays;
         this.booleans      = booleans;
         this.booleanArrays = booleanArrays;
+        this.blobs         = blobs != null ? blobs : new HashMap<>();
     }
 
     public boolean hasString(@NonNull String key) {
-        return strings.containsKey(key);
+        return strings.containsKey(key) || blobs.containsKey(key);
     }
 
     public String getString(@NonNull String key) {
+        if (blobs.containsKey(key)) {
+            byte[] blob = blobs.get(key);
+            return blob != null ? Base64.encodeBytes(blob) : null;
+        }
+
         throwIfAbsent(strings, key);
         return strings.get(key);
     }
 
+    /**
+     * Blobs are kept as raw bytes, but older data (and data put with {@link Builder#putString(String, String)})
+     * may still hold them as Base64 strings, so we fall back to decoding those.
+     */
     public byte[] getStringAsBlob(@NonNull String key) {
+        if (blobs.containsKey(key)) {
+            return blobs.get(key);
+        }
+
         String raw = getString(key);
         return raw != null ? Base64.decodeOrThrow(raw) : null;
     }
@@ -256,6 +272,7 @@ public class Data {
         private final Map<String, double[]>  doubleArrays  = new HashMap<>();
         private final Map<String, Boolean>   booleans      = new HashMap<>();
         private final Map<String, boolean[]> booleanArrays = new HashMap<>();
+        private final Map<String, byte[]>    blobs         = new HashMap<>();
 
         public Builder() { }
 
@@ -272,10 +289,12 @@ public class Data {
             doubleArrays.putAll(oldData.doubleArrays);
             booleans.putAll(oldData.booleans);
             booleanArrays.putAll(oldData.booleanArrays);
+            blobs.putAll(oldData.blobs);
         }
 
         public Builder putString(@NonNull String key, @Nullable String value) {
             strings.put(key, value);
+            blobs.remove(key);
             return this;
         }
 
@@ -354,8 +373,8 @@ public class Data {
         }
 
         public Builder putBlobAsString(@NonNull String key, @Nullable byte[] value) {
-            String serialized = value != null ? Base64.encodeBytes(value) : null;
-            strings.put(key, serialized);
+            blobs.put(key, value);
+            strings.remove(key);
             return this;
         }
 
@@ -371,12 +390,13 @@ public class Data {
                     doubles,
                     doubleArrays,
                     booleans,
-                    booleanArrays);
+                    booleanArrays,
+                    blobs);
         }
     }
 
     public interface Serializer {
-        @NonNull String serialize(@NonNull Data data);
-        @NonNull Data deserialize(@NonNull String serialized);
+        @NonNull byte[] serialize(@NonNull Data data);
+        @NonNull Data deserialize(@NonNull byte[] serialized);
     }
 }
\ No newline at end of file
@@ -44,6 +44,7 @@ class JobController {
   private final Scheduler              scheduler;
   private final Debouncer              debouncer;
   private final Callback               callback;
+  private final JobMetrics             jobMetrics;
   private final Map<String, Job>       runningJobs;
 
   JobController(@NonNull Application application,
@@ -54,7 +55,8 @@ class JobController {
                 @NonNull JobTracker jobTracker,
                 @NonNull Scheduler scheduler,
                 @NonNull Debouncer debouncer,
-                @NonNull Callback callback)
+                @NonNull Callback callback,
+                @NonNull JobMetrics jobMetrics)
   {
     this.application            = application;
     this.jobStorage             = jobStorage;
@@ -65,6 +67,7 @@ class JobController {
     this.scheduler              = scheduler;
     this.debouncer              = debouncer;
     this.callback               = callback;
+    this.jobMetrics             = jobMetrics;
     this.runningJobs            = new HashMap<>();
   }
 
@@ -198,7 +201,7 @@ class JobController {
 
     int    nextRunAttempt     = job.getRunAttempt() + 1;
     long   nextRunAttemptTime = System.currentTimeMillis() + backoffInterval;
-    String serializedData     = dataSerializer.serialize(job.serialize());
+    byte[] serializedData     = dataSerializer.serialize(job.serialize());
 
     jobStorage.updateJobAfterRetry(job.getId(), false, nextRunAttempt, nextRunAttemptTime, serializedData);
     jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
@@ -287,6 +290,9 @@ class JobController {
       runningJobs.put(job.getId(), job);
       jobTracker.onStateChange(job, JobTracker.JobState.RUNNING);
 
+      long eligibleSince = Math.max(job.getParameters().getCreateTime(), job.getNextRunAttemptTime());
+      jobMetrics.onJobStarted(job.getFactoryKey(), job.getParameters().getQueue(), Math.max(0, System.currentTimeMillis() - eligibleSince));
+
       return job;
     } catch (InterruptedException e) {
       Log.e(TAG, "Interrupted.");
@@ -333,6 +339,10 @@ class JobController {
     return jobStorage.areQueuesEmpty(queueKeys);
   }
 
+  synchronized boolean areQueuesWithPrefixEmpty(@NonNull String queuePrefix) {
+    return jobStorage.getJobsInQueuesWithPrefix(queuePrefix).isEmpty();
+  }
+
   @WorkerThread
   private boolean chainExceedsMaximumInstances(@NonNull List<List<Job>> chain) {
     if (chain.size() == 1 && chain.get(0).size() == 1) {
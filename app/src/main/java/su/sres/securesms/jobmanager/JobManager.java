@@ -11,7 +11,6 @@ import androidx.annotation.WorkerThread;
 
 import su.sres.core.util.ThreadUtil;
 import su.sres.securesms.jobmanager.impl.DefaultExecutorFactory;
-import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
 import su.sres.securesms.jobmanager.persistence.JobStorage;
 import su.sres.core.util.logging.Log;
 import su.sres.securesms.util.Debouncer;
@@ -43,13 +42,14 @@ public class JobManager implements ConstraintObserver.Notifier {
 
   private static final String TAG = Log.tag(JobManager.class);
 
-  public static final int CURRENT_VERSION = 8;
+  public static final int CURRENT_VERSION = 9;
 
   private final Application   application;
   private final Configuration configuration;
   private final Executor      executor;
   private final JobController jobController;
   private final JobTracker    jobTracker;
+  private final JobMetrics    jobMetrics;
 
   @GuardedBy("emptyQueueListeners")
   private final Set<EmptyQueueListener> emptyQueueListeners = new CopyOnWriteArraySet<>();
@@ -61,6 +61,7 @@ public class JobManager implements ConstraintObserver.Notifier {
     this.configuration = configuration;
     this.executor      = ThreadUtil.trace(new FilteredExecutor(configuration.getExecutorFactory().newSingleThreadExecutor("shadow-JobManager"), ThreadUtil::isMainThread));
     this.jobTracker    = configuration.getJobTracker();
+    this.jobMetrics    = new JobMetrics();
     this.jobController = new JobController(application,
                                            configuration.getJobStorage(),
                                            configuration.getJobInstantiator(),
@@ -70,7 +71,8 @@ public class JobManager implements ConstraintObserver.Notifier {
                                            Build.VERSION.SDK_INT < 26 ? new AlarmManagerScheduler(application)
                                                                       : new CompositeScheduler(new InAppScheduler(this), new JobSchedulerScheduler(application)),
                                            new Debouncer(500),
-                                           this::onEmptyQueue);
+                                           this::onEmptyQueue,
+                                           jobMetrics);
 
     executor.execute(() -> {
       synchronized (this) {
@@ -105,11 +107,11 @@ public class JobManager implements ConstraintObserver.Notifier {
       int id = 0;
 
       for (int i = 0; i < configuration.getJobThreadCount(); i++) {
-        new JobRunner(application, ++id, jobController, JobPredicate.NONE).start();
+        new JobRunner(application, ++id, jobController, JobPredicate.NONE, jobMetrics).start();
       }
 
       for (JobPredicate predicate : configuration.getReservedJobRunners()) {
-        new JobRunner(application, ++id, jobController, predicate).start();
+        new JobRunner(application, ++id, jobController, predicate, jobMetrics).start();
       }
 
       jobController.wakeUp();
@@ -194,6 +196,55 @@ public class JobManager implements ConstraintObserver.Notifier {
     });
   }
 
+  /**
+   * Enqueues a set of jobs that can be run in parallel, and blocks until they have been written to
+   * storage. The jobs are inserted together in a single transaction, in the order given. If they
+   * couldn't be written, the failure is rethrown on the calling thread.
+   */
+  @WorkerThread
+  public void addAllBlocking(@NonNull List<? extends Job> jobs) {
+    if (jobs.isEmpty()) {
+      return;
+    }
+
+    List<Job> jobList = new ArrayList<>(jobs);
+
+    for (Job job : jobList) {
+      jobTracker.onStateChange(job, JobTracker.JobState.PENDING);
+    }
+
+    CountDownLatch             latch = new CountDownLatch(1);
+    AtomicReference<Throwable> error = new AtomicReference<>();
+
+    runOnExecutor(() -> {
+      try {
+        jobController.submitNewJobChain(Collections.singletonList(jobList));
+        jobController.wakeUp();
+      } catch (Throwable t) {
+        error.set(t);
+      } finally {
+        latch.countDown();
+      }
+    });
+
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Log.w(TAG, "Interrupted while waiting for jobs to be persisted.", e);
+      throw new AssertionError(e);
+    }
+
+    Throwable t = error.get();
+
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException) t;
+    } else if (t instanceof Error) {
+      throw (Error) t;
+    } else if (t != null) {
+      throw new AssertionError(t);
+    }
+  }
+
   /**
    * Begins the creation of a job chain with a single job.
    *
@@ -305,6 +356,13 @@ public class JobManager implements ConstraintObserver.Notifier {
     }
   }
 
+  /**
+   * Execution metrics for every job factory and queue since the app started.
+   */
+  public @NonNull JobMetrics getMetrics() {
+    return jobMetrics;
+  }
+
   /**
    * Adds a listener that will be notified when the job queue has been drained.
    */
@@ -375,6 +433,18 @@ public class JobManager implements ConstraintObserver.Notifier {
     return jobController.areQueuesEmpty(queueKeys);
   }
 
+  /**
+   * See {@link #isQueueEmpty(String)}
+   *
+   * @return True if every queue whose name starts with the prefix is empty at the time of
+   * invocation, otherwise false.
+   */
+  @WorkerThread
+  public boolean areQueuesWithPrefixEmpty(@NonNull String queuePrefix) {
+    waitUntilInitialized();
+    return jobController.areQueuesWithPrefixEmpty(queuePrefix);
+  }
+
   /**
    * Pokes the system to take another pass at the job queue.
    */
@@ -573,7 +643,7 @@ public class JobManager implements ConstraintObserver.Notifier {
       private Map<String, Job.Factory>        jobFactories        = new HashMap<>();
       private Map<String, Constraint.Factory> constraintFactories = new HashMap<>();
       private List<ConstraintObserver>        constraintObservers = new ArrayList<>();
-      private Data.Serializer                 dataSerializer      = new JsonDataSerializer();
+      private Data.Serializer                 dataSerializer      = new BinaryDataSerializer();
       private JobStorage                      jobStorage          = null;
       private JobMigrator                     jobMigrator         = null;
       private JobTracker                      jobTracker          = new JobTracker();
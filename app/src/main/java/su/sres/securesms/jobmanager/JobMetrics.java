@@ -0,0 +1,355 @@
+package su.sres.securesms.jobmanager;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import su.sres.securesms.util.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps execution statistics for every job factory and queue since the app started: how long jobs
+ * wait to run, how long they run for, how often they retry and fail, and how many ran at once.
+ *
+ * Everything is kept in counters and fixed-size histograms that are created the first time we see
+ * a factory or queue, so recording a job doesn't allocate anything. This is always on, so times use
+ * {@link LatencyHistogram#compact()} histograms and attempts are plain counters, which keeps each
+ * factory or queue to a few KB.
+ */
+public final class JobMetrics {
+
+  /** Queue keys often include a recipient or thread ID, so we stop tracking new ones past this. */
+  private static final int MAX_QUEUES = 100;
+
+  static final String OTHER_QUEUE = "<other>";
+
+  /** Attempts are counted individually up to this, and everything past it shares the last counter. */
+  private static final int MAX_COUNTED_ATTEMPTS = 16;
+
+  private final Map<String, Stats> factories;
+  private final Map<String, Stats> queues;
+  private final AtomicInteger      running;
+  private final AtomicInteger      maxRunning;
+
+  JobMetrics() {
+    this.factories  = new ConcurrentHashMap<>();
+    this.queues     = new ConcurrentHashMap<>();
+    this.running    = new AtomicInteger(0);
+    this.maxRunning = new AtomicInteger(0);
+  }
+
+  /**
+   * Called when a job is handed to a runner.
+   *
+   * @param queueWait How long the job was eligible to run before it started.
+   */
+  void onJobStarted(@NonNull String factoryKey, @Nullable String queue, long queueWait) {
+    updateMax(maxRunning, running.incrementAndGet());
+
+    getFactoryStats(factoryKey).onStarted(queueWait);
+
+    if (queue != null) {
+      getQueueStats(queue).onStarted(queueWait);
+    }
+  }
+
+  /**
+   * Called when a runner is done with a job.
+   *
+   * @param runAttempt The attempt that just finished, starting at 0.
+   */
+  void onJobFinished(@NonNull String factoryKey, @Nullable String queue, long runTime, int runAttempt, @NonNull Job.Result result) {
+    running.decrementAndGet();
+
+    getFactoryStats(factoryKey).onFinished(runTime, runAttempt, result);
+
+    if (queue != null) {
+      getQueueStats(queue).onFinished(runTime, runAttempt, result);
+    }
+  }
+
+  /**
+   * @return The most jobs that were running at the same time.
+   */
+  public int getMaxConcurrentJobs() {
+    return maxRunning.get();
+  }
+
+  /**
+   * @return Metrics for every job factory that has started a job, busiest first.
+   */
+  public @NonNull List<Summary> getFactoryMetrics() {
+    return summarize(factories);
+  }
+
+  /**
+   * @return Metrics for every queue that has started a job, busiest first. Once there are too many
+   *         queues, new ones are combined under {@link #OTHER_QUEUE}.
+   */
+  public @NonNull List<Summary> getQueueMetrics() {
+    return summarize(queues);
+  }
+
+  private @NonNull Stats getFactoryStats(@NonNull String factoryKey) {
+    return getOrCreate(factories, factoryKey);
+  }
+
+  private @NonNull Stats getQueueStats(@NonNull String queue) {
+    if (!queues.containsKey(queue) && queues.size() >= MAX_QUEUES) {
+      queue = OTHER_QUEUE;
+    }
+
+    return getOrCreate(queues, queue);
+  }
+
+  private static @NonNull Stats getOrCreate(@NonNull Map<String, Stats> map, @NonNull String key) {
+    Stats stats = map.get(key);
+
+    if (stats != null) {
+      return stats;
+    }
+
+    Stats created  = new Stats();
+    Stats existing = map.putIfAbsent(key, created);
+
+    return existing != null ? existing : created;
+  }
+
+  private static @NonNull List<Summary> summarize(@NonNull Map<String, Stats> map) {
+    List<Summary> summaries = new ArrayList<>(map.size());
+
+    for (Map.Entry<String, Stats> entry : map.entrySet()) {
+      summaries.add(entry.getValue().summarize(entry.getKey()));
+    }
+
+    Collections.sort(summaries, (lhs, rhs) -> Long.compare(rhs.getTotalRunTime(), lhs.getTotalRunTime()));
+
+    return summaries;
+  }
+
+  private static void updateMax(@NonNull AtomicInteger max, int value) {
+    int current;
+
+    do {
+      current = max.get();
+    } while (value > current && !max.compareAndSet(current, value));
+  }
+
+  private static final class Stats {
+    private final AtomicLong       started      = new AtomicLong(0);
+    private final AtomicLong       successes    = new AtomicLong(0);
+    private final AtomicLong       retries      = new AtomicLong(0);
+    private final AtomicLong       failures     = new AtomicLong(0);
+    private final AtomicLong       totalRunTime = new AtomicLong(0);
+    private final AtomicInteger    running      = new AtomicInteger(0);
+    private final AtomicInteger    maxRunning   = new AtomicInteger(0);
+    private final AtomicInteger    maxAttempt   = new AtomicInteger(0);
+    private final AtomicLongArray  attempts     = new AtomicLongArray(MAX_COUNTED_ATTEMPTS + 1);
+    private final LatencyHistogram queueWait    = LatencyHistogram.compact();
+    private final LatencyHistogram runTime      = LatencyHistogram.compact();
+
+    void onStarted(long wait) {
+      started.incrementAndGet();
+      queueWait.record(wait);
+      updateMax(maxRunning, running.incrementAndGet());
+    }
+
+    void onFinished(long duration, int runAttempt, @NonNull Job.Result result) {
+      running.decrementAndGet();
+      totalRunTime.addAndGet(duration);
+      runTime.record(duration);
+
+      if (result.isSuccess()) {
+        successes.incrementAndGet();
+        onCompleted(runAttempt);
+      } else if (result.isRetry()) {
+        retries.incrementAndGet();
+      } else {
+        failures.incrementAndGet();
+        onCompleted(runAttempt);
+      }
+    }
+
+    private void onCompleted(int runAttempt) {
+      attempts.incrementAndGet(Math.max(0, Math.min(runAttempt, MAX_COUNTED_ATTEMPTS)));
+      updateMax(maxAttempt, runAttempt);
+    }
+
+    /**
+     * @return The median attempt, or -1 if no job has completed. Anything past
+     *         {@link #MAX_COUNTED_ATTEMPTS} is reported as that.
+     */
+    private long getMedianAttempt() {
+      long count = 0;
+
+      for (int i = 0; i < attempts.length(); i++) {
+        count += attempts.get(i);
+      }
+
+      if (count == 0) {
+        return -1;
+      }
+
+      long rank = Math.max(1, count / 2);
+      long seen = 0;
+
+      for (int i = 0; i < attempts.length(); i++) {
+        seen += attempts.get(i);
+
+        if (seen >= rank) {
+          return i;
+        }
+      }
+
+      return MAX_COUNTED_ATTEMPTS;
+    }
+
+    @NonNull Summary summarize(@NonNull String key) {
+      long medianAttempt = getMedianAttempt();
+
+      return new Summary(key,
+                         started.get(),
+                         successes.get(),
+                         retries.get(),
+                         failures.get(),
+                         totalRunTime.get(),
+                         maxRunning.get(),
+                         new long[] { queueWait.getPercentile(50), queueWait.getPercentile(90), queueWait.getPercentile(99) },
+                         new long[] { runTime.getPercentile(50), runTime.getPercentile(90), runTime.getPercentile(99) },
+                         new long[] { medianAttempt, medianAttempt >= 0 ? maxAttempt.get() : -1 });
+    }
+  }
+
+  /**
+   * A point-in-time copy of the metrics for a single factory or queue. Times are in milliseconds,
+   * and percentiles are -1 if nothing has been recorded yet.
+   */
+  public static final class Summary {
+    private final String key;
+    private final long   started;
+    private final long   successes;
+    private final long   retries;
+    private final long   failures;
+    private final long   totalRunTime;
+    private final int    maxConcurrent;
+    private final long[] queueWait;
+    private final long[] runTime;
+    private final long[] retryCount;
+
+    private Summary(@NonNull String key,
+                    long started,
+                    long successes,
+                    long retries,
+                    long failures,
+                    long totalRunTime,
+                    int maxConcurrent,
+                    @NonNull long[] queueWait,
+                    @NonNull long[] runTime,
+                    @NonNull long[] retryCount)
+    {
+      this.key           = key;
+      this.started       = started;
+      this.successes     = successes;
+      this.retries       = retries;
+      this.failures      = failures;
+      this.totalRunTime  = totalRunTime;
+      this.maxConcurrent = maxConcurrent;
+      this.queueWait     = queueWait;
+      this.runTime       = runTime;
+      this.retryCount    = retryCount;
+    }
+
+    /**
+     * @return The factory key or queue key.
+     */
+    public @NonNull String getKey() {
+      return key;
+    }
+
+    /**
+     * @return How many times a job was started, including retries.
+     */
+    public long getStarted() {
+      return started;
+    }
+
+    public long getSuccesses() {
+      return successes;
+    }
+
+    /**
+     * @return How many runs ended in a retry.
+     */
+    public long getRetries() {
+      return retries;
+    }
+
+    public long getFailures() {
+      return failures;
+    }
+
+    /**
+     * @return The fraction of finished jobs that failed, from 0 to 1.
+     */
+    public float getFailureRate() {
+      long finished = successes + failures;
+      return finished > 0 ? failures / (float) finished : 0;
+    }
+
+    public long getTotalRunTime() {
+      return totalRunTime;
+    }
+
+    /**
+     * @return The most jobs that were running at the same time.
+     */
+    public int getMaxConcurrent() {
+      return maxConcurrent;
+    }
+
+    public long getQueueWaitP50() {
+      return queueWait[0];
+    }
+
+    public long getQueueWaitP90() {
+      return queueWait[1];
+    }
+
+    public long getQueueWaitP99() {
+      return queueWait[2];
+    }
+
+    public long getRunTimeP50() {
+      return runTime[0];
+    }
+
+    public long getRunTimeP90() {
+      return runTime[1];
+    }
+
+    public long getRunTimeP99() {
+      return runTime[2];
+    }
+
+    /**
+     * @return The median of how many times a job was retried before it succeeded or failed.
+     */
+    public long getRetryCountP50() {
+      return retryCount[0];
+    }
+
+    /**
+     * @return The most times a job was retried before it succeeded or failed.
+     */
+    public long getRetryCountMax() {
+      return retryCount[1];
+    }
+  }
+}
@@ -31,23 +31,27 @@ class JobRunner extends Thread {
     private final int           id;
     private final JobController jobController;
     private final JobPredicate  jobPredicate;
+    private final JobMetrics    jobMetrics;
 
-    JobRunner(@NonNull Application application, int id, @NonNull JobController jobController, @NonNull JobPredicate predicate) {
+    JobRunner(@NonNull Application application, int id, @NonNull JobController jobController, @NonNull JobPredicate predicate, @NonNull JobMetrics jobMetrics) {
         super("signal-JobRunner-" + id);
 
         this.application   = application;
         this.id            = id;
         this.jobController = jobController;
         this.jobPredicate  = predicate;
+        this.jobMetrics    = jobMetrics;
     }
 
     @Override
     public synchronized void run() {
         //noinspection InfiniteLoopStatement
         while (true) {
-            Job        job    = jobController.pullNextEligibleJobForExecution(jobPredicate);
-            Job.Result result = run(job);
+            Job        job       = jobController.pullNextEligibleJobForExecution(jobPredicate);
+            long       startTime = System.currentTimeMillis();
+            Job.Result result    = run(job);
 
+            jobMetrics.onJobFinished(job.getFactoryKey(), job.getParameters().getQueue(), System.currentTimeMillis() - startTime, job.getRunAttempt(), result);
             jobController.onJobFinished(job);
 
             if (result.isSuccess()) {
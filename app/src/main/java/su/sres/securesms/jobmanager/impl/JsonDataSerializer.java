@@ -7,15 +7,16 @@ import su.sres.core.util.logging.Log;
 import su.sres.securesms.util.JsonUtils;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 
 public class JsonDataSerializer implements Data.Serializer {
 
     private static final String TAG = Log.tag(JsonDataSerializer.class);
 
     @Override
-    public @NonNull String serialize(@NonNull Data data) {
+    public @NonNull byte[] serialize(@NonNull Data data) {
         try {
-            return JsonUtils.toJson(data);
+            return JsonUtils.toJson(data).getBytes(StandardCharsets.UTF_8);
         } catch (IOException e) {
             Log.e(TAG, "Failed to serialize to JSON.", e);
             throw new AssertionError(e);
@@ -23,9 +24,9 @@ public class JsonDataSerializer implements Data.Serializer {
     }
 
     @Override
-    public @NonNull Data deserialize(@NonNull String serialized) {
+    public @NonNull Data deserialize(@NonNull byte[] serialized) {
         try {
-            return JsonUtils.fromJson(serialized, Data.class);
+            return JsonUtils.fromJson(new String(serialized, StandardCharsets.UTF_8), Data.class);
         } catch (IOException e) {
             Log.e(TAG, "Failed to deserialize JSON.", e);
             throw new AssertionError(e);
@@ -0,0 +1,41 @@
+package su.sres.securesms.jobmanager.migrations;
+
+import androidx.annotation.NonNull;
+
+import su.sres.core.util.logging.Log;
+import su.sres.securesms.jobmanager.BinaryDataSerializer;
+import su.sres.securesms.jobmanager.Data;
+import su.sres.securesms.jobmanager.JobMigration;
+
+/**
+ * We moved job data from JSON to {@link BinaryDataSerializer}. The JobMigrator re-serializes the
+ * data of every job it migrates with the current serializer, so simply running this migration
+ * rewrites all existing rows in the new format.
+ *
+ * Blobs in existing rows were stored as Base64 strings, so for the one job where that really
+ * matters (the decrypt job, which holds a whole envelope) we also move the envelope over to a raw
+ * blob.
+ */
+public class BinaryJobDataMigration extends JobMigration {
+
+  private static final String TAG = Log.tag(BinaryJobDataMigration.class);
+
+  private static final String PUSH_DECRYPT_JOB_KEY = "PushDecryptJob";
+  private static final String KEY_ENVELOPE         = "envelope";
+
+  public BinaryJobDataMigration() {
+    super(9);
+  }
+
+  @Override
+  protected @NonNull JobData migrate(@NonNull JobData jobData) {
+    if (PUSH_DECRYPT_JOB_KEY.equals(jobData.getFactoryKey()) && jobData.getData().hasString(KEY_ENVELOPE)) {
+      Data data = jobData.getData();
+      return jobData.withData(data.buildUpon()
+                                  .putBlobAsString(KEY_ENVELOPE, data.getStringAsBlob(KEY_ENVELOPE))
+                                  .build());
+    } else {
+      return jobData;
+    }
+  }
+}
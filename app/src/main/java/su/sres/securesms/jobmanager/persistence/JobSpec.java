@@ -5,6 +5,7 @@ import android.annotation.SuppressLint;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 
+import java.util.Arrays;
 import java.util.Locale;
 import java.util.Objects;
 
@@ -18,8 +19,8 @@ public final class JobSpec {
   private final int     runAttempt;
   private final int     maxAttempts;
   private final long    lifespan;
-  private final String  serializedData;
-  private final String  serializedInputData;
+  private final byte[]  serializedData;
+  private final byte[]  serializedInputData;
   private final boolean isRunning;
   private final boolean memoryOnly;
 
@@ -31,8 +32,8 @@ public final class JobSpec {
                  int runAttempt,
                  int maxAttempts,
                  long lifespan,
-                 @NonNull String serializedData,
-                 @Nullable String serializedInputData,
+                 @NonNull byte[] serializedData,
+                 @Nullable byte[] serializedInputData,
                  boolean isRunning,
                  boolean memoryOnly)
   {
@@ -86,11 +87,11 @@ public final class JobSpec {
     return lifespan;
   }
 
-  public @NonNull String getSerializedData() {
+  public @NonNull byte[] getSerializedData() {
     return serializedData;
   }
 
-  public @Nullable String getSerializedInputData() {
+  public @Nullable byte[] getSerializedInputData() {
     return serializedInputData;
   }
 
@@ -117,13 +118,16 @@ public final class JobSpec {
            Objects.equals(id, jobSpec.id) &&
            Objects.equals(factoryKey, jobSpec.factoryKey) &&
            Objects.equals(queueKey, jobSpec.queueKey) &&
-           Objects.equals(serializedData, jobSpec.serializedData) &&
-           Objects.equals(serializedInputData, jobSpec.serializedInputData);
+           Arrays.equals(serializedData, jobSpec.serializedData) &&
+           Arrays.equals(serializedInputData, jobSpec.serializedInputData);
   }
 
   @Override
   public int hashCode() {
-    return Objects.hash(id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, serializedData, serializedInputData, isRunning, memoryOnly);
+    int result = Objects.hash(id, factoryKey, queueKey, createTime, nextRunAttemptTime, runAttempt, maxAttempts, lifespan, isRunning, memoryOnly);
+    result = 31 * result + Arrays.hashCode(serializedData);
+    result = 31 * result + Arrays.hashCode(serializedInputData);
+    return result;
   }
 
   @SuppressLint("DefaultLocale")
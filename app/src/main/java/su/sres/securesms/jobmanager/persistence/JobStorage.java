@@ -27,6 +27,9 @@ public interface JobStorage {
     @WorkerThread
     @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue);
 
+    @WorkerThread
+    @NonNull List<JobSpec> getJobsInQueuesWithPrefix(@NonNull String queuePrefix);
+
     @WorkerThread
     int getJobCountForFactory(@NonNull String factoryKey);
 
@@ -40,7 +43,7 @@ public interface JobStorage {
     void updateJobRunningState(@NonNull String id, boolean isRunning);
 
     @WorkerThread
-    void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData);
+    void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull byte[] serializedData);
 
     @WorkerThread
     void updateAllJobsToBePending();
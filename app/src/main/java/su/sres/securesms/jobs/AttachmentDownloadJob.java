@@ -1,6 +1,7 @@
 package su.sres.securesms.jobs;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 import android.text.TextUtils;
 
@@ -28,16 +29,17 @@ import su.sres.securesms.util.Util;
 import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.util.guava.Optional;
 import su.sres.signalservice.api.SignalServiceMessageReceiver;
+import su.sres.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
 import su.sres.signalservice.api.messages.SignalServiceAttachmentPointer;
 import su.sres.signalservice.api.messages.SignalServiceAttachmentRemoteId;
 import su.sres.signalservice.api.push.exceptions.MissingConfigurationException;
 import su.sres.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import su.sres.signalservice.api.push.exceptions.PushNetworkException;
 import su.sres.signalservice.api.push.exceptions.RangeException;
+import su.sres.signalservice.internal.push.http.SegmentedDownloadSpec;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.concurrent.TimeUnit;
 
 public final class AttachmentDownloadJob extends BaseJob {
@@ -47,15 +49,24 @@ public final class AttachmentDownloadJob extends BaseJob {
   private static final int    MAX_ATTACHMENT_SIZE = 150 * 1024  * 1024;
   private static final String TAG                  = Log.tag(AttachmentDownloadJob.class);
 
-  private static final String KEY_MESSAGE_ID    = "message_id";
-  private static final String KEY_PART_ROW_ID   = "part_row_id";
-  private static final String KEY_PAR_UNIQUE_ID = "part_unique_id";
-  private static final String KEY_MANUAL        = "part_manual";
-
-  private long    messageId;
-  private long    partRowId;
-  private long    partUniqueId;
-  private boolean manual;
+  /** Attachments at least this big are fetched as several ranges in parallel. */
+  private static final long SEGMENTED_DOWNLOAD_THRESHOLD = 10 * 1024 * 1024;
+  private static final int  SEGMENT_COUNT                = 4;
+
+  private static final String KEY_MESSAGE_ID         = "message_id";
+  private static final String KEY_PART_ROW_ID        = "part_row_id";
+  private static final String KEY_PAR_UNIQUE_ID      = "part_unique_id";
+  private static final String KEY_MANUAL             = "part_manual";
+  private static final String KEY_SEGMENT_ENDS       = "segment_ends";
+  private static final String KEY_SEGMENT_PROGRESS   = "segment_progress";
+  private static final String KEY_SEGMENTED_DISABLED = "segmented_disabled";
+
+  private long                  messageId;
+  private long                  partRowId;
+  private long                  partUniqueId;
+  private boolean               manual;
+  private SegmentedDownloadSpec segments;
+  private boolean               segmentedDisabled;
 
   public AttachmentDownloadJob(long messageId, AttachmentId attachmentId, boolean manual) {
     this(new Job.Parameters.Builder()
@@ -66,26 +77,43 @@ public final class AttachmentDownloadJob extends BaseJob {
                     .build(),
             messageId,
             attachmentId,
-            manual);
+            manual,
+            null,
+            false);
 
   }
 
-  private AttachmentDownloadJob(@NonNull Job.Parameters parameters, long messageId, AttachmentId attachmentId, boolean manual) {
+  private AttachmentDownloadJob(@NonNull Job.Parameters parameters,
+                                long messageId,
+                                AttachmentId attachmentId,
+                                boolean manual,
+                                @Nullable SegmentedDownloadSpec segments,
+                                boolean segmentedDisabled)
+  {
     super(parameters);
 
-    this.messageId    = messageId;
-    this.partRowId    = attachmentId.getRowId();
-    this.partUniqueId = attachmentId.getUniqueId();
-    this.manual       = manual;
+    this.messageId         = messageId;
+    this.partRowId         = attachmentId.getRowId();
+    this.partUniqueId      = attachmentId.getUniqueId();
+    this.manual            = manual;
+    this.segments          = segments;
+    this.segmentedDisabled = segmentedDisabled;
   }
 
   @Override
   public @NonNull Data serialize() {
-    return new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
+    Data.Builder builder = new Data.Builder().putLong(KEY_MESSAGE_ID, messageId)
             .putLong(KEY_PART_ROW_ID, partRowId)
             .putLong(KEY_PAR_UNIQUE_ID, partUniqueId)
             .putBoolean(KEY_MANUAL, manual)
-            .build();
+            .putBoolean(KEY_SEGMENTED_DISABLED, segmentedDisabled);
+
+    if (segments != null) {
+      builder.putLongArray(KEY_SEGMENT_ENDS, segments.getSegmentEnds())
+             .putLongArray(KEY_SEGMENT_PROGRESS, segments.getSegmentProgress());
+    }
+
+    return builder.build();
   }
 
   @Override
@@ -149,6 +177,7 @@ public final class AttachmentDownloadJob extends BaseJob {
     Log.w(TAG, JobLogger.format(this, "onFailure() messageId: " + messageId + "  partRowId: " + partRowId + "  partUniqueId: " + partUniqueId + "  manual: " + manual));
 
     final AttachmentId attachmentId = new AttachmentId(partRowId, partUniqueId);
+    discardSegments();
     markFailed(messageId, attachmentId);
   }
 
@@ -164,30 +193,101 @@ public final class AttachmentDownloadJob extends BaseJob {
           throws IOException, RetryLaterException
   {
 
-    AttachmentDatabase database       = ShadowDatabase.attachments();
-    File               attachmentFile = database.getOrCreateTransferFile(attachmentId);
+    AttachmentDatabase database  = ShadowDatabase.attachments();
+    boolean            segmented = attachment.getSize() >= SEGMENTED_DOWNLOAD_THRESHOLD && !segmentedDisabled;
 
     try {
 
       SignalServiceMessageReceiver   messageReceiver = ApplicationDependencies.getSignalServiceMessageReceiver();
       SignalServiceAttachmentPointer pointer         = createAttachmentPointer(attachment);
-      InputStream                    stream          = messageReceiver.retrieveAttachment(pointer, attachmentFile, MAX_ATTACHMENT_SIZE, (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, PartProgressEvent.Type.NETWORK, total, progress)));
-
-      database.insertAttachmentsForPlaceholder(messageId, attachmentId, stream);
+      ProgressListener               listener        = (total, progress) -> EventBus.getDefault().postSticky(new PartProgressEvent(attachment, PartProgressEvent.Type.NETWORK, total, progress));
+
+      if (segmented) {
+        retrieveAttachmentSegments(messageReceiver, pointer, listener);
+
+        // Decrypting the local copy is quick, so there's nothing worth resuming
+        database.deleteTransferFile(attachmentId);
+        database.insertAttachmentsForPlaceholder(messageId, attachmentId, (existing, existingLength, out) -> {
+          try {
+            return messageReceiver.decryptAttachment(pointer, getSegmentFile(), out);
+          } catch (InvalidMessageException e) {
+            throw new InvalidSegmentsException(e);
+          }
+        });
+
+        discardSegments();
+      } else {
+        database.insertAttachmentsForPlaceholder(messageId, attachmentId, (existing, existingLength, out) -> {
+          try {
+            return messageReceiver.retrieveAttachment(pointer, MAX_ATTACHMENT_SIZE, listener, existing, existingLength, out);
+          } catch (InvalidMessageException | MissingConfigurationException e) {
+            throw new MmsException(e);
+          }
+        });
+      }
     } catch (RangeException e) {
-      Log.w(TAG, "Range exception, file size " + attachmentFile.length(), e);
-      if (attachmentFile.delete()) {
-        Log.i(TAG, "Deleted temp download file to recover");
-        throw new RetryLaterException(e);
+      if (segmented) {
+        Log.w(TAG, "Range exception during segmented download, falling back to a single request", e);
+        discardSegments();
+        segmentedDisabled = true;
       } else {
-        throw new IOException("Failed to delete temp download file following range exception");
+        Log.w(TAG, "Range exception, discarding partial download", e);
+        database.deleteTransferFile(attachmentId);
       }
-    } catch (InvalidPartException | NonSuccessfulResponseCodeException | InvalidMessageException | MmsException | MissingConfigurationException e) {
+      throw new RetryLaterException(e);
+    } catch (InvalidSegmentsException e) {
+      // The segments were sized from the sender's declared size, so a larger object on the CDN
+      // only shows up here. A single request doesn't depend on that size, so give it a chance.
+      Log.w(TAG, "Segmented download failed to verify, falling back to a single request", e);
+      discardSegments();
+      segmentedDisabled = true;
+      throw new RetryLaterException(e);
+    } catch (InvalidPartException | NonSuccessfulResponseCodeException | MissingConfigurationException | MmsException e) {
       Log.w(TAG, "Experienced exception while trying to download an attachment.", e);
+      discardSegments();
       markFailed(messageId, attachmentId);
     }
   }
 
+  /**
+   * Downloads the ciphertext into the segment file, picking up from the progress saved by an earlier
+   * run if the file still matches it. Progress is kept in {@link #segments}, so it's saved with the
+   * job if this throws and the job is retried.
+   */
+  private void retrieveAttachmentSegments(@NonNull SignalServiceMessageReceiver messageReceiver,
+                                          @NonNull SignalServiceAttachmentPointer pointer,
+                                          @NonNull ProgressListener listener)
+      throws IOException, MissingConfigurationException
+  {
+    File                  segmentFile = getSegmentFile();
+    SegmentedDownloadSpec fresh       = messageReceiver.createSegmentedDownloadSpec(pointer, SEGMENT_COUNT);
+
+    if (segments != null && segments.getTotalLength() == fresh.getTotalLength() && segmentFile.length() == segments.getTotalLength()) {
+      Log.i(TAG, "Resuming segmented download at " + segments.getDownloadedLength() + "/" + segments.getTotalLength());
+    } else {
+      if (segments != null) {
+        Log.w(TAG, "Segment file doesn't match the saved progress, starting over");
+      }
+
+      //noinspection ResultOfMethodCallIgnored
+      segmentFile.delete();
+      segments = fresh;
+    }
+
+    messageReceiver.retrieveAttachmentSegments(pointer, segments, segmentFile, MAX_ATTACHMENT_SIZE, listener);
+  }
+
+  private @NonNull File getSegmentFile() {
+    return new File(context.getCacheDir(), "segments-" + partRowId + "-" + partUniqueId + ".tmp");
+  }
+
+  private void discardSegments() {
+    segments = null;
+
+    //noinspection ResultOfMethodCallIgnored
+    getSegmentFile().delete();
+  }
+
   private SignalServiceAttachmentPointer createAttachmentPointer(Attachment attachment) throws InvalidPartException {
     if (TextUtils.isEmpty(attachment.getLocation())) {
       throw new InvalidPartException("empty content id");
@@ -240,13 +340,25 @@ public final class AttachmentDownloadJob extends BaseJob {
     InvalidPartException(Exception e) {super(e);}
   }
 
+  private static final class InvalidSegmentsException extends MmsException {
+    InvalidSegmentsException(Exception e) {super(e);}
+  }
+
   public static final class Factory implements Job.Factory<AttachmentDownloadJob> {
     @Override
     public @NonNull AttachmentDownloadJob create(@NonNull Parameters parameters, @NonNull Data data) {
+      SegmentedDownloadSpec segments = null;
+
+      if (data.hasLongArray(KEY_SEGMENT_ENDS) && data.hasLongArray(KEY_SEGMENT_PROGRESS)) {
+        segments = new SegmentedDownloadSpec(data.getLongArray(KEY_SEGMENT_ENDS), data.getLongArray(KEY_SEGMENT_PROGRESS));
+      }
+
       return new AttachmentDownloadJob(parameters,
               data.getLong(KEY_MESSAGE_ID),
               new AttachmentId(data.getLong(KEY_PART_ROW_ID), data.getLong(KEY_PAR_UNIQUE_ID)),
-              data.getBoolean(KEY_MANUAL));
+              data.getBoolean(KEY_MANUAL),
+              segments,
+              data.getBooleanOrDefault(KEY_SEGMENTED_DISABLED, false));
     }
   }
 }
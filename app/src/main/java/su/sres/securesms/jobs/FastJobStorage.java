@@ -19,30 +19,74 @@ import org.whispersystems.libsignal.util.guava.Optional;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
-
+import java.util.TreeSet;
+
+/**
+ * An in-memory {@link JobStorage} that writes through to the {@link JobDatabase}.
+ *
+ * Jobs are indexed by id, by queue (in created order) and by factory, and we keep track of the
+ * head of every queue (plus every unqueued job), since those are the only jobs that can ever be
+ * eligible to run. This keeps job dispatch proportional to the number of queues rather than the
+ * number of jobs, which matters when there are tens of thousands of queued decrypt jobs.
+ *
+ * Any queue can also be registered as a barrier queue. Every queue whose name starts with a barrier
+ * queue's name runs in parallel with the others, except that they're ordered against the barrier
+ * queue itself: a job in the barrier queue waits for every earlier job in the other queues, and a
+ * job in any of the other queues waits for every earlier job in the barrier queue. This is done
+ * purely with queue keys rather than with dependencies, so a job that fails doesn't take any later
+ * jobs down with it.
+ */
 public class FastJobStorage implements JobStorage {
 
     private static final String TAG = Log.tag(FastJobStorage.class);
 
     private final JobDatabase jobDatabase;
 
-    private final List<JobSpec>                     jobs;
+    private final Map<String, JobSpec>              jobsById;
+    private final Map<String, Long>                 insertOrderById;
+    private final Map<String, TreeSet<JobSpec>>     jobsByQueue;
+    private final TreeSet<JobSpec>                  queueHeads;
+    private final Map<String, Integer>              countByFactory;
+    private final Map<String, Map<String, Integer>> countByQueueAndFactory;
     private final Map<String, List<ConstraintSpec>> constraintsByJobId;
     private final Map<String, List<DependencySpec>> dependenciesByJobId;
+    private final Map<String, List<DependencySpec>> dependentsByJobId;
+    private final Comparator<JobSpec>               createdOrder;
+    private final Set<String>                       barrierQueues;
+
+    private long nextInsertOrder;
 
     public FastJobStorage(@NonNull JobDatabase jobDatabase) {
-        this.jobDatabase         = jobDatabase;
-        this.jobs                = new ArrayList<>();
-        this.constraintsByJobId  = new HashMap<>();
-        this.dependenciesByJobId = new HashMap<>();
+        this(jobDatabase, Collections.emptySet());
+    }
+
+    public FastJobStorage(@NonNull JobDatabase jobDatabase, @NonNull Set<String> barrierQueues) {
+        this.jobDatabase            = jobDatabase;
+        this.barrierQueues          = barrierQueues;
+        this.jobsById               = new LinkedHashMap<>();
+        this.insertOrderById        = new HashMap<>();
+        this.jobsByQueue            = new HashMap<>();
+        this.countByFactory         = new HashMap<>();
+        this.countByQueueAndFactory = new HashMap<>();
+        this.constraintsByJobId     = new HashMap<>();
+        this.dependenciesByJobId    = new HashMap<>();
+        this.dependentsByJobId      = new HashMap<>();
+        this.createdOrder           = (j1, j2) -> {
+            int result = Long.compare(j1.getCreateTime(), j2.getCreateTime());
+            if (result != 0) {
+                return result;
+            }
+            return Long.compare(insertOrderById.get(j1.getId()), insertOrderById.get(j2.getId()));
+        };
+        this.queueHeads             = new TreeSet<>(createdOrder);
     }
 
     @Override
@@ -51,7 +95,9 @@ public class FastJobStorage implements JobStorage {
         List<ConstraintSpec> constraintSpecs = jobDatabase.getAllConstraintSpecs();
         List<DependencySpec> dependencySpecs = jobDatabase.getAllDependencySpecs();
 
-        jobs.addAll(jobSpecs);
+        for (JobSpec jobSpec : jobSpecs) {
+            addJob(jobSpec);
+        }
 
         for (ConstraintSpec constraintSpec: constraintSpecs) {
             List<ConstraintSpec> jobConstraints = Util.getOrDefault(constraintsByJobId, constraintSpec.getJobSpecId(), new LinkedList<>());
@@ -60,9 +106,7 @@ public class FastJobStorage implements JobStorage {
         }
 
         for (DependencySpec dependencySpec : dependencySpecs) {
-            List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
-            jobDependencies.add(dependencySpec);
-            dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+            addDependency(dependencySpec);
         }
     }
 
@@ -74,25 +118,23 @@ public class FastJobStorage implements JobStorage {
         }
 
         for (FullSpec fullSpec : fullSpecs) {
-            jobs.add(fullSpec.getJobSpec());
+            addJob(fullSpec.getJobSpec());
             constraintsByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getConstraintSpecs());
-            dependenciesByJobId.put(fullSpec.getJobSpec().getId(), fullSpec.getDependencySpecs());
+
+            for (DependencySpec dependencySpec : fullSpec.getDependencySpecs()) {
+                addDependency(dependencySpec);
+            }
         }
     }
 
     @Override
     public synchronized @Nullable JobSpec getJobSpec(@NonNull String id) {
-        for (JobSpec jobSpec : jobs) {
-            if (jobSpec.getId().equals(id)) {
-                return jobSpec;
-            }
-        }
-        return null;
+        return jobsById.get(id);
     }
 
     @Override
     public synchronized @NonNull List<JobSpec> getAllJobSpecs() {
-        return new ArrayList<>(jobs);
+        return new ArrayList<>(jobsById.values());
     }
 
     @Override
@@ -104,80 +146,99 @@ public class FastJobStorage implements JobStorage {
         } else if (migrationJob.isPresent()) {
             return Collections.emptyList();
         } else {
-            return Stream.of(jobs)
-                    .groupBy(jobSpec -> {
-                        String queueKey = jobSpec.getQueueKey();
-                        if (queueKey != null) {
-                            return queueKey;
-                        } else {
-                            return jobSpec.getId();
-                        }
-                    })
-                    .map(byQueueKey ->
-                            Stream.of(byQueueKey.getValue()).sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                                    .findFirst()
-                                    .orElse(null)
-                    )
-                    .withoutNulls()
-                    .filter(j -> {
-                        List<DependencySpec> dependencies = dependenciesByJobId.get(j.getId());
-                        return dependencies == null || dependencies.isEmpty();
-                    })
-                    .filterNot(JobSpec::isRunning)
-                    .filter(j -> j.getNextRunAttemptTime() <= currentTime)
-                    .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                    .toList();
+            List<JobSpec> eligible          = new LinkedList<>();
+            Set<String>   seenBarriers      = new HashSet<>();
+            Set<String>   seenBarrierOthers = new HashSet<>();
+
+            // The heads are in created order, so a head is blocked by any earlier head on the other side
+            // of its barrier, even one that's running or waiting to retry.
+            for (JobSpec head : queueHeads) {
+                String  barrierQueue = getBarrierQueue(head.getQueueKey());
+                boolean blocked      = false;
+
+                if (barrierQueue != null && barrierQueue.equals(head.getQueueKey())) {
+                    blocked = seenBarrierOthers.contains(barrierQueue);
+                    seenBarriers.add(barrierQueue);
+                } else if (barrierQueue != null) {
+                    blocked = seenBarriers.contains(barrierQueue);
+                    seenBarrierOthers.add(barrierQueue);
+                }
+
+                if (!blocked && !head.isRunning() && head.getNextRunAttemptTime() <= currentTime && !hasDependencies(head.getId())) {
+                    eligible.add(head);
+                }
+            }
+
+            return eligible;
         }
     }
 
     @Override
     public synchronized @NonNull List<JobSpec> getJobsInQueue(@NonNull String queue) {
-        return Stream.of(jobs)
-                .filter(j -> queue.equals(j.getQueueKey()))
-                .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                .toList();
+        TreeSet<JobSpec> inQueue = jobsByQueue.get(queue);
+        return inQueue != null ? new ArrayList<>(inQueue) : new LinkedList<>();
+    }
+
+    @Override
+    public synchronized @NonNull List<JobSpec> getJobsInQueuesWithPrefix(@NonNull String queuePrefix) {
+        List<JobSpec> jobs = new LinkedList<>();
+
+        for (Map.Entry<String, TreeSet<JobSpec>> entry : jobsByQueue.entrySet()) {
+            if (entry.getKey().startsWith(queuePrefix)) {
+                jobs.addAll(entry.getValue());
+            }
+        }
+
+        return jobs;
     }
 
     private Optional<JobSpec> getMigrationJob() {
-        return Optional.fromNullable(Stream.of(jobs)
-                .filter(j -> Job.Parameters.MIGRATION_QUEUE_KEY.equals(j.getQueueKey()))
-                .filter(this::firstInQueue)
-                .findFirst()
-                .orElse(null));
+        TreeSet<JobSpec> migrationQueue = jobsByQueue.get(Job.Parameters.MIGRATION_QUEUE_KEY);
+        return migrationQueue != null ? Optional.of(migrationQueue.first()) : Optional.absent();
     }
 
-    private boolean firstInQueue(@NonNull JobSpec job) {
-        if (job.getQueueKey() == null) {
-            return true;
+    /**
+     * @return The barrier queue that the given queue is ordered against (which may be the queue
+     *         itself), or null if there isn't one.
+     */
+    private @Nullable String getBarrierQueue(@Nullable String queueKey) {
+        if (queueKey == null) {
+            return null;
         }
 
-        return Stream.of(jobs)
-                .filter(j -> Util.equals(j.getQueueKey(), job.getQueueKey()))
-                .sorted((j1, j2) -> Long.compare(j1.getCreateTime(), j2.getCreateTime()))
-                .toList()
-                .get(0)
-                .equals(job);
+        for (String barrierQueue : barrierQueues) {
+            if (queueKey.startsWith(barrierQueue)) {
+                return barrierQueue;
+            }
+        }
+
+        return null;
+    }
+
+    private boolean hasDependencies(@NonNull String jobId) {
+        List<DependencySpec> dependencies = dependenciesByJobId.get(jobId);
+        return dependencies != null && !dependencies.isEmpty();
     }
 
     @Override
     public synchronized int getJobCountForFactory(@NonNull String factoryKey) {
-        return (int) Stream.of(jobs)
-                .filter(j -> j.getFactoryKey().equals(factoryKey))
-                .count();
+        return Util.getOrDefault(countByFactory, factoryKey, 0);
     }
 
     @Override
     public synchronized int getJobCountForFactoryAndQueue(@NonNull String factoryKey, @NonNull String queueKey) {
-        return (int) Stream.of(jobs)
-                .filter(j -> factoryKey.equals(j.getFactoryKey()) &&
-                        queueKey.equals(j.getQueueKey()))
-                .count();
+        Map<String, Integer> countsInQueue = countByQueueAndFactory.get(queueKey);
+        return countsInQueue != null ? Util.getOrDefault(countsInQueue, factoryKey, 0) : 0;
     }
 
     @Override
-    public boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
-        return Stream.of(jobs)
-                .noneMatch(j -> j.getQueueKey() != null && queueKeys.contains(j.getQueueKey()));
+    public synchronized boolean areQueuesEmpty(@NonNull Set<String> queueKeys) {
+        for (String queueKey : queueKeys) {
+            if (jobsByQueue.containsKey(queueKey)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -187,54 +248,44 @@ public class FastJobStorage implements JobStorage {
             jobDatabase.updateJobRunningState(id, isRunning);
         }
 
-        ListIterator<JobSpec> iter = jobs.listIterator();
-
-        while (iter.hasNext()) {
-            JobSpec existing = iter.next();
-            if (existing.getId().equals(id)) {
-                JobSpec updated = new JobSpec(existing.getId(),
-                        existing.getFactoryKey(),
-                        existing.getQueueKey(),
-                        existing.getCreateTime(),
-                        existing.getNextRunAttemptTime(),
-                        existing.getRunAttempt(),
-                        existing.getMaxAttempts(),
-                        existing.getLifespan(),
-                        existing.getSerializedData(),
-                        existing.getSerializedInputData(),
-                        isRunning,
-                        existing.isMemoryOnly());
-                iter.set(updated);
-            }
+        if (job != null) {
+            JobSpec updated = new JobSpec(job.getId(),
+                    job.getFactoryKey(),
+                    job.getQueueKey(),
+                    job.getCreateTime(),
+                    job.getNextRunAttemptTime(),
+                    job.getRunAttempt(),
+                    job.getMaxAttempts(),
+                    job.getLifespan(),
+                    job.getSerializedData(),
+                    job.getSerializedInputData(),
+                    isRunning,
+                    job.isMemoryOnly());
+            replaceJob(job, updated);
         }
     }
 
     @Override
-    public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull String serializedData) {
+    public synchronized void updateJobAfterRetry(@NonNull String id, boolean isRunning, int runAttempt, long nextRunAttemptTime, @NonNull byte[] serializedData) {
         JobSpec job = getJobById(id);
         if (job == null || !job.isMemoryOnly()) {
             jobDatabase.updateJobAfterRetry(id, isRunning, runAttempt, nextRunAttemptTime, serializedData);
         }
 
-        ListIterator<JobSpec> iter = jobs.listIterator();
-
-        while (iter.hasNext()) {
-            JobSpec existing = iter.next();
-            if (existing.getId().equals(id)) {
-                JobSpec updated = new JobSpec(existing.getId(),
-                        existing.getFactoryKey(),
-                        existing.getQueueKey(),
-                        existing.getCreateTime(),
-                        nextRunAttemptTime,
-                        runAttempt,
-                        existing.getMaxAttempts(),
-                        existing.getLifespan(),
-                        serializedData,
-                        existing.getSerializedInputData(),
-                        isRunning,
-                        existing.isMemoryOnly());
-                iter.set(updated);
-            }
+        if (job != null) {
+            JobSpec updated = new JobSpec(job.getId(),
+                    job.getFactoryKey(),
+                    job.getQueueKey(),
+                    job.getCreateTime(),
+                    nextRunAttemptTime,
+                    runAttempt,
+                    job.getMaxAttempts(),
+                    job.getLifespan(),
+                    serializedData,
+                    job.getSerializedInputData(),
+                    isRunning,
+                    job.isMemoryOnly());
+            replaceJob(job, updated);
         }
     }
 
@@ -242,11 +293,8 @@ public class FastJobStorage implements JobStorage {
     public synchronized void updateAllJobsToBePending() {
         jobDatabase.updateAllJobsToBePending();
 
-        ListIterator<JobSpec> iter = jobs.listIterator();
-
-        while (iter.hasNext()) {
-            JobSpec existing = iter.next();
-            JobSpec updated  = new JobSpec(existing.getId(),
+        for (JobSpec existing : new ArrayList<>(jobsById.values())) {
+            JobSpec updated = new JobSpec(existing.getId(),
                     existing.getFactoryKey(),
                     existing.getQueueKey(),
                     existing.getCreateTime(),
@@ -258,12 +306,12 @@ public class FastJobStorage implements JobStorage {
                     existing.getSerializedInputData(),
                     false,
                     existing.isMemoryOnly());
-            iter.set(updated);
+            replaceJob(existing, updated);
         }
     }
 
     @Override
-    public void updateJobs(@NonNull List<JobSpec> jobSpecs) {
+    public synchronized void updateJobs(@NonNull List<JobSpec> jobSpecs) {
         List<JobSpec> durable = new ArrayList<>(jobSpecs.size());
         for (JobSpec update : jobSpecs) {
             JobSpec found = getJobById(update.getId());
@@ -276,15 +324,11 @@ public class FastJobStorage implements JobStorage {
             jobDatabase.updateJobs(durable);
         }
 
-        Map<String, JobSpec>  updates = Stream.of(jobSpecs).collect(Collectors.toMap(JobSpec::getId));
-        ListIterator<JobSpec> iter    = jobs.listIterator();
-
-        while (iter.hasNext()) {
-            JobSpec existing = iter.next();
-            JobSpec update   = updates.get(existing.getId());
+        for (JobSpec update : jobSpecs) {
+            JobSpec existing = jobsById.get(update.getId());
 
-            if (update != null) {
-                iter.set(update);
+            if (existing != null) {
+                replaceJob(existing, update);
             }
         }
     }
@@ -308,25 +352,33 @@ public class FastJobStorage implements JobStorage {
             jobDatabase.deleteJobs(durableIds);
         }
 
-        Set<String> deleteIds = new HashSet<>(jobIds);
+        for (String jobId : new HashSet<>(jobIds)) {
+            JobSpec job = jobsById.get(jobId);
 
-        Iterator<JobSpec> jobIter = jobs.iterator();
-        while (jobIter.hasNext()) {
-            if (deleteIds.contains(jobIter.next().getId())) {
-                jobIter.remove();
+            if (job != null) {
+                removeFromIndexes(job);
+                jobsById.remove(jobId);
+                insertOrderById.remove(jobId);
             }
-        }
 
-        for (String jobId : jobIds) {
             constraintsByJobId.remove(jobId);
-            dependenciesByJobId.remove(jobId);
 
-            for (Map.Entry<String, List<DependencySpec>> entry : dependenciesByJobId.entrySet()) {
-                Iterator<DependencySpec> depedencyIter = entry.getValue().iterator();
+            List<DependencySpec> dependencies = dependenciesByJobId.remove(jobId);
+            if (dependencies != null) {
+                for (DependencySpec dependency : dependencies) {
+                    List<DependencySpec> siblings = dependentsByJobId.get(dependency.getDependsOnJobId());
+                    if (siblings != null) {
+                        siblings.remove(dependency);
+                    }
+                }
+            }
 
-                while (depedencyIter.hasNext()) {
-                    if (depedencyIter.next().getDependsOnJobId().equals(jobId)) {
-                        depedencyIter.remove();
+            List<DependencySpec> dependents = dependentsByJobId.remove(jobId);
+            if (dependents != null) {
+                for (DependencySpec dependent : dependents) {
+                    List<DependencySpec> dependentDependencies = dependenciesByJobId.get(dependent.getJobId());
+                    if (dependentDependencies != null) {
+                        dependentDependencies.remove(dependent);
                     }
                 }
             }
@@ -368,15 +420,12 @@ public class FastJobStorage implements JobStorage {
     }
 
     private @NonNull List<DependencySpec> getSingleLayerOfDependencySpecsThatDependOnJob(@NonNull String jobSpecId) {
-        return Stream.of(dependenciesByJobId.entrySet())
-                .map(Map.Entry::getValue)
-                .flatMap(Stream::of)
-                .filter(j -> j.getDependsOnJobId().equals(jobSpecId))
-                .toList();
+        List<DependencySpec> dependents = dependentsByJobId.get(jobSpecId);
+        return dependents != null ? new ArrayList<>(dependents) : new ArrayList<>();
     }
 
     @Override
-    public @NonNull List<DependencySpec> getAllDependencySpecs() {
+    public synchronized @NonNull List<DependencySpec> getAllDependencySpecs() {
         return Stream.of(dependenciesByJobId)
                 .map(Map.Entry::getValue)
                 .flatMap(Stream::of)
@@ -384,12 +433,132 @@ public class FastJobStorage implements JobStorage {
     }
 
     private JobSpec getJobById(@NonNull String id) {
-        for (JobSpec job : jobs) {
-            if (job.getId().equals(id)) {
-                return job;
+        JobSpec job = jobsById.get(id);
+
+        if (job == null) {
+            Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
+        }
+
+        return job;
+    }
+
+    private void addJob(@NonNull JobSpec job) {
+        JobSpec existing = jobsById.get(job.getId());
+
+        if (existing != null) {
+            replaceJob(existing, job);
+        } else {
+            insertOrderById.put(job.getId(), nextInsertOrder++);
+            jobsById.put(job.getId(), job);
+            addToIndexes(job);
+        }
+    }
+
+    /**
+     * Swaps out a job for an updated copy. Keeps the original insertion order, so jobs with equal
+     * create times stay in the same relative order.
+     */
+    private void replaceJob(@NonNull JobSpec existing, @NonNull JobSpec updated) {
+        removeFromIndexes(existing);
+        jobsById.put(updated.getId(), updated);
+        addToIndexes(updated);
+    }
+
+    private void addDependency(@NonNull DependencySpec dependencySpec) {
+        List<DependencySpec> jobDependencies = Util.getOrDefault(dependenciesByJobId, dependencySpec.getJobId(), new LinkedList<>());
+        jobDependencies.add(dependencySpec);
+        dependenciesByJobId.put(dependencySpec.getJobId(), jobDependencies);
+
+        List<DependencySpec> jobDependents = Util.getOrDefault(dependentsByJobId, dependencySpec.getDependsOnJobId(), new LinkedList<>());
+        jobDependents.add(dependencySpec);
+        dependentsByJobId.put(dependencySpec.getDependsOnJobId(), jobDependents);
+    }
+
+    private void addToIndexes(@NonNull JobSpec job) {
+        String queueKey = job.getQueueKey();
+
+        if (queueKey != null) {
+            TreeSet<JobSpec> queue = jobsByQueue.get(queueKey);
+
+            if (queue == null) {
+                queue = new TreeSet<>(createdOrder);
+                jobsByQueue.put(queueKey, queue);
             }
+
+            JobSpec previousHead = queue.isEmpty() ? null : queue.first();
+
+            queue.add(job);
+
+            if (queue.first() == job) {
+                if (previousHead != null) {
+                    queueHeads.remove(previousHead);
+                }
+                queueHeads.add(job);
+            }
+
+            Map<String, Integer> countsInQueue = getFactoryCountsForQueue(queueKey);
+            countsInQueue.put(job.getFactoryKey(), Util.getOrDefault(countsInQueue, job.getFactoryKey(), 0) + 1);
+        } else {
+            queueHeads.add(job);
+        }
+
+        countByFactory.put(job.getFactoryKey(), Util.getOrDefault(countByFactory, job.getFactoryKey(), 0) + 1);
+    }
+
+    private void removeFromIndexes(@NonNull JobSpec job) {
+        String queueKey = job.getQueueKey();
+
+        if (queueKey != null) {
+            TreeSet<JobSpec> queue = jobsByQueue.get(queueKey);
+
+            if (queue != null) {
+                boolean wasHead = queue.first() == job;
+
+                queue.remove(job);
+
+                if (wasHead) {
+                    queueHeads.remove(job);
+                    if (!queue.isEmpty()) {
+                        queueHeads.add(queue.first());
+                    }
+                }
+
+                if (queue.isEmpty()) {
+                    jobsByQueue.remove(queueKey);
+                }
+            }
+
+            Map<String, Integer> countsInQueue = getFactoryCountsForQueue(queueKey);
+            decrement(countsInQueue, job.getFactoryKey());
+
+            if (countsInQueue.isEmpty()) {
+                countByQueueAndFactory.remove(queueKey);
+            }
+        } else {
+            queueHeads.remove(job);
+        }
+
+        decrement(countByFactory, job.getFactoryKey());
+    }
+
+    private @NonNull Map<String, Integer> getFactoryCountsForQueue(@NonNull String queueKey) {
+        Map<String, Integer> countsInQueue = countByQueueAndFactory.get(queueKey);
+
+        if (countsInQueue == null) {
+            countsInQueue = new HashMap<>();
+            countByQueueAndFactory.put(queueKey, countsInQueue);
+        }
+
+        return countsInQueue;
+    }
+
+    private static void decrement(@NonNull Map<String, Integer> counts, @NonNull String key) {
+        int count = Util.getOrDefault(counts, key, 0) - 1;
+
+        if (count > 0) {
+            counts.put(key, count);
+        } else {
+            counts.remove(key);
         }
-        Log.w(TAG, "Was looking for job with ID JOB::" + id + ", but it doesn't exist in memory!");
-        return null;
     }
-}
\ No newline at end of file
+}
@@ -21,6 +21,7 @@ import su.sres.securesms.jobmanager.impl.SqlCipherMigrationConstraint;
 import su.sres.securesms.jobmanager.impl.SqlCipherMigrationConstraintObserver;
 import su.sres.securesms.jobmanager.impl.DecryptionsDrainedConstraint;
 import su.sres.securesms.jobmanager.impl.DecryptionsDrainedConstraintObserver;
+import su.sres.securesms.jobmanager.migrations.BinaryJobDataMigration;
 import su.sres.securesms.jobmanager.migrations.PushDecryptMessageJobEnvelopeMigration;
 import su.sres.securesms.jobmanager.migrations.PushProcessMessageQueueJobMigration;
 import su.sres.securesms.jobmanager.migrations.RecipientIdFollowUpJobMigration;
@@ -237,6 +238,7 @@ public final class JobManagerFactories {
                          new SendReadReceiptsJobMigration(ShadowDatabase.mmsSms()),
                          new PushProcessMessageQueueJobMigration(application),
                          new RetrieveProfileJobMigration(),
-                         new PushDecryptMessageJobEnvelopeMigration(application));
+                         new PushDecryptMessageJobEnvelopeMigration(application),
+                         new BinaryJobDataMigration());
   }
 }
\ No newline at end of file
@@ -12,6 +12,9 @@ import su.sres.securesms.jobmanager.Job;
  * the {@link su.sres.securesms.messages.IncomingMessageObserver} when decryptions have
  * finished. This lets us know not just when the websocket is drained, but when all the decryptions
  * for the messages we pulled down from the websocket have been finished.
+ *
+ * Decryptions are spread over several queues, but {@link PushDecryptMessageJob#QUEUE} is a barrier
+ * for all of them (see {@link FastJobStorage}), so this still waits on every one.
  */
 public class PushDecryptDrainedJob extends BaseJob {
 
@@ -34,6 +34,11 @@ import java.util.List;
 /**
  * Decrypts an envelope. Enqueues a separate job, {@link PushProcessMessageJob}, to actually insert
  * the result into our database.
+ *
+ * Envelopes that name their sender are decrypted in a queue for that sender, so envelopes from
+ * different senders can be decrypted in parallel. Everything else goes through {@link #QUEUE}, which
+ * is registered as a barrier queue with {@link FastJobStorage}, so that envelopes from any one sender
+ * are still decrypted in the order they were received. See {@link #getQueueName}.
  */
 public final class PushDecryptMessageJob extends BaseJob {
 
@@ -54,7 +59,7 @@ public final class PushDecryptMessageJob extends BaseJob {
 
   public PushDecryptMessageJob(Context context, @NonNull SignalServiceEnvelope envelope, long smsMessageId) {
     this(new Parameters.Builder()
-             .setQueue(QUEUE)
+             .setQueue(getQueueName(envelope))
              .setMaxAttempts(Parameters.UNLIMITED)
              .build(),
          envelope,
@@ -69,6 +74,21 @@ public final class PushDecryptMessageJob extends BaseJob {
     this.smsMessageId = smsMessageId;
   }
 
+  /**
+   * Every decryption queue starts with {@link #QUEUE}. Sealed sender envelopes don't reveal their
+   * sender until they've been decrypted, so they can't be partitioned and share {@link #QUEUE}.
+   *
+   * The queues are per sender rather than per device, since decrypting for one device can change the
+   * sessions of the sender's other devices.
+   */
+  public static @NonNull String getQueueName(@NonNull SignalServiceEnvelope envelope) {
+    if (envelope.hasSourceUuid() && !envelope.isUnidentifiedSender()) {
+      return QUEUE + envelope.getSourceUuid().get();
+    } else {
+      return QUEUE;
+    }
+  }
+
   @Override
   protected boolean shouldTrace() {
     return true;
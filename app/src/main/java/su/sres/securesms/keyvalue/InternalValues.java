@@ -21,6 +21,7 @@ public final class InternalValues extends SignalStoreValues {
   public static final String DELAY_RESENDS                        = "internal.delay_resends";
   public static final String SHAKE_TO_REPORT                      = "internal.shake_to_report";
   public static final String DISABLE_STORAGE_SERVICE              = "internal.disable_storage_service";
+  public static final String FULL_CALLER_STACKS                   = "internal.full_caller_stacks";
 
   InternalValues(KeyValueStore store) {
     super(store);
@@ -128,4 +129,11 @@ public final class InternalValues extends SignalStoreValues {
   public synchronized boolean storageServiceDisabled() {
     return FeatureFlags.internalUser() && getBoolean(DISABLE_STORAGE_SERVICE, false);
   }
+
+  /**
+   * Capture the full caller stack for every task submitted to our executors, rather than a sample.
+   */
+  public synchronized boolean fullCallerStacks() {
+    return FeatureFlags.internalUser() && getBoolean(FULL_CALLER_STACKS, false);
+  }
 }
\ No newline at end of file
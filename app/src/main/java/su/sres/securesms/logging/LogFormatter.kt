@@ -0,0 +1,89 @@
+package su.sres.securesms.logging
+
+import su.sres.securesms.database.model.LogEntry
+import su.sres.securesms.logsubmit.util.Scrubber
+import java.io.PrintWriter
+import java.io.StringWriter
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+
+/**
+ * Turns the requests in a [LogRingBuffer] into the lines we store in the log database.
+ *
+ * This runs for every single log line, so it reuses its buffers and only goes through [SimpleDateFormat] once per second of
+ * log time. Not thread safe, it's meant to be owned by the thread that writes the logs.
+ */
+class LogFormatter(private val versionName: String) {
+
+  companion object {
+    private const val DATE_PATTERN = "yyyy-MM-dd HH:mm:ss.SSS zzz"
+
+    /** Where the milliseconds start in a date formatted with [DATE_PATTERN]. */
+    private const val MILLIS_OFFSET = 20
+  }
+
+  private val dateFormat = SimpleDateFormat(DATE_PATTERN, Locale.US)
+  private val date = Date()
+  private val body = StringBuilder()
+  private val stackTrace = StringWriter()
+  private val stackTraceWriter = PrintWriter(stackTrace)
+
+  private var cachedSecond = Long.MIN_VALUE
+  private var cachedDate = ""
+
+  /**
+   * Adds the lines for [entry] to [out]. That's one line for the message, plus one for every line of the stack trace, if there
+   * is one.
+   */
+  fun format(entry: LogRingBuffer.Entry, out: MutableList<LogEntry>) {
+    out.add(LogEntry(entry.createdAt, entry.keepLonger, formatBody(entry, entry.message)))
+
+    val throwable = entry.throwable ?: return
+
+    val trace = stackTrace.buffer
+    trace.setLength(0)
+    throwable.printStackTrace(stackTraceWriter)
+    stackTraceWriter.flush()
+
+    var start = 0
+    while (start < trace.length) {
+      var end = trace.indexOf("\n", start)
+      if (end == -1) {
+        end = trace.length
+      }
+
+      out.add(LogEntry(entry.createdAt, entry.keepLonger, formatBody(entry, trace.substring(start, end))))
+      start = end + 1
+    }
+  }
+
+  fun formatBody(entry: LogRingBuffer.Entry, message: String?): String {
+    body.setLength(0)
+    body.append('[').append(versionName).append("] [").append(entry.threadString).append("] ")
+    appendDate(entry.createdAt)
+    body.append(' ').append(entry.level).append(' ').append(entry.tag).append(": ").append(Scrubber.scrub(message ?: ""))
+
+    return body.toString()
+  }
+
+  /**
+   * Appends the date exactly as [DATE_PATTERN] would format it. Everything but the milliseconds only changes once a second,
+   * so we cache that and fill the milliseconds in ourselves.
+   */
+  private fun appendDate(time: Long) {
+    val second = Math.floorDiv(time, 1000L)
+
+    if (second != cachedSecond) {
+      date.time = second * 1000
+      cachedDate = dateFormat.format(date)
+      cachedSecond = second
+    }
+
+    val millis = (time - second * 1000).toInt()
+
+    body.append(cachedDate, 0, MILLIS_OFFSET)
+    body.append(millis / 100).append(millis / 10 % 10).append(millis % 10)
+    body.append(cachedDate, MILLIS_OFFSET + 3, cachedDate.length)
+  }
+}
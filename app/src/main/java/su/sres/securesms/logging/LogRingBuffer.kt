@@ -0,0 +1,234 @@
+package su.sres.securesms.logging
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.concurrent.locks.LockSupport
+
+/**
+ * A fixed-size queue of log requests that any number of threads can write to, and a single thread reads from.
+ *
+ * Every slot is allocated up front and reused, so adding a log line doesn't allocate or take a lock. A writer claims a slot by
+ * bumping [claimed], fills it in, and then publishes it by setting [Entry.sequence]. The reader walks the slots in order, and
+ * only hands them back to writers once it's done with a whole batch.
+ *
+ * If the reader falls a full buffer behind, a writer waits up to [maxFullWaitNanos] for it to catch up, and only then drops and
+ * counts the line. The wait is bounded so that logging can't hold up the caller for long. The reader itself never waits, since it
+ * logs too (e.g. while opening the database) and would be waiting on itself.
+ */
+class LogRingBuffer @JvmOverloads constructor(capacity: Int, private val maxFullWaitNanos: Long = DEFAULT_MAX_FULL_WAIT_NANOS) {
+
+  init {
+    require(capacity > 1)
+  }
+
+  companion object {
+    private val IDLE_PARK_NANOS = TimeUnit.SECONDS.toNanos(1)
+    private val FULL_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1)
+    private val DEFAULT_MAX_FULL_WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(50)
+  }
+
+  private val size: Int = Integer.highestOneBit(capacity - 1) shl 1
+  private val mask: Long = (size - 1).toLong()
+  private val entries: Array<Entry> = Array(size) { Entry() }
+
+  private val claimed = AtomicLong(0)
+  private val dropped = AtomicLong(0)
+
+  /** Every slot before this sequence has been read and can be reused. Only written by the reader. */
+  @Volatile
+  private var released = 0L
+
+  /** Every entry before this sequence has been fully handled by the reader. */
+  @Volatile
+  private var handled = 0L
+
+  /** The highest sequence anyone in [blockUntilHandled] is waiting for. */
+  @Volatile
+  private var flushTarget = 0L
+
+  @Volatile
+  private var reader: Thread? = null
+
+  @Volatile
+  private var readerParked = false
+
+  private val handledLock = Object()
+
+  /**
+   * @return False if the buffer stayed full for too long and the entry was dropped.
+   */
+  fun add(level: String, tag: String, message: String?, createdAt: Long, threadString: String, throwable: Throwable?, keepLonger: Boolean): Boolean {
+    val sequence = claim()
+
+    if (sequence < 0) {
+      dropped.incrementAndGet()
+      return false
+    }
+
+    val entry = entries[(sequence and mask).toInt()]
+    entry.level = level
+    entry.tag = tag
+    entry.message = message
+    entry.createdAt = createdAt
+    entry.threadString = threadString
+    entry.throwable = throwable
+    entry.keepLonger = keepLonger
+    entry.sequence = sequence
+
+    if (readerParked) {
+      LockSupport.unpark(reader)
+    }
+
+    return true
+  }
+
+  /**
+   * @return How many entries have been dropped because the buffer was full since the last call.
+   */
+  fun takeDroppedCount(): Long {
+    return dropped.getAndSet(0)
+  }
+
+  /**
+   * Blocks until there is at least one entry, and then passes every available entry to [handle], in order. The entries are only
+   * valid for the duration of the call.
+   *
+   * @return The sequence to pass to [markHandled] once the batch has been dealt with.
+   */
+  fun read(handle: (Entry) -> Unit): Long {
+    return read(Long.MAX_VALUE, handle)
+  }
+
+  /**
+   * Same as [read], but gives up waiting after [maxWaitNanos], or as soon as [isFlushRequested] while the reader is holding on to
+   * entries it hasn't marked as handled yet. Either way, it may return without passing anything to [handle].
+   */
+  fun read(maxWaitNanos: Long, handle: (Entry) -> Unit): Long {
+    reader = Thread.currentThread()
+
+    var next = released
+    val start = System.nanoTime()
+
+    while (!isPublished(next) && !isFlushPending(next)) {
+      val remaining = maxWaitNanos - (System.nanoTime() - start)
+      if (remaining <= 0) {
+        break
+      }
+
+      readerParked = true
+      if (!isPublished(next) && !isFlushPending(next)) {
+        LockSupport.parkNanos(this, minOf(remaining, IDLE_PARK_NANOS))
+      }
+      readerParked = false
+    }
+
+    while (isPublished(next)) {
+      val entry = entries[(next and mask).toInt()]
+      handle(entry)
+      entry.clear()
+      next++
+    }
+
+    released = next
+    return next
+  }
+
+  /**
+   * @return True if someone is waiting in [blockUntilHandled] for entries that haven't been marked as handled yet, so the reader
+   * shouldn't hold on to them.
+   */
+  fun isFlushRequested(): Boolean {
+    return flushTarget > handled
+  }
+
+  fun markHandled(sequence: Long) {
+    synchronized(handledLock) {
+      handled = sequence
+      handledLock.notifyAll()
+    }
+  }
+
+  /**
+   * Blocks until everything that was added before this call has been read and handled. Does nothing on the reader thread, which
+   * could never get there.
+   */
+  fun blockUntilHandled() {
+    if (Thread.currentThread() == reader) {
+      return
+    }
+
+    val target = claimed.get()
+
+    synchronized(handledLock) {
+      if (target > flushTarget) {
+        flushTarget = target
+      }
+
+      LockSupport.unpark(reader)
+
+      while (handled < target) {
+        handledLock.wait()
+      }
+    }
+  }
+
+  /**
+   * @return The sequence of the slot the caller now owns, or -1 if the buffer stayed full for longer than [maxFullWaitNanos].
+   */
+  private fun claim(): Long {
+    var waitStart = 0L
+    var waiting = false
+
+    while (true) {
+      val sequence = claimed.get()
+
+      if (sequence - released < size) {
+        if (claimed.compareAndSet(sequence, sequence + 1)) {
+          return sequence
+        }
+        continue
+      }
+
+      LockSupport.unpark(reader)
+
+      if (!waiting) {
+        waitStart = System.nanoTime()
+        waiting = true
+      }
+
+      val remaining = maxFullWaitNanos - (System.nanoTime() - waitStart)
+      if (remaining <= 0 || Thread.currentThread() == reader) {
+        return -1
+      }
+
+      // The reader doesn't know who's waiting, so check back often rather than waiting to be woken
+      LockSupport.parkNanos(this, minOf(remaining, FULL_PARK_NANOS))
+    }
+  }
+
+  private fun isFlushPending(next: Long): Boolean {
+    return isFlushRequested() && next > handled
+  }
+
+  private fun isPublished(sequence: Long): Boolean {
+    return entries[(sequence and mask).toInt()].sequence == sequence
+  }
+
+  class Entry {
+    @Volatile
+    var sequence: Long = -1
+
+    var level: String = ""
+    var tag: String = ""
+    var message: String? = null
+    var createdAt: Long = 0
+    var threadString: String = ""
+    var throwable: Throwable? = null
+    var keepLonger: Boolean = false
+
+    fun clear() {
+      message = null
+      throwable = null
+    }
+  }
+}
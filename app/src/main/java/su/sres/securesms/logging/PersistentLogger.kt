@@ -6,12 +6,7 @@ import su.sres.core.util.logging.Log
 import su.sres.securesms.BuildConfig
 import su.sres.securesms.database.LogDatabase
 import su.sres.securesms.database.model.LogEntry
-import su.sres.securesms.logsubmit.util.Scrubber
-import java.io.ByteArrayOutputStream
-import java.io.PrintStream
-import java.text.SimpleDateFormat
-import java.util.Date
-import java.util.Locale
+import java.util.concurrent.TimeUnit
 
 /**
  * A logger that will persist log entries in [LogDatabase].
@@ -20,22 +15,33 @@ import java.util.Locale
  * This class takes special care to do as little as possible on the main thread, instead letting the background thread do the work.
  *
  * The process looks something like:
- * - Main thread creates a [LogRequest] object and puts it in a queue
- * - The [WriteThread] constantly pulls from that queue, formats the logs, and writes them to the database.
+ * - The calling thread copies the request into a preallocated slot in a [LogRingBuffer]. No allocations, no locks, and no waiting:
+ *   if the buffer is full, the line is dropped and we log how many were lost once there's room again.
+ * - The [WriteThread] constantly pulls everything that's available from that buffer and formats the logs. It holds on to them until it has a full block's
+ *   worth, [MAX_PENDING_MILLIS] have passed, or someone calls [flush], and then writes them to the database in one batch. Each batch becomes its own
+ *   compressed block, so small batches would mean a lot of tiny blocks that barely compress.
  */
 class PersistentLogger(
   application: Application
 ) : Log.Logger() {
 
   companion object {
+    private val TAG = Log.tag(PersistentLogger::class.java)
+
     private const val LOG_V = "V"
     private const val LOG_D = "D"
     private const val LOG_I = "I"
     private const val LOG_W = "W"
     private const val LOG_E = "E"
+
+    /** How many lines can pile up while the [WriteThread] is busy inserting before anyone has to wait. */
+    private const val BUFFER_SIZE = 32768
+
+    /** How long the [WriteThread] will hold on to lines waiting for more. Anything still held when the process is killed is lost. */
+    private val MAX_PENDING_MILLIS = TimeUnit.SECONDS.toMillis(10)
   }
 
-  private val logEntries = LogRequests()
+  private val logEntries = LogRingBuffer(BUFFER_SIZE)
   private val logDatabase = LogDatabase.getInstance(application)
   private val cachedThreadString: ThreadLocal<String> = ThreadLocal()
 
@@ -66,17 +72,17 @@ class PersistentLogger(
   }
 
   override fun flush() {
-    logEntries.blockForFlushed()
+    logEntries.blockUntilHandled()
   }
 
   private fun write(level: String, tag: String?, message: String?, t: Throwable?, keepLonger: Boolean) {
-    logEntries.add(LogRequest(level, tag ?: "null", message, Date(), getThreadString(), t, keepLonger))
+    logEntries.add(level, tag ?: "null", message, System.currentTimeMillis(), getThreadString(), t, keepLonger)
   }
 
   private fun getThreadString(): String {
     var threadString = cachedThreadString.get()
 
-    if (cachedThreadString.get() == null) {
+    if (threadString == null) {
       threadString = if (Looper.myLooper() == Looper.getMainLooper()) {
         "main "
       } else {
@@ -89,113 +95,42 @@ class PersistentLogger(
     return threadString!!
   }
 
-  private data class LogRequest(
-    val level: String,
-    val tag: String,
-    val message: String?,
-    val date: Date,
-    val threadString: String,
-    val throwable: Throwable?,
-    val keepLonger: Boolean
-  )
-
   private class WriteThread(
-    private val requests: LogRequests,
+    private val requests: LogRingBuffer,
     private val db: LogDatabase
   ) : Thread("signal-logger") {
 
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
-    private val buffer = mutableListOf<LogRequest>()
+    private val formatter = LogFormatter(BuildConfig.VERSION_NAME)
+    private val buffer = mutableListOf<LogEntry>()
+    private val addEntries: (LogRingBuffer.Entry) -> Unit = { formatter.format(it, buffer) }
 
     override fun run() {
+      var firstPendingAt = 0L
+
       while (true) {
-        requests.blockForRequests(buffer)
-        db.insert(buffer.flatMap { requestToEntries(it) }, System.currentTimeMillis())
-        buffer.clear()
-        requests.notifyFlushed()
-      }
-    }
+        val maxWaitNanos = if (buffer.isEmpty()) Long.MAX_VALUE else TimeUnit.MILLISECONDS.toNanos(firstPendingAt + MAX_PENDING_MILLIS - System.currentTimeMillis())
+        val sequence = requests.read(maxWaitNanos, addEntries)
+        val now = System.currentTimeMillis()
 
-    fun requestToEntries(request: LogRequest): List<LogEntry> {
-      val out = mutableListOf<LogEntry>()
-
-      out.add(
-        LogEntry(
-          createdAt = request.date.time,
-          keepLonger = request.keepLonger,
-          body = formatBody(request.threadString, request.date, request.level, request.tag, request.message)
-        )
-      )
-
-      if (request.throwable != null) {
-        val outputStream = ByteArrayOutputStream()
-        request.throwable.printStackTrace(PrintStream(outputStream))
-
-        val trace = String(outputStream.toByteArray())
-        val lines = trace.split("\\n".toRegex()).toTypedArray()
-
-        val entries = lines.map { line ->
-          LogEntry(
-            createdAt = request.date.time,
-            keepLonger = request.keepLonger,
-            body = formatBody(request.threadString, request.date, request.level, request.tag, line)
-          )
+        if (firstPendingAt == 0L) {
+          firstPendingAt = now
         }
 
-        out.addAll(entries)
-      }
-
-      return out
-    }
-
-    fun formatBody(threadString: String, date: Date, level: String, tag: String, message: String?): String {
-      return "[${BuildConfig.VERSION_NAME}] [$threadString] ${dateFormat.format(date)} $level $tag: ${Scrubber.scrub(message ?: "")}"
-    }
-  }
-
-  private class LogRequests {
-    val logs = mutableListOf<LogRequest>()
-    val logLock = Object()
-
-    var flushed = false
-    val flushedLock = Object()
-
-    fun add(entry: LogRequest) {
-      synchronized(logLock) {
-        logs.add(entry)
-        logLock.notify()
-      }
-    }
+        if (buffer.size >= LogDatabase.MAX_BLOCK_LINES || now - firstPendingAt >= MAX_PENDING_MILLIS || requests.isFlushRequested() || buffer.isEmpty()) {
+          if (buffer.isNotEmpty()) {
+            db.insert(buffer, now)
+            buffer.clear()
+          }
 
-    /**
-     * Blocks until requests are available. When they are, the [buffer] will be populated with all pending requests.
-     * Note: This method gets hit a *lot*, which is why we're using a buffer instead of spamming out new lists every time.
-     */
-    fun blockForRequests(buffer: MutableList<LogRequest>) {
-      synchronized(logLock) {
-        while (logs.isEmpty()) {
-          logLock.wait()
+          requests.markHandled(sequence)
+          firstPendingAt = 0
         }
 
-        buffer.addAll(logs)
-        logs.clear()
-        flushed = false
-      }
-    }
-
-    fun blockForFlushed() {
-      synchronized(flushedLock) {
-        while (!flushed) {
-          flushedLock.wait()
+        val dropped = requests.takeDroppedCount()
+        if (dropped > 0) {
+          Log.w(TAG, "The log buffer stayed full. Dropped $dropped line(s).")
         }
       }
     }
-
-    fun notifyFlushed() {
-      synchronized(flushedLock) {
-        flushed = true
-        flushedLock.notify()
-      }
-    }
   }
-}
\ No newline at end of file
+}
@@ -21,6 +21,10 @@ class LogDataSource(
 
   val logDatabase = LogDatabase.getInstance(application)
 
+  /** The reader used for the last page, and the index of the log it will return next. Pages are usually loaded in order. */
+  private var reader: LogDatabase.Reader? = null
+  private var readerPosition = -1
+
   override fun size(): Int {
     return prefixLines.size + logDatabase.getLogCountBeforeTime(untilTime)
   }
@@ -29,13 +33,31 @@ class LogDataSource(
     if (start + length < prefixLines.size) {
       return prefixLines.subList(start, start + length)
     } else if (start < prefixLines.size) {
-      return prefixLines.subList(start, prefixLines.size) +
-        logDatabase.getRangeBeforeTime(0, length - (prefixLines.size - start), untilTime).map { convertToLogLine(it) }
+      return prefixLines.subList(start, prefixLines.size) + readLogs(0, length - (prefixLines.size - start))
     } else {
-      return logDatabase.getRangeBeforeTime(start - prefixLines.size, length, untilTime).map { convertToLogLine(it) }
+      return readLogs(start - prefixLines.size, length)
     }
   }
 
+  /**
+   * Reads from the same batched [LogDatabase.Reader] used for submitting logs. If this page starts where the last one ended,
+   * we continue reading from where we left off rather than skipping over everything before it again.
+   */
+  @Synchronized
+  private fun readLogs(start: Int, length: Int): List<LogLine> {
+    val current: LogDatabase.Reader = reader.takeIf { readerPosition == start } ?: logDatabase.getAllBeforeTime(untilTime, start)
+    val lines: MutableList<LogLine> = ArrayList(length)
+
+    while (lines.size < length && current.hasNext()) {
+      lines.add(convertToLogLine(current.next()))
+    }
+
+    reader = current
+    readerPosition = start + lines.size
+
+    return lines
+  }
+
   override fun load(key: Long?): LogLine? {
     throw UnsupportedOperationException("Not implemented!")
   }
@@ -0,0 +1,111 @@
+package su.sres.securesms.logsubmit;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.annotation.NonNull;
+
+import com.annimon.stream.Stream;
+
+import su.sres.securesms.database.QueryMonitor;
+import su.sres.securesms.database.QueryMonitor.ShapeSummary;
+import su.sres.securesms.database.QueryMonitor.SlowQuery;
+import su.sres.securesms.database.ShadowDatabase;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Renders what {@link QueryMonitor} has collected: the query shapes we've spent the most time on,
+ * the most recent slow queries, and the query plans of the shapes with the worst p99.
+ */
+final class LogSectionDatabaseQueries implements LogSection {
+
+  private static final int MAX_SHAPES = 25;
+  private static final int MAX_PLANS  = 5;
+
+  @Override
+  public @NonNull String getTitle() {
+    return "DATABASE QUERIES";
+  }
+
+  @Override
+  public boolean hasContent() {
+    return QueryMonitor.getInstance().isEnabled();
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    QueryMonitor       monitor = QueryMonitor.getInstance();
+    List<ShapeSummary> shapes  = monitor.getShapes();
+    StringBuilder      builder = new StringBuilder();
+
+    builder.append("--- Most Time Spent (").append(shapes.size()).append(" shapes total)").append("\n\n");
+    for (ShapeSummary shape : Stream.of(shapes).limit(MAX_SHAPES).toList()) {
+      builder.append("count: ").append(shape.getCount())
+             .append(", total: ").append(millis(shape.getTotalTime()))
+             .append(", p50: ").append(millis(TimeUnit.MICROSECONDS.toNanos(shape.getP50Micros())))
+             .append(", p90: ").append(millis(TimeUnit.MICROSECONDS.toNanos(shape.getP90Micros())))
+             .append(", p99: ").append(millis(TimeUnit.MICROSECONDS.toNanos(shape.getP99Micros())))
+             .append(", max: ").append(millis(shape.getMaxTime())).append('\n')
+             .append("  ").append(shape.getShape()).append("\n\n");
+    }
+
+    builder.append("--- Recent Slow Queries (over ").append(millis(QueryMonitor.SLOW_QUERY_THRESHOLD)).append(")").append("\n\n");
+    for (SlowQuery query : monitor.getSlowQueries()) {
+      builder.append(query.getTimestamp())
+             .append(" [").append(query.getThread()).append("] ")
+             .append(millis(query.getDuration()));
+
+      if (query.getLockWait() > 0) {
+        builder.append(" (waited ").append(millis(query.getLockWait())).append(" for the lock)");
+      }
+
+      builder.append('\n').append("  ").append(query.getShape()).append("\n\n");
+    }
+
+    builder.append("--- Query Plans (worst p99)").append("\n\n");
+    List<ShapeSummary> slowest = Stream.of(shapes)
+                                       .filter(shape -> shape.getExplainSql() != null)
+                                       .sorted((lhs, rhs) -> Long.compare(rhs.getP99Micros(), lhs.getP99Micros()))
+                                       .limit(MAX_PLANS)
+                                       .toList();
+
+    for (ShapeSummary shape : slowest) {
+      builder.append(shape.getShape()).append('\n');
+      appendQueryPlan(builder, shape.getExplainSql());
+      builder.append('\n');
+    }
+
+    return builder;
+  }
+
+  private static void appendQueryPlan(@NonNull StringBuilder builder, @NonNull String sql) {
+    // Straight to SQLCipher, so looking at the plans doesn't show up in the numbers
+    try (Cursor cursor = ShadowDatabase.getRawDatabase().rawQuery("EXPLAIN QUERY PLAN " + sql, (String[]) null)) {
+      Map<Integer, Integer> depths = new HashMap<>();
+
+      while (cursor.moveToNext()) {
+        int id     = cursor.getInt(cursor.getColumnIndexOrThrow("id"));
+        int parent = cursor.getInt(cursor.getColumnIndexOrThrow("parent"));
+        int depth  = depths.containsKey(parent) ? depths.get(parent) + 1 : 1;
+
+        depths.put(id, depth);
+
+        for (int i = 0; i < depth; i++) {
+          builder.append("  ");
+        }
+        builder.append(cursor.getString(cursor.getColumnIndexOrThrow("detail"))).append('\n');
+      }
+    } catch (Exception e) {
+      builder.append("  Failed to explain: ").append(e.getMessage()).append('\n');
+    }
+  }
+
+  private static @NonNull String millis(long nanos) {
+    return String.format(Locale.US, "%.1f ms", nanos / 1_000_000.0);
+  }
+}
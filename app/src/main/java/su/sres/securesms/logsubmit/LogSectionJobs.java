@@ -5,8 +5,11 @@ import android.content.Context;
 import androidx.annotation.NonNull;
 
 import su.sres.securesms.dependencies.ApplicationDependencies;
+import su.sres.securesms.jobmanager.JobManager;
+import su.sres.securesms.jobmanager.JobMetrics;
 
 import java.util.List;
+import java.util.Locale;
 
 public class LogSectionJobs implements LogSection {
 
@@ -17,6 +20,40 @@ public class LogSectionJobs implements LogSection {
 
     @Override
     public @NonNull CharSequence getContent(@NonNull Context context) {
-        return ApplicationDependencies.getJobManager().getDebugInfo();
+        JobManager    jobManager = ApplicationDependencies.getJobManager();
+        JobMetrics    metrics    = jobManager.getMetrics();
+        StringBuilder builder    = new StringBuilder(jobManager.getDebugInfo());
+
+        builder.append("\n-- Metrics\n");
+        builder.append("Max concurrent jobs: ").append(metrics.getMaxConcurrentJobs()).append("\n");
+
+        builder.append("\n-- Metrics by Factory\n");
+        appendMetrics(builder, metrics.getFactoryMetrics());
+
+        builder.append("\n-- Metrics by Queue\n");
+        appendMetrics(builder, metrics.getQueueMetrics());
+
+        return builder;
+    }
+
+    private static void appendMetrics(@NonNull StringBuilder builder, @NonNull List<JobMetrics.Summary> summaries) {
+        if (summaries.isEmpty()) {
+            builder.append("None\n");
+            return;
+        }
+
+        for (JobMetrics.Summary summary : summaries) {
+            builder.append(summary.getKey()).append('\n')
+                   .append("  runs: ").append(summary.getStarted())
+                   .append(", successes: ").append(summary.getSuccesses())
+                   .append(", retries: ").append(summary.getRetries())
+                   .append(", failures: ").append(summary.getFailures())
+                   .append(String.format(Locale.US, " (%.1f%%)", summary.getFailureRate() * 100))
+                   .append(", max concurrent: ").append(summary.getMaxConcurrent()).append('\n')
+                   .append("  queue wait: ").append(summary.getQueueWaitP50()).append('/').append(summary.getQueueWaitP90()).append('/').append(summary.getQueueWaitP99()).append(" ms")
+                   .append(", run time: ").append(summary.getRunTimeP50()).append('/').append(summary.getRunTimeP90()).append('/').append(summary.getRunTimeP99()).append(" ms")
+                   .append(" (p50/p90/p99)")
+                   .append(", retries before finishing: ").append(summary.getRetryCountP50()).append(" (p50), ").append(summary.getRetryCountMax()).append(" (max)").append('\n');
+        }
     }
-}
\ No newline at end of file
+}
@@ -4,10 +4,9 @@ import android.content.Context;
 
 import androidx.annotation.NonNull;
 
-import su.sres.securesms.database.LocalMetricsDatabase;
-import su.sres.securesms.database.LocalMetricsDatabase.EventMetrics;
-import su.sres.securesms.database.LocalMetricsDatabase.SplitMetrics;
-import su.sres.securesms.dependencies.ApplicationDependencies;
+import su.sres.securesms.util.LocalMetrics;
+import su.sres.securesms.util.LocalMetrics.EventMetrics;
+import su.sres.securesms.util.LocalMetrics.SplitMetrics;
 
 import java.util.List;
 
@@ -19,7 +18,7 @@ final class LogSectionLocalMetrics implements LogSection {
 
   @Override
   public @NonNull CharSequence getContent(@NonNull Context context) {
-    List<EventMetrics> metrics = LocalMetricsDatabase.getInstance(ApplicationDependencies.getApplication()).getMetrics();
+    List<EventMetrics> metrics = LocalMetrics.getInstance().getMetrics();
 
     StringBuilder builder = new StringBuilder();
 
@@ -0,0 +1,72 @@
+package su.sres.securesms.logsubmit;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+
+import com.annimon.stream.Stream;
+
+import su.sres.core.util.concurrent.LockProfiler;
+import su.sres.core.util.concurrent.LockProfiler.CallSiteSummary;
+import su.sres.core.util.concurrent.LockProfiler.LockSummary;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders what {@link LockProfiler} has collected, with the locks we've spent the most time waiting
+ * on first.
+ */
+final class LogSectionLockContention implements LogSection {
+
+  private static final int MAX_CALL_SITES = 5;
+
+  @Override
+  public @NonNull String getTitle() {
+    return "LOCK CONTENTION";
+  }
+
+  @Override
+  public boolean hasContent() {
+    return LockProfiler.getInstance().isEnabled();
+  }
+
+  @Override
+  public @NonNull CharSequence getContent(@NonNull Context context) {
+    List<LockSummary> locks   = LockProfiler.getInstance().getSummaries();
+    StringBuilder     builder = new StringBuilder();
+
+    if (locks.isEmpty()) {
+      return "None";
+    }
+
+    for (LockSummary lock : locks) {
+      builder.append(lock.getName()).append('\n');
+
+      if (lock.isSampled()) {
+        builder.append("  blocked samples: ").append(lock.getContended())
+               .append(", estimated wait: ").append(millis(lock.getTotalWait())).append('\n');
+      } else {
+        builder.append("  acquisitions: ").append(lock.getAcquisitions())
+               .append(", contended: ").append(lock.getContended())
+               .append(", total wait: ").append(millis(lock.getTotalWait()))
+               .append(", max wait: ").append(millis(lock.getMaxWait())).append('\n')
+               .append("  total hold: ").append(millis(lock.getTotalHold()))
+               .append(", max hold: ").append(millis(lock.getMaxHold())).append('\n');
+      }
+
+      for (CallSiteSummary callSite : Stream.of(lock.getCallSites()).limit(MAX_CALL_SITES).toList()) {
+        builder.append("    ").append(callSite.getCallSite())
+               .append(" (").append(callSite.getCount()).append("x, ").append(millis(callSite.getTotalWait())).append(")").append('\n');
+      }
+
+      builder.append('\n');
+    }
+
+    return builder;
+  }
+
+  private static @NonNull String millis(long nanos) {
+    return String.format(Locale.US, "%.1f ms", nanos / 1_000_000.0);
+  }
+}
@@ -14,6 +14,8 @@ import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
 
 import su.sres.securesms.BuildConfig;
+import su.sres.securesms.database.SessionDatabase;
+import su.sres.securesms.database.ShadowDatabase;
 import su.sres.securesms.emoji.EmojiFiles;
 import su.sres.securesms.keyvalue.SignalStore;
 import su.sres.securesms.recipients.Recipient;
@@ -69,6 +71,7 @@ public class LogSectionSystemInfo implements LogSection {
     builder.append("Days Installed: ").append(VersionTracker.getDaysSinceFirstInstalled(context)).append("\n");
     builder.append("Build Variant : ").append(BuildConfig.BUILD_DISTRIBUTION_TYPE).append(BuildConfig.BUILD_ENVIRONMENT_TYPE).append(BuildConfig.BUILD_VARIANT_TYPE).append("\n");
     builder.append("Emoji Version : ").append(getEmojiVersionString(context)).append("\n");
+    builder.append("Session Cache : ").append(getSessionCacheStats()).append("\n");
     builder.append("App          : ");
     try {
       builder.append(pm.getApplicationLabel(pm.getApplicationInfo(context.getPackageName(), 0)))
@@ -89,6 +92,17 @@ public class LogSectionSystemInfo implements LogSection {
     return builder;
   }
 
+  private static @NonNull String getSessionCacheStats() {
+    SessionDatabase.CacheStats stats = ShadowDatabase.sessions().getCacheStats();
+
+    return String.format(Locale.ENGLISH,
+                         "%d hits, %d misses (%.2f%% hit rate), %d cached",
+                         stats.getHits(),
+                         stats.getMisses(),
+                         stats.getHitRate() * 100f,
+                         stats.getSize());
+  }
+
   private static @NonNull String getMemoryUsage() {
     Runtime info        = Runtime.getRuntime();
     long    totalMemory = info.totalMemory();
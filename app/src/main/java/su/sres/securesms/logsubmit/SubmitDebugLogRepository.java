@@ -30,8 +30,11 @@ import su.sres.core.util.concurrent.SignalExecutors;
 
 import org.whispersystems.libsignal.util.guava.Optional;
 
+import java.io.BufferedWriter;
 import java.io.IOException;
-import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -84,6 +87,8 @@ public class SubmitDebugLogRepository {
     add(new LogSectionConstraints());
     add(new LogSectionCapabilities());
     add(new LogSectionLocalMetrics());
+    add(new LogSectionDatabaseQueries());
+    add(new LogSectionLockContention());
     add(new LogSectionFeatureFlags());
     if (Build.VERSION.SDK_INT >= 28) {
       add(new LogSectionPower());
@@ -146,18 +151,6 @@ public class SubmitDebugLogRepository {
       }
     }
 
-    StringBuilder prefixStringBuilder = new StringBuilder();
-    for (LogLine line : prefixLines) {
-      switch (line.getPlaceholderType()) {
-        case NONE:
-          prefixStringBuilder.append(line.getText()).append('\n');
-          break;
-        case TRACE:
-          prefixStringBuilder.append(traceUrl).append('\n');
-          break;
-      }
-    }
-
     try {
       Stopwatch stopwatch = new Stopwatch("log-upload");
 
@@ -167,19 +160,28 @@ public class SubmitDebugLogRepository {
                                 .withMimeType("application/gzip")
                                 .createForSingleSessionOnDiskAsync(context, null, null);
 
-      OutputStream gzipOutput = new GZIPOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(fds[1]));
+      Writer gzipOutput = new BufferedWriter(new OutputStreamWriter(new GZIPOutputStream(new ParcelFileDescriptor.AutoCloseOutputStream(fds[1])), StandardCharsets.UTF_8));
 
-      gzipOutput.write(prefixStringBuilder.toString().getBytes());
+      for (LogLine line : prefixLines) {
+        switch (line.getPlaceholderType()) {
+          case NONE:
+            gzipOutput.append(line.getText()).append('\n');
+            break;
+          case TRACE:
+            gzipOutput.append(traceUrl).append('\n');
+            break;
+        }
+      }
 
       stopwatch.split("front-matter");
 
       try (LogDatabase.Reader reader = LogDatabase.getInstance(context).getAllBeforeTime(untilTime)) {
         while (reader.hasNext()) {
-          gzipOutput.write(reader.next().getBytes());
-          gzipOutput.write("\n".getBytes());
+          gzipOutput.append(reader.next()).append('\n');
         }
       } catch (IllegalStateException e) {
         Log.e(TAG, "Failed to read row!", e);
+        StreamUtil.close(gzipOutput);
         return Optional.absent();
       }
 
@@ -199,8 +201,9 @@ public class SubmitDebugLogRepository {
 
         @Override
         public void writeTo(@NonNull BufferedSink sink) throws IOException {
-          Source source = Okio.source(BlobProvider.getInstance().getStream(context, gzipUri));
-          sink.writeAll(source);
+          try (Source source = Okio.source(BlobProvider.getInstance().getStream(context, gzipUri))) {
+            sink.writeAll(source);
+          }
         }
       });
 
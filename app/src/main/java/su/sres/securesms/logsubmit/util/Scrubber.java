@@ -17,168 +17,594 @@
 
 package su.sres.securesms.logsubmit.util;
 
-import android.text.TextUtils;
 import androidx.annotation.NonNull;
 
 import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Locale;
-import java.util.Set;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Scrub data for possibly sensitive information.
+ * <p>
+ * Every line we log goes through here, so rather than running a regex per kind of token, we walk
+ * each line once with hand-written matchers for all of them. Lines that have nothing to censor,
+ * which is nearly all of them, are returned as-is without allocating anything.
+ * <p>
+ * The matchers behave exactly like the patterns documented on each {@link Token}, applied one
+ * after the other in declaration order, which is how this class used to work.
  */
 public final class Scrubber {
 
   private Scrubber() {
   }
 
-  /**
-   * The middle group will be censored.
-   * Supposedly, the shortest international phone numbers in use contain seven digits.
-   * Handles URL encoded +, %2B
-   */
-  private static final Pattern E164_PATTERN = Pattern.compile("(\\+|%2B)(\\d{5,13})(\\d{2})");
-  private static final String  E164_CENSOR  = "*************";
+  private static final String E164_CENSOR        = "*************";
+  private static final String EMAIL_CENSOR       = "...@...";
+  private static final String GROUP_ID_V1_PREFIX = "__textsecure_group__!";
+  private static final String GROUP_ID_V1_CENSOR = "...group...";
+  private static final String GROUP_ID_V2_PREFIX = "__signal_group__v2__!";
+  private static final String GROUP_ID_V2_CENSOR = "...group_v2...";
+  private static final String UUID_JOB_PREFIX    = "JOB::";
+  private static final String UUID_CENSOR        = "********-****-****-****-**********";
+  private static final String DOMAIN_CENSOR      = "***.";
 
-  /**
-   * The second group will be censored.
-   */
-  private static final Pattern CRUDE_EMAIL_PATTERN = Pattern.compile("\\b([^\\s/])([^\\s/]*@[^\\s]+)");
-  private static final String  EMAIL_CENSOR        = "...@...";
+  private static final int UUID_LENGTH = 36;
 
-  /**
-   * The middle group will be censored.
-   */
-  private static final Pattern GROUP_ID_V1_PATTERN = Pattern.compile("(__)(textsecure_group__![^\\s]+)([^\\s]{2})");
-  private static final String  GROUP_ID_V1_CENSOR = "...group...";
+  private static final String[] DOMAIN_EXCLUSIONS = { "shadowprivacy.com", "sres.su" };
+
+  private static final String[] TOP_100_TLDS = { "com", "net", "org", "jp", "de", "uk", "fr", "br", "it", "ru", "es", "me", "gov", "pl", "ca", "au", "cn", "co", "in",
+          "nl", "edu", "info", "eu", "ch", "id", "at", "kr", "cz", "mx", "be", "tv", "se", "tr", "tw", "al", "ua", "ir", "vn",
+          "cl", "sk", "ly", "cc", "to", "no", "fi", "us", "pt", "dk", "ar", "hu", "tk", "gr", "il", "news", "ro", "my", "biz",
+          "ie", "za", "nz", "sg", "ee", "th", "io", "xyz", "pe", "bg", "hk", "lt", "link", "ph", "club", "si", "site",
+          "mobi", "by", "cat", "wiki", "la", "ga", "xxx", "cf", "hr", "ng", "jobs", "online", "kz", "ug", "gq", "ae", "is",
+          "lv", "pro", "fm", "tips", "ms", "sa", "app" };
+
+  private static final int    MAX_TLD_LENGTH = 6;
+  private static final long[] TLD_KEYS       = new long[TOP_100_TLDS.length];
+
+  static {
+    for (int i = 0; i < TOP_100_TLDS.length; i++) {
+      TLD_KEYS[i] = tldKey(TOP_100_TLDS[i], 0, TOP_100_TLDS[i].length());
+    }
+    Arrays.sort(TLD_KEYS);
+  }
+
+  private static final Token[] TOKENS = Token.values();
+
+  public static CharSequence scrub(@NonNull CharSequence in) {
+    if (!needsScrubbing(in)) {
+      return in;
+    }
+
+    for (Token token : TOKENS) {
+      in = scrub(in, token);
+    }
+
+    return in;
+  }
 
   /**
-   * The middle group will be censored.
+   * Looks for every kind of token in a single pass over the input, and stops at the first one that
+   * would have to be censored. Each kind resumes searching where its last match ended, just like
+   * {@link #scrub(CharSequence, Token)} does. As long as nothing has been censored yet, every kind
+   * sees the same input it would have seen running on its own.
    */
-  private static final Pattern GROUP_ID_V2_PATTERN = Pattern.compile("(__)(signal_group__v2__![^\\s]+)([^\\s]{2})");
-  private static final String  GROUP_ID_V2_CENSOR  = "...group_v2...";
+  private static boolean needsScrubbing(@NonNull CharSequence in) {
+    int e164    = 0;
+    int email   = 0;
+    int groupV1 = 0;
+    int groupV2 = 0;
+    int uuid    = 0;
+    int domain  = 0;
+
+    for (int i = 0; i < in.length(); i++) {
+      if (i >= e164) {
+        e164 = next(in, i, Token.E164);
+        if (e164 < 0) return true;
+      }
+
+      if (i >= email) {
+        email = next(in, i, Token.EMAIL);
+        if (email < 0) return true;
+      }
+
+      if (i >= groupV1) {
+        groupV1 = next(in, i, Token.GROUP_ID_V1);
+        if (groupV1 < 0) return true;
+      }
+
+      if (i >= groupV2) {
+        groupV2 = next(in, i, Token.GROUP_ID_V2);
+        if (groupV2 < 0) return true;
+      }
+
+      if (i >= uuid) {
+        uuid = next(in, i, Token.UUID);
+        if (uuid < 0) return true;
+      }
+
+      if (i >= domain) {
+        domain = next(in, i, Token.DOMAIN);
+        if (domain < 0) return true;
+      }
+    }
+
+    return false;
+  }
 
   /**
-   * The middle group will be censored.
+   * @return Where the token should next be looked for, or -1 if there is a match at {@code i} that
+   *         needs to be censored.
    */
-  private static final Pattern UUID_PATTERN = Pattern.compile("(JOB::)?([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{10})([0-9a-f]{2})", Pattern.CASE_INSENSITIVE);
-  private static final String  UUID_CENSOR  = "********-****-****-****-**********";
+  private static int next(@NonNull CharSequence in, int i, @NonNull Token token) {
+    int end = token.match(in, i);
+
+    if (end < 0) {
+      return ~end;
+    } else if (token.censors(in, i, end)) {
+      return -1;
+    } else {
+      return end;
+    }
+  }
+
+  private static CharSequence scrub(@NonNull CharSequence in, @NonNull Token token) {
+    StringBuilder output        = null;
+    int           lastEndingPos = 0;
+    int           i             = 0;
+
+    while (i < in.length()) {
+      int end = token.match(in, i);
+
+      if (end < 0) {
+        i = ~end;
+        continue;
+      }
+
+      if (token.censors(in, i, end)) {
+        if (output == null) {
+          output = new StringBuilder(in.length());
+        }
+
+        output.append(in, lastEndingPos, i);
+        token.censor(in, i, end, output);
+        lastEndingPos = end;
+      }
+
+      i = end;
+    }
+
+    if (output == null) {
+      return in;
+    } else {
+      output.append(in, lastEndingPos, in.length());
+      return output;
+    }
+  }
+
+  private enum Token {
+
+    /**
+     * {@code (\+|%2B)(\d{5,13})(\d{2})}, the middle group is censored.
+     * Supposedly, the shortest international phone numbers in use contain seven digits.
+     * Handles URL encoded +, %2B
+     */
+    E164 {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        int digitsStart = e164DigitsStart(in, i);
+
+        if (digitsStart == -1) {
+          return ~(i + 1);
+        }
+
+        int end = digitsStart;
+        while (end < in.length() && end - digitsStart < 15 && isDigit(in.charAt(end))) {
+          end++;
+        }
+
+        return end - digitsStart >= 7 ? end : ~(i + 1);
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        return true;
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        int digitsStart = e164DigitsStart(in, start);
+
+        output.append(in, start, digitsStart)
+              .append(E164_CENSOR, 0, end - 2 - digitsStart)
+              .append(in, end - 2, end);
+      }
+    },
+
+    /**
+     * {@code \b([^\s/])([^\s/]*@[^\s]+)}, the second group is censored.
+     */
+    EMAIL {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        char c = in.charAt(i);
+
+        if (isRegexWhitespace(c) || c == '/' || !isWordBoundary(in, i)) {
+          return ~(i + 1);
+        }
+
+        int runEnd = i + Character.charCount(Character.codePointAt(in, i));
+        while (runEnd < in.length() && !isRegexWhitespace(in.charAt(runEnd)) && in.charAt(runEnd) != '/') {
+          runEnd++;
+        }
+
+        int firstAt = i + Character.charCount(Character.codePointAt(in, i));
+
+        for (int at = runEnd - 1; at >= firstAt; at--) {
+          if (in.charAt(at) == '@' && at + 1 < in.length() && !isRegexWhitespace(in.charAt(at + 1))) {
+            int end = at + 1;
+            while (end < in.length() && !isRegexWhitespace(in.charAt(end))) {
+              end++;
+            }
+            return end;
+          }
+        }
+
+        // Starting anywhere else in this run would only leave fewer places for an @
+        return ~runEnd;
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        int censorStart = start + Character.charCount(Character.codePointAt(in, start));
+        return !regionEquals(in, censorStart, end, EMAIL_CENSOR);
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        output.append(in, start, start + Character.charCount(Character.codePointAt(in, start)))
+              .append(EMAIL_CENSOR);
+      }
+    },
+
+    /**
+     * {@code (__)(textsecure_group__![^\s]+)([^\s]{2})}, the middle group is censored.
+     */
+    GROUP_ID_V1 {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        return matchGroupId(in, i, GROUP_ID_V1_PREFIX);
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        return true;
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        output.append("__")
+              .append(GROUP_ID_V1_CENSOR)
+              .append(in, Character.offsetByCodePoints(in, end, -2), end);
+      }
+    },
+
+    /**
+     * {@code (__)(signal_group__v2__![^\s]+)([^\s]{2})}, the middle group is censored.
+     */
+    GROUP_ID_V2 {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        return matchGroupId(in, i, GROUP_ID_V2_PREFIX);
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        return true;
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        output.append("__")
+              .append(GROUP_ID_V2_CENSOR)
+              .append(in, Character.offsetByCodePoints(in, end, -2), end);
+      }
+    },
+
+    /**
+     * {@code (JOB::)?([0-9a-f]{8}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{4}-[0-9a-f]{10})([0-9a-f]{2})},
+     * case insensitive. The middle group is censored, unless it's a job id.
+     */
+    UUID {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        if (regionEqualsIgnoreCase(in, i, UUID_JOB_PREFIX) && isUuid(in, i + UUID_JOB_PREFIX.length())) {
+          return i + UUID_JOB_PREFIX.length() + UUID_LENGTH;
+        } else if (isUuid(in, i)) {
+          return i + UUID_LENGTH;
+        } else {
+          return ~(i + 1);
+        }
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        return end - start == UUID_LENGTH;
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        output.append(UUID_CENSOR)
+              .append(in, end - 2, end);
+      }
+    },
+
+    /**
+     * {@code ([a-z0-9]+\.)+([a-z0-9\-]*[a-z\-][a-z0-9\-]*)}, case insensitive. Everything but the
+     * last group is censored, if the last group is a common TLD.
+     */
+    DOMAIN {
+      @Override
+      int match(@NonNull CharSequence in, int i) {
+        if (!isAlphanumeric(in.charAt(i))) {
+          return ~(i + 1);
+        }
+
+        int labels = 0;
+        int pos    = i;
+
+        while (true) {
+          int labelEnd = alphanumericEnd(in, pos);
+
+          if (labelEnd == pos || labelEnd >= in.length() || in.charAt(labelEnd) != '.') {
+            break;
+          }
+
+          labels++;
+          pos = labelEnd + 1;
+        }
+
+        if (labels == 0) {
+          // Starting anywhere else in this label would run into the same thing
+          return ~alphanumericEnd(in, i);
+        }
+
+        int end = pos;
+        while (end < in.length() && (isAlphanumeric(in.charAt(end)) || in.charAt(end) == '-')) {
+          end++;
+        }
+
+        if (containsLetterOrHyphen(in, pos, end)) {
+          return end;
+        }
+
+        // Otherwise, the last group has to be one of the labels, giving up the ones after it
+        int dot = pos - 1;
+
+        for (int label = labels; label >= 2; label--) {
+          int labelStart = dot;
+          while (in.charAt(labelStart - 1) != '.') {
+            labelStart--;
+          }
+
+          if (containsLetterOrHyphen(in, labelStart, dot)) {
+            return dot;
+          }
+
+          dot = labelStart - 1;
+        }
+
+        return ~alphanumericEnd(in, i);
+      }
+
+      @Override
+      boolean censors(@NonNull CharSequence in, int start, int end) {
+        int tldStart = lastIndexOf(in, '.', start, end) + 1;
+
+        if (!isTopTld(in, tldStart, end)) {
+          return false;
+        }
+
+        for (String exclusion : DOMAIN_EXCLUSIONS) {
+          if (end - start >= exclusion.length() && regionEquals(in, end - exclusion.length(), end, exclusion)) {
+            return false;
+          }
+        }
+
+        return true;
+      }
+
+      @Override
+      void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output) {
+        output.append(DOMAIN_CENSOR)
+              .append(in, lastIndexOf(in, '.', start, end) + 1, end);
+      }
+    };
+
+    /**
+     * @return The end of the match that starts at {@code i}, or, if there isn't one, the bitwise
+     *         complement of the next position that could start a match.
+     */
+    abstract int match(@NonNull CharSequence in, int i);
+
+    /**
+     * @return True if censoring the match would change it.
+     */
+    abstract boolean censors(@NonNull CharSequence in, int start, int end);
+
+    abstract void censor(@NonNull CharSequence in, int start, int end, @NonNull StringBuilder output);
+  }
+
+  private static int e164DigitsStart(@NonNull CharSequence in, int i) {
+    if (in.charAt(i) == '+') {
+      return i + 1;
+    } else if (in.charAt(i) == '%' && i + 2 < in.length() && in.charAt(i + 1) == '2' && in.charAt(i + 2) == 'B') {
+      return i + 3;
+    } else {
+      return -1;
+    }
+  }
+
+  private static int matchGroupId(@NonNull CharSequence in, int i, @NonNull String prefix) {
+    if (in.charAt(i) != '_' || !regionEquals(in, i, Math.min(in.length(), i + prefix.length()), prefix)) {
+      return ~(i + 1);
+    }
+
+    int idStart = i + prefix.length();
+    int end     = idStart;
+
+    while (end < in.length() && !isRegexWhitespace(in.charAt(end))) {
+      end++;
+    }
+
+    // At least one character for the censored part, and two to keep
+    return Character.codePointCount(in, idStart, end) >= 3 ? end : ~(i + 1);
+  }
+
+  private static boolean isUuid(@NonNull CharSequence in, int start) {
+    if (start + UUID_LENGTH > in.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < UUID_LENGTH; i++) {
+      char c = in.charAt(start + i);
+
+      if (i == 8 || i == 13 || i == 18 || i == 23) {
+        if (c != '-') return false;
+      } else if (!isHex(c)) {
+        return false;
+      }
+    }
+
+    return true;
+  }
 
   /**
-   * The domain name except for TLD will be censored.
+   * Matches {@code \b} in {@link java.util.regex.Pattern}, where word characters are letters,
+   * digits and underscores, plus any non-spacing marks that follow one.
    */
-  private static final Pattern     DOMAIN_PATTERN = Pattern.compile("([a-z0-9]+\\.)+([a-z0-9\\-]*[a-z\\-][a-z0-9\\-]*)", Pattern.CASE_INSENSITIVE);
-  private static final String      DOMAIN_CENSOR  = "***.";
-  private static final Set<String> TOP_100_TLDS   = new HashSet<>(Arrays.asList("com", "net", "org", "jp", "de", "uk", "fr", "br", "it", "ru", "es", "me", "gov", "pl", "ca", "au", "cn", "co", "in",
-          "nl", "edu", "info", "eu", "ch", "id", "at", "kr", "cz", "mx", "be", "tv", "se", "tr", "tw", "al", "ua", "ir", "vn",
-          "cl", "sk", "ly", "cc", "to", "no", "fi", "us", "pt", "dk", "ar", "hu", "tk", "gr", "il", "news", "ro", "my", "biz",
-          "ie", "za", "nz", "sg", "ee", "th", "io", "xyz", "pe", "bg", "hk", "lt", "link", "ph", "club", "si", "site",
-          "mobi", "by", "cat", "wiki", "la", "ga", "xxx", "cf", "hr", "ng", "jobs", "online", "kz", "ug", "gq", "ae", "is",
-          "lv", "pro", "fm", "tips", "ms", "sa", "app"));
+  private static boolean isWordBoundary(@NonNull CharSequence in, int i) {
+    boolean left  = i > 0 && isWordCharacter(in, Character.codePointBefore(in, i), i - 1);
+    boolean right = i < in.length() && isWordCharacter(in, Character.codePointAt(in, i), i);
 
-  public static CharSequence scrub(@NonNull CharSequence in) {
+    return left != right;
+  }
 
-    in = scrubE164(in);
-    in = scrubEmail(in);
-    in = scrubGroupsV1(in);
-    in = scrubGroupsV2(in);
-    in = scrubUuids(in);
-    in = scrubDomains(in);
+  private static boolean isWordCharacter(@NonNull CharSequence in, int codePoint, int index) {
+    if (codePoint == '_' || Character.isLetterOrDigit(codePoint)) {
+      return true;
+    }
 
-    return in;
+    if (Character.getType(codePoint) != Character.NON_SPACING_MARK) {
+      return false;
+    }
+
+    for (int i = index; i >= 0; i--) {
+      int c = Character.codePointAt(in, i);
+
+      if (Character.isLetterOrDigit(c)) {
+        return true;
+      } else if (Character.getType(c) != Character.NON_SPACING_MARK) {
+        return false;
+      }
+    }
+
+    return false;
   }
 
-  private static CharSequence scrubE164(@NonNull CharSequence in) {
-    return scrub(in,
-            E164_PATTERN,
-            (matcher, output) -> output.append(matcher.group(1))
-                    .append(E164_CENSOR, 0, matcher.group(2).length())
-                    .append(matcher.group(3)));
+  private static boolean isTopTld(@NonNull CharSequence in, int start, int end) {
+    return end - start <= MAX_TLD_LENGTH && Arrays.binarySearch(TLD_KEYS, tldKey(in, start, end)) >= 0;
   }
 
-  private static CharSequence scrubEmail(@NonNull CharSequence in) {
-    return scrub(in,
-            CRUDE_EMAIL_PATTERN,
-            (matcher, output) -> output.append(matcher.group(1))
-                    .append(EMAIL_CENSOR));
+  /**
+   * Packs a short, lowercased label into a long, so we can look it up without allocating.
+   */
+  private static long tldKey(@NonNull CharSequence in, int start, int end) {
+    long key = 0;
+
+    for (int i = start; i < end; i++) {
+      key = (key << 8) | toLowerAscii(in.charAt(i));
+    }
+
+    return key;
   }
 
-  private static CharSequence scrubGroupsV1(@NonNull CharSequence in) {
-    return scrub(in,
-            GROUP_ID_V1_PATTERN,
-            (matcher, output) -> output.append(matcher.group(1))
-                    .append(GROUP_ID_V1_CENSOR)
-                    .append(matcher.group(3)));
+  /**
+   * Same as {@code \s} in {@link java.util.regex.Pattern}.
+   */
+  private static boolean isRegexWhitespace(char c) {
+    return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
   }
 
-  private static CharSequence scrubGroupsV2(@NonNull CharSequence in) {
-    return scrub(in,
-            GROUP_ID_V2_PATTERN,
-            (matcher, output) -> output.append(matcher.group(1))
-                    .append(GROUP_ID_V2_CENSOR)
-                    .append(matcher.group(3)));
+  private static boolean isDigit(char c) {
+    return c >= '0' && c <= '9';
   }
 
-  private static CharSequence scrubUuids(@NonNull CharSequence in) {
-    return scrub(in,
-            UUID_PATTERN,
-            (matcher, output) -> {
-              if (matcher.group(1) != null && !matcher.group(1).isEmpty()) {
-                output.append(matcher.group(1))
-                        .append(matcher.group(2))
-                        .append(matcher.group(3));
-              } else {
-                output.append(UUID_CENSOR)
-                        .append(matcher.group(3));
-              }
-            });
+  private static boolean isHex(char c) {
+    return isDigit(c) || (c >= 'a' && c <= 'f') || (c >= 'A' && c <= 'F');
   }
 
-  private static CharSequence scrubDomains(@NonNull CharSequence in) {
-    return scrub(in,
-            DOMAIN_PATTERN,
-            (matcher, output) -> {
-              String match = matcher.group(0);
-              if (matcher.groupCount() == 2 &&
-                      TOP_100_TLDS.contains(matcher.group(2).toLowerCase(Locale.US)) &&
-                      !match.endsWith("shadowprivacy.com") &&
-                      !match.endsWith("sres.su")) {
-                output.append(DOMAIN_CENSOR)
-                        .append(matcher.group(2));
-              } else {
-                output.append(match);
-              }
-            });
+  private static boolean isLetter(char c) {
+    return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
   }
 
-  private static CharSequence scrub(@NonNull CharSequence in, @NonNull Pattern pattern, @NonNull ProcessMatch processMatch) {
-    final StringBuilder output  = new StringBuilder(in.length());
-    final Matcher matcher = pattern.matcher(in);
+  private static boolean isAlphanumeric(char c) {
+    return isLetter(c) || isDigit(c);
+  }
 
-    int lastEndingPos = 0;
+  private static char toLowerAscii(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
 
-    while (matcher.find()) {
-      output.append(in, lastEndingPos, matcher.start());
+  private static int alphanumericEnd(@NonNull CharSequence in, int start) {
+    int end = start;
+    while (end < in.length() && isAlphanumeric(in.charAt(end))) {
+      end++;
+    }
+    return end;
+  }
 
-      processMatch.scrubMatch(matcher, output);
+  private static boolean containsLetterOrHyphen(@NonNull CharSequence in, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (isLetter(in.charAt(i)) || in.charAt(i) == '-') {
+        return true;
+      }
+    }
+    return false;
+  }
 
-      lastEndingPos = matcher.end();
+  private static int lastIndexOf(@NonNull CharSequence in, char c, int start, int end) {
+    for (int i = end - 1; i >= start; i--) {
+      if (in.charAt(i) == c) {
+        return i;
+      }
     }
+    return -1;
+  }
 
-    if (lastEndingPos == 0) {
-      // there were no matches, save copying all the data
-      return in;
-    } else {
-      output.append(in, lastEndingPos, in.length());
+  private static boolean regionEquals(@NonNull CharSequence in, int start, int end, @NonNull String value) {
+    if (end - start != value.length()) {
+      return false;
+    }
 
-      return output;
+    for (int i = 0; i < value.length(); i++) {
+      if (in.charAt(start + i) != value.charAt(i)) {
+        return false;
+      }
     }
+
+    return true;
   }
 
-  private interface ProcessMatch {
-    void scrubMatch(@NonNull Matcher matcher, @NonNull StringBuilder output);
+  private static boolean regionEqualsIgnoreCase(@NonNull CharSequence in, int start, @NonNull String value) {
+    if (start + value.length() > in.length()) {
+      return false;
+    }
+
+    for (int i = 0; i < value.length(); i++) {
+      if (toLowerAscii(in.charAt(start + i)) != toLowerAscii(value.charAt(i))) {
+        return false;
+      }
+    }
+
+    return true;
   }
 }
@@ -30,10 +30,7 @@ import su.sres.securesms.notifications.NotificationChannels;
 import su.sres.securesms.push.SignalServiceNetworkAccess;
 import su.sres.securesms.util.AppForegroundObserver;
 
-import org.whispersystems.libsignal.util.guava.Optional;
-
 import su.sres.signalservice.api.SignalWebSocket;
-import su.sres.signalservice.api.messages.SignalServiceEnvelope;
 import su.sres.signalservice.api.websocket.WebSocketUnavailableException;
 
 import java.util.ArrayList;
@@ -50,6 +47,8 @@ public class IncomingMessageObserver {
   public static final  int  FOREGROUND_ID           = 313399;
   private static final long REQUEST_TIMEOUT_MINUTES = 1;
 
+  static final int MAX_ENVELOPE_BATCH_SIZE = 30;
+
   private static final AtomicInteger INSTANCE_COUNT = new AtomicInteger(0);
 
   private final Application                context;
@@ -223,16 +222,16 @@ public class IncomingMessageObserver {
         try {
           while (isConnectionNecessary()) {
             try {
-              Log.d(TAG, "Reading message...");
-              Optional<SignalServiceEnvelope> result = signalWebSocket.readOrEmpty(TimeUnit.MINUTES.toMillis(REQUEST_TIMEOUT_MINUTES), envelope -> {
-                Log.i(TAG, "Retrieved envelope! " + envelope.getTimestamp());
+              Log.d(TAG, "Reading messages...");
+              boolean empty = signalWebSocket.readMessageBatch(TimeUnit.MINUTES.toMillis(REQUEST_TIMEOUT_MINUTES), MAX_ENVELOPE_BATCH_SIZE, envelopes -> {
+                Log.i(TAG, "Retrieved " + envelopes.size() + " envelope(s)! First: " + envelopes.get(0).getTimestamp());
                 try (Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-                  processor.processEnvelope(envelope);
+                  processor.processEnvelopes(envelopes);
                 }
               });
               attempts = 0;
 
-              if (!result.isPresent() && !networkDrained) {
+              if (empty && !networkDrained) {
                 Log.i(TAG, "Network was newly-drained. Enqueuing a job to listen for decryption draining.");
                 networkDrained = true;
                 ApplicationDependencies.getJobManager().add(new PushDecryptDrainedJob());
@@ -10,6 +10,7 @@ import su.sres.securesms.crypto.IdentityKeyUtil;
 import su.sres.securesms.crypto.ReentrantSessionLock;
 import su.sres.securesms.database.GroupDatabase;
 import su.sres.securesms.database.MessageDatabase.SyncMessageId;
+import su.sres.securesms.database.MessageSendLogDatabase;
 import su.sres.securesms.database.MmsSmsDatabase;
 import su.sres.securesms.database.ShadowDatabase;
 import su.sres.securesms.dependencies.ApplicationDependencies;
@@ -19,13 +20,13 @@ import su.sres.securesms.groups.GroupId;
 import su.sres.securesms.jobmanager.Job;
 import su.sres.securesms.jobmanager.JobManager;
 import su.sres.securesms.jobs.PushDecryptMessageJob;
+import su.sres.core.util.concurrent.LockProfiler;
 import su.sres.core.util.logging.Log;
 import su.sres.securesms.jobs.PushProcessMessageJob;
 import su.sres.securesms.messages.MessageDecryptionUtil.DecryptionResult;
 import su.sres.securesms.recipients.Recipient;
 import su.sres.securesms.recipients.RecipientId;
 import su.sres.securesms.util.GroupUtil;
-import su.sres.securesms.util.SetUtil;
 import su.sres.securesms.util.Stopwatch;
 import su.sres.securesms.util.TextSecurePreferences;
 import su.sres.signalservice.api.SignalSessionLock;
@@ -34,6 +35,9 @@ import su.sres.signalservice.api.messages.SignalServiceGroupContext;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
@@ -44,12 +48,12 @@ public class IncomingMessageProcessor {
 
   private static final String TAG = Log.tag(IncomingMessageProcessor.class);
 
-  private final Application   context;
-  private final ReentrantLock lock;
+  private final Application context;
+  private final Lock        lock;
 
   public IncomingMessageProcessor(@NonNull Application context) {
     this.context = context;
-    this.lock    = new ReentrantLock();
+    this.lock    = LockProfiler.getInstance().wrap("IncomingMessageProcessor", new ReentrantLock(), IncomingMessageProcessor.class);
   }
 
   /**
@@ -98,6 +102,33 @@ public class IncomingMessageProcessor {
       }
     }
 
+    /**
+     * Processes a batch of envelopes in order. All of the resulting {@link PushDecryptMessageJob}s are
+     * inserted in a single transaction, and this only returns once they've been persisted, so the
+     * envelopes can safely be acknowledged afterwards.
+     */
+    public void processEnvelopes(@NonNull List<SignalServiceEnvelope> envelopes) {
+      List<Job>                   decryptJobs = new ArrayList<>(envelopes.size());
+      List<SignalServiceEnvelope> receipts    = new ArrayList<>();
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        if (envelope.hasSourceUuid()) {
+          Recipient.externalHighTrustPush(context, envelope.getSourceAddress());
+        }
+
+        if (envelope.isReceipt()) {
+          receipts.add(envelope);
+        } else if (envelope.isPreKeySignalMessage() || envelope.isSignalMessage() || envelope.isUnidentifiedSender() || envelope.isPlaintextContent()) {
+          decryptJobs.add(new PushDecryptMessageJob(context, envelope));
+        } else {
+          Log.w(TAG, "Received envelope of unknown type: " + envelope.getType());
+        }
+      }
+
+      processReceipts(receipts);
+      jobManager.addAllBlocking(decryptJobs);
+    }
+
     private @Nullable String processMessage(@NonNull SignalServiceEnvelope envelope) {
       return processMessageDeferred(envelope);
     }
@@ -168,8 +199,37 @@ public class IncomingMessageProcessor {
       ShadowDatabase.messageLog().deleteEntryForRecipient(envelope.getTimestamp(), sender.getId(), envelope.getSourceDevice());
     }
 
+    /**
+     * Applies a batch of server receipts together, so that each affected thread is only updated
+     * once and the message send log entries are all removed in one go.
+     */
+    private void processReceipts(@NonNull List<SignalServiceEnvelope> envelopes) {
+      if (envelopes.isEmpty()) {
+        return;
+      } else if (envelopes.size() == 1) {
+        processReceipt(envelopes.get(0));
+        return;
+      }
+
+      List<SyncMessageId>                         ids       = new ArrayList<>(envelopes.size());
+      List<MessageSendLogDatabase.DeliveredEntry> delivered = new ArrayList<>(envelopes.size());
+
+      for (SignalServiceEnvelope envelope : envelopes) {
+        RecipientId sender = Recipient.externalHighTrustPush(context, envelope.getSourceAddress()).getId();
+
+        ids.add(new SyncMessageId(sender, envelope.getTimestamp()));
+        delivered.add(new MessageSendLogDatabase.DeliveredEntry(envelope.getTimestamp(), sender, envelope.getSourceDevice()));
+      }
+
+      Log.i(TAG, "Received " + envelopes.size() + " server receipts.");
+
+      mmsSmsDatabase.incrementDeliveryReceiptCounts(ids, System.currentTimeMillis());
+      ShadowDatabase.messageLog().deleteEntriesForRecipients(delivered);
+    }
+
     private boolean needsToEnqueueDecryption() {
-      return !jobManager.areQueuesEmpty(SetUtil.newHashSet(Job.Parameters.MIGRATION_QUEUE_KEY, PushDecryptMessageJob.QUEUE)) ||
+      return !jobManager.isQueueEmpty(Job.Parameters.MIGRATION_QUEUE_KEY) ||
+             !jobManager.areQueuesWithPrefixEmpty(PushDecryptMessageJob.QUEUE) ||
              !IdentityKeyUtil.hasIdentityKey(context) ||
              TextSecurePreferences.getNeedsSqlCipherMigration(context);
     }
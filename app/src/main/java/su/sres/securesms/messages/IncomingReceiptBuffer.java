@@ -0,0 +1,181 @@
+package su.sres.securesms.messages;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import su.sres.core.util.logging.Log;
+import su.sres.securesms.database.MessageDatabase.SyncMessageId;
+import su.sres.securesms.database.MessageSendLogDatabase;
+import su.sres.securesms.database.MmsSmsDatabase.ReceiptUpdate;
+import su.sres.securesms.database.ShadowDatabase;
+import su.sres.securesms.dependencies.ApplicationDependencies;
+import su.sres.securesms.recipients.RecipientId;
+import su.sres.signalservice.api.messages.SignalServiceContent;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects the delivery and read receipts that {@link MessageContentProcessor} handles, and applies
+ * them together once {@link #MAX_RECEIPTS} have built up or {@link #WINDOW_MS} has passed since the
+ * first one, whichever comes first.
+ *
+ * Sending to a large group brings back a receipt of each kind from every member, and applying them
+ * one by one means a transaction, a thread update and a message send log delete for each. Applied
+ * together, every affected thread is only updated once and the log entries go in one statement.
+ */
+public final class IncomingReceiptBuffer {
+
+  private static final String TAG = Log.tag(IncomingReceiptBuffer.class);
+
+  private static final int  MAX_RECEIPTS = 500;
+  private static final long WINDOW_MS    = 250;
+
+  private final Applier                  applier;
+  private final ScheduledExecutorService executor;
+  private final int                      maxReceipts;
+  private final long                     windowMs;
+
+  private List<Receipt> pending = new ArrayList<>();
+  private boolean       flushScheduled;
+
+  public IncomingReceiptBuffer() {
+    this(IncomingReceiptBuffer::applyToDatabase,
+         Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "shadow-receipts")),
+         MAX_RECEIPTS,
+         WINDOW_MS);
+  }
+
+  @VisibleForTesting
+  IncomingReceiptBuffer(@NonNull Applier applier, @NonNull ScheduledExecutorService executor, int maxReceipts, long windowMs) {
+    this.applier     = applier;
+    this.executor    = executor;
+    this.maxReceipts = maxReceipts;
+    this.windowMs    = windowMs;
+  }
+
+  public void addDeliveryReceipts(@NonNull RecipientId sender, int senderDevice, @NonNull List<Long> timestamps, long receivedTimestamp) {
+    for (long timestamp : timestamps) {
+      add(new Receipt(ReceiptUpdate.delivery(new SyncMessageId(sender, timestamp), receivedTimestamp), senderDevice, null));
+    }
+  }
+
+  /**
+   * @param content The message the receipts came in, which is kept in the early message cache for any
+   *                receipt whose message we don't have yet.
+   */
+  public void addReadReceipts(@NonNull RecipientId sender, @NonNull SignalServiceContent content, @NonNull List<Long> timestamps) {
+    for (long timestamp : timestamps) {
+      add(new Receipt(ReceiptUpdate.read(new SyncMessageId(sender, timestamp), content.getTimestamp()), content.getSenderDevice(), content));
+    }
+  }
+
+  /**
+   * Applies everything that's pending right away.
+   */
+  public void flush() {
+    List<Receipt> receipts;
+
+    synchronized (this) {
+      flushScheduled = false;
+
+      if (pending.isEmpty()) {
+        return;
+      }
+
+      receipts = pending;
+      pending  = new ArrayList<>();
+    }
+
+    applier.apply(receipts);
+  }
+
+  private void scheduledFlush() {
+    try {
+      flush();
+    } catch (RuntimeException e) {
+      // The executor would otherwise swallow it without a trace
+      Log.w(TAG, "Failed to apply receipts!", e);
+    }
+  }
+
+  private void add(@NonNull Receipt receipt) {
+    List<Receipt> full = null;
+
+    synchronized (this) {
+      pending.add(receipt);
+
+      if (pending.size() >= maxReceipts) {
+        full    = pending;
+        pending = new ArrayList<>();
+      } else if (!flushScheduled) {
+        flushScheduled = true;
+        executor.schedule(this::scheduledFlush, windowMs, TimeUnit.MILLISECONDS);
+      }
+    }
+
+    // A full buffer is applied on the caller's thread, which holds back whoever is producing receipts
+    // faster than we can apply them
+    if (full != null) {
+      applier.apply(full);
+    }
+  }
+
+  private static void applyToDatabase(@NonNull List<Receipt> receipts) {
+    long                                        startTime = System.currentTimeMillis();
+    List<ReceiptUpdate>                         updates   = new ArrayList<>(receipts.size());
+    List<MessageSendLogDatabase.DeliveredEntry> delivered = new ArrayList<>(receipts.size());
+
+    for (Receipt receipt : receipts) {
+      updates.add(receipt.update);
+
+      if (receipt.update.isDelivery()) {
+        SyncMessageId id = receipt.update.getSyncMessageId();
+        delivered.add(new MessageSendLogDatabase.DeliveredEntry(id.getTimetamp(), id.getRecipientId(), receipt.senderDevice));
+      }
+    }
+
+    Collection<ReceiptUpdate> unhandled = ShadowDatabase.mmsSms().incrementReceiptCounts(updates);
+
+    ShadowDatabase.messageLog().deleteEntriesForRecipients(delivered);
+
+    for (Receipt receipt : receipts) {
+      if (receipt.update.isRead() && unhandled.contains(receipt.update)) {
+        SyncMessageId id = receipt.update.getSyncMessageId();
+
+        Log.w(TAG, "[applyToDatabase] Could not find matching message for read receipt! timestamp: " + id.getTimetamp() + "  author: " + id.getRecipientId());
+        ApplicationDependencies.getEarlyMessageCache().store(id.getRecipientId(), id.getTimetamp(), receipt.content);
+      }
+    }
+
+    long duration = Math.max(System.currentTimeMillis() - startTime, 1);
+    Log.i(TAG, "Applied " + receipts.size() + " receipts (" + delivered.size() + " delivery) in " + duration + " ms, " + (receipts.size() * 1000 / duration) + " receipts/sec");
+  }
+
+  @VisibleForTesting
+  interface Applier {
+    void apply(@NonNull List<Receipt> receipts);
+  }
+
+  @VisibleForTesting
+  static final class Receipt {
+    private final ReceiptUpdate        update;
+    private final int                  senderDevice;
+    private final SignalServiceContent content;
+
+    private Receipt(@NonNull ReceiptUpdate update, int senderDevice, @Nullable SignalServiceContent content) {
+      this.update       = update;
+      this.senderDevice = senderDevice;
+      this.content      = content;
+    }
+
+    @NonNull ReceiptUpdate getUpdate() {
+      return update;
+    }
+  }
+}
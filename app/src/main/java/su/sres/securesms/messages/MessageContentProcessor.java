@@ -1733,12 +1733,7 @@ public final class MessageContentProcessor {
   {
     log(TAG, "Processing delivery receipts. Sender: " + senderRecipient.getId() + ", Device: " + content.getSenderDevice() + ", Timestamps: " + Util.join(message.getTimestamps(), ", "));
 
-    List<SyncMessageId> ids = Stream.of(message.getTimestamps())
-                                    .map(t -> new SyncMessageId(senderRecipient.getId(), t))
-                                    .toList();
-
-    ShadowDatabase.mmsSms().incrementDeliveryReceiptCounts(ids, System.currentTimeMillis());
-    ShadowDatabase.messageLog().deleteEntriesForRecipient(message.getTimestamps(), senderRecipient.getId(), content.getSenderDevice());
+    ApplicationDependencies.getIncomingReceiptBuffer().addDeliveryReceipts(senderRecipient.getId(), content.getSenderDevice(), message.getTimestamps(), System.currentTimeMillis());
   }
 
   @SuppressLint("DefaultLocale")
@@ -1753,16 +1748,7 @@ public final class MessageContentProcessor {
 
     log(TAG, "Processing read receipts. Sender: " + senderRecipient.getId() + ", Device: " + content.getSenderDevice() + ", Timestamps: " + Util.join(message.getTimestamps(), ", "));
 
-    List<SyncMessageId> ids = Stream.of(message.getTimestamps())
-                                    .map(t -> new SyncMessageId(senderRecipient.getId(), t))
-                                    .toList();
-
-    Collection<SyncMessageId> unhandled = ShadowDatabase.mmsSms().incrementReadReceiptCounts(ids, content.getTimestamp());
-
-    for (SyncMessageId id : unhandled) {
-      warn(String.valueOf(content.getTimestamp()), "[handleReadReceipt] Could not find matching message! timestamp: " + id.getTimetamp() + "  author: " + senderRecipient.getId());
-      ApplicationDependencies.getEarlyMessageCache().store(senderRecipient.getId(), id.getTimetamp(), content);
-    }
+    ApplicationDependencies.getIncomingReceiptBuffer().addReadReceipts(senderRecipient.getId(), content, message.getTimestamps());
   }
 
   private void handleTypingMessage(@NonNull SignalServiceContent content,
@@ -51,6 +51,7 @@ import org.whispersystems.libsignal.state.SignalProtocolStore;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import su.sres.signalservice.api.InvalidMessageStructureException;
+import su.sres.signalservice.api.SignalSessionLock;
 import su.sres.signalservice.api.crypto.ContentHint;
 import su.sres.signalservice.api.crypto.SignalServiceCipher;
 import su.sres.signalservice.api.messages.SignalServiceContent;
@@ -82,7 +83,7 @@ public final class MessageDecryptionUtil {
   public static @NonNull DecryptionResult decrypt(@NonNull Context context, @NonNull SignalServiceEnvelope envelope) {
     SignalProtocolStore  axolotlStore = new SignalProtocolStoreImpl(context);
     SignalServiceAddress localAddress = new SignalServiceAddress(Recipient.self().requireAci(), Recipient.self().requireE164());
-    SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, ReentrantSessionLock.INSTANCE, UnidentifiedAccessUtil.getCertificateValidator());
+    SignalServiceCipher  cipher       = new SignalServiceCipher(localAddress, axolotlStore, getSessionLock(envelope), UnidentifiedAccessUtil.getCertificateValidator());
     List<Job>            jobs         = new LinkedList<>();
 
     if (envelope.isPreKeySignalMessage()) {
@@ -129,6 +130,19 @@ public final class MessageDecryptionUtil {
     }
   }
 
+  /**
+   * Envelopes that name their sender only touch that sender's sessions, so they only need to lock
+   * that address (across all of its devices). Sealed sender envelopes don't tell us who they're from until they're unsealed, so
+   * they still need exclusive access to every session.
+   */
+  private static @NonNull SignalSessionLock getSessionLock(@NonNull SignalServiceEnvelope envelope) {
+    if (envelope.hasSourceUuid() && !envelope.isUnidentifiedSender()) {
+      return ReentrantSessionLock.forAddress(envelope.getSourceUuid().get());
+    } else {
+      return ReentrantSessionLock.INSTANCE;
+    }
+  }
+
   private static ExceptionMetadata toExceptionMetadata(@NonNull UnsupportedDataMessageException e)
       throws NoSenderException
   {
@@ -30,12 +30,14 @@ public class RestStrategy extends MessageRetrievalStrategy {
     @WorkerThread
     @Override
     public boolean execute(long timeout) {
-        long                    startTime     = System.currentTimeMillis();
-        JobManager              jobManager    = ApplicationDependencies.getJobManager();
-        QueueFindingJobListener queueListener = new QueueFindingJobListener();
+        long                    startTime            = System.currentTimeMillis();
+        JobManager              jobManager           = ApplicationDependencies.getJobManager();
+        QueueFindingJobListener queueListener        = new QueueFindingJobListener();
+        QueueFindingJobListener decryptQueueListener = new QueueFindingJobListener();
 
         try (IncomingMessageProcessor.Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
             jobManager.addListener(job -> job.getParameters().getQueue() != null && job.getParameters().getQueue().startsWith(PushProcessMessageJob.QUEUE_PREFIX), queueListener);
+            jobManager.addListener(job -> job.getParameters().getQueue() != null && job.getParameters().getQueue().startsWith(PushDecryptMessageJob.QUEUE), decryptQueueListener);
 
             int jobCount = enqueuePushDecryptJobs(processor, startTime, timeout);
 
@@ -46,8 +48,14 @@ public class RestStrategy extends MessageRetrievalStrategy {
                 Log.d(TAG, jobCount + " PushDecryptMessageJob(s) were enqueued.");
             }
 
-            long        timeRemainingMs = blockUntilQueueDrained(PushDecryptMessageJob.QUEUE, TimeUnit.SECONDS.toMillis(10));
-            Set<String> processQueues   = queueListener.getQueues();
+            long             timeRemainingMs = TimeUnit.SECONDS.toMillis(10);
+            Iterator<String> decryptIter     = decryptQueueListener.getQueues().iterator();
+
+            while (decryptIter.hasNext() && timeRemainingMs > 0) {
+                timeRemainingMs = blockUntilQueueDrained(decryptIter.next(), timeRemainingMs);
+            }
+
+            Set<String> processQueues = queueListener.getQueues();
 
             Log.d(TAG, "Discovered " + processQueues.size() + " queue(s): " + processQueues);
 
@@ -72,6 +80,7 @@ public class RestStrategy extends MessageRetrievalStrategy {
             return false;
         } finally {
             jobManager.removeListener(queueListener);
+            jobManager.removeListener(decryptQueueListener);
         }
     }
 
@@ -7,11 +7,9 @@ import su.sres.securesms.jobmanager.JobManager;
 import su.sres.securesms.jobs.PushProcessMessageJob;
 import su.sres.core.util.logging.Log;
 
-import org.whispersystems.libsignal.util.guava.Optional;
 
 import su.sres.signalservice.api.SignalServiceMessageReceiver;
 import su.sres.signalservice.api.SignalWebSocket;
-import su.sres.signalservice.api.messages.SignalServiceEnvelope;
 
 import java.io.IOException;
 import java.util.Iterator;
@@ -64,14 +62,14 @@ class WebsocketStrategy extends MessageRetrievalStrategy {
       signalWebSocket.connect();
       while (shouldContinue()) {
         try {
-          Optional<SignalServiceEnvelope> result = signalWebSocket.readOrEmpty(timeout, envelope -> {
-            Log.i(TAG, "Retrieved envelope! " + envelope.getTimestamp() + timeSuffix(startTime));
+          boolean empty = signalWebSocket.readMessageBatch(timeout, IncomingMessageObserver.MAX_ENVELOPE_BATCH_SIZE, envelopes -> {
+            Log.i(TAG, "Retrieved " + envelopes.size() + " envelope(s)! First: " + envelopes.get(0).getTimestamp() + timeSuffix(startTime));
             try (IncomingMessageProcessor.Processor processor = ApplicationDependencies.getIncomingMessageProcessor().acquire()) {
-              processor.processEnvelope(envelope);
+              processor.processEnvelopes(envelopes);
             }
           });
 
-          if (!result.isPresent()) {
+          if (empty) {
             Log.i(TAG, "Hit an empty response. Finished." + timeSuffix(startTime));
             break;
           }
@@ -17,8 +17,8 @@ import su.sres.securesms.BuildConfig;
 import su.sres.securesms.components.voice.VoiceNoteDraft;
 import su.sres.securesms.crypto.AttachmentSecret;
 import su.sres.securesms.crypto.AttachmentSecretProvider;
-import su.sres.securesms.crypto.ModernDecryptingPartInputStream;
 import su.sres.securesms.crypto.ModernEncryptingPartOutputStream;
+import su.sres.securesms.crypto.ModernRandomAccessDecryptor;
 import su.sres.core.util.logging.Log;
 import su.sres.securesms.database.DraftDatabase;
 import su.sres.securesms.database.ShadowDatabase;
@@ -118,9 +118,8 @@ public class BlobProvider {
                                    }
                                    return byteArrayInputStream;
                                  },
-                                 file -> ModernDecryptingPartInputStream.createFor(getAttachmentSecret(context),
-                                                                                   file,
-                                                                                   position));
+                                 file -> ModernRandomAccessDecryptor.open(getAttachmentSecret(context), file)
+                                                                    .createInputStream(position));
   }
 
   public synchronized @NonNull MediaDataSource getMediaDataSource(@NonNull Context context, @NonNull Uri uri) throws IOException {
@@ -228,6 +228,16 @@ public final class LiveRecipientCache {
     }
   }
 
+  /**
+   * @return True if there's a live recipient for the ID, in which case someone may be observing it.
+   */
+  @AnyThread
+  public boolean isCached(@NonNull RecipientId id) {
+    synchronized (recipients) {
+      return recipients.containsKey(id);
+    }
+  }
+
   @AnyThread
   public void clear() {
     synchronized (recipients) {
@@ -0,0 +1,257 @@
+package su.sres.securesms.util;
+
+import androidx.annotation.NonNull;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations that any number of threads can record into without taking a lock. The
+ * unit is up to the caller; it just needs to be consistent.
+ *
+ * Values are counted in log-linear buckets, the same way HdrHistogram does it: small values get a
+ * bucket each, and every power of two above that is split into a fixed number of equal sub-buckets.
+ * That makes the histogram a fixed array of counters, with percentiles that are exact for small
+ * values and at most one sub-bucket's width high above that.
+ *
+ * The default layout uses 32 sub-buckets, for ~3% accuracy in about 8 KB. Callers that keep many
+ * histograms around should use {@link #compact()} instead.
+ */
+public final class LatencyHistogram {
+
+  /** Anything at or above 2^36, about two years in ms, is counted in the last bucket. */
+  private static final Layout DEFAULT = new Layout(5, 35);
+
+  /** ~12% accurate, and anything at or above 2^27, about a day and a half in ms, is counted in the last bucket. */
+  private static final Layout COMPACT = new Layout(3, 26);
+
+  static final int BUCKET_COUNT = DEFAULT.bucketCount;
+
+  private final Layout          layout;
+  private final AtomicLongArray counts;
+
+  public LatencyHistogram() {
+    this(DEFAULT);
+  }
+
+  private LatencyHistogram(@NonNull Layout layout) {
+    this.layout = layout;
+    this.counts = new AtomicLongArray(layout.bucketCount);
+  }
+
+  /**
+   * @return A histogram with fewer, wider buckets, about 1.6 KB instead of 8 KB. It can't be
+   *         serialized, or merged with a default histogram.
+   */
+  public static @NonNull LatencyHistogram compact() {
+    return new LatencyHistogram(COMPACT);
+  }
+
+  public void record(long value) {
+    counts.incrementAndGet(layout.bucketFor(value));
+  }
+
+  public long getCount() {
+    long count = 0;
+
+    for (int i = 0; i < layout.bucketCount; i++) {
+      count += counts.get(i);
+    }
+
+    return count;
+  }
+
+  public boolean isEmpty() {
+    for (int i = 0; i < layout.bucketCount; i++) {
+      if (counts.get(i) != 0) {
+        return false;
+      }
+    }
+
+    return true;
+  }
+
+  /**
+   * Picks the value the same way our old SQL did: the one at position count * percent / 100 when
+   * sorted, or the smallest value if that rounds down to nothing.
+   *
+   * @return The largest value that would land in the same bucket as that value, or -1 if the
+   *         histogram is empty.
+   */
+  public long getPercentile(int percent) {
+    long count = getCount();
+
+    if (count == 0) {
+      return -1;
+    }
+
+    long rank = Math.max(1, count * percent / 100);
+    long seen = 0;
+
+    for (int i = 0; i < layout.bucketCount; i++) {
+      seen += counts.get(i);
+
+      if (seen >= rank) {
+        return layout.highestValueIn(i);
+      }
+    }
+
+    return layout.highestValueIn(layout.bucketCount - 1);
+  }
+
+  public void add(@NonNull LatencyHistogram other) {
+    if (other.layout != layout) {
+      throw new IllegalArgumentException("Histograms have different layouts!");
+    }
+
+    for (int i = 0; i < layout.bucketCount; i++) {
+      long count = other.counts.get(i);
+
+      if (count != 0) {
+        counts.addAndGet(i, count);
+      }
+    }
+  }
+
+  /**
+   * Moves everything recorded so far into a new histogram, leaving this one empty. Values recorded
+   * at the same time end up in exactly one of the two.
+   */
+  public @NonNull LatencyHistogram drain() {
+    LatencyHistogram drained = new LatencyHistogram(layout);
+
+    for (int i = 0; i < layout.bucketCount; i++) {
+      if (counts.get(i) != 0) {
+        drained.counts.set(i, counts.getAndSet(i, 0));
+      }
+    }
+
+    return drained;
+  }
+
+  /**
+   * @return A compact encoding of the non-empty buckets, as varint pairs of the distance from the
+   *         previous non-empty bucket and the count. Only histograms with the default layout can be
+   *         serialized.
+   */
+  public @NonNull byte[] serialize() {
+    if (layout != DEFAULT) {
+      throw new IllegalStateException("Only the default layout can be serialized!");
+    }
+
+    ByteArrayOutputStream out      = new ByteArrayOutputStream();
+    int                   previous = 0;
+
+    for (int i = 0; i < layout.bucketCount; i++) {
+      long count = counts.get(i);
+
+      if (count != 0) {
+        writeVarint(out, i - previous);
+        writeVarint(out, count);
+        previous = i;
+      }
+    }
+
+    return out.toByteArray();
+  }
+
+  public static @NonNull LatencyHistogram deserialize(@NonNull byte[] serialized) {
+    LatencyHistogram histogram = new LatencyHistogram();
+    int[]            position  = new int[1];
+    int              bucket    = 0;
+
+    while (position[0] < serialized.length) {
+      bucket += (int) readVarint(serialized, position);
+
+      long count = readVarint(serialized, position);
+
+      if (bucket < 0 || bucket >= DEFAULT.bucketCount) {
+        throw new IllegalArgumentException("Bucket out of range: " + bucket);
+      }
+
+      histogram.counts.addAndGet(bucket, count);
+    }
+
+    return histogram;
+  }
+
+  static int bucketFor(long value) {
+    return DEFAULT.bucketFor(value);
+  }
+
+  static long highestValueIn(int bucket) {
+    return DEFAULT.highestValueIn(bucket);
+  }
+
+  private static void writeVarint(@NonNull ByteArrayOutputStream out, long value) {
+    while ((value & ~0x7FL) != 0) {
+      out.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    out.write((int) value);
+  }
+
+  private static long readVarint(@NonNull byte[] in, @NonNull int[] position) {
+    long value = 0;
+    int  shift = 0;
+
+    while (true) {
+      if (position[0] >= in.length || shift > 63) {
+        throw new IllegalArgumentException("Malformed varint");
+      }
+
+      byte b = in[position[0]++];
+      value |= (long) (b & 0x7F) << shift;
+
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+
+      shift += 7;
+    }
+  }
+
+  private static final class Layout {
+    private final int subBucketBits;
+    private final int subBuckets;
+    private final int exactLimit;
+    private final int maxExponent;
+    private final int bucketCount;
+
+    private Layout(int subBucketBits, int maxExponent) {
+      this.subBucketBits = subBucketBits;
+      this.subBuckets    = 1 << subBucketBits;
+      this.exactLimit    = subBuckets * 2;
+      this.maxExponent   = maxExponent;
+      this.bucketCount   = (maxExponent - subBucketBits + 2) * subBuckets;
+    }
+
+    int bucketFor(long value) {
+      if (value < subBuckets) {
+        return (int) Math.max(value, 0);
+      }
+
+      int exponent = 63 - Long.numberOfLeadingZeros(value);
+
+      if (exponent > maxExponent) {
+        return bucketCount - 1;
+      }
+
+      int subBucket = (int) (value >>> (exponent - subBucketBits)) & (subBuckets - 1);
+
+      return (exponent - subBucketBits + 1) * subBuckets + subBucket;
+    }
+
+    long highestValueIn(int bucket) {
+      if (bucket < exactLimit) {
+        return bucket;
+      }
+
+      int  shift  = bucket / subBuckets - 1;
+      long lowest = (long) (subBuckets + bucket % subBuckets) << shift;
+
+      return lowest + (1L << shift) - 1;
+    }
+  }
+}
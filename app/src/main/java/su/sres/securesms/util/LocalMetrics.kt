@@ -3,10 +3,14 @@ package su.sres.securesms.util
 import su.sres.core.util.concurrent.SignalExecutors
 import su.sres.core.util.logging.Log
 import su.sres.securesms.database.LocalMetricsDatabase
+import su.sres.securesms.database.LocalMetricsDatabase.HistogramCheckpoint
 import su.sres.securesms.database.model.LocalMetricsEvent
 import su.sres.securesms.database.model.LocalMetricsSplit
 import su.sres.securesms.dependencies.ApplicationDependencies
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CopyOnWriteArrayList
 import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
 
 /**
  * A class for keeping track of local-only metrics.
@@ -22,13 +26,26 @@ import java.util.concurrent.Executor
  *  - end("mySpecialId")
  *
  * These metrics are only ever included in debug logs in an aggregate fashion (i.e. p50, p90, p99) and are never automatically uploaded anywhere.
+ *
+ * Finished events go straight into a [LatencyHistogram] for the event and one for each of its splits, which [getMetrics] reads from. Every
+ * [CHECKPOINT_INTERVAL] we move what the histograms have collected into [LocalMetricsDatabase], so we keep a week of history across restarts.
  */
 object LocalMetrics {
   private val TAG: String = Log.tag(LocalMetrics::class.java)
 
+  private val CHECKPOINT_INTERVAL = TimeUnit.MINUTES.toMillis(5)
+
   private val eventsById: MutableMap<String, LocalMetricsEvent> = LRUCache(200)
   private val lastSplitTimeById: MutableMap<String, Long> = LRUCache(200)
 
+  /** Everything recorded since the last checkpoint. Only ever added to on the [executor]. */
+  private val histograms: MutableMap<HistogramKey, LatencyHistogram> = ConcurrentHashMap()
+  private val histogramKeys: MutableList<HistogramKey> = CopyOnWriteArrayList()
+
+  /** Held while moving histograms to the database, so [getMetrics] never sees values in both places, or neither. */
+  private val checkpointLock = Any()
+  private var lastCheckpointTime = 0L
+
   private val executor: Executor = SignalExecutors.newCachedSingleThreadExecutor("signal-LocalMetrics")
   private val db: LocalMetricsDatabase by lazy { LocalMetricsDatabase.getInstance(ApplicationDependencies.getApplication()) }
 
@@ -86,14 +103,21 @@ object LocalMetrics {
   }
 
   /**
-   * Finishes the event and flushes it to the database.
+   * Finishes the event and adds it to the histograms.
    */
   fun end(id: String) {
     executor.execute {
-      val event: LocalMetricsEvent? = eventsById[id]
+      val event: LocalMetricsEvent? = eventsById.remove(id)
       if (event != null) {
-        db.insert(System.currentTimeMillis(), event)
+        histogram(event.eventName, null).record(event.splits.sumOf { it.duration })
+        event.splits.forEach { split -> histogram(event.eventName, split.name).record(split.duration) }
         Log.d(TAG, event.toString())
+
+        val now = System.currentTimeMillis()
+        if (now - lastCheckpointTime >= CHECKPOINT_INTERVAL) {
+          checkpoint(now)
+          lastCheckpointTime = now
+        }
       }
     }
   }
@@ -104,7 +128,90 @@ object LocalMetrics {
   fun clear() {
     executor.execute {
       Log.w(TAG, "Clearing local metrics store.")
-      db.clear()
+      synchronized(checkpointLock) {
+        histograms.values.forEach { it.drain() }
+        db.clear()
+      }
+    }
+  }
+
+  /**
+   * Percentiles for every event and split we've seen in the last week, including what hasn't been checkpointed yet.
+   */
+  fun getMetrics(): List<EventMetrics> {
+    val merged: MutableMap<HistogramKey, LatencyHistogram> = LinkedHashMap()
+
+    synchronized(checkpointLock) {
+      db.getHistograms(System.currentTimeMillis()).forEach { checkpoint ->
+        merged.getOrPut(HistogramKey(checkpoint.eventName, checkpoint.splitName)) { LatencyHistogram() }.add(checkpoint.histogram)
+      }
+
+      histogramKeys.forEach { key ->
+        merged.getOrPut(key) { LatencyHistogram() }.add(histograms.getValue(key))
+      }
+    }
+
+    return merged
+      .filterKeys { it.splitName == null }
+      .map { (eventKey, total) ->
+        EventMetrics(
+          name = eventKey.eventName,
+          count = total.count,
+          p50 = total.getPercentile(50),
+          p90 = total.getPercentile(90),
+          p99 = total.getPercentile(99),
+          splits = merged
+            .filterKeys { it.eventName == eventKey.eventName && it.splitName != null }
+            .map { (splitKey, split) ->
+              SplitMetrics(
+                name = splitKey.splitName!!,
+                p50 = split.getPercentile(50),
+                p90 = split.getPercentile(90),
+                p99 = split.getPercentile(99)
+              )
+            }
+        )
+      }
+      .filter { it.count > 0 }
+  }
+
+  private fun histogram(eventName: String, splitName: String?): LatencyHistogram {
+    val key = HistogramKey(eventName, splitName)
+
+    return histograms[key] ?: LatencyHistogram().also {
+      histograms[key] = it
+      histogramKeys += key
     }
   }
+
+  private fun checkpoint(currentTime: Long) {
+    synchronized(checkpointLock) {
+      val checkpoints: List<HistogramCheckpoint> = histogramKeys
+        .map { key -> HistogramCheckpoint(key.eventName, key.splitName, histograms.getValue(key).drain()) }
+        .filterNot { it.histogram.isEmpty }
+
+      db.insert(currentTime, checkpoints)
+    }
+  }
+
+  /**
+   * @param splitName The split this histogram is for, or null if it's for the event's total duration.
+   */
+  private data class HistogramKey(val eventName: String, val splitName: String?)
+
+  data class EventMetrics(
+    val name: String,
+    val count: Long,
+    val p50: Long,
+    val p90: Long,
+    val p99: Long,
+    val splits: List<SplitMetrics>
+  )
+
+  data class SplitMetrics(
+    val name: String,
+    val p50: Long,
+    val p90: Long,
+    val p99: Long
+  )
 }
\ No newline at end of file
@@ -7,11 +7,10 @@ import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
 import su.sres.securesms.crypto.AttachmentSecret;
-import su.sres.securesms.crypto.ModernDecryptingPartInputStream;
+import su.sres.securesms.crypto.ModernRandomAccessDecryptor;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 
 /**
  * Create via {@link EncryptedMediaDataSource}.
@@ -29,6 +28,8 @@ final class ModernEncryptedMediaDataSource extends MediaDataSource {
     private final byte[]           random;
     private final long             length;
 
+    private ModernRandomAccessDecryptor decryptor;
+
     ModernEncryptedMediaDataSource(@NonNull AttachmentSecret attachmentSecret, @NonNull File mediaFile, @Nullable byte[] random, long length) {
         this.attachmentSecret = attachmentSecret;
         this.mediaFile        = mediaFile;
@@ -42,27 +43,7 @@ final class ModernEncryptedMediaDataSource extends MediaDataSource {
             return -1;
         }
 
-        try (InputStream inputStream = createInputStream(position)) {
-            int totalRead = 0;
-
-            while (length > 0) {
-                int read = inputStream.read(bytes, offset, length);
-
-                if (read == -1) {
-                    if (totalRead == 0) {
-                        return -1;
-                    } else {
-                        return totalRead;
-                    }
-                }
-
-                length    -= read;
-                offset    += read;
-                totalRead += read;
-            }
-
-            return totalRead;
-        }
+        return getDecryptor().read(position, bytes, offset, (int) Math.min(length, this.length - position));
     }
 
     @Override
@@ -71,15 +52,25 @@ final class ModernEncryptedMediaDataSource extends MediaDataSource {
     }
 
     @Override
-    public void close() {
+    public synchronized void close() throws IOException {
+        if (decryptor != null) {
+            decryptor.close();
+            decryptor = null;
+        }
     }
 
-
-    private InputStream createInputStream(long position) throws IOException {
-        if (random == null) {
-            return ModernDecryptingPartInputStream.createFor(attachmentSecret, mediaFile, position);
-        } else {
-            return ModernDecryptingPartInputStream.createFor(attachmentSecret, random, mediaFile, position);
+    /**
+     * Players make lots of small reads, so we keep one decryptor open for as long as we are.
+     */
+    private synchronized @NonNull ModernRandomAccessDecryptor getDecryptor() throws IOException {
+        if (decryptor == null) {
+            if (random == null) {
+                decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, mediaFile);
+            } else {
+                decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, random, mediaFile);
+            }
         }
+
+        return decryptor;
     }
 }
\ No newline at end of file
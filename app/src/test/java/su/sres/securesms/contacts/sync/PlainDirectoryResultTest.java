@@ -0,0 +1,75 @@
+package su.sres.securesms.contacts.sync;
+
+import org.junit.Test;
+
+import su.sres.signalservice.api.push.ACI;
+import su.sres.signalservice.api.storage.protos.DirectoryResponse;
+import su.sres.signalservice.api.storage.protos.DirectoryUpdate;
+
+import java.io.IOException;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public final class PlainDirectoryResultTest {
+
+  private static final ACI ACI_A = ACI.parseOrThrow("ebef429e-695e-4f51-bcc4-526a60ac68c7");
+
+  @Test
+  public void onEntry_convertsEachKindOfEntry() throws IOException {
+    PlainDirectoryResult result = new PlainDirectoryResult();
+
+    result.onEntry("alice", "{\"uuid\":\"" + ACI_A + "\"}");
+    result.onEntry("bob", "");
+    result.onEntry("carol", "-1");
+
+    assertEquals(2, result.getRegistered().size());
+    assertEquals(ACI_A, result.getRegistered().get("alice"));
+    assertTrue(result.getRegistered().containsKey("bob"));
+    assertNull(result.getRegistered().get("bob"));
+    assertEquals(Collections.singletonList("carol"), result.getUnregistered());
+    assertTrue(result.hasEntriesWithAci());
+    assertTrue(result.hasEntriesWithoutAci());
+  }
+
+  @Test
+  public void onEntry_skipsEmptyLogin() throws IOException {
+    PlainDirectoryResult result = new PlainDirectoryResult();
+
+    result.onEntry("", "");
+
+    assertTrue(result.getRegistered().isEmpty());
+    assertTrue(result.getUnregistered().isEmpty());
+    assertFalse(result.hasEntriesWithoutAci());
+  }
+
+  @Test
+  public void onResponse_fullUpdate() {
+    PlainDirectoryResult result = new PlainDirectoryResult();
+
+    result.onResponse(DirectoryResponse.newBuilder()
+                                       .setVersion(5)
+                                       .setDirectoryUpdate(DirectoryUpdate.newBuilder().setType(DirectoryUpdate.Type.FULL))
+                                       .build());
+
+    assertEquals(5, result.getVersion());
+    assertTrue(result.isUpdate());
+    assertTrue(result.isFullUpdate());
+  }
+
+  @Test
+  public void onResponse_noUpdate() {
+    PlainDirectoryResult result = new PlainDirectoryResult();
+
+    result.onResponse(DirectoryResponse.newBuilder()
+                                       .setVersion(5)
+                                       .setIsUpdate(false)
+                                       .build());
+
+    assertFalse(result.isUpdate());
+    assertFalse(result.isFullUpdate());
+  }
+}
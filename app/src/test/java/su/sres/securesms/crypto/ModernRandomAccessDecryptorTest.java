@@ -0,0 +1,143 @@
+package su.sres.securesms.crypto;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public final class ModernRandomAccessDecryptorTest {
+
+  private static final int LENGTH = ModernRandomAccessDecryptor.CACHE_SIZE * 3 + 123;
+
+  private final Random           random           = new Random(42);
+  private final AttachmentSecret attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], randomBytes(32));
+  private final byte[]           plaintext        = randomBytes(LENGTH);
+  private final byte[]           keyRandom        = randomBytes(32);
+
+  private File withHeader;
+  private File withoutHeader;
+
+  @Before
+  public void setUp() throws Exception {
+    withHeader    = encrypt(true);
+    withoutHeader = encrypt(false);
+  }
+
+  @After
+  public void tearDown() {
+    withHeader.delete();
+    withoutHeader.delete();
+  }
+
+  @Test
+  public void read_withHeader_randomRanges() throws IOException {
+    try (ModernRandomAccessDecryptor decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, withHeader)) {
+      assertEquals(LENGTH, decryptor.getLength());
+      assertRandomReads(decryptor);
+    }
+  }
+
+  @Test
+  public void read_withoutHeader_randomRanges() throws IOException {
+    try (ModernRandomAccessDecryptor decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, keyRandom, withoutHeader)) {
+      assertEquals(LENGTH, decryptor.getLength());
+      assertRandomReads(decryptor);
+    }
+  }
+
+  @Test
+  public void read_acrossCacheBoundary() throws IOException {
+    try (ModernRandomAccessDecryptor decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, withHeader)) {
+      int    position = ModernRandomAccessDecryptor.CACHE_SIZE - 7;
+      byte[] buffer   = new byte[100];
+
+      assertEquals(100, decryptor.read(position, buffer, 0, 100));
+      assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + 100), buffer);
+    }
+  }
+
+  @Test
+  public void read_pastEnd() throws IOException {
+    try (ModernRandomAccessDecryptor decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, withHeader)) {
+      byte[] buffer = new byte[100];
+
+      assertEquals(10, decryptor.read(LENGTH - 10, buffer, 0, 100));
+      assertArrayEquals(Arrays.copyOfRange(plaintext, LENGTH - 10, LENGTH), Arrays.copyOf(buffer, 10));
+      assertEquals(-1, decryptor.read(LENGTH, buffer, 0, 100));
+    }
+  }
+
+  @Test
+  public void createInputStream_matchesDecryptingPartInputStream() throws IOException {
+    long position = 12345;
+
+    try (InputStream expected = ModernDecryptingPartInputStream.createFor(attachmentSecret, withHeader, position);
+         InputStream actual   = ModernRandomAccessDecryptor.open(attachmentSecret, withHeader).createInputStream(position))
+    {
+      assertArrayEquals(readAll(expected), readAll(actual));
+    }
+  }
+
+  private void assertRandomReads(ModernRandomAccessDecryptor decryptor) throws IOException {
+    for (int i = 0; i < 200; i++) {
+      int    position = random.nextInt(LENGTH);
+      int    length   = Math.min(1 + random.nextInt(5000), LENGTH - position);
+      byte[] buffer   = new byte[length + 2];
+
+      assertEquals(length, decryptor.read(position, buffer, 1, length));
+      assertArrayEquals(Arrays.copyOfRange(plaintext, position, position + length), Arrays.copyOfRange(buffer, 1, length + 1));
+    }
+  }
+
+  private File encrypt(boolean inlineRandom) throws Exception {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(attachmentSecret.getModernKey(), "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(keyRandom), "AES"), new IvParameterSpec(new byte[16]));
+
+    File file = File.createTempFile("encrypted", ".mms");
+
+    try (FileOutputStream out = new FileOutputStream(file)) {
+      if (inlineRandom) {
+        out.write(keyRandom);
+      }
+      out.write(cipher.doFinal(plaintext));
+    }
+
+    return file;
+  }
+
+  private static byte[] readAll(InputStream in) throws IOException {
+    ByteArrayOutputStream out    = new ByteArrayOutputStream();
+    byte[]                buffer = new byte[1000];
+    int                   read;
+
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+
+    return out.toByteArray();
+  }
+
+  private byte[] randomBytes(int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
@@ -0,0 +1,100 @@
+package su.sres.securesms.crypto;
+
+import org.junit.Test;
+
+import su.sres.signalservice.api.SignalSessionLock;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class ReentrantSessionLockTest {
+
+  @Test
+  public void forAddress_differentAddresses_doNotBlockEachOther() throws Exception {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.forAddress("a").acquire()) {
+      CountDownLatch acquired = acquireOnOtherThread(ReentrantSessionLock.forAddress("b"));
+
+      assertTrue(acquired.await(1, TimeUnit.SECONDS));
+    }
+  }
+
+  @Test
+  public void forAddress_sameAddress_blocksUntilReleased() throws Exception {
+    CountDownLatch acquired;
+
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.forAddress("a").acquire()) {
+      acquired = acquireOnOtherThread(ReentrantSessionLock.forAddress("a"));
+
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void instance_blocksUntilAddressLockReleased() throws Exception {
+    CountDownLatch acquired;
+
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.forAddress("a").acquire()) {
+      acquired = acquireOnOtherThread(ReentrantSessionLock.INSTANCE);
+
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void forAddress_blocksUntilInstanceReleased() throws Exception {
+    CountDownLatch acquired;
+
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+      acquired = acquireOnOtherThread(ReentrantSessionLock.forAddress("a"));
+
+      assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    assertTrue(acquired.await(1, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void forAddress_canBeAcquiredWhileHoldingInstance() {
+    try (SignalSessionLock.Lock outer = ReentrantSessionLock.INSTANCE.acquire()) {
+      try (SignalSessionLock.Lock inner = ReentrantSessionLock.forAddress("a").acquire()) {
+        try (SignalSessionLock.Lock again = ReentrantSessionLock.INSTANCE.acquire()) {
+          // Reentrant
+        }
+      }
+    }
+  }
+
+  @Test
+  public void instance_cannotBeAcquiredWhileHoldingOnlyAddressLock() {
+    boolean threw = false;
+
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.forAddress("a").acquire()) {
+      ReentrantSessionLock.INSTANCE.acquire();
+    } catch (AssertionError e) {
+      threw = true;
+    }
+
+    assertTrue(threw);
+  }
+
+  private static CountDownLatch acquireOnOtherThread(SignalSessionLock lock) {
+    CountDownLatch acquired = new CountDownLatch(1);
+
+    Thread thread = new Thread(() -> {
+      try (SignalSessionLock.Lock unused = lock.acquire()) {
+        acquired.countDown();
+      }
+    });
+    thread.setDaemon(true);
+    thread.start();
+
+    return acquired;
+  }
+}
@@ -0,0 +1,56 @@
+package su.sres.securesms.database;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class LogBlockCodecTest {
+
+  @Test
+  public void encode_decode_roundTrip() throws IOException {
+    List<String> lines = Arrays.asList("2021-10-17 12:00:00.000 I Tag: Hello",
+                                       "",
+                                       "java.io.IOException: Connection reset\n\tat Foo.bar(Foo.java:12)",
+                                       "Unicode ✓ 😀");
+
+    assertEquals(lines, LogBlockCodec.decode(LogBlockCodec.encode(lines)));
+  }
+
+  @Test
+  public void encode_decode_empty() throws IOException {
+    assertEquals(Collections.emptyList(), LogBlockCodec.decode(LogBlockCodec.encode(Collections.emptyList())));
+  }
+
+  @Test
+  public void encode_compressesTypicalLogs() {
+    List<String> lines = new ArrayList<>();
+    int          size  = 0;
+
+    for (int i = 0; i < 1000; i++) {
+      String line = "2021-10-17 12:00:" + (i % 60) + ".000 1234  I JobRunner: [JOB::" + i + "][PushDecryptMessageJob] Job finished with result SUCCESS in " + (i % 17) + " ms.";
+      lines.add(line);
+      size += line.length();
+    }
+
+    assertTrue(LogBlockCodec.encode(lines).length < size / 5);
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_garbage() throws IOException {
+    LogBlockCodec.decode(new byte[] { 1, 2, 3, 4, 5 });
+  }
+
+  @Test(expected = IOException.class)
+  public void decode_truncated() throws IOException {
+    byte[] block = LogBlockCodec.encode(Arrays.asList("one", "two", "three"));
+
+    LogBlockCodec.decode(Arrays.copyOf(block, block.length / 2));
+  }
+}
@@ -1,6 +1,7 @@
 package su.sres.securesms.database
 
 import android.app.Application
+import android.database.Cursor
 import android.database.sqlite.SQLiteDatabase
 import androidx.test.core.app.ApplicationProvider
 import org.junit.After
@@ -76,4 +77,69 @@ class MmsSmsDatabaseTest {
       assertTrue(CursorUtil.requireBoolean(cursor, MmsSmsDatabase.TRANSPORT))
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `getConversationAfter, paging from each last message matches getConversation with offsets`() {
+    val timestamp = System.currentTimeMillis()
+
+    for (i in 0 until 20) {
+      TestSms.insert(db, receivedTimestampMillis = timestamp + i / 3)
+      TestMms.insert(db, receivedTimestampMillis = timestamp + i / 2)
+    }
+
+    val expected = readKeys(mmsSmsDatabase.getConversation(1, 0, 0))
+    val actual = readKeys(mmsSmsDatabase.getConversation(1, 0, 7)).toMutableList()
+
+    while (actual.size < expected.size) {
+      val (dateReceived, isMms, id) = actual.last()
+      val page = readKeys(mmsSmsDatabase.getConversationAfter(1, dateReceived, isMms, id, 7))
+
+      assertTrue(page.isNotEmpty())
+      actual += page
+    }
+
+    assertEquals(expected, actual)
+  }
+
+  @Test
+  fun `getConversationAfter when given the oldest message, return nothing`() {
+    val timestamp = System.currentTimeMillis()
+
+    TestSms.insert(db, receivedTimestampMillis = timestamp)
+    TestMms.insert(db, receivedTimestampMillis = timestamp)
+
+    val (dateReceived, isMms, id) = readKeys(mmsSmsDatabase.getConversation(1, 0, 0)).last()
+
+    assertTrue(readKeys(mmsSmsDatabase.getConversationAfter(1, dateReceived, isMms, id, 10)).isEmpty())
+  }
+
+  @Test
+  fun `getConversationPosition, matches the position of every message in getConversation`() {
+    val timestamp = System.currentTimeMillis()
+
+    for (i in 0 until 20) {
+      TestSms.insert(db, receivedTimestampMillis = timestamp + i / 3)
+      TestMms.insert(db, receivedTimestampMillis = timestamp + i / 2)
+    }
+
+    readKeys(mmsSmsDatabase.getConversation(1, 0, 0)).forEachIndexed { position, (dateReceived, isMms, id) ->
+      assertEquals(position, mmsSmsDatabase.getConversationPosition(1, dateReceived, isMms, id))
+    }
+  }
+
+  private fun readKeys(cursor: Cursor): List<Triple<Long, Boolean, Long>> {
+    val keys = mutableListOf<Triple<Long, Boolean, Long>>()
+
+    cursor.use {
+      while (it.moveToNext()) {
+        keys += Triple(
+          CursorUtil.requireLong(it, MmsSmsColumns.NORMALIZED_DATE_RECEIVED),
+          CursorUtil.requireString(it, MmsSmsDatabase.TRANSPORT) == MmsSmsDatabase.MMS_TRANSPORT,
+          CursorUtil.requireLong(it, MmsSmsColumns.ID)
+        )
+      }
+    }
+
+    return keys
+  }
+}
@@ -0,0 +1,122 @@
+package su.sres.securesms.database;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class QueryMonitorTest {
+
+  @Test
+  public void normalizeSql_replacesLiterals() {
+    assertEquals("SELECT * FROM sms WHERE _id = ? AND body = ?", QueryMonitor.normalizeSql("SELECT * FROM sms WHERE _id = 12 AND body = 'it''s'"));
+  }
+
+  @Test
+  public void normalizeSql_collapsesParameterLists() {
+    assertEquals("_id IN (?)", QueryMonitor.normalizeSql("_id IN (?, ?,?, ?5)"));
+    assertEquals("_id IN (?)", QueryMonitor.normalizeSql("_id IN (1, 2, 3)"));
+  }
+
+  @Test
+  public void normalizeSql_collapsesWhitespace() {
+    assertEquals("SELECT a FROM b WHERE c = ?", QueryMonitor.normalizeSql("  SELECT a\n  FROM   b\tWHERE c = ?  "));
+  }
+
+  @Test
+  public void normalizeSql_keepsIdentifiers() {
+    assertEquals("SELECT \"table 1\".col2, part_2 FROM t3 WHERE x = ?", QueryMonitor.normalizeSql("SELECT \"table 1\".col2, part_2 FROM t3 WHERE x = 4.5"));
+  }
+
+  @Test
+  public void onStatement_sameShape_countedTogether() {
+    QueryMonitor monitor = new QueryMonitor();
+
+    monitor.onStatement(System.nanoTime(), "delete", "sms", "_id = 1");
+    monitor.onStatement(System.nanoTime(), "delete", "sms", "_id = 2");
+    monitor.onStatement(System.nanoTime(), "delete", "mms", "_id = 3");
+
+    List<QueryMonitor.ShapeSummary> shapes = monitor.getShapes();
+
+    assertEquals(2, shapes.size());
+    assertEquals(3, shapes.get(0).getCount() + shapes.get(1).getCount());
+
+    for (QueryMonitor.ShapeSummary shape : shapes) {
+      if (shape.getShape().equals("delete sms WHERE _id = ?")) {
+        assertEquals(2, shape.getCount());
+        assertEquals("DELETE FROM sms WHERE _id = ?", shape.getExplainSql());
+      }
+    }
+  }
+
+  @Test
+  public void onStatement_disabled_recordsNothing() {
+    QueryMonitor monitor = new QueryMonitor();
+
+    monitor.onStatement(monitor.start(), "delete", "sms", null);
+
+    assertTrue(monitor.getShapes().isEmpty());
+  }
+
+  @Test
+  public void getSlowQueries_onlySlowOnes_newestFirst() {
+    QueryMonitor monitor = new QueryMonitor();
+    long         slow    = QueryMonitor.SLOW_QUERY_THRESHOLD * 2;
+
+    monitor.onStatement(System.nanoTime() - slow, "delete", "first", null);
+    monitor.onStatement(System.nanoTime(), "delete", "fast", null);
+    monitor.onStatement(System.nanoTime() - slow, "delete", "second", null);
+
+    List<QueryMonitor.SlowQuery> slowQueries = monitor.getSlowQueries();
+
+    assertEquals(2, slowQueries.size());
+    assertEquals("delete second", slowQueries.get(0).getShape());
+    assertEquals("delete first", slowQueries.get(1).getShape());
+    assertEquals(Thread.currentThread().getName(), slowQueries.get(0).getThread());
+  }
+
+  @Test
+  public void getSlowQueries_overflow_keepsMostRecent() {
+    QueryMonitor monitor = new QueryMonitor();
+    long         slow    = QueryMonitor.SLOW_QUERY_THRESHOLD * 2;
+
+    for (int i = 0; i < QueryMonitor.SLOW_QUERY_BUFFER_SIZE + 10; i++) {
+      monitor.onStatement(System.nanoTime() - slow, "delete", "table" + i, null);
+    }
+
+    List<QueryMonitor.SlowQuery> slowQueries = monitor.getSlowQueries();
+
+    assertEquals(QueryMonitor.SLOW_QUERY_BUFFER_SIZE, slowQueries.size());
+    assertEquals("delete table" + (QueryMonitor.SLOW_QUERY_BUFFER_SIZE + 9), slowQueries.get(0).getShape());
+    assertEquals("delete table10", slowQueries.get(slowQueries.size() - 1).getShape());
+  }
+
+  @Test
+  public void onEndTransaction_recordsLockWaitForStatementsInside() {
+    QueryMonitor monitor = new QueryMonitor();
+    long         slow    = QueryMonitor.SLOW_QUERY_THRESHOLD * 2;
+
+    monitor.onBeginTransaction(System.nanoTime() - slow);
+    monitor.onBeginTransaction(System.nanoTime());
+    monitor.onStatement(System.nanoTime() - slow, "delete", "sms", null);
+    monitor.onEndTransaction();
+    monitor.onEndTransaction();
+
+    List<QueryMonitor.SlowQuery> slowQueries = monitor.getSlowQueries();
+
+    assertEquals(1, slowQueries.size());
+    assertEquals("delete sms", slowQueries.get(0).getShape());
+    assertTrue(slowQueries.get(0).getLockWait() >= slow);
+
+    boolean sawTransaction = false;
+    for (QueryMonitor.ShapeSummary shape : monitor.getShapes()) {
+      if (shape.getShape().equals(QueryMonitor.TRANSACTION_SHAPE)) {
+        assertEquals(1, shape.getCount());
+        sawTransaction = true;
+      }
+    }
+    assertTrue(sawTransaction);
+  }
+}
@@ -0,0 +1,138 @@
+package su.sres.securesms.database
+
+import android.app.Application
+import android.content.ContentValues
+import android.database.sqlite.SQLiteDatabase
+import androidx.test.core.app.ApplicationProvider
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertNull
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+import org.whispersystems.libsignal.SignalProtocolAddress
+import org.whispersystems.libsignal.state.SessionRecord
+import su.sres.securesms.testing.TestDatabaseUtil
+
+@RunWith(RobolectricTestRunner::class)
+@Config(manifest = Config.NONE, application = Application::class)
+class SessionDatabaseTest {
+
+  private lateinit var sessionDatabase: SessionDatabase
+  private lateinit var db: SQLiteDatabase
+
+  @Before
+  fun setup() {
+    val sqlCipher = TestDatabaseUtil.inMemoryDatabase {
+      execSQL(SessionDatabase.CREATE_TABLE)
+    }
+
+    db = sqlCipher.writableDatabase
+    sessionDatabase = SessionDatabase(ApplicationProvider.getApplicationContext(), sqlCipher)
+  }
+
+  @After
+  fun tearDown() {
+    db.close()
+  }
+
+  @Test
+  fun `load twice, second load is served from the cache`() {
+    insert(ADDRESS_A)
+
+    val first = sessionDatabase.load(ADDRESS_A)
+    val second = sessionDatabase.load(ADDRESS_A)
+
+    assertNotNull(first)
+    assertSame(first, second)
+    assertEquals(1, sessionDatabase.cacheStats.hits)
+    assertEquals(1, sessionDatabase.cacheStats.misses)
+  }
+
+  @Test
+  fun `load list, only uncached addresses are queried`() {
+    insert(ADDRESS_A)
+    insert(ADDRESS_B)
+
+    val cached = sessionDatabase.load(ADDRESS_A)
+    val records = sessionDatabase.load(listOf(ADDRESS_A, ADDRESS_B))
+
+    assertEquals(2, records.size)
+    assertSame(cached, records[0])
+    assertSame(records[1], sessionDatabase.load(ADDRESS_B))
+  }
+
+  @Test
+  fun `delete, removes from the cache`() {
+    insert(ADDRESS_A)
+    sessionDatabase.load(ADDRESS_A)
+
+    sessionDatabase.delete(ADDRESS_A)
+
+    assertNull(sessionDatabase.load(ADDRESS_A))
+  }
+
+  @Test
+  fun `deleteAllFor, removes every device from the cache`() {
+    insert(ADDRESS_A)
+    insert(ADDRESS_A_2)
+    insert(ADDRESS_B)
+    sessionDatabase.load(ADDRESS_A)
+    sessionDatabase.load(ADDRESS_A_2)
+    sessionDatabase.load(ADDRESS_B)
+
+    sessionDatabase.deleteAllFor(ADDRESS_A.name)
+
+    assertNull(sessionDatabase.load(ADDRESS_A))
+    assertNull(sessionDatabase.load(ADDRESS_A_2))
+    assertNotNull(sessionDatabase.load(ADDRESS_B))
+  }
+
+  @Test
+  fun `invalidateCacheFor, next load reads from the database`() {
+    insert(ADDRESS_A)
+    val before = sessionDatabase.load(ADDRESS_A)
+
+    sessionDatabase.invalidateCacheFor(ADDRESS_A.name)
+
+    assertNotSame(before, sessionDatabase.load(ADDRESS_A))
+  }
+
+  @Test
+  fun `load inside of a transaction, is not cached`() {
+    insert(ADDRESS_A)
+
+    db.beginTransaction()
+    try {
+      sessionDatabase.load(ADDRESS_A)
+    } finally {
+      db.endTransaction()
+    }
+
+    sessionDatabase.load(ADDRESS_A)
+
+    assertEquals(0, sessionDatabase.cacheStats.hits)
+    assertEquals(2, sessionDatabase.cacheStats.misses)
+  }
+
+  private fun insert(address: SignalProtocolAddress) {
+    val values = ContentValues().apply {
+      put(SessionDatabase.ADDRESS, address.name)
+      put(SessionDatabase.DEVICE, address.deviceId)
+      put(SessionDatabase.RECORD, SessionRecord().serialize())
+    }
+
+    db.insert(SessionDatabase.TABLE_NAME, null, values)
+  }
+
+  companion object {
+    private val ADDRESS_A = SignalProtocolAddress("a", 1)
+    private val ADDRESS_A_2 = SignalProtocolAddress("a", 2)
+    private val ADDRESS_B = SignalProtocolAddress("b", 1)
+  }
+}
@@ -0,0 +1,94 @@
+package su.sres.securesms.jobmanager;
+
+import org.junit.Test;
+
+import su.sres.core.util.StreamUtil;
+import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public final class BinaryDataSerializerTest {
+
+    private static final float FloatDelta = 0.00001f;
+
+    private final BinaryDataSerializer subject = new BinaryDataSerializer();
+
+    @Test
+    public void serialize_roundTripsAllTypes() {
+        Data input = new Data.Builder()
+                .putString("s1", "s1 value")
+                .putString("null", null)
+                .putString("unicode", "é中😀")
+                .putStringArray("s_array_1", new String[]{ "a", null, "c" })
+                .putInt("max", Integer.MAX_VALUE)
+                .putInt("min", Integer.MIN_VALUE)
+                .putIntArray("i_array_1", new int[]{ 1, 2, 3 })
+                .putLong("l1", Long.MAX_VALUE)
+                .putLongArray("l_array_1", new long[]{ 1, Long.MIN_VALUE })
+                .putFloat("f1", 1.2f)
+                .putFloatArray("f_array_1", new float[]{ 5.6f, 7.8f })
+                .putDouble("d1", 10.2)
+                .putDoubleArray("d_array_1", new double[]{ 50.6, 70.8 })
+                .putBoolean("b1", true)
+                .putBooleanArray("b_array_1", new boolean[]{ false, true })
+                .putBlobAsString("blob", new byte[]{ 0, 1, 2, (byte) 0xFF })
+                .putBlobAsString("null_blob", null)
+                .build();
+
+        Data data = subject.deserialize(subject.serialize(input));
+
+        assertEquals("s1 value", data.getString("s1"));
+        assertNull(data.getString("null"));
+        assertEquals("é中😀", data.getString("unicode"));
+        assertArrayEquals(new String[]{ "a", null, "c" }, data.getStringArray("s_array_1"));
+        assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+        assertEquals(Integer.MIN_VALUE, data.getInt("min"));
+        assertArrayEquals(new int[]{ 1, 2, 3 }, data.getIntegerArray("i_array_1"));
+        assertEquals(Long.MAX_VALUE, data.getLong("l1"));
+        assertArrayEquals(new long[]{ 1, Long.MIN_VALUE }, data.getLongArray("l_array_1"));
+        assertEquals(1.2f, data.getFloat("f1"), FloatDelta);
+        assertArrayEquals(new float[]{ 5.6f, 7.8f }, data.getFloatArray("f_array_1"), FloatDelta);
+        assertEquals(10.2, data.getDouble("d1"), FloatDelta);
+        assertArrayEquals(new double[]{ 50.6, 70.8 }, data.getDoubleArray("d_array_1"), FloatDelta);
+        assertTrue(data.getBoolean("b1"));
+        assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+        assertArrayEquals(new byte[]{ 0, 1, 2, (byte) 0xFF }, data.getStringAsBlob("blob"));
+        assertTrue(data.hasString("null_blob"));
+        assertNull(data.getStringAsBlob("null_blob"));
+    }
+
+    @Test
+    public void serialize_blobIsStoredRaw() {
+        byte[] blob = new byte[1000];
+
+        byte[] serialized = subject.serialize(new Data.Builder().putBlobAsString("blob", blob).build());
+
+        assertTrue(serialized.length < blob.length + 32);
+    }
+
+    @Test
+    public void deserialize_legacyJson() throws IOException {
+        Data data = subject.deserialize(StreamUtil.readFully(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+
+        assertEquals("s1 value", data.getString("s1"));
+        assertEquals(Integer.MAX_VALUE, data.getInt("max"));
+        assertArrayEquals(new long[]{ 1, 2, 3, Long.MAX_VALUE, Long.MIN_VALUE }, data.getLongArray("l_array_1"));
+        assertArrayEquals(new boolean[]{ false, true }, data.getBooleanArray("b_array_1"));
+    }
+
+    @Test
+    public void deserialize_legacyJsonBlobStoredAsString() {
+        Data legacy = new Data.Builder().putString("envelope", "AAEC").build();
+
+        Data data = subject.deserialize(new JsonDataSerializer().serialize(legacy));
+
+        assertArrayEquals(new byte[]{ 0, 1, 2 }, data.getStringAsBlob("envelope"));
+    }
+
+    @Test(expected = AssertionError.class)
+    public void deserialize_unknownVersion() {
+        subject.deserialize(new byte[]{ BinaryDataSerializer.MARKER, 99 });
+    }
+}
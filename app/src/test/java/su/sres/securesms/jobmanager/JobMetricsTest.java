@@ -0,0 +1,109 @@
+package su.sres.securesms.jobmanager;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class JobMetricsTest {
+
+  @Test
+  public void getFactoryMetrics_empty() {
+    JobMetrics metrics = new JobMetrics();
+
+    assertTrue(metrics.getFactoryMetrics().isEmpty());
+    assertTrue(metrics.getQueueMetrics().isEmpty());
+    assertEquals(0, metrics.getMaxConcurrentJobs());
+  }
+
+  @Test
+  public void onJobFinished_countsOutcomes() {
+    JobMetrics metrics = new JobMetrics();
+
+    run(metrics, "A", null, 5, 10, 0, Job.Result.retry(1000));
+    run(metrics, "A", null, 7, 20, 1, Job.Result.success());
+    run(metrics, "A", null, 9, 30, 0, Job.Result.failure());
+
+    JobMetrics.Summary summary = metrics.getFactoryMetrics().get(0);
+
+    assertEquals("A", summary.getKey());
+    assertEquals(3, summary.getStarted());
+    assertEquals(1, summary.getSuccesses());
+    assertEquals(1, summary.getRetries());
+    assertEquals(1, summary.getFailures());
+    assertEquals(0.5f, summary.getFailureRate(), 0);
+    assertEquals(60, summary.getTotalRunTime());
+    assertEquals(5, summary.getQueueWaitP50());
+    assertEquals(10, summary.getRunTimeP50());
+    assertEquals(0, summary.getRetryCountP50());
+    assertEquals(1, summary.getRetryCountMax());
+  }
+
+  @Test
+  public void getFactoryMetrics_busiestFirst() {
+    JobMetrics metrics = new JobMetrics();
+
+    run(metrics, "Quick", "queue1", 0, 1, 0, Job.Result.success());
+    run(metrics, "Slow", "queue2", 0, 100, 0, Job.Result.success());
+    run(metrics, "Quick", "queue1", 0, 1, 0, Job.Result.success());
+
+    List<JobMetrics.Summary> factories = metrics.getFactoryMetrics();
+    List<JobMetrics.Summary> queues    = metrics.getQueueMetrics();
+
+    assertEquals(2, factories.size());
+    assertEquals("Slow", factories.get(0).getKey());
+    assertEquals("Quick", factories.get(1).getKey());
+    assertEquals(2, factories.get(1).getStarted());
+
+    assertEquals(2, queues.size());
+    assertEquals("queue2", queues.get(0).getKey());
+  }
+
+  @Test
+  public void onJobStarted_tracksMaxConcurrent() {
+    JobMetrics metrics = new JobMetrics();
+
+    metrics.onJobStarted("A", null, 0);
+    metrics.onJobStarted("A", null, 0);
+    metrics.onJobStarted("B", null, 0);
+    metrics.onJobFinished("A", null, 0, 0, Job.Result.success());
+    metrics.onJobFinished("A", null, 0, 0, Job.Result.success());
+    metrics.onJobStarted("A", null, 0);
+    metrics.onJobFinished("A", null, 0, 0, Job.Result.success());
+    metrics.onJobFinished("B", null, 0, 0, Job.Result.success());
+
+    assertEquals(3, metrics.getMaxConcurrentJobs());
+
+    for (JobMetrics.Summary summary : metrics.getFactoryMetrics()) {
+      assertEquals(summary.getKey().equals("A") ? 2 : 1, summary.getMaxConcurrent());
+    }
+  }
+
+  @Test
+  public void getQueueMetrics_tooManyQueues_combinesTheRest() {
+    JobMetrics metrics = new JobMetrics();
+
+    for (int i = 0; i < 150; i++) {
+      run(metrics, "A", "queue" + i, 0, 1, 0, Job.Result.success());
+    }
+
+    List<JobMetrics.Summary> queues = metrics.getQueueMetrics();
+    long                     other  = 0;
+
+    for (JobMetrics.Summary summary : queues) {
+      if (summary.getKey().equals(JobMetrics.OTHER_QUEUE)) {
+        other = summary.getStarted();
+      }
+    }
+
+    assertEquals(101, queues.size());
+    assertEquals(50, other);
+  }
+
+  private static void run(JobMetrics metrics, String factoryKey, String queue, long queueWait, long runTime, int runAttempt, Job.Result result) {
+    metrics.onJobStarted(factoryKey, queue, queueWait);
+    metrics.onJobFinished(factoryKey, queue, runTime, runAttempt, result);
+  }
+}
@@ -15,7 +15,7 @@ public final class JsonDataSerializerTest {
 
     @Test
     public void deserialize_dataMatchesExpected() throws IOException {
-        Data data = new JsonDataSerializer().deserialize(StreamUtil.readFullyAsString(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
+        Data data = new JsonDataSerializer().deserialize(StreamUtil.readFully(ClassLoader.getSystemClassLoader().getResourceAsStream("data/data_serialized.json")));
 
         assertEquals("s1 value", data.getString("s1"));
         assertEquals("s2 value", data.getString("s2"));
@@ -18,6 +18,7 @@ import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -31,7 +32,7 @@ import static su.sres.securesms.testutil.TestHelpers.setOf;
 public class FastJobStorageTest {
 
     private static final JsonDataSerializer serializer = new JsonDataSerializer();
-    private static final String             EMPTY_DATA = serializer.serialize(Data.EMPTY);
+    private static final byte[]             EMPTY_DATA = serializer.serialize(Data.EMPTY);
 
     @Test
     public void init_allStoredDataAvailable() {
@@ -151,8 +152,8 @@ public class FastJobStorageTest {
 
         FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2, fullSpec3)));
 
-        JobSpec update1 = new JobSpec("1", "g1", "q1", 2, 2, 2, 2, 2, "abc", null, true, false);
-        JobSpec update2 = new JobSpec("2", "g2", "q2", 3, 3, 3, 3, 3, "def", "ghi", true, false);
+        JobSpec update1 = new JobSpec("1", "g1", "q1", 2, 2, 2, 2, 2, "abc".getBytes(), null, true, false);
+        JobSpec update2 = new JobSpec("2", "g2", "q2", 3, 3, 3, 3, 3, "def".getBytes(), "ghi".getBytes(), true, false);
 
         subject.init();
         subject.updateJobs(Arrays.asList(update1, update2));
@@ -191,9 +192,9 @@ public class FastJobStorageTest {
         FastJobStorage subject  = new FastJobStorage(database);
 
         subject.init();
-        subject.updateJobAfterRetry("id1", true, 1, 10, "a");
+        subject.updateJobAfterRetry("id1", true, 1, 10, "a".getBytes());
 
-        verify(database).updateJobAfterRetry("id1", true, 1, 10, "a");
+        verify(database).updateJobAfterRetry("id1", true, 1, 10, "a".getBytes());
     }
 
     @Test
@@ -202,9 +203,9 @@ public class FastJobStorageTest {
         FastJobStorage subject  = new FastJobStorage(database);
 
         subject.init();
-        subject.updateJobAfterRetry("id1", true, 1, 10, "a");
+        subject.updateJobAfterRetry("id1", true, 1, 10, "a".getBytes());
 
-        verify(database, times(0)).updateJobAfterRetry("id1", true, 1, 10, "a");
+        verify(database, times(0)).updateJobAfterRetry("id1", true, 1, 10, "a".getBytes());
     }
 
     @Test
@@ -216,7 +217,7 @@ public class FastJobStorageTest {
         FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
 
         subject.init();
-        subject.updateJobAfterRetry("1", false, 1, 10, "a");
+        subject.updateJobAfterRetry("1", false, 1, 10, "a".getBytes());
 
         JobSpec job = subject.getJobSpec("1");
 
@@ -224,7 +225,7 @@ public class FastJobStorageTest {
         assertFalse(job.isRunning());
         assertEquals(1, job.getRunAttempt());
         assertEquals(10, job.getNextRunAttemptTime());
-        assertEquals("a", job.getSerializedData());
+        assertArrayEquals("a".getBytes(), job.getSerializedData());
     }
 
     @Test
@@ -348,6 +349,68 @@ public class FastJobStorageTest {
         assertEquals("1", jobs.get(0).getId());
     }
 
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_barrierQueueOrdersPrefixedQueues() {
+        FullSpec earlyOther = new FullSpec(new JobSpec("1", "f1", "bx", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec barrier    = new FullSpec(new JobSpec("2", "f2", "b", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec lateOther  = new FullSpec(new JobSpec("3", "f3", "by", 2, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec unrelated  = new FullSpec(new JobSpec("4", "f4", "q", 3, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(earlyOther, barrier, lateOther, unrelated)), setOf("b"));
+        subject.init();
+
+        List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+        assertEquals(2, jobs.size());
+        assertEquals("1", jobs.get(0).getId());
+        assertEquals("4", jobs.get(1).getId());
+    }
+
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_barrierQueueWaitsForRunningJob() {
+        FullSpec running = new FullSpec(new JobSpec("1", "f1", "bx", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec barrier = new FullSpec(new JobSpec("2", "f2", "b", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(running, barrier)), setOf("b"));
+        subject.init();
+
+        assertEquals(0, subject.getPendingJobsWithNoDependenciesInCreatedOrder(10).size());
+    }
+
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_barrierQueueRunsOnceEarlierJobIsDeleted() {
+        FullSpec earlyOther = new FullSpec(new JobSpec("1", "f1", "bx", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec barrier    = new FullSpec(new JobSpec("2", "f2", "b", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec lateOther  = new FullSpec(new JobSpec("3", "f3", "bx", 2, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(earlyOther, barrier, lateOther)), setOf("b"));
+        subject.init();
+        subject.deleteJob("1");
+
+        List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+        assertEquals(1, jobs.size());
+        assertEquals("2", jobs.get(0).getId());
+    }
+
     @Test
     public void getPendingJobsWithNoDependenciesInCreatedOrder_migrationJobTakesPrecedence() {
         FullSpec plainSpec     = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
@@ -435,6 +498,81 @@ public class FastJobStorageTest {
         assertTrue(jobs.isEmpty());
     }
 
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_sameCreateTimeKeepsInsertOrder() {
+        FullSpec fullSpec1 = new FullSpec(new JobSpec("b", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec fullSpec2 = new FullSpec(new JobSpec("a", "f2", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+        subject.init();
+
+        List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+        assertEquals(1, jobs.size());
+        assertEquals("b", jobs.get(0).getId());
+    }
+
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_nextInQueueEligibleAfterDelete() {
+        FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", "q", 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", "q", 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+        subject.init();
+        subject.deleteJob("1");
+
+        List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+        assertEquals(1, jobs.size());
+        assertEquals("2", jobs.get(0).getId());
+        assertEquals(0, subject.getJobCountForFactoryAndQueue("f1", "q"));
+        assertEquals(1, subject.getJobCountForFactoryAndQueue("f2", "q"));
+    }
+
+    @Test
+    public void getPendingJobsWithNoDependenciesInCreatedOrder_unblockedWhenDependencyDeleted() {
+        FullSpec fullSpec1 = new FullSpec(new JobSpec("1", "f1", null, 0, 0, 0, 0, -1, EMPTY_DATA, null, true, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+        FullSpec fullSpec2 = new FullSpec(new JobSpec("2", "f2", null, 1, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.singletonList(new DependencySpec("2", "1", false)));
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Arrays.asList(fullSpec1, fullSpec2)));
+        subject.init();
+        subject.deleteJob("1");
+
+        List<JobSpec> jobs = subject.getPendingJobsWithNoDependenciesInCreatedOrder(10);
+
+        assertEquals(1, jobs.size());
+        assertEquals("2", jobs.get(0).getId());
+    }
+
+    @Test
+    public void updateJobs_queueChangeUpdatesIndexes() {
+        FullSpec fullSpec = new FullSpec(new JobSpec("1", "f1", "q1", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false),
+                Collections.emptyList(),
+                Collections.emptyList());
+
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(Collections.singletonList(fullSpec)));
+        subject.init();
+        subject.updateJobs(Collections.singletonList(new JobSpec("1", "f2", "q2", 0, 0, 0, 0, -1, EMPTY_DATA, null, false, false)));
+
+        assertTrue(subject.areQueuesEmpty(setOf("q1")));
+        assertFalse(subject.areQueuesEmpty(setOf("q2")));
+        assertEquals(0, subject.getJobCountForFactory("f1"));
+        assertEquals(1, subject.getJobCountForFactoryAndQueue("f2", "q2"));
+        assertEquals(1, subject.getJobsInQueue("q2").size());
+    }
+
     @Test
     public void deleteJobs_writesToDatabase() {
         JobDatabase    database = fixedDataDatabase(DataSet1.FULL_SPECS);
@@ -537,6 +675,17 @@ public class FastJobStorageTest {
         assertEquals("id1", result.get(0).getId());
     }
 
+    @Test
+    public void getJobsInQueuesWithPrefix_matchesAllQueuesWithPrefix() {
+        FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
+
+        subject.init();
+
+        assertEquals(3, subject.getJobsInQueuesWithPrefix("q").size());
+        assertEquals(1, subject.getJobsInQueuesWithPrefix("q2").size());
+        assertTrue(subject.getJobsInQueuesWithPrefix("x").isEmpty());
+    }
+
     @Test
     public void getJobCountForFactory_general() {
         FastJobStorage subject = new FastJobStorage(fixedDataDatabase(DataSet1.FULL_SPECS));
@@ -0,0 +1,69 @@
+package su.sres.securesms.logging
+
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import su.sres.securesms.database.model.LogEntry
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
+import java.util.TimeZone
+
+class LogFormatterTest {
+
+  private lateinit var defaultTimeZone: TimeZone
+
+  @Before
+  fun setUp() {
+    defaultTimeZone = TimeZone.getDefault()
+    TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"))
+  }
+
+  @After
+  fun tearDown() {
+    TimeZone.setDefault(defaultTimeZone)
+  }
+
+  @Test
+  fun `formatBody, matches SimpleDateFormat for every millisecond`() {
+    val formatter = LogFormatter("1.0")
+    val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS zzz", Locale.US)
+
+    // Straddles a daylight savings change, so the zone changes part way through
+    val start = 1636264799000L - 2000
+
+    for (time in start until start + 4000 step 7) {
+      val body = formatter.formatBody(entry(time, "hello"), "hello")
+
+      assertEquals("[1.0] [main ] ${dateFormat.format(Date(time))} I tag: hello", body)
+    }
+  }
+
+  @Test
+  fun `format, with a throwable, adds a line per stack trace line`() {
+    val formatter = LogFormatter("1.0")
+    val out = mutableListOf<LogEntry>()
+    val throwable = IllegalStateException("boom")
+
+    formatter.format(entry(1000, "failed", throwable), out)
+
+    assertEquals(1 + throwable.stackTrace.size + 1, out.size)
+    assertTrue(out[0].body.endsWith("I tag: failed"))
+    assertTrue(out[1].body.endsWith("I tag: java.lang.IllegalStateException: boom"))
+    assertTrue(out.all { it.createdAt == 1000L && it.keepLonger })
+  }
+
+  private fun entry(time: Long, message: String, throwable: Throwable? = null): LogRingBuffer.Entry {
+    return LogRingBuffer.Entry().apply {
+      level = "I"
+      tag = "tag"
+      this.message = message
+      createdAt = time
+      threadString = "main "
+      this.throwable = throwable
+      keepLonger = true
+    }
+  }
+}
@@ -0,0 +1,188 @@
+package su.sres.securesms.logging
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class LogRingBufferTest {
+
+  @Test
+  fun `read, returns entries in the order they were added`() {
+    val buffer = LogRingBuffer(4)
+
+    buffer.add("I", "tag", "one", 1, "main ", null, false)
+    buffer.add("W", "tag", "two", 2, "main ", null, true)
+
+    val messages = mutableListOf<String?>()
+    val sequence = buffer.read { messages.add(it.message) }
+
+    assertEquals(listOf("one", "two"), messages)
+    assertEquals(2, sequence)
+  }
+
+  @Test
+  fun `add, more entries than fit and no wait, drops and counts the rest`() {
+    val buffer = LogRingBuffer(4, 0)
+
+    for (i in 0 until 6) {
+      buffer.add("I", "tag", "$i", i.toLong(), "main ", null, false)
+    }
+
+    val messages = mutableListOf<String?>()
+    buffer.read { messages.add(it.message) }
+
+    assertEquals(listOf("0", "1", "2", "3"), messages)
+    assertEquals(2, buffer.takeDroppedCount())
+    assertEquals(0, buffer.takeDroppedCount())
+  }
+
+  @Test
+  fun `add, while full, waits for the reader to make room`() {
+    val buffer = LogRingBuffer(4, TimeUnit.SECONDS.toNanos(5))
+
+    for (i in 0 until 4) {
+      buffer.add("I", "tag", "$i", i.toLong(), "main ", null, false)
+    }
+
+    var added = false
+    val writer = Thread { added = buffer.add("I", "tag", "4", 4, "main ", null, false) }.apply { start() }
+
+    Thread.sleep(20)
+    assertTrue(writer.isAlive)
+
+    val messages = mutableListOf<String?>()
+    buffer.read { messages.add(it.message) }
+    writer.join(TimeUnit.SECONDS.toMillis(5))
+    buffer.read(0) { messages.add(it.message) }
+
+    assertTrue(added)
+    assertEquals(listOf("0", "1", "2", "3", "4"), messages)
+    assertEquals(0, buffer.takeDroppedCount())
+  }
+
+  @Test
+  fun `add, while full for longer than the wait, drops`() {
+    val buffer = LogRingBuffer(4, TimeUnit.MILLISECONDS.toNanos(10))
+
+    for (i in 0 until 4) {
+      buffer.add("I", "tag", "$i", i.toLong(), "main ", null, false)
+    }
+
+    val start = System.nanoTime()
+    val added = buffer.add("I", "tag", "4", 4, "main ", null, false)
+
+    assertFalse(added)
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(10))
+    assertEquals(1, buffer.takeDroppedCount())
+  }
+
+  @Test
+  fun `add, from the reader while full, does not block`() {
+    val buffer = LogRingBuffer(4)
+
+    for (i in 0 until 4) {
+      buffer.add("I", "tag", "$i", i.toLong(), "main ", null, false)
+    }
+
+    var added = true
+    buffer.read { if (it.message == "0") added = buffer.add("I", "tag", "reader", 0, "main ", null, false) }
+
+    assertFalse(added)
+    assertEquals(1, buffer.takeDroppedCount())
+  }
+
+  @Test
+  fun `add, many writers, keeps each writer's entries in order and accounts for all of them`() {
+    val buffer = LogRingBuffer(64, 0)
+    val count = 1000
+    val writers = 4
+    val ready = CountDownLatch(1)
+
+    val threads = (0 until writers).map { writer ->
+      Thread {
+        ready.await()
+        for (i in 0 until count) {
+          buffer.add("I", "tag", "$writer:$i", i.toLong(), "$writer", null, false)
+        }
+      }.apply { start() }
+    }
+
+    ready.countDown()
+    threads.forEach { it.join(TimeUnit.SECONDS.toMillis(5)) }
+
+    val seen = mutableMapOf<String, Int>()
+    val read = buffer.read { entry ->
+      val (writer, i) = entry.message!!.split(":")
+      assertTrue(i.toInt() > seen.getOrDefault(writer, -1))
+      seen[writer] = i.toInt()
+    }
+
+    assertEquals(64, read)
+    assertEquals(count * writers - 64L, buffer.takeDroppedCount())
+  }
+
+  @Test
+  fun `blockUntilHandled, returns once the reader has handled everything`() {
+    val buffer = LogRingBuffer(16)
+    val handled = mutableListOf<String?>()
+
+    Thread {
+      while (true) {
+        val sequence = buffer.read { handled.add(it.message) }
+        buffer.markHandled(sequence)
+      }
+    }.apply {
+      isDaemon = true
+      start()
+    }
+
+    buffer.add("I", "tag", "one", 1, "main ", null, false)
+    buffer.add("I", "tag", "two", 2, "main ", null, false)
+    buffer.blockUntilHandled()
+
+    assertEquals(listOf("one", "two"), handled)
+  }
+
+  @Test
+  fun `read, with a timeout and nothing added, returns without any entries`() {
+    val buffer = LogRingBuffer(4)
+
+    var read = 0
+    val sequence = buffer.read(TimeUnit.MILLISECONDS.toNanos(10)) { read++ }
+
+    assertEquals(0, read)
+    assertEquals(0, sequence)
+  }
+
+  @Test
+  fun `blockUntilHandled, wakes a reader that is holding on to entries`() {
+    val buffer = LogRingBuffer(16)
+    val pending = mutableListOf<String?>()
+    val handled = mutableListOf<String?>()
+
+    Thread {
+      while (true) {
+        val sequence = buffer.read(Long.MAX_VALUE) { pending.add(it.message) }
+
+        if (buffer.isFlushRequested()) {
+          handled.addAll(pending)
+          pending.clear()
+          buffer.markHandled(sequence)
+        }
+      }
+    }.apply {
+      isDaemon = true
+      start()
+    }
+
+    buffer.add("I", "tag", "one", 1, "main ", null, false)
+    buffer.add("I", "tag", "two", 2, "main ", null, false)
+    buffer.blockUntilHandled()
+
+    assertEquals(listOf("one", "two"), handled)
+    assertFalse(buffer.isFlushRequested())
+  }
+}
@@ -0,0 +1,93 @@
+package su.sres.securesms.logsubmit.util;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link Scrubber} gives exactly the same output as the chain of regexes it replaced.
+ */
+public final class ScrubberEquivalenceTest {
+
+    private static final String[] CORPUS = {
+            "Retrieved envelope! 1634567890123",
+            "[PushDecryptMessageJob] onRun() attempt 1",
+            "\tat su.sres.securesms.jobs.PushDecryptMessageJob.onRun(PushDecryptMessageJob.java:123)",
+            "Caused by: java.net.UnknownHostException: Unable to resolve host \"chat.shadowprivacy.com\": No address associated with hostname",
+            "Sending message to +15551234567 via websocket",
+            "Sending message to %2B15551234567 via REST",
+            "Job JOB::a37cb654-c9e0-4c1e-93df-3d11ca3c97f4 finished in 12 ms",
+            "Recipient A37CB654-C9E0-4C1E-93DF-3D11CA3C97F4 is registered",
+            "Updating group __signal_group__v2__!0123456789abcdef0123456789abcdef0123456789abcdef0123456789abcdef",
+            "Legacy group __textsecure_group__!000102030405060708090a0b0c0d0e0f migrated",
+            "Profile for abc@def.com (display name Foo) fetched from cdn.example.org/profiles/abc",
+            "Connection{storage.shadowprivacy.com:443, proxy=DIRECT hostAddress=storage.shadowprivacy.com/142.251.32.211:443}",
+            "Downloading sticker pack from https://updates.sres.su/stickers/abc",
+            "Loaded 1,234 messages in 56.78 ms (v5.12.3)",
+            "Failed to resolve nl.motorsport.com, retrying. a.b.c.1.2 x-y.io my-host.example.com",
+            "e-mail a...@... was already scrubbed, as was ***.com",
+            "Mixed ünïcödé wörds: jürgen@müller.de, 😀@😀.com and café.fr",
+            "",
+            " ",
+            "+",
+            "@",
+            "__",
+            "JOB::",
+    };
+
+    private static final String ALPHABET = "+%2B019af-._@/ \tJOBjob:!_cé́😀xyzCOMnetsu*";
+
+    private static final String[] FRAGMENTS = {
+            "__textsecure_group__!",
+            "__signal_group__v2__!",
+            "a37cb654-c9e0-4c1e-93df-3d11ca3c97f4",
+            "JOB::",
+            "%2B",
+            "+1555123456",
+            "shadowprivacy.com",
+            "sres.su",
+            ".com",
+            "...@..."
+    };
+
+    @Test
+    public void scrub_corpus_matchesRegexScrubber() {
+        for (String line : CORPUS) {
+            assertEquivalent(line);
+        }
+    }
+
+    @Test
+    public void scrub_randomInput_matchesRegexScrubber() {
+        Random random = new Random(1);
+
+        for (int i = 0; i < 100_000; i++) {
+            StringBuilder input  = new StringBuilder();
+            int           length = random.nextInt(60);
+
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(20) == 0) {
+                    input.append(FRAGMENTS[random.nextInt(FRAGMENTS.length)]);
+                } else {
+                    input.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+                }
+            }
+
+            assertEquivalent(input.toString());
+        }
+    }
+
+    @Test
+    public void scrub_nothingToCensor_returnsInput() {
+        String input = "\tat su.sres.securesms.jobs.PushDecryptMessageJob.onRun(PushDecryptMessageJob.java:123)";
+
+        assertSame(input, Scrubber.scrub(input));
+    }
+
+    private static void assertEquivalent(String input) {
+        assertEquals(input, RegexScrubber.scrub(input).toString(), Scrubber.scrub(input).toString());
+    }
+}
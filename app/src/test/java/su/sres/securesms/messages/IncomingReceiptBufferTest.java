@@ -0,0 +1,93 @@
+package su.sres.securesms.messages;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import su.sres.securesms.recipients.RecipientId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public final class IncomingReceiptBufferTest {
+
+  private static final RecipientId SENDER = RecipientId.from(1);
+
+  private List<List<IncomingReceiptBuffer.Receipt>> applied;
+  private ScheduledExecutorService                  executor;
+  private IncomingReceiptBuffer                     buffer;
+
+  @Before
+  public void setUp() {
+    applied  = new ArrayList<>();
+    executor = mock(ScheduledExecutorService.class);
+    buffer   = new IncomingReceiptBuffer(applied::add, executor, 3, 250);
+  }
+
+  @Test
+  public void add_belowMax_schedulesOneFlush() {
+    buffer.addDeliveryReceipts(SENDER, 1, Arrays.asList(1L, 2L), 100);
+
+    assertTrue(applied.isEmpty());
+    verify(executor, times(1)).schedule(any(Runnable.class), eq(250L), eq(TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void add_reachingMax_appliesOnCaller() {
+    buffer.addDeliveryReceipts(SENDER, 1, Arrays.asList(1L, 2L, 3L, 4L), 100);
+
+    assertEquals(1, applied.size());
+    assertEquals(3, applied.get(0).size());
+    assertEquals(1, applied.get(0).get(0).getUpdate().getSyncMessageId().getTimetamp());
+    assertEquals(3, applied.get(0).get(2).getUpdate().getSyncMessageId().getTimetamp());
+  }
+
+  @Test
+  public void scheduledFlush_appliesEverythingPending() {
+    buffer.addDeliveryReceipts(SENDER, 1, Arrays.asList(1L, 2L), 100);
+
+    runScheduledFlush();
+
+    assertEquals(1, applied.size());
+    assertEquals(2, applied.get(0).size());
+    assertTrue(applied.get(0).get(0).getUpdate().isDelivery());
+    assertFalse(applied.get(0).get(0).getUpdate().isRead());
+    assertEquals(100, applied.get(0).get(0).getUpdate().getTimestamp());
+  }
+
+  @Test
+  public void scheduledFlush_allowsTheNextReceiptToScheduleAgain() {
+    buffer.addDeliveryReceipts(SENDER, 1, Arrays.asList(1L), 100);
+    runScheduledFlush();
+
+    buffer.addDeliveryReceipts(SENDER, 1, Arrays.asList(2L), 100);
+
+    verify(executor, times(2)).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+  }
+
+  @Test
+  public void flush_whenEmpty_doesNothing() {
+    buffer.flush();
+
+    assertTrue(applied.isEmpty());
+  }
+
+  private void runScheduledFlush() {
+    ArgumentCaptor<Runnable> captor = ArgumentCaptor.forClass(Runnable.class);
+    verify(executor).schedule(captor.capture(), anyLong(), any(TimeUnit.class));
+    captor.getValue().run();
+  }
+}
@@ -0,0 +1,175 @@
+package su.sres.securesms.util;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class LatencyHistogramTest {
+
+  @Test
+  public void getPercentile_empty_isNegativeOne() {
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    assertEquals(-1, histogram.getPercentile(50));
+    assertEquals(0, histogram.getCount());
+    assertTrue(histogram.isEmpty());
+  }
+
+  @Test
+  public void getPercentile_smallValues_matchesSqlExactly() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[]           values    = new long[] { 5, 1, 9, 3, 7, 2, 8, 4, 6, 10 };
+
+    for (long value : values) {
+      histogram.record(value);
+    }
+
+    assertEquals(10, histogram.getCount());
+    assertEquals(5, histogram.getPercentile(50));
+    assertEquals(9, histogram.getPercentile(90));
+    assertEquals(1, histogram.getPercentile(9));
+    assertEquals(10, histogram.getPercentile(100));
+  }
+
+  @Test
+  public void getPercentile_singleValue_isThatValue() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(42);
+
+    assertEquals(42, histogram.getPercentile(50));
+    assertEquals(42, histogram.getPercentile(99));
+  }
+
+  @Test
+  public void getPercentile_randomValues_withinBucketErrorOfExact() {
+    Random           random    = new Random(1);
+    LatencyHistogram histogram = new LatencyHistogram();
+    long[]           values    = new long[10_000];
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = (long) Math.exp(random.nextDouble() * 15);
+      histogram.record(values[i]);
+    }
+
+    Arrays.sort(values);
+
+    for (int percent : new int[] { 1, 50, 90, 99, 100 }) {
+      long exact    = values[Math.max(0, values.length * percent / 100 - 1)];
+      long reported = histogram.getPercentile(percent);
+
+      assertTrue(percent + ": " + reported + " < " + exact, reported >= exact);
+      assertTrue(percent + ": " + reported + " > " + exact, reported <= exact + exact / 32);
+    }
+  }
+
+  @Test
+  public void compact_percentiles_withinOneEighth() {
+    Random           random    = new Random(3);
+    LatencyHistogram histogram = LatencyHistogram.compact();
+    long[]           values    = new long[1000];
+
+    for (int i = 0; i < values.length; i++) {
+      values[i] = random.nextInt(1_000_000);
+      histogram.record(values[i]);
+    }
+
+    Arrays.sort(values);
+
+    for (int percent : new int[] { 1, 50, 90, 99, 100 }) {
+      long exact    = values[Math.max(0, values.length * percent / 100 - 1)];
+      long reported = histogram.getPercentile(percent);
+
+      assertTrue(percent + ": " + reported + " < " + exact, reported >= exact);
+      assertTrue(percent + ": " + reported + " > " + exact, reported <= exact + exact / 8);
+    }
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void add_differentLayouts_throws() {
+    new LatencyHistogram().add(LatencyHistogram.compact());
+  }
+
+  @Test
+  public void bucketFor_eachBucket_coversContiguousRange() {
+    long expectedLowest = 0;
+
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+      long highest = LatencyHistogram.highestValueIn(bucket);
+
+      assertEquals(bucket, LatencyHistogram.bucketFor(expectedLowest));
+      assertEquals(bucket, LatencyHistogram.bucketFor(highest));
+
+      expectedLowest = highest + 1;
+    }
+  }
+
+  @Test
+  public void bucketFor_outOfRange_clamps() {
+    assertEquals(0, LatencyHistogram.bucketFor(-5));
+    assertEquals(LatencyHistogram.BUCKET_COUNT - 1, LatencyHistogram.bucketFor(Long.MAX_VALUE));
+  }
+
+  @Test
+  public void drain_movesCountsAndEmpties() {
+    LatencyHistogram histogram = new LatencyHistogram();
+    histogram.record(10);
+    histogram.record(1000);
+
+    LatencyHistogram drained = histogram.drain();
+
+    assertTrue(histogram.isEmpty());
+    assertEquals(2, drained.getCount());
+    assertEquals(10, drained.getPercentile(50));
+  }
+
+  @Test
+  public void add_mergesCounts() {
+    LatencyHistogram first  = new LatencyHistogram();
+    LatencyHistogram second = new LatencyHistogram();
+
+    first.record(1);
+    second.record(2);
+    second.record(3);
+
+    first.add(second);
+
+    assertEquals(3, first.getCount());
+    assertEquals(3, first.getPercentile(100));
+    assertEquals(2, second.getCount());
+  }
+
+  @Test
+  public void serialize_roundTrips() {
+    Random           random    = new Random(2);
+    LatencyHistogram histogram = new LatencyHistogram();
+
+    for (int i = 0; i < 1000; i++) {
+      histogram.record(random.nextInt(100_000));
+    }
+    histogram.record(Long.MAX_VALUE);
+
+    byte[]           serialized   = histogram.serialize();
+    LatencyHistogram deserialized = LatencyHistogram.deserialize(serialized);
+
+    assertEquals(histogram.getCount(), deserialized.getCount());
+    for (int bucket = 0; bucket < LatencyHistogram.BUCKET_COUNT; bucket++) {
+      assertEquals(histogram.getPercentile(bucket % 101), deserialized.getPercentile(bucket % 101));
+    }
+    assertTrue(serialized.length < 1000 * 4);
+  }
+
+  @Test
+  public void serialize_empty_isEmpty() {
+    assertEquals(0, new LatencyHistogram().serialize().length);
+    assertTrue(LatencyHistogram.deserialize(new byte[0]).isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void deserialize_truncated_throws() {
+    LatencyHistogram.deserialize(new byte[] { (byte) 0x80 });
+  }
+}
@@ -0,0 +1,32 @@
+package su.sres.benchmarks;
+
+import su.sres.core.util.logging.Log;
+
+/**
+ * Keeps logging out of the measurements, and off of android.util.Log, which only exists as stubs
+ * on the JVM.
+ */
+public final class NoopLogger extends Log.Logger {
+
+  public static void install() {
+    Log.initialize(new NoopLogger());
+  }
+
+  @Override
+  public void v(String tag, String message, Throwable t, boolean keepLonger) { }
+
+  @Override
+  public void d(String tag, String message, Throwable t, boolean keepLonger) { }
+
+  @Override
+  public void i(String tag, String message, Throwable t, boolean keepLonger) { }
+
+  @Override
+  public void w(String tag, String message, Throwable t, boolean keepLonger) { }
+
+  @Override
+  public void e(String tag, String message, Throwable t, boolean keepLonger) { }
+
+  @Override
+  public void flush() { }
+}
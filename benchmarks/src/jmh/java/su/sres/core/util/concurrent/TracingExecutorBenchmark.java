@@ -0,0 +1,65 @@
+package su.sres.core.util.concurrent;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import su.sres.core.util.ThreadUtil;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of submitting a task to a traced executor under each
+ * {@link CallerStackCapture.Strategy}. Tasks run inline, and are submitted from a few dozen frames
+ * deep, which is about where app code sits when it hands work to an executor.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TracingExecutorBenchmark {
+
+  private static final int      STACK_DEPTH = 40;
+  private static final Runnable TASK        = () -> {};
+
+  @Param({ "NONE", "CALLER_CLASS", "SAMPLED", "FULL" })
+  public String strategy;
+
+  private final Executor direct = Runnable::run;
+  private       Executor traced;
+
+  @Setup
+  public void setup() {
+    CallerStackCapture.setStrategy(CallerStackCapture.Strategy.valueOf(strategy));
+    traced = ThreadUtil.trace(direct);
+  }
+
+  @TearDown
+  public void tearDown() {
+    CallerStackCapture.setStrategy(CallerStackCapture.Strategy.SAMPLED);
+  }
+
+  @Benchmark
+  public void untraced() {
+    submitFrom(direct, STACK_DEPTH);
+  }
+
+  @Benchmark
+  public void traced() {
+    submitFrom(traced, STACK_DEPTH);
+  }
+
+  private static void submitFrom(Executor executor, int depth) {
+    if (depth == 0) {
+      executor.execute(TASK);
+    } else {
+      submitFrom(executor, depth - 1);
+    }
+  }
+}
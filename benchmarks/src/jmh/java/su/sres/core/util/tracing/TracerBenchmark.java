@@ -0,0 +1,94 @@
+package su.sres.core.util.tracing;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import su.sres.benchmarks.NoopLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what a traced call costs its caller, with the tracer keeping events in memory and with
+ * it recording to disk. Each operation is a start/end pair around a small amount of work, shaped
+ * like the query tracing in the SQLiteDatabase wrapper, so the overhead per pair is the difference
+ * from {@link #baseline()}.
+ *
+ * The work keeps the event rate in the range the flusher can keep up with. Past that, recording
+ * drops events, which is cheaper than recording them and would flatter the numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Threads(4)
+public class TracerBenchmark {
+
+  private static final long   WORK  = 500;
+  private static final String NAME  = "query()";
+  private static final String KEY   = "query";
+  private static final String QUERY = "SELECT * FROM message WHERE thread_id = ? ORDER BY date_received DESC";
+
+  @Param({ "memory", "recording" })
+  public String mode;
+
+  private Tracer tracer;
+  private File   directory;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    NoopLogger.install();
+
+    tracer = new Tracer(System::nanoTime);
+
+    if (mode.equals("recording")) {
+      directory = Files.createTempDirectory("traces").toFile();
+      tracer.startRecording(directory);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    tracer.stopRecording();
+
+    if (directory != null) {
+      File[] files = directory.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          file.delete();
+        }
+      }
+      directory.delete();
+    }
+  }
+
+  @Benchmark
+  public void baseline() {
+    Blackhole.consumeCPU(WORK);
+  }
+
+  @Benchmark
+  public void startEnd() {
+    tracer.start(NAME);
+    Blackhole.consumeCPU(WORK);
+    tracer.end(NAME);
+  }
+
+  @Benchmark
+  public void startEndWithArgument() {
+    tracer.start(NAME, KEY, QUERY);
+    Blackhole.consumeCPU(WORK);
+    tracer.end(NAME);
+  }
+}
@@ -0,0 +1,85 @@
+package su.sres.securesms.contacts.sync;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.signalservice.api.push.ACI;
+import su.sres.signalservice.api.storage.protos.DirectoryResponse;
+import su.sres.signalservice.api.storage.protos.DirectoryUpdate;
+import su.sres.signalservice.internal.push.DirectoryResponseParser;
+import su.sres.signalservice.internal.util.JsonUtil;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns a full directory response of {@link #entries} logins into the login to ACI map that
+ * {@link su.sres.securesms.database.RecipientDatabase#applyDirectoryUpdate} takes.
+ * {@link #parseWhole()} is what we did before: parse the whole response into its entry map, then
+ * convert every entry. {@link #parseStreaming()} is what {@link DirectoryHelper} does now: convert
+ * each entry as it's read, so the raw entries never pile up.
+ *
+ * Run it with `-prof gc` to compare how much each one allocates.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DirectoryParseBenchmark {
+
+  @Param({ "10000", "50000", "100000" })
+  public int entries;
+
+  private byte[] response;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    NoopLogger.install();
+
+    DirectoryUpdate.Builder update = DirectoryUpdate.newBuilder().setType(DirectoryUpdate.Type.FULL);
+
+    for (int i = 0; i < entries; i++) {
+      update.putDirectoryEntry("user" + i, JsonUtil.toJson(new DirectoryEntryValue(UUID.randomUUID())));
+    }
+
+    response = DirectoryResponse.newBuilder()
+                                .setVersion(1)
+                                .setDirectoryUpdate(update)
+                                .build()
+                                .toByteArray();
+  }
+
+  @Benchmark
+  public Map<String, ACI> parseWhole() throws IOException {
+    DirectoryResponse   directoryResponse = DirectoryResponse.parseFrom(new ByteArrayInputStream(response));
+    Map<String, String> fullUpdate        = directoryResponse.getDirectoryUpdate().getDirectoryEntryMap();
+    Map<String, ACI>    registered        = new HashMap<>(fullUpdate.size());
+
+    for (Map.Entry<String, String> entry : fullUpdate.entrySet()) {
+      DirectoryEntryValue entryValue = JsonUtil.fromJson(entry.getValue(), DirectoryEntryValue.class);
+      registered.put(entry.getKey(), ACI.from(entryValue.getUuid()));
+    }
+
+    return registered;
+  }
+
+  @Benchmark
+  public Map<String, ACI> parseStreaming() throws IOException {
+    PlainDirectoryResult result = new PlainDirectoryResult();
+
+    result.onResponse(DirectoryResponseParser.parse(new ByteArrayInputStream(response), result));
+
+    return result.getRegistered();
+  }
+}
@@ -0,0 +1,201 @@
+package su.sres.securesms.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.libsignal.IdentityKeyPair;
+import org.whispersystems.libsignal.SessionBuilder;
+import org.whispersystems.libsignal.SessionCipher;
+import org.whispersystems.libsignal.SignalProtocolAddress;
+import org.whispersystems.libsignal.ecc.Curve;
+import org.whispersystems.libsignal.ecc.ECKeyPair;
+import org.whispersystems.libsignal.protocol.CiphertextMessage;
+import org.whispersystems.libsignal.protocol.PreKeySignalMessage;
+import org.whispersystems.libsignal.protocol.SignalMessage;
+import org.whispersystems.libsignal.state.PreKeyBundle;
+import org.whispersystems.libsignal.state.PreKeyRecord;
+import org.whispersystems.libsignal.state.SignedPreKeyRecord;
+import org.whispersystems.libsignal.state.impl.InMemorySignalProtocolStore;
+import org.whispersystems.libsignal.util.guava.Optional;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.signalservice.api.SignalSessionLock;
+import su.sres.signalservice.api.crypto.SignalServiceCipher;
+import su.sres.signalservice.api.messages.SignalServiceEnvelope;
+import su.sres.signalservice.api.push.ACI;
+import su.sres.signalservice.api.push.SignalServiceAddress;
+import su.sres.signalservice.internal.push.PushTransportDetails;
+import su.sres.signalservice.internal.push.SignalServiceProtos;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decrypts a batch of real 1:1 messages from several senders on a pool of threads, the way the
+ * per-sender decrypt queues do, and compares taking the lock for just the sender's address (what
+ * {@link su.sres.securesms.messages.MessageDecryptionUtil} does) against taking the global session
+ * lock for every message. Each sender's messages are decrypted in order on one thread at a time.
+ *
+ * The protocol stores are libsignal's in-memory stores, with one store per sender on our side, since
+ * they aren't thread safe and we only want to measure decryption, not the database. Run it with
+ * increasing {@link #threads} to see how decryption scales with cores.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DecryptionThroughputBenchmark {
+
+  private static final int SENDERS             = 8;
+  private static final int MESSAGES_PER_SENDER = 50;
+  private static final int DECRYPTIONS         = SENDERS * MESSAGES_PER_SENDER;
+
+  @Param({ "1", "2", "4", "8" })
+  public int threads;
+
+  private final List<Sender> senders = new ArrayList<>(SENDERS);
+
+  private SignalServiceAddress localAddress;
+  private ExecutorService      executor;
+
+  @Setup(Level.Trial)
+  public void setupTrial() throws Exception {
+    NoopLogger.install();
+
+    IdentityKeyPair localIdentity = IdentityKeyUtil.generateIdentityKeyPair();
+
+    localAddress = new SignalServiceAddress(ACI.from(UUID.randomUUID()));
+    executor     = Executors.newFixedThreadPool(threads);
+
+    for (int i = 0; i < SENDERS; i++) {
+      senders.add(new Sender(localIdentity, localAddress, i + 1));
+    }
+  }
+
+  /**
+   * Decryption advances the ratchet, so every invocation needs new ciphertexts. Encrypting them here
+   * keeps it out of the measurement.
+   */
+  @Setup(Level.Invocation)
+  public void setupInvocation() throws Exception {
+    for (Sender sender : senders) {
+      sender.encryptBatch();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DECRYPTIONS)
+  public void addressLock() throws Exception {
+    decryptAll(false);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(DECRYPTIONS)
+  public void globalLock() throws Exception {
+    decryptAll(true);
+  }
+
+  private void decryptAll(boolean globalLock) throws Exception {
+    List<Future<?>> results = new ArrayList<>(SENDERS);
+
+    for (Sender sender : senders) {
+      SignalSessionLock   lock   = globalLock ? ReentrantSessionLock.INSTANCE : ReentrantSessionLock.forAddress(sender.address.getIdentifier());
+      SignalServiceCipher cipher = new SignalServiceCipher(localAddress, sender.localStore, lock, null);
+
+      results.add(executor.submit(() -> {
+        for (SignalServiceEnvelope envelope : sender.envelopes) {
+          if (cipher.decrypt(envelope) == null) {
+            throw new AssertionError();
+          }
+        }
+        return null;
+      }));
+    }
+
+    for (Future<?> result : results) {
+      result.get();
+    }
+  }
+
+  private static final class Sender {
+    private final SignalServiceAddress        address;
+    private final SessionCipher               remoteCipher;
+    private final InMemorySignalProtocolStore localStore;
+    private final List<SignalServiceEnvelope> envelopes = new ArrayList<>(MESSAGES_PER_SENDER);
+
+    private long timestamp = System.currentTimeMillis();
+
+    /**
+     * Sets up a session with us and exchanges a message each way, so that everything after that is a
+     * regular {@link SignalMessage}.
+     */
+    Sender(IdentityKeyPair localIdentity, SignalServiceAddress localAddress, int registrationId) throws Exception {
+      IdentityKeyPair             remoteIdentity = IdentityKeyUtil.generateIdentityKeyPair();
+      InMemorySignalProtocolStore remoteStore    = new InMemorySignalProtocolStore(remoteIdentity, registrationId);
+
+      this.address    = new SignalServiceAddress(ACI.from(UUID.randomUUID()));
+      this.localStore = new InMemorySignalProtocolStore(localIdentity, 1);
+
+      ECKeyPair preKey          = Curve.generateKeyPair();
+      ECKeyPair signedPreKey    = Curve.generateKeyPair();
+      byte[]    signedSignature = Curve.calculateSignature(localIdentity.getPrivateKey(), signedPreKey.getPublicKey().serialize());
+
+      localStore.storePreKey(1, new PreKeyRecord(1, preKey));
+      localStore.storeSignedPreKey(1, new SignedPreKeyRecord(1, System.currentTimeMillis(), signedPreKey, signedSignature));
+
+      SignalProtocolAddress localProtocolAddress  = new SignalProtocolAddress(localAddress.getIdentifier(), 1);
+      SignalProtocolAddress remoteProtocolAddress = new SignalProtocolAddress(address.getIdentifier(), 1);
+
+      new SessionBuilder(remoteStore, localProtocolAddress).process(new PreKeyBundle(1, 1, 1, preKey.getPublicKey(), 1, signedPreKey.getPublicKey(), signedSignature, localIdentity.getPublicKey()));
+
+      this.remoteCipher = new SessionCipher(remoteStore, localProtocolAddress);
+
+      SessionCipher localCipher = new SessionCipher(localStore, remoteProtocolAddress);
+      localCipher.decrypt(new PreKeySignalMessage(remoteCipher.encrypt(new byte[1]).serialize()));
+      remoteCipher.decrypt(new SignalMessage(localCipher.encrypt(new byte[1]).serialize()));
+    }
+
+    void encryptBatch() throws Exception {
+      envelopes.clear();
+
+      for (int i = 0; i < MESSAGES_PER_SENDER; i++) {
+        timestamp++;
+
+        SignalServiceProtos.Content content = SignalServiceProtos.Content.newBuilder()
+                                                                         .setDataMessage(SignalServiceProtos.DataMessage.newBuilder()
+                                                                                                                        .setBody("Message " + i)
+                                                                                                                        .setTimestamp(timestamp))
+                                                                         .build();
+
+        CiphertextMessage message = remoteCipher.encrypt(new PushTransportDetails().getPaddedMessageBody(content.toByteArray()));
+
+        envelopes.add(new SignalServiceEnvelope(SignalServiceProtos.Envelope.Type.CIPHERTEXT_VALUE,
+                                                Optional.of(address),
+                                                1,
+                                                timestamp,
+                                                null,
+                                                message.serialize(),
+                                                timestamp,
+                                                timestamp,
+                                                UUID.randomUUID().toString()));
+      }
+    }
+  }
+}
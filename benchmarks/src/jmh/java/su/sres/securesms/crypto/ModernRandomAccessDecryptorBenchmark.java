@@ -0,0 +1,115 @@
+package su.sres.securesms.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.Mac;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Random 4 KB reads from a 200 MB encrypted attachment, the way a media player scrubbing through a
+ * local video reads it. Compares opening a {@link ModernDecryptingPartInputStream} for every read,
+ * which is what the media data source used to do, against one {@link ModernRandomAccessDecryptor}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ModernRandomAccessDecryptorBenchmark {
+
+  private static final long FILE_SIZE = 200L * 1024 * 1024;
+  private static final int  READ_SIZE = 4096;
+
+  private final byte[] buffer    = new byte[READ_SIZE];
+  private final long[] positions = new long[1024];
+
+  private AttachmentSecret            attachmentSecret;
+  private File                        file;
+  private ModernRandomAccessDecryptor decryptor;
+  private int                         next;
+
+  @Setup(Level.Trial)
+  public void setup() throws Exception {
+    Random random    = new Random(42);
+    byte[] modernKey = new byte[32];
+    byte[] keyRandom = new byte[32];
+
+    random.nextBytes(modernKey);
+    random.nextBytes(keyRandom);
+
+    attachmentSecret = new AttachmentSecret(new byte[32], new byte[32], modernKey);
+    file             = File.createTempFile("benchmark", ".mms");
+
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(modernKey, "HmacSHA256"));
+
+    Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+    cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(mac.doFinal(keyRandom), "AES"), new IvParameterSpec(new byte[16]));
+
+    try (FileOutputStream fileOutput = new FileOutputStream(file)) {
+      fileOutput.write(keyRandom);
+
+      try (OutputStream out = new CipherOutputStream(fileOutput, cipher)) {
+        byte[] chunk = new byte[1024 * 1024];
+
+        for (long written = 0; written < FILE_SIZE; written += chunk.length) {
+          random.nextBytes(chunk);
+          out.write(chunk);
+        }
+      }
+    }
+
+    for (int i = 0; i < positions.length; i++) {
+      positions[i] = (long) (random.nextDouble() * (FILE_SIZE - READ_SIZE));
+    }
+
+    decryptor = ModernRandomAccessDecryptor.open(attachmentSecret, file);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    decryptor.close();
+    file.delete();
+  }
+
+  @Benchmark
+  public int streamPerRead() throws IOException {
+    try (InputStream in = ModernDecryptingPartInputStream.createFor(attachmentSecret, file, nextPosition())) {
+      int total = 0;
+      int read;
+
+      while (total < READ_SIZE && (read = in.read(buffer, total, READ_SIZE - total)) != -1) {
+        total += read;
+      }
+
+      return total;
+    }
+  }
+
+  @Benchmark
+  public int randomAccessDecryptor() throws IOException {
+    return decryptor.read(nextPosition(), buffer, 0, READ_SIZE);
+  }
+
+  private long nextPosition() {
+    next = (next + 1) % positions.length;
+    return positions[next];
+  }
+}
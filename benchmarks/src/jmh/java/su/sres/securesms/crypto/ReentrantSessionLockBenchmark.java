@@ -0,0 +1,56 @@
+package su.sres.securesms.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.infra.Blackhole;
+
+import su.sres.signalservice.api.SignalSessionLock;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Compares decrypt throughput when every decryption takes the global session lock against taking
+ * the lock for just the sender's address, with several threads decrypting messages from different
+ * senders at once.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(4)
+public class ReentrantSessionLockBenchmark {
+
+  /** Roughly the CPU time of a single decryption, in JMH tokens. */
+  private static final long WORK = 2000;
+
+  private static final AtomicInteger SENDERS = new AtomicInteger();
+
+  @State(Scope.Thread)
+  public static class Sender {
+    SignalSessionLock addressLock;
+
+    @Setup
+    public void setup() {
+      addressLock = ReentrantSessionLock.forAddress("sender" + SENDERS.getAndIncrement());
+    }
+  }
+
+  @Benchmark
+  public void globalLock() {
+    try (SignalSessionLock.Lock unused = ReentrantSessionLock.INSTANCE.acquire()) {
+      Blackhole.consumeCPU(WORK);
+    }
+  }
+
+  @Benchmark
+  public void addressLock(Sender sender) {
+    try (SignalSessionLock.Lock unused = sender.addressLock.acquire()) {
+      Blackhole.consumeCPU(WORK);
+    }
+  }
+}
@@ -0,0 +1,204 @@
+package su.sres.securesms.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import su.sres.benchmarks.NoopLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the conversation queries in {@link MmsSmsDatabase} against a thread with a lot of
+ * history. SQLCipher only runs on Android, so this creates the app's own sms/mms tables and indexes
+ * on a plain on-disk SQLite database, and runs the exact SQL that {@link MmsSmsDatabase} builds.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ConversationQueryBenchmark {
+
+  private static final long THREAD_ID    = 1;
+  private static final long OTHER_THREAD = 2;
+  private static final int  PAGE_SIZE    = 50;
+
+  @Param({ "10000", "100000", "500000" })
+  public int messageCount;
+
+  /** How far into the thread (as a fraction of its length) the page or message is. */
+  @Param({ "0.01", "0.5", "0.99" })
+  public double depth;
+
+  private File       file;
+  private Connection connection;
+  private int        offset;
+  private long       anchorId;
+  private long       anchorDate;
+
+  private PreparedStatement offsetPage;
+  private PreparedStatement seekPage;
+  private PreparedStatement fullConversation;
+  private PreparedStatement position;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, SQLException {
+    NoopLogger.install();
+
+    file       = File.createTempFile("conversation", ".db");
+    connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(SmsDatabase.CREATE_TABLE);
+      statement.execute(MmsDatabase.CREATE_TABLE);
+
+      for (String index : SmsDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+
+      for (String index : MmsDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+    }
+
+    populate();
+
+    offset = (int) (messageCount * depth);
+
+    // Nine in ten messages are SMS, so this SMS sits at about the same depth as the offset
+    try (PreparedStatement anchor = connection.prepareStatement("SELECT " + MmsSmsColumns.ID + ", " + SmsDatabase.DATE_RECEIVED + " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? ORDER BY " + SmsDatabase.DATE_RECEIVED + " DESC, " + MmsSmsColumns.ID + " DESC LIMIT 1 OFFSET ?")) {
+      anchor.setLong(1, THREAD_ID);
+      anchor.setInt(2, (int) (offset * 0.9));
+
+      try (ResultSet resultSet = anchor.executeQuery()) {
+        resultSet.next();
+        anchorId   = resultSet.getLong(1);
+        anchorDate = resultSet.getLong(2);
+      }
+    }
+
+    // The app builds these with the values inlined, so they're prepared once here
+    offsetPage       = connection.prepareStatement(MmsSmsDatabase.buildConversationQuery(THREAD_ID, offset, PAGE_SIZE));
+    seekPage         = connection.prepareStatement(MmsSmsDatabase.buildConversationAfterQuery(THREAD_ID, anchorDate, false, anchorId, PAGE_SIZE));
+    fullConversation = connection.prepareStatement(MmsSmsDatabase.buildConversationQuery(THREAD_ID, 0, 0));
+    position         = connection.prepareStatement(MmsSmsDatabase.buildConversationPositionQuery(THREAD_ID, anchorDate, false, anchorId));
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    connection.close();
+    file.delete();
+  }
+
+  @Benchmark
+  public long pageWithOffset() throws SQLException {
+    return drain(offsetPage);
+  }
+
+  @Benchmark
+  public long pageWithSeek() throws SQLException {
+    return drain(seekPage);
+  }
+
+  /**
+   * How a message position used to be found: walk the whole conversation until we hit it.
+   */
+  @Benchmark
+  public int positionByScan() throws SQLException {
+    try (ResultSet resultSet = fullConversation.executeQuery()) {
+      int idColumn        = resultSet.findColumn(MmsSmsColumns.ID);
+      int transportColumn = resultSet.findColumn(MmsSmsDatabase.TRANSPORT);
+      int index           = 0;
+
+      while (resultSet.next()) {
+        if (resultSet.getLong(idColumn) == anchorId && MmsSmsDatabase.SMS_TRANSPORT.equals(resultSet.getString(transportColumn))) {
+          return index;
+        }
+        index++;
+      }
+    }
+
+    return -1;
+  }
+
+  @Benchmark
+  public int positionByCount() throws SQLException {
+    try (ResultSet resultSet = position.executeQuery()) {
+      return resultSet.next() ? resultSet.getInt(1) : -1;
+    }
+  }
+
+  /**
+   * Fills the thread being measured with roughly one MMS for every nine SMS, plus a smaller
+   * unrelated thread so that the thread filter has something to do.
+   */
+  private void populate() throws SQLException {
+    Random random = new Random(1);
+    long   now    = System.currentTimeMillis();
+
+    connection.setAutoCommit(false);
+
+    try (PreparedStatement sms = connection.prepareStatement("INSERT INTO " + SmsDatabase.TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + SmsDatabase.DATE_RECEIVED + ", " + SmsDatabase.DATE_SENT + ", " + SmsDatabase.TYPE + ", " + MmsSmsColumns.BODY + ") VALUES (?, ?, ?, ?, ?)");
+         PreparedStatement mms = connection.prepareStatement("INSERT INTO " + MmsDatabase.TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + ", " + MmsDatabase.DATE_SENT + ", " + MmsDatabase.MESSAGE_BOX + ", " + MmsSmsColumns.BODY + ") VALUES (?, ?, ?, ?, ?)"))
+    {
+      int total = messageCount + messageCount / 10;
+
+      for (int i = 0; i < total; i++) {
+        long              threadId = i < messageCount ? THREAD_ID : OTHER_THREAD;
+        long              date     = now - (total - i) * 1000L - random.nextInt(1000);
+        PreparedStatement insert   = random.nextInt(10) == 0 ? mms : sms;
+
+        insert.setLong(1, threadId);
+        insert.setLong(2, date);
+        insert.setLong(3, date - random.nextInt(5000));
+        insert.setLong(4, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+        insert.setString(5, "Message " + i);
+        insert.addBatch();
+
+        if (i % 10000 == 0) {
+          sms.executeBatch();
+          mms.executeBatch();
+        }
+      }
+
+      sms.executeBatch();
+      mms.executeBatch();
+    }
+
+    connection.commit();
+    connection.setAutoCommit(true);
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("ANALYZE");
+    }
+  }
+
+  private static long drain(PreparedStatement statement) throws SQLException {
+    long sum = 0;
+
+    try (ResultSet resultSet = statement.executeQuery()) {
+      int idColumn = resultSet.findColumn(MmsSmsColumns.ID);
+
+      while (resultSet.next()) {
+        sum += resultSet.getLong(idColumn);
+      }
+    }
+
+    return sum;
+  }
+}
@@ -0,0 +1,304 @@
+package su.sres.securesms.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.conversation.colors.AvatarColor;
+import su.sres.securesms.database.RecipientDatabase.RegisteredState;
+import su.sres.securesms.storage.StorageSyncHelper;
+import su.sres.securesms.util.Base64;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies a full directory update of {@link #entries} logins to a recipient table that already has
+ * half of them, plus a few logins that have since left the directory. {@link #perEntry()} is what
+ * {@link su.sres.securesms.contacts.sync.DirectoryHelper} did before: a lookup or insert, a
+ * registration update and a profile sharing update per login, each committed on its own.
+ * {@link #bulk()} is what {@link RecipientDatabase#applyDirectoryUpdate} does: every login resolved
+ * in one query, new recipients inserted whole, and a commit every 1000 recipients.
+ *
+ * SQLCipher only runs on Android, so this runs the same statements on a plain on-disk SQLite database
+ * with the app's recipient table, in WAL mode with synchronous = NORMAL like the app's database. The
+ * old path also refreshed the live recipient after every write, which isn't included here.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class DirectoryUpdateBenchmark {
+
+  private static final int TRANSACTION_SIZE = 1000;
+
+  @Param({ "10000", "50000", "100000" })
+  public int entries;
+
+  private final Map<String, String> directory = new LinkedHashMap<>();
+  private final List<String>        departed  = new ArrayList<>();
+
+  private File       file;
+  private Connection connection;
+
+  private PreparedStatement selectByPhone;
+  private PreparedStatement selectAll;
+  private PreparedStatement insertBare;
+  private PreparedStatement insertRegistered;
+  private PreparedStatement updateRegistered;
+  private PreparedStatement updateUnregistered;
+  private PreparedStatement updateProfileSharing;
+  private PreparedStatement setStorageIdIfNotSet;
+  private PreparedStatement rotateStorageId;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    NoopLogger.install();
+
+    for (int i = 0; i < entries; i++) {
+      directory.put("user" + i, UUID.randomUUID().toString());
+    }
+
+    for (int i = 0; i < entries / 20; i++) {
+      departed.add("departed" + i);
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setupIteration() throws IOException, SQLException {
+    file       = File.createTempFile("recipients", ".db");
+    connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("PRAGMA journal_mode = WAL");
+      statement.execute("PRAGMA synchronous = NORMAL");
+      statement.execute(RecipientDatabase.CREATE_TABLE);
+
+      for (String index : RecipientDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+    }
+
+    String table = RecipientDatabase.TABLE_NAME;
+    String id    = RecipientDatabase.ID;
+
+    selectByPhone        = connection.prepareStatement("SELECT " + id + " FROM " + table + " WHERE " + RecipientDatabase.PHONE + " = ?");
+    selectAll            = connection.prepareStatement("SELECT " + id + ", " + RecipientDatabase.PHONE + " FROM " + table + " WHERE " + RecipientDatabase.PHONE + " NOT NULL");
+    insertBare           = connection.prepareStatement("INSERT INTO " + table + " (" + RecipientDatabase.PHONE + ", " + RecipientDatabase.AVATAR_COLOR + ") VALUES (?, ?)");
+    insertRegistered     = connection.prepareStatement("INSERT INTO " + table + " (" + RecipientDatabase.PHONE + ", " + RecipientDatabase.AVATAR_COLOR + ", " + RecipientDatabase.REGISTERED + ", " +
+                                                       RecipientDatabase.PROFILE_SHARING + ", " + RecipientDatabase.STORAGE_SERVICE_ID + ", " + RecipientDatabase.ACI_COLUMN + ") VALUES (?, ?, ?, 1, ?, ?)");
+    updateRegistered     = connection.prepareStatement("UPDATE " + table + " SET " + RecipientDatabase.REGISTERED + " = ?, " + RecipientDatabase.ACI_COLUMN + " = ? WHERE " + id + " = ? AND (" +
+                                                       RecipientDatabase.REGISTERED + " IS NOT ? OR " + RecipientDatabase.ACI_COLUMN + " IS NOT ?)");
+    updateUnregistered   = connection.prepareStatement("UPDATE " + table + " SET " + RecipientDatabase.REGISTERED + " = ?, " + RecipientDatabase.PROFILE_SHARING + " = 0, " + RecipientDatabase.STORAGE_SERVICE_ID + " = NULL WHERE " + id + " = ? AND (" +
+                                                       RecipientDatabase.REGISTERED + " IS NOT ? OR " + RecipientDatabase.PROFILE_SHARING + " IS NOT 0 OR " + RecipientDatabase.STORAGE_SERVICE_ID + " IS NOT NULL)");
+    updateProfileSharing = connection.prepareStatement("UPDATE " + table + " SET " + RecipientDatabase.PROFILE_SHARING + " = 1 WHERE " + id + " = ? AND " + RecipientDatabase.PROFILE_SHARING + " IS NOT 1");
+    setStorageIdIfNotSet = connection.prepareStatement("UPDATE " + table + " SET " + RecipientDatabase.STORAGE_SERVICE_ID + " = ? WHERE " + id + " = ? AND " + RecipientDatabase.STORAGE_SERVICE_ID + " IS NULL");
+    rotateStorageId      = connection.prepareStatement("UPDATE " + table + " SET " + RecipientDatabase.STORAGE_SERVICE_ID + " = ? WHERE " + id + " = ?");
+
+    int existing = 0;
+
+    connection.setAutoCommit(false);
+
+    for (String userLogin : directory.keySet()) {
+      if (existing++ == entries / 2) {
+        break;
+      }
+
+      insertBare(userLogin);
+    }
+
+    for (String userLogin : departed) {
+      insertRegistered(userLogin, UUID.randomUUID().toString());
+    }
+
+    connection.commit();
+    connection.setAutoCommit(true);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDownIteration() throws SQLException {
+    connection.close();
+
+    file.delete();
+    new File(file.getAbsolutePath() + "-wal").delete();
+    new File(file.getAbsolutePath() + "-shm").delete();
+  }
+
+  @Benchmark
+  public void perEntry() throws SQLException {
+    for (String userLogin : getAllUserLogins()) {
+      if (!directory.containsKey(userLogin)) {
+        updateUnregistered(getOrInsert(userLogin));
+      }
+    }
+
+    for (Map.Entry<String, String> entry : directory.entrySet()) {
+      long id = getOrInsert(entry.getKey());
+
+      if (updateRegistered(id, entry.getValue())) {
+        setStorageIdIfNotSet(id);
+      }
+
+      if (updateProfileSharing(id)) {
+        rotateStorageId(id);
+      }
+    }
+  }
+
+  @Benchmark
+  public void bulk() throws SQLException {
+    Map<String, Long> existing     = getAllUserLoginIds();
+    List<Long>        unregistered = new ArrayList<>();
+    int               pending      = 0;
+
+    for (Map.Entry<String, Long> entry : existing.entrySet()) {
+      if (!directory.containsKey(entry.getKey())) {
+        unregistered.add(entry.getValue());
+      }
+    }
+
+    connection.setAutoCommit(false);
+
+    for (Map.Entry<String, String> entry : directory.entrySet()) {
+      Long id = existing.get(entry.getKey());
+
+      if (id == null) {
+        insertRegistered(entry.getKey(), entry.getValue());
+      } else {
+        if (updateRegistered(id, entry.getValue())) {
+          setStorageIdIfNotSet(id);
+        }
+
+        if (updateProfileSharing(id)) {
+          rotateStorageId(id);
+        }
+      }
+
+      if (++pending % TRANSACTION_SIZE == 0) {
+        connection.commit();
+      }
+    }
+
+    for (long id : unregistered) {
+      updateUnregistered(id);
+
+      if (++pending % TRANSACTION_SIZE == 0) {
+        connection.commit();
+      }
+    }
+
+    connection.commit();
+    connection.setAutoCommit(true);
+  }
+
+  private List<String> getAllUserLogins() throws SQLException {
+    return new ArrayList<>(getAllUserLoginIds().keySet());
+  }
+
+  private Map<String, Long> getAllUserLoginIds() throws SQLException {
+    Map<String, Long> results = new HashMap<>();
+
+    try (ResultSet resultSet = selectAll.executeQuery()) {
+      while (resultSet.next()) {
+        results.put(resultSet.getString(2), resultSet.getLong(1));
+      }
+    }
+
+    return results;
+  }
+
+  private long getOrInsert(String userLogin) throws SQLException {
+    selectByPhone.setString(1, userLogin);
+
+    try (ResultSet resultSet = selectByPhone.executeQuery()) {
+      if (resultSet.next()) {
+        return resultSet.getLong(1);
+      }
+    }
+
+    return insertBare(userLogin);
+  }
+
+  private long insertBare(String userLogin) throws SQLException {
+    insertBare.setString(1, userLogin);
+    insertBare.setString(2, AvatarColor.random().serialize());
+    insertBare.executeUpdate();
+
+    return lastInsertId(insertBare);
+  }
+
+  private void insertRegistered(String userLogin, String aci) throws SQLException {
+    insertRegistered.setString(1, userLogin);
+    insertRegistered.setString(2, AvatarColor.random().serialize());
+    insertRegistered.setInt(3, RegisteredState.REGISTERED.getId());
+    insertRegistered.setString(4, Base64.encodeBytes(StorageSyncHelper.generateKey()));
+    insertRegistered.setString(5, aci);
+    insertRegistered.executeUpdate();
+  }
+
+  private boolean updateRegistered(long id, String aci) throws SQLException {
+    updateRegistered.setInt(1, RegisteredState.REGISTERED.getId());
+    updateRegistered.setString(2, aci);
+    updateRegistered.setLong(3, id);
+    updateRegistered.setInt(4, RegisteredState.REGISTERED.getId());
+    updateRegistered.setString(5, aci);
+
+    return updateRegistered.executeUpdate() > 0;
+  }
+
+  private void updateUnregistered(long id) throws SQLException {
+    updateUnregistered.setInt(1, RegisteredState.NOT_REGISTERED.getId());
+    updateUnregistered.setLong(2, id);
+    updateUnregistered.setInt(3, RegisteredState.NOT_REGISTERED.getId());
+    updateUnregistered.executeUpdate();
+  }
+
+  private boolean updateProfileSharing(long id) throws SQLException {
+    updateProfileSharing.setLong(1, id);
+
+    return updateProfileSharing.executeUpdate() > 0;
+  }
+
+  private void setStorageIdIfNotSet(long id) throws SQLException {
+    setStorageIdIfNotSet.setString(1, Base64.encodeBytes(StorageSyncHelper.generateKey()));
+    setStorageIdIfNotSet.setLong(2, id);
+    setStorageIdIfNotSet.executeUpdate();
+  }
+
+  private void rotateStorageId(long id) throws SQLException {
+    rotateStorageId.setString(1, Base64.encodeBytes(StorageSyncHelper.generateKey()));
+    rotateStorageId.setLong(2, id);
+    rotateStorageId.executeUpdate();
+  }
+
+  private static long lastInsertId(PreparedStatement statement) throws SQLException {
+    try (ResultSet keys = statement.getGeneratedKeys()) {
+      keys.next();
+      return keys.getLong(1);
+    }
+  }
+}
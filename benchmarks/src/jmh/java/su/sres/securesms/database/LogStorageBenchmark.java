@@ -0,0 +1,173 @@
+package su.sres.securesms.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.database.model.LogEntry;
+import su.sres.securesms.logging.LogFormatter;
+import su.sres.securesms.logging.LogRingBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the same stream of log lines into {@link LogDatabase}'s table the way the log writer does,
+ * one transaction and one compressed block per batch, and prints how big the database ended up and
+ * how much was written to get there.
+ *
+ * {@link #linesPerBatch} of 1 and 10 are what the writer did when it wrote whatever it had each time
+ * it woke up, and 1000 is what it does now that it waits for a full block. SQLCipher only runs on
+ * Android, so this uses plain SQLite in WAL mode with checkpoints turned off. Every page a commit
+ * writes then ends up in the WAL, so its size is the number of bytes written. SQLCipher encrypts
+ * whole pages, so it writes the same number of them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+public class LogStorageBenchmark {
+
+  private static final int LINES = 100_000;
+
+  @Param({ "1", "10", "100", "1000" })
+  public int linesPerBatch;
+
+  private final List<LogEntry> lines = new ArrayList<>(LINES);
+  private final List<String>   block = new ArrayList<>();
+
+  private long textBytes;
+
+  private File              file;
+  private Connection        connection;
+  private PreparedStatement insert;
+
+  @Setup(Level.Trial)
+  public void setupTrial() {
+    NoopLogger.install();
+
+    String[][] messages = {
+        { "IncomingMessageObserver", "Retrieved envelope! %1$d" },
+        { "PushProcessMessageJob", "[%1$d] Processing message." },
+        { "JobManager", "[JOB::%2$s][PushDecryptMessageJob] Job finished with result SUCCESS in %1$d ms." },
+        { "ConversationListDataSource", "[Initial Load] Took %1$d ms." },
+        { "WebSocketConnection", "onMessage(): %1$d bytes" },
+        { "ApplicationDependencyProvider", "Websocket state changed: %2$s" }
+    };
+
+    LogFormatter        formatter = new LogFormatter("5.29.0");
+    LogRingBuffer.Entry entry     = new LogRingBuffer.Entry();
+    Random              random    = new Random(1);
+    long                time      = System.currentTimeMillis();
+
+    time -= time % TimeUnit.HOURS.toMillis(1);
+
+    for (int i = 0; i < LINES; i++) {
+      String[] message = messages[random.nextInt(messages.length)];
+
+      entry.setLevel(random.nextInt(10) == 0 ? "W" : "I");
+      entry.setTag(message[0]);
+      entry.setMessage(String.format(Locale.US, message[1], random.nextInt(100_000), Long.toHexString(random.nextLong())));
+      entry.setCreatedAt(time + i * 20L);
+      entry.setThreadString(String.format(Locale.US, "%-5s", 1000 + random.nextInt(40)));
+
+      formatter.format(entry, lines);
+    }
+
+    for (LogEntry line : lines) {
+      textBytes += line.getBody().length();
+    }
+  }
+
+  @Setup(Level.Iteration)
+  public void setupIteration() throws IOException, SQLException {
+    file       = File.createTempFile("logs", ".db");
+    connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("PRAGMA journal_mode = WAL");
+      statement.execute("PRAGMA wal_autocheckpoint = 0");
+      statement.execute(LogDatabase.CREATE_TABLE);
+
+      for (String index : LogDatabase.CREATE_INDEXES) {
+        statement.execute(index);
+      }
+    }
+
+    connection.setAutoCommit(false);
+    insert = connection.prepareStatement(LogDatabase.INSERT);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDownIteration() throws SQLException {
+    File wal      = new File(file.getAbsolutePath() + "-wal");
+    long walBytes = wal.length();
+
+    connection.setAutoCommit(true);
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+    }
+
+    connection.close();
+
+    long dbBytes = file.length();
+
+    System.out.printf(Locale.US, "%n%d lines per batch: %,d bytes of text, %,d byte database (%.2fx), %,d bytes written (%.2fx)%n",
+                      linesPerBatch, textBytes, dbBytes, dbBytes / (double) textBytes, walBytes, walBytes / (double) textBytes);
+
+    file.delete();
+    wal.delete();
+  }
+
+  @Benchmark
+  public void write() throws SQLException {
+    for (int start = 0; start < LINES; start += linesPerBatch) {
+      insertBlock(start, Math.min(start + linesPerBatch, LINES));
+      connection.commit();
+    }
+  }
+
+  private void insertBlock(int start, int end) throws SQLException {
+    long size = 0;
+
+    for (int i = start; i < end; i++) {
+      size += lines.get(i).getBody().length();
+      block.add(lines.get(i).getBody());
+    }
+
+    long createdAt = lines.get(start).getCreatedAt();
+
+    insert.setLong(1, createdAt - createdAt % TimeUnit.HOURS.toMillis(1));
+    insert.setLong(2, 0);
+    insert.setLong(3, createdAt);
+    insert.setLong(4, lines.get(end - 1).getCreatedAt());
+    insert.setLong(5, end - start);
+    insert.setLong(6, size);
+    insert.setBytes(7, LogBlockCodec.encode(block));
+    insert.executeUpdate();
+
+    block.clear();
+  }
+}
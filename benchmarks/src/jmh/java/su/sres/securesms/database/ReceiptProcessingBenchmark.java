@@ -0,0 +1,265 @@
+package su.sres.securesms.database;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import su.sres.benchmarks.NoopLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Applies the delivery and read receipts from every member of a 500 member group to the message we
+ * sent them, and reports receipts/second. {@link #oneAtATime()} is what happened before receipts were
+ * buffered: a transaction and a thread update per receipt. {@link #batched()} is what
+ * {@link su.sres.securesms.messages.IncomingReceiptBuffer} does: up to 500 receipts per transaction,
+ * with the thread updated once at the end.
+ *
+ * SQLCipher only runs on Android, so this creates the app's own tables and indexes on a plain
+ * on-disk SQLite database and runs the statements that {@link MmsDatabase#incrementReceiptCount} and
+ * {@link ThreadDatabase#update(long, boolean)} run. Turning a row into a snippet isn't included, and
+ * neither are the message send log deletes, which are one statement per batch either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReceiptProcessingBenchmark {
+
+  private static final long THREAD_ID       = 1;
+  private static final long GROUP_RECIPIENT = 1;
+  private static final int  MEMBERS         = 500;
+  private static final int  RECEIPTS        = MEMBERS * 2;
+  private static final int  HISTORY         = 10000;
+
+  /** The most receipts {@link su.sres.securesms.messages.IncomingReceiptBuffer} applies at once. */
+  private static final int BATCH_SIZE = 500;
+
+  private File       file;
+  private Connection connection;
+  private long       dateSent;
+
+  private PreparedStatement smsByDateSent;
+  private PreparedStatement mmsByDateSent;
+  private PreparedStatement updateDelivery;
+  private PreparedStatement updateRead;
+  private PreparedStatement updateGroupReceipt;
+  private PreparedStatement smsMeaningful;
+  private PreparedStatement mmsMeaningful;
+  private PreparedStatement snippet;
+  private PreparedStatement snippetRecord;
+  private PreparedStatement updateThread;
+  private PreparedStatement insertMessage;
+  private PreparedStatement insertGroupReceipt;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, SQLException {
+    NoopLogger.install();
+
+    file       = File.createTempFile("receipts", ".db");
+    connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath());
+    dateSent   = System.currentTimeMillis();
+
+    try (Statement statement = connection.createStatement()) {
+      statement.execute(SmsDatabase.CREATE_TABLE);
+      statement.execute(MmsDatabase.CREATE_TABLE);
+      statement.execute(ThreadDatabase.CREATE_TABLE);
+      statement.execute(GroupReceiptDatabase.CREATE_TABLE);
+
+      for (String index : SmsDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+
+      for (String index : MmsDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+
+      for (String index : ThreadDatabase.CREATE_INDEXS) {
+        statement.execute(index);
+      }
+
+      for (String index : GroupReceiptDatabase.CREATE_INDEXES) {
+        statement.execute(index);
+      }
+
+      statement.execute("INSERT INTO " + ThreadDatabase.TABLE_NAME + " (" + ThreadDatabase.ID + ", " + ThreadDatabase.RECIPIENT_ID + ") VALUES (" + THREAD_ID + ", " + GROUP_RECIPIENT + ")");
+    }
+
+    smsByDateSent      = connection.prepareStatement("SELECT " + MmsSmsColumns.ID + ", " + MmsSmsColumns.THREAD_ID + ", " + MmsSmsColumns.RECIPIENT_ID + ", " + SmsDatabase.TYPE + ", " + MmsSmsColumns.DELIVERY_RECEIPT_COUNT + ", " + MmsSmsColumns.READ_RECEIPT_COUNT + ", " + MmsSmsColumns.RECEIPT_TIMESTAMP + " FROM " + SmsDatabase.TABLE_NAME + " WHERE " + SmsDatabase.DATE_SENT + " = ?");
+    mmsByDateSent      = connection.prepareStatement("SELECT " + MmsSmsColumns.ID + ", " + MmsSmsColumns.THREAD_ID + ", " + MmsDatabase.MESSAGE_BOX + ", " + MmsSmsColumns.RECIPIENT_ID + ", " + MmsSmsColumns.DELIVERY_RECEIPT_COUNT + ", " + MmsSmsColumns.READ_RECEIPT_COUNT + ", " + MmsSmsColumns.RECEIPT_TIMESTAMP + " FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsDatabase.DATE_SENT + " = ?");
+    updateDelivery     = connection.prepareStatement(receiptUpdate(MmsSmsColumns.DELIVERY_RECEIPT_COUNT));
+    updateRead         = connection.prepareStatement(receiptUpdate(MmsSmsColumns.READ_RECEIPT_COUNT));
+    updateGroupReceipt = connection.prepareStatement("UPDATE " + GroupReceiptDatabase.TABLE_NAME + " SET " + GroupReceiptDatabase.STATUS + " = ?, " + GroupReceiptDatabase.TIMESTAMP + " = ? WHERE " + GroupReceiptDatabase.MMS_ID + " = ? AND " + GroupReceiptDatabase.RECIPIENT_ID + " = ? AND " + GroupReceiptDatabase.STATUS + " < ?");
+    smsMeaningful      = connection.prepareStatement("SELECT 1 FROM " + SmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? LIMIT 1");
+    mmsMeaningful      = connection.prepareStatement("SELECT 1 FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.THREAD_ID + " = ? LIMIT 1");
+    snippet            = connection.prepareStatement(MmsSmsDatabase.SNIPPET_QUERY);
+    snippetRecord      = connection.prepareStatement("SELECT * FROM " + MmsDatabase.TABLE_NAME + " WHERE " + MmsSmsColumns.ID + " = ?");
+    updateThread       = connection.prepareStatement("UPDATE " + ThreadDatabase.TABLE_NAME + " SET " + ThreadDatabase.DATE + " = ?, " + ThreadDatabase.SNIPPET + " = ?, " + ThreadDatabase.SNIPPET_TYPE + " = ?, " + ThreadDatabase.MEANINGFUL_MESSAGES + " = 1, " + ThreadDatabase.STATUS + " = ?, " + ThreadDatabase.DELIVERY_RECEIPT_COUNT + " = ?, " + ThreadDatabase.READ_RECEIPT_COUNT + " = ?, " + ThreadDatabase.EXPIRES_IN + " = ? WHERE " + Database.ID_WHERE);
+    insertMessage      = connection.prepareStatement("INSERT INTO " + MmsDatabase.TABLE_NAME + " (" + MmsSmsColumns.THREAD_ID + ", " + MmsDatabase.DATE_RECEIVED + ", " + MmsDatabase.DATE_SENT + ", " + MmsDatabase.MESSAGE_BOX + ", " + MmsSmsColumns.RECIPIENT_ID + ", " + MmsSmsColumns.BODY + ") VALUES (?, ?, ?, ?, ?, ?)");
+    insertGroupReceipt = connection.prepareStatement("INSERT INTO " + GroupReceiptDatabase.TABLE_NAME + " (" + GroupReceiptDatabase.MMS_ID + ", " + GroupReceiptDatabase.RECIPIENT_ID + ", " + GroupReceiptDatabase.STATUS + ", " + GroupReceiptDatabase.TIMESTAMP + ") VALUES (?, ?, ?, ?)");
+
+    connection.setAutoCommit(false);
+
+    for (int i = 0; i < HISTORY; i++) {
+      insertMessage(dateSent - (HISTORY - i) * 1000L, MmsSmsColumns.Types.BASE_INBOX_TYPE);
+    }
+
+    connection.commit();
+  }
+
+  /**
+   * Every invocation needs a message that hasn't seen any receipts yet.
+   */
+  @Setup(Level.Invocation)
+  public void sendMessage() throws SQLException {
+    dateSent++;
+
+    long messageId = insertMessage(dateSent, MmsSmsColumns.Types.BASE_SENT_TYPE);
+
+    for (int member = 0; member < MEMBERS; member++) {
+      insertGroupReceipt.setLong(1, messageId);
+      insertGroupReceipt.setLong(2, member + 2);
+      insertGroupReceipt.setInt(3, GroupReceiptDatabase.STATUS_UNDELIVERED);
+      insertGroupReceipt.setLong(4, dateSent);
+      insertGroupReceipt.addBatch();
+    }
+
+    insertGroupReceipt.executeBatch();
+    connection.commit();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws SQLException {
+    connection.close();
+    file.delete();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECEIPTS)
+  public void oneAtATime() throws SQLException {
+    for (int i = 0; i < RECEIPTS; i++) {
+      applyReceipt(i);
+      updateThread();
+      connection.commit();
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RECEIPTS)
+  public void batched() throws SQLException {
+    for (int i = 0; i < RECEIPTS; i++) {
+      applyReceipt(i);
+
+      if ((i + 1) % BATCH_SIZE == 0 || i == RECEIPTS - 1) {
+        updateThread();
+        connection.commit();
+      }
+    }
+  }
+
+  /**
+   * Every member's delivery receipt, followed by every member's read receipt.
+   */
+  private void applyReceipt(int index) throws SQLException {
+    boolean           read      = index >= MEMBERS;
+    long              member    = index % MEMBERS + 2;
+    PreparedStatement update    = read ? updateRead : updateDelivery;
+    int               status    = read ? GroupReceiptDatabase.STATUS_READ : GroupReceiptDatabase.STATUS_DELIVERED;
+    long              timestamp = System.currentTimeMillis();
+
+    smsByDateSent.setLong(1, dateSent);
+    try (ResultSet resultSet = smsByDateSent.executeQuery()) {
+      if (resultSet.next()) {
+        throw new AssertionError();
+      }
+    }
+
+    mmsByDateSent.setLong(1, dateSent);
+    try (ResultSet resultSet = mmsByDateSent.executeQuery()) {
+      while (resultSet.next()) {
+        long    id               = resultSet.getLong(MmsSmsColumns.ID);
+        boolean isFirstIncrement = resultSet.getLong(read ? MmsSmsColumns.READ_RECEIPT_COUNT : MmsSmsColumns.DELIVERY_RECEIPT_COUNT) == 0;
+        long    savedTimestamp   = resultSet.getLong(MmsSmsColumns.RECEIPT_TIMESTAMP);
+
+        update.setLong(1, isFirstIncrement ? Math.max(savedTimestamp, timestamp) : savedTimestamp);
+        update.setLong(2, id);
+        update.executeUpdate();
+
+        updateGroupReceipt.setInt(1, status);
+        updateGroupReceipt.setLong(2, timestamp);
+        updateGroupReceipt.setLong(3, id);
+        updateGroupReceipt.setLong(4, member);
+        updateGroupReceipt.setInt(5, status);
+        updateGroupReceipt.executeUpdate();
+      }
+    }
+  }
+
+  private void updateThread() throws SQLException {
+    smsMeaningful.setLong(1, THREAD_ID);
+    mmsMeaningful.setLong(1, THREAD_ID);
+
+    try (ResultSet sms = smsMeaningful.executeQuery(); ResultSet mms = mmsMeaningful.executeQuery()) {
+      if (!sms.next() && !mms.next()) {
+        throw new AssertionError();
+      }
+    }
+
+    long snippetId;
+
+    snippet.setLong(1, THREAD_ID);
+    snippet.setLong(2, THREAD_ID);
+    try (ResultSet resultSet = snippet.executeQuery()) {
+      resultSet.next();
+      snippetId = resultSet.getLong(MmsSmsColumns.ID);
+    }
+
+    snippetRecord.setLong(1, snippetId);
+    try (ResultSet record = snippetRecord.executeQuery()) {
+      record.next();
+
+      updateThread.setLong(1, record.getLong(MmsDatabase.DATE_RECEIVED));
+      updateThread.setString(2, record.getString(MmsSmsColumns.BODY));
+      updateThread.setLong(3, record.getLong(MmsDatabase.MESSAGE_BOX));
+      updateThread.setLong(4, record.getLong(MmsDatabase.STATUS));
+      updateThread.setLong(5, record.getLong(MmsSmsColumns.DELIVERY_RECEIPT_COUNT));
+      updateThread.setLong(6, record.getLong(MmsSmsColumns.READ_RECEIPT_COUNT));
+      updateThread.setLong(7, record.getLong(MmsSmsColumns.EXPIRES_IN));
+      updateThread.setLong(8, THREAD_ID);
+      updateThread.executeUpdate();
+    }
+  }
+
+  private long insertMessage(long date, long type) throws SQLException {
+    insertMessage.setLong(1, THREAD_ID);
+    insertMessage.setLong(2, date);
+    insertMessage.setLong(3, date);
+    insertMessage.setLong(4, type);
+    insertMessage.setLong(5, GROUP_RECIPIENT);
+    insertMessage.setString(6, "Message " + date);
+    insertMessage.executeUpdate();
+
+    try (ResultSet keys = insertMessage.getGeneratedKeys()) {
+      keys.next();
+      return keys.getLong(1);
+    }
+  }
+
+  private static String receiptUpdate(String column) {
+    return "UPDATE " + MmsDatabase.TABLE_NAME + " SET " + column + " = " + column + " + 1, " + MmsSmsColumns.RECEIPT_TIMESTAMP + " = ? WHERE " + MmsSmsColumns.ID + " = ?";
+  }
+}
@@ -0,0 +1,68 @@
+package su.sres.securesms.jobmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the serializers used to persist {@link Job} input data, for a typical small payload and
+ * for one carrying a blob.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DataSerializerBenchmark {
+
+  @Param({ "binary", "json" })
+  public String serializer;
+
+  @Param({ "0", "4096" })
+  public int blobSize;
+
+  private Data.Serializer subject;
+  private Data            data;
+  private byte[]          serialized;
+
+  @Setup
+  public void setup() {
+    NoopLogger.install();
+
+    subject = serializer.equals("binary") ? new BinaryDataSerializer() : new JsonDataSerializer();
+
+    Data.Builder builder = new Data.Builder().putString("recipient_id", "1234")
+                                             .putLong("message_id", 5678)
+                                             .putBoolean("is_mms", true)
+                                             .putLongArray("recipients", new long[] { 1, 2, 3, 4, 5, 6, 7, 8 })
+                                             .putStringArray("filter", new String[] { "a", "b", "c" });
+
+    if (blobSize > 0) {
+      byte[] blob = new byte[blobSize];
+      new Random(1).nextBytes(blob);
+      builder.putBlobAsString("blob", blob);
+    }
+
+    data       = builder.build();
+    serialized = subject.serialize(data);
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return subject.serialize(data);
+  }
+
+  @Benchmark
+  public Data deserialize() {
+    return subject.deserialize(serialized);
+  }
+}
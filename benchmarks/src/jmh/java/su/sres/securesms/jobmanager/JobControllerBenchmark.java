@@ -0,0 +1,129 @@
+package su.sres.securesms.jobmanager;
+
+import android.app.Application;
+
+import androidx.annotation.NonNull;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.database.JobDatabase;
+import su.sres.securesms.jobs.FastJobStorage;
+import su.sres.securesms.util.Debouncer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures the full life of a job in the {@link JobController}: submitting it, pulling it for
+ * execution and marking it successful, while a number of other jobs are already waiting behind
+ * their own queues.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JobControllerBenchmark {
+
+  @Param({ "0", "1000", "10000" })
+  public int backlog;
+
+  private JobController subject;
+  private JobPredicate  predicate;
+
+  @Setup
+  public void setup() {
+    NoopLogger.install();
+
+    JobDatabase database = mock(JobDatabase.class, withSettings().stubOnly());
+    when(database.getAllJobSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllConstraintSpecs()).thenReturn(Collections.emptyList());
+    when(database.getAllDependencySpecs()).thenReturn(Collections.emptyList());
+
+    FastJobStorage jobStorage = new FastJobStorage(database);
+    jobStorage.init();
+
+    subject = new JobController(mock(Application.class, withSettings().stubOnly()),
+                                jobStorage,
+                                new JobInstantiator(Collections.singletonMap(BenchmarkJob.KEY, new BenchmarkJob.Factory())),
+                                new ConstraintInstantiator(Collections.emptyMap()),
+                                new BinaryDataSerializer(),
+                                mock(JobTracker.class, withSettings().stubOnly()),
+                                (delay, constraints) -> {},
+                                mock(Debouncer.class, withSettings().stubOnly()),
+                                () -> {},
+                                new JobMetrics());
+
+    for (int i = 0; i < backlog; i++) {
+      subject.submitNewJobChain(chainOf(new BenchmarkJob("backlog" + i)));
+    }
+
+    predicate = jobSpec -> "benchmark".equals(jobSpec.getQueueKey());
+  }
+
+  @Benchmark
+  public Job submitRunAndFinish() {
+    subject.submitNewJobChain(chainOf(new BenchmarkJob("benchmark")));
+
+    Job job = subject.pullNextEligibleJobForExecution(predicate);
+
+    subject.onSuccess(job, null);
+    subject.onJobFinished(job);
+
+    return job;
+  }
+
+  private static List<List<Job>> chainOf(@NonNull Job job) {
+    return Collections.singletonList(Collections.singletonList(job));
+  }
+
+  private static final class BenchmarkJob extends Job {
+
+    static final String KEY = "BenchmarkJob";
+
+    BenchmarkJob(@NonNull String queue) {
+      this(new Parameters.Builder().setQueue(queue).build());
+    }
+
+    private BenchmarkJob(@NonNull Parameters parameters) {
+      super(parameters);
+    }
+
+    @Override
+    public @NonNull Data serialize() {
+      return new Data.Builder().putLong("message_id", 1234).build();
+    }
+
+    @Override
+    public @NonNull String getFactoryKey() {
+      return KEY;
+    }
+
+    @Override
+    public @NonNull Result run() {
+      return Result.success();
+    }
+
+    @Override
+    public void onFailure() {
+    }
+
+    static final class Factory implements Job.Factory<BenchmarkJob> {
+      @Override
+      public @NonNull BenchmarkJob create(@NonNull Parameters parameters, @NonNull Data data) {
+        return new BenchmarkJob(parameters);
+      }
+    }
+  }
+}
@@ -0,0 +1,128 @@
+package su.sres.securesms.jobs;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.database.JobDatabase;
+import su.sres.securesms.jobmanager.Data;
+import su.sres.securesms.jobmanager.Job;
+import su.sres.securesms.jobmanager.impl.JsonDataSerializer;
+import su.sres.securesms.jobmanager.persistence.ConstraintSpec;
+import su.sres.securesms.jobmanager.persistence.DependencySpec;
+import su.sres.securesms.jobmanager.persistence.FullSpec;
+import su.sres.securesms.jobmanager.persistence.JobSpec;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+/**
+ * Measures {@link FastJobStorage} with a backlog of jobs spread over a number of queues, the way it
+ * looks after a large batch of messages has been received. The {@link JobDatabase} is a stub, so
+ * only the in-memory bookkeeping is measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FastJobStorageBenchmark {
+
+  private static final byte[] EMPTY_DATA  = new JsonDataSerializer().serialize(Data.EMPTY);
+  private static final int    QUEUE_COUNT = 50;
+
+  @Param({ "100", "1000", "10000" })
+  public int jobCount;
+
+  private JobDatabase    database;
+  private FastJobStorage subject;
+  private FullSpec       extraJob;
+
+  @Setup
+  public void setup() {
+    NoopLogger.install();
+
+    List<FullSpec> fullSpecs = new ArrayList<>(jobCount);
+
+    for (int i = 0; i < jobCount; i++) {
+      String               id          = "job" + i;
+      List<DependencySpec> dependsOn   = i % 10 == 9 ? Collections.singletonList(new DependencySpec(id, "job" + (i - 1), false))
+                                                     : Collections.emptyList();
+      List<ConstraintSpec> constraints = i % 2 == 0 ? Collections.singletonList(new ConstraintSpec(id, "NetworkConstraint", false))
+                                                    : Collections.emptyList();
+
+      fullSpecs.add(new FullSpec(jobSpec(id, "PushDecryptMessageJob", "queue" + (i % QUEUE_COUNT), i), constraints, dependsOn));
+    }
+
+    database = mock(JobDatabase.class, withSettings().stubOnly());
+    when(database.getAllJobSpecs()).thenReturn(mapJobSpecs(fullSpecs));
+    when(database.getAllConstraintSpecs()).thenReturn(mapConstraintSpecs(fullSpecs));
+    when(database.getAllDependencySpecs()).thenReturn(mapDependencySpecs(fullSpecs));
+
+    subject = new FastJobStorage(database);
+    subject.init();
+
+    extraJob = new FullSpec(jobSpec("extra", "PushDecryptMessageJob", "queue0", jobCount), Collections.emptyList(), Collections.emptyList());
+  }
+
+  @Benchmark
+  public FastJobStorage init() {
+    FastJobStorage storage = new FastJobStorage(database);
+    storage.init();
+    return storage;
+  }
+
+  @Benchmark
+  public List<JobSpec> getPendingJobsWithNoDependenciesInCreatedOrder() {
+    return subject.getPendingJobsWithNoDependenciesInCreatedOrder(System.currentTimeMillis());
+  }
+
+  @Benchmark
+  public int getJobCountForFactoryAndQueue() {
+    return subject.getJobCountForFactoryAndQueue("PushDecryptMessageJob", "queue0");
+  }
+
+  @Benchmark
+  public void insertAndDeleteJob() {
+    subject.insertJobs(Collections.singletonList(extraJob));
+    subject.deleteJob(extraJob.getJobSpec().getId());
+  }
+
+  private static JobSpec jobSpec(String id, String factoryKey, String queueKey, long createTime) {
+    return new JobSpec(id, factoryKey, queueKey, createTime, 0, 0, Job.Parameters.UNLIMITED, Job.Parameters.IMMORTAL, EMPTY_DATA, null, false, false);
+  }
+
+  private static List<JobSpec> mapJobSpecs(List<FullSpec> fullSpecs) {
+    List<JobSpec> jobSpecs = new ArrayList<>(fullSpecs.size());
+    for (FullSpec fullSpec : fullSpecs) {
+      jobSpecs.add(fullSpec.getJobSpec());
+    }
+    return jobSpecs;
+  }
+
+  private static List<ConstraintSpec> mapConstraintSpecs(List<FullSpec> fullSpecs) {
+    List<ConstraintSpec> constraintSpecs = new ArrayList<>();
+    for (FullSpec fullSpec : fullSpecs) {
+      constraintSpecs.addAll(fullSpec.getConstraintSpecs());
+    }
+    return constraintSpecs;
+  }
+
+  private static List<DependencySpec> mapDependencySpecs(List<FullSpec> fullSpecs) {
+    List<DependencySpec> dependencySpecs = new ArrayList<>();
+    for (FullSpec fullSpec : fullSpecs) {
+      dependencySpecs.addAll(fullSpec.getDependencySpecs());
+    }
+    return dependencySpecs;
+  }
+}
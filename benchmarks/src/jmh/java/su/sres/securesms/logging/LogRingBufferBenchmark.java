@@ -0,0 +1,73 @@
+package su.sres.securesms.logging;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+import su.sres.benchmarks.NoopLogger;
+import su.sres.securesms.database.model.LogEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import kotlin.Unit;
+
+/**
+ * Measures the logging pipeline of {@link PersistentLogger}, minus the database: several threads
+ * logging into a {@link LogRingBuffer} while a single thread formats everything with a
+ * {@link LogFormatter}.
+ *
+ * In sample mode this is the latency a caller of Log.i sees. In throughput mode the buffer is
+ * always full, so it's the number of lines per second the writer thread can sustain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.SampleTime, Mode.Throughput })
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Threads(4)
+public class LogRingBufferBenchmark {
+
+  private LogRingBuffer buffer;
+  private Thread        writer;
+
+  @Setup(Level.Trial)
+  public void setup() {
+    NoopLogger.install();
+
+    buffer = new LogRingBuffer(8192);
+    writer = new Thread(() -> {
+      LogFormatter   formatter = new LogFormatter("1.0");
+      List<LogEntry> lines     = new ArrayList<>();
+
+      while (!Thread.currentThread().isInterrupted()) {
+        long sequence = buffer.read(entry -> {
+          formatter.format(entry, lines);
+          return Unit.INSTANCE;
+        });
+
+        lines.clear();
+        buffer.markHandled(sequence);
+      }
+    }, "benchmark-log-writer");
+
+    writer.setDaemon(true);
+    writer.start();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    writer.interrupt();
+  }
+
+  @Benchmark
+  public void log() {
+    buffer.add("I", "IncomingMessageObserver", "Retrieved envelope! 1234567890", System.currentTimeMillis(), "1234 ", null, false);
+  }
+}
@@ -0,0 +1,49 @@
+package su.sres.securesms.logsubmit.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scrubs a corpus shaped like a real debug log: mostly lines with nothing to censor, a stack
+ * trace, and the odd phone number, UUID, email or hostname.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class ScrubberBenchmark {
+
+  private static final String[] CORPUS = {
+      "Retrieved envelope! 1634567890123",
+      "[PushDecryptMessageJob] onRun() attempt 1",
+      "Successfully decrypted message in 4 ms",
+      "Inserted 1 message, took 3 ms",
+      "onStateChange(RUNNING)",
+      "java.io.IOException: Connection reset",
+      "\tat su.sres.securesms.jobs.PushDecryptMessageJob.onRun(PushDecryptMessageJob.java:123)",
+      "\tat su.sres.securesms.jobs.BaseJob.run(BaseJob.java:34)",
+      "\tat su.sres.securesms.jobmanager.JobRunner.run(JobRunner.java:87)",
+      "Sending message to +15551234567 via websocket",
+      "Job JOB::a37cb654-c9e0-4c1e-93df-3d11ca3c97f4 finished in 12 ms",
+      "Fetched profile for a37cb654-c9e0-4c1e-93df-3d11ca3c97f4",
+      "Connected to chat.shadowprivacy.com:443",
+      "Failed to resolve cdn.example.com, retrying in 5000 ms",
+      "Profile email abc@def.com updated",
+      "Updated 12 recipients in 7 ms"
+  };
+
+  @Benchmark
+  @OperationsPerInvocation(16)
+  public void scrub(Blackhole blackhole) {
+    for (String line : CORPUS) {
+      blackhole.consume(Scrubber.scrub(line));
+    }
+  }
+}
@@ -0,0 +1,110 @@
+package su.sres.signalservice.api.crypto;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.whispersystems.libsignal.InvalidMessageException;
+
+import su.sres.core.util.StreamUtil;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decrypting a downloaded attachment into a local part file, the way the attachment download job
+ * does. Compares verifying the whole file before decrypting it in a second read against verifying
+ * and decrypting in a single pass. Throughput is the input size divided by the reported time.
+ * <p>
+ * The plaintext is re-encrypted with AES-CTR, as ModernEncryptingPartOutputStream does. That class
+ * is not used directly because it returns an android.util.Pair, which is only a stub on the JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class AttachmentDecryptBenchmark {
+
+  @Param({ "10", "500" })
+  public int sizeMb;
+
+  private byte[] key;
+  private byte[] partKey;
+  private byte[] digest;
+  private long   plaintextLength;
+  private File   cipherFile;
+  private File   partFile;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    Random random = new Random(42);
+
+    key             = new byte[64];
+    partKey         = new byte[32];
+    plaintextLength = sizeMb * 1024L * 1024L;
+    cipherFile      = File.createTempFile("benchmark", ".attachment");
+    partFile        = File.createTempFile("benchmark", ".mms");
+
+    random.nextBytes(key);
+    random.nextBytes(partKey);
+
+    try (OutputStream fileOutput = new BufferedOutputStream(new FileOutputStream(cipherFile))) {
+      AttachmentCipherOutputStream out   = new AttachmentCipherOutputStream(key, null, fileOutput);
+      byte[]                       chunk = new byte[1024 * 1024];
+
+      for (long written = 0; written < plaintextLength; written += chunk.length) {
+        random.nextBytes(chunk);
+        out.write(chunk);
+      }
+
+      out.flush();
+      out.close();
+      digest = out.getTransmittedDigest();
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    cipherFile.delete();
+    partFile.delete();
+  }
+
+  @Benchmark
+  public long verifyThenDecrypt() throws IOException, InvalidMessageException {
+    return StreamUtil.copy(AttachmentCipherInputStream.createForAttachment(cipherFile, plaintextLength, key, digest), newPartOutputStream());
+  }
+
+  @Benchmark
+  public long singlePass() throws IOException, InvalidMessageException {
+    try (OutputStream out = newPartOutputStream()) {
+      return AttachmentCipherInputStream.decryptAttachment(cipherFile, plaintextLength, key, digest, out);
+    }
+  }
+
+  private OutputStream newPartOutputStream() throws IOException {
+    try {
+      Cipher cipher = Cipher.getInstance("AES/CTR/NoPadding");
+      cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(partKey, "AES"), new IvParameterSpec(new byte[16]));
+
+      return new CipherOutputStream(new FileOutputStream(partFile), cipher);
+    } catch (GeneralSecurityException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
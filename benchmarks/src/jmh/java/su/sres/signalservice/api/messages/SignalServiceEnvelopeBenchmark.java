@@ -0,0 +1,71 @@
+package su.sres.signalservice.api.messages;
+
+import com.google.protobuf.ByteString;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import su.sres.signalservice.internal.push.SignalServiceProtos.Envelope;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the envelope handling every incoming message goes through: parsing it off of the
+ * websocket, and the serialize/deserialize round trip used to hand it to the decrypt job.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SignalServiceEnvelopeBenchmark {
+
+  @Param({ "256", "4096" })
+  public int contentSize;
+
+  private byte[]                wire;
+  private SignalServiceEnvelope envelope;
+  private byte[]                serialized;
+
+  @Setup
+  public void setup() throws IOException {
+    byte[] content = new byte[contentSize];
+    new Random(1).nextBytes(content);
+
+    wire = Envelope.newBuilder()
+                   .setType(Envelope.Type.CIPHERTEXT)
+                   .setSourceUuid(UUID.randomUUID().toString())
+                   .setSourceDevice(1)
+                   .setTimestamp(System.currentTimeMillis())
+                   .setServerTimestamp(System.currentTimeMillis())
+                   .setServerGuid(UUID.randomUUID().toString())
+                   .setContent(ByteString.copyFrom(content))
+                   .build()
+                   .toByteArray();
+
+    envelope   = new SignalServiceEnvelope(wire, System.currentTimeMillis());
+    serialized = envelope.serialize();
+  }
+
+  @Benchmark
+  public byte[] parse() throws IOException {
+    return new SignalServiceEnvelope(wire, 0).getContent();
+  }
+
+  @Benchmark
+  public byte[] serialize() {
+    return envelope.serialize();
+  }
+
+  @Benchmark
+  public SignalServiceEnvelope deserialize() {
+    return SignalServiceEnvelope.deserialize(serialized);
+  }
+}
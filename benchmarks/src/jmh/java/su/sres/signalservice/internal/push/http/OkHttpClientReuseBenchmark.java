@@ -0,0 +1,161 @@
+package su.sres.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpsConfigurator;
+import com.sun.net.httpserver.HttpsServer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.TrustManagerFactory;
+import javax.net.ssl.X509TrustManager;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Small GETs against a local TLS server, the way PushServiceSocket makes them. Compares building a
+ * client for every request with newBuilder() against reusing one client per set of settings, with a
+ * fresh connection pool per request as the cost of a TLS handshake every time.
+ * <p>
+ * The server's certificate is generated with keytool from the running JDK. The connection reuse
+ * rate of each benchmark is printed at the end of the trial.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OkHttpClientReuseBenchmark {
+
+  private static final String PASSWORD = "benchmark";
+
+  private File                   keyStoreFile;
+  private ExecutorService        serverExecutor;
+  private HttpsServer            server;
+  private ConnectionReuseTracker tracker;
+  private OkHttpClient           baseClient;
+  private OkHttpClient           sharedClient;
+  private Request                request;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException, InterruptedException, GeneralSecurityException {
+    keyStoreFile = File.createTempFile("bench", ".p12");
+    //noinspection ResultOfMethodCallIgnored
+    keyStoreFile.delete();
+
+    Process keytool = new ProcessBuilder(System.getProperty("java.home") + "/bin/keytool",
+                                         "-genkeypair", "-alias", "localhost", "-keyalg", "EC", "-groupname", "secp256r1",
+                                         "-dname", "CN=localhost", "-ext", "SAN=ip:127.0.0.1", "-validity", "1",
+                                         "-storetype", "PKCS12", "-keystore", keyStoreFile.getAbsolutePath(),
+                                         "-storepass", PASSWORD, "-keypass", PASSWORD)
+                                         .inheritIO()
+                                         .start();
+
+    if (keytool.waitFor() != 0) {
+      throw new IOException("keytool failed");
+    }
+
+    KeyStore keyStore = KeyStore.getInstance("PKCS12");
+    try (InputStream in = new FileInputStream(keyStoreFile)) {
+      keyStore.load(in, PASSWORD.toCharArray());
+    }
+
+    KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+    keyManagerFactory.init(keyStore, PASSWORD.toCharArray());
+
+    TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+    trustManagerFactory.init(keyStore);
+
+    SSLContext serverContext = SSLContext.getInstance("TLS");
+    serverContext.init(keyManagerFactory.getKeyManagers(), null, null);
+
+    SSLContext clientContext = SSLContext.getInstance("TLS");
+    clientContext.init(null, trustManagerFactory.getTrustManagers(), null);
+
+    serverExecutor = Executors.newCachedThreadPool();
+    server         = HttpsServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.setHttpsConfigurator(new HttpsConfigurator(serverContext));
+    server.setExecutor(serverExecutor);
+    server.createContext("/", exchange -> {
+      byte[] body = "{}".getBytes();
+      exchange.sendResponseHeaders(200, body.length);
+
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+
+    tracker      = new ConnectionReuseTracker();
+    baseClient   = new OkHttpClient.Builder().sslSocketFactory(clientContext.getSocketFactory(), (X509TrustManager) trustManagerFactory.getTrustManagers()[0])
+                                             .connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS))
+                                             .eventListener(tracker)
+                                             .build();
+    sharedClient = withTimeouts(baseClient.newBuilder()).build();
+    request      = new Request.Builder().url("https://127.0.0.1:" + server.getAddress().getPort() + "/").build();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    System.out.println(tracker);
+
+    server.stop(0);
+    serverExecutor.shutdownNow();
+    //noinspection ResultOfMethodCallIgnored
+    keyStoreFile.delete();
+  }
+
+  @Benchmark
+  public int clientPerRequest() throws IOException {
+    return execute(withTimeouts(baseClient.newBuilder()).build());
+  }
+
+  @Benchmark
+  public int sharedClient() throws IOException {
+    return execute(sharedClient);
+  }
+
+  @Benchmark
+  public int connectionPoolPerRequest() throws IOException {
+    ConnectionPool connectionPool = new ConnectionPool();
+
+    try {
+      return execute(withTimeouts(baseClient.newBuilder()).connectionPool(connectionPool).build());
+    } finally {
+      connectionPool.evictAll();
+    }
+  }
+
+  private int execute(OkHttpClient client) throws IOException {
+    try (Response response = client.newCall(request).execute()) {
+      return response.body().bytes().length;
+    }
+  }
+
+  private static OkHttpClient.Builder withTimeouts(OkHttpClient.Builder builder) {
+    return builder.connectTimeout(30, TimeUnit.SECONDS)
+                  .readTimeout(30, TimeUnit.SECONDS)
+                  .retryOnConnectionFailure(true);
+  }
+}
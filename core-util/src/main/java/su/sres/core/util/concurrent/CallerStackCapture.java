@@ -0,0 +1,111 @@
+package su.sres.core.util.concurrent;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Decides what our tracing executors remember about who submitted a task, which is what gets
+ * joined onto the stack trace if that task crashes or blocks.
+ * <p>
+ * Walking the stack for every submission adds up quickly on busy executors, so by default we only
+ * do it for one in every {@link #DEFAULT_SAMPLE_RATE} tasks. Every other task gets a caller token,
+ * which is a single frame naming the class of the submitted runnable. For lambdas that's the class
+ * they were written in, which is usually enough to find the caller. Full capture can be turned on
+ * at runtime when debugging.
+ */
+public final class CallerStackCapture {
+
+  public enum Strategy {
+    /** Remember nothing. */
+    NONE,
+    /** Remember the class of the submitted runnable. */
+    CALLER_CLASS,
+    /** Capture the full stack for one in every N tasks, and a caller token for the rest. */
+    SAMPLED,
+    /** Capture the full stack for every task. */
+    FULL
+  }
+
+  @VisibleForTesting
+  static final int DEFAULT_SAMPLE_RATE = 100;
+
+  private static final Map<Class<?>, Throwable> CALLER_TOKENS = new ConcurrentHashMap<>();
+
+  private static volatile Strategy strategy   = Strategy.SAMPLED;
+  private static volatile int      sampleRate = DEFAULT_SAMPLE_RATE;
+
+  private CallerStackCapture() {}
+
+  public static void setStrategy(@NonNull Strategy strategy) {
+    CallerStackCapture.strategy = strategy;
+  }
+
+  public static @NonNull Strategy getStrategy() {
+    return strategy;
+  }
+
+  /**
+   * @param sampleRate When using {@link Strategy#SAMPLED}, one in every this many tasks will have
+   *                   its full stack captured.
+   */
+  public static void setSampleRate(int sampleRate) {
+    if (sampleRate < 1) {
+      throw new IllegalArgumentException("Sample rate must be positive!");
+    }
+    CallerStackCapture.sampleRate = sampleRate;
+  }
+
+  /**
+   * Called on the submitting thread.
+   *
+   * @return What to remember about the caller, or null if nothing should be remembered.
+   */
+  static @Nullable Throwable capture(@Nullable Runnable command) {
+    switch (strategy) {
+      case FULL:
+        return new Throwable();
+      case SAMPLED:
+        return ThreadLocalRandom.current().nextInt(sampleRate) == 0 ? new Throwable() : getCallerToken(command);
+      case CALLER_CLASS:
+        return getCallerToken(command);
+      default:
+        return null;
+    }
+  }
+
+  private static @Nullable Throwable getCallerToken(@Nullable Runnable command) {
+    if (command == null) {
+      return null;
+    }
+
+    Class<?>  type  = command.getClass();
+    Throwable token = CALLER_TOKENS.get(type);
+
+    if (token == null) {
+      token = new CallerToken(type);
+      CALLER_TOKENS.put(type, token);
+    }
+
+    return token;
+  }
+
+  /**
+   * A throwable that never walks the stack. Its only frame names the submitted runnable's class.
+   * Tokens are only ever read, so one is shared by every task of the same class.
+   */
+  private static final class CallerToken extends Throwable {
+    CallerToken(@NonNull Class<?> type) {
+      setStackTrace(new StackTraceElement[] { new StackTraceElement(type.getName(), "run", null, -1) });
+    }
+
+    @Override
+    public synchronized Throwable fillInStackTrace() {
+      return this;
+    }
+  }
+}
@@ -10,24 +10,92 @@ import java.util.concurrent.TimeUnit
 
 /**
  * A class that polls active threads at a set interval and logs when multiple threads are BLOCKED.
+ *
+ * While [LockProfiler] is enabled, it also samples thread states much more often, and reports any thread BLOCKED on a monitor to the profiler.
+ * Sampling starts and stops as the profiler is toggled, so nothing extra runs while it's disabled.
+ * Explicit locks are measured by their [ProfiledLock] wrappers instead, but monitors can't be wrapped, so sampling is the only way to see them.
  */
 class DeadlockDetector(private val handler: Handler, private val pollingInterval: Long) {
 
-  private var running = false
+  @Volatile private var running = false
+  @Volatile private var sampling = false
   private val previouslyBlocked: MutableSet<Long> = mutableSetOf()
 
+  private var threads: Array<Thread?> = arrayOfNulls(64)
+  private var lastSampleTime = 0L
+
+  private val sampleRunnable = Runnable { sample() }
+  private val profilerListener = LockProfiler.EnabledListener { handler.post(this::updateSampling) }
+
   fun start() {
     Log.d(TAG, "Beginning deadlock monitoring.");
     running = true
+    lastSampleTime = 0L
     handler.postDelayed(this::poll, pollingInterval)
+    LockProfiler.getInstance().addEnabledListener(profilerListener)
+    handler.post(this::updateSampling)
   }
 
   fun stop() {
     Log.d(TAG, "Ending deadlock monitoring.");
     running = false
+    sampling = false
+    LockProfiler.getInstance().removeEnabledListener(profilerListener)
     handler.removeCallbacksAndMessages(null)
   }
 
+  /**
+   * Sampling wakes us up every [SAMPLING_INTERVAL] ms, so it only runs while we're running and the [LockProfiler] is enabled.
+   */
+  private fun updateSampling() {
+    val shouldSample = running && LockProfiler.getInstance().isEnabled
+
+    if (shouldSample && !sampling) {
+      sampling = true
+      lastSampleTime = 0L
+      handler.postDelayed(sampleRunnable, SAMPLING_INTERVAL)
+    } else if (!shouldSample && sampling) {
+      sampling = false
+      handler.removeCallbacks(sampleRunnable)
+    }
+  }
+
+  /**
+   * Only looks at the stacks of threads that are actually BLOCKED, so a sample where nothing is contended doesn't allocate anything.
+   */
+  private fun sample() {
+    val profiler = LockProfiler.getInstance()
+    val now = SystemClock.elapsedRealtimeNanos()
+
+    if (!running || !sampling || !profiler.isEnabled) {
+      sampling = false
+      return
+    }
+
+    if (lastSampleTime != 0L) {
+      val interval = now - lastSampleTime
+      var count = Thread.enumerate(threads)
+
+      while (count == threads.size) {
+        threads = arrayOfNulls(threads.size * 2)
+        count = Thread.enumerate(threads)
+      }
+
+      for (i in 0 until count) {
+        val thread: Thread = threads[i]!!
+
+        if (thread.state == Thread.State.BLOCKED) {
+          profiler.onBlockedSample(thread.stackTrace, interval)
+        }
+      }
+
+      threads.fill(null)
+    }
+
+    lastSampleTime = now
+    handler.postDelayed(sampleRunnable, SAMPLING_INTERVAL)
+  }
+
   private fun poll() {
     val threads: Map<Thread, Array<StackTraceElement>> = Thread.getAllStackTraces()
     val blocked: Map<Thread, Array<StackTraceElement>> = threads
@@ -91,6 +159,8 @@ class DeadlockDetector(private val handler: Handler, private val pollingInterval
 
     private const val CONCERNING_QUEUE_THRESHOLD = 4
 
+    private const val SAMPLING_INTERVAL = 20L
+
     private val BLOCK_BLACKLIST = setOf("HeapTaskDaemon")
 
     private fun buildLogString(description: String, blocked: Map<Thread, Array<StackTraceElement>>): String {
@@ -0,0 +1,518 @@
+package su.sres.core.util.concurrent;
+
+import androidx.annotation.NonNull;
+
+import su.sres.core.util.tracing.Tracer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * Measures contention on the locks we care about, so we can tell which ones our stalls are coming
+ * from without attaching a profiler.
+ *
+ * There are three ways a lock gets measured:
+ * - Explicit locks are wrapped with {@link #wrap(String, Lock, Class)}, which times how long
+ *   callers wait to acquire them and how long they hold them.
+ * - Locks we can't wrap, like the one inside SQLCipher, report to a {@link Tracker} from
+ *   {@link #getTracker(String, Class)} around their acquire and release calls.
+ * - Java monitors can't be wrapped at all, so {@link DeadlockDetector} samples which threads are
+ *   blocked on them and reports it to {@link #onBlockedSample(StackTraceElement[], long)}. Those
+ *   numbers are estimates, and there's no hold time.
+ *
+ * For every lock we keep totals, maximums, and the call sites that waited the longest. Call sites
+ * are only looked up when a caller actually had to wait, and both the number of call sites and the
+ * number of sampled monitors are capped, so memory stays bounded no matter how long we run.
+ *
+ * When {@link #setTraceCounters(boolean)} is on, every lock also gets a {@link Tracer} counter
+ * track with the number of threads waiting on it.
+ *
+ * When disabled, a wrapped lock does nothing more than check {@link #isEnabled()}.
+ */
+public final class LockProfiler {
+
+  private static final LockProfiler INSTANCE = new LockProfiler();
+
+  /** Waits longer than this count as contended for locks where we can't just try to acquire them first. */
+  static final long CONTENDED_THRESHOLD = TimeUnit.MILLISECONDS.toNanos(1);
+
+  private static final int MAX_CALL_SITES = 16;
+  private static final int MAX_MONITORS   = 32;
+
+  static final String OTHER = "<other>";
+
+  private static final String MONITOR_PREFIX = "Monitor: ";
+
+  private final Map<String, LockStats> locks;
+  private final Map<String, Tracker>   trackers;
+  private final AtomicInteger          monitorCount;
+  private final Set<EnabledListener>   enabledListeners;
+
+  private volatile boolean enabled;
+  private volatile boolean traceCounters;
+
+  public static @NonNull LockProfiler getInstance() {
+    return INSTANCE;
+  }
+
+  LockProfiler() {
+    this.locks            = new ConcurrentHashMap<>();
+    this.trackers         = new ConcurrentHashMap<>();
+    this.monitorCount     = new AtomicInteger(0);
+    this.enabledListeners = new CopyOnWriteArraySet<>();
+  }
+
+  public void setEnabled(boolean enabled) {
+    if (this.enabled == enabled) {
+      return;
+    }
+
+    this.enabled = enabled;
+
+    for (EnabledListener listener : enabledListeners) {
+      listener.onEnabledChanged(enabled);
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Notified whenever the profiler is enabled or disabled, for anything that does extra work only
+   * while profiling, like {@link DeadlockDetector}'s sampling.
+   */
+  public void addEnabledListener(@NonNull EnabledListener listener) {
+    enabledListeners.add(listener);
+  }
+
+  public void removeEnabledListener(@NonNull EnabledListener listener) {
+    enabledListeners.remove(listener);
+  }
+
+  /**
+   * Whether to also report the number of threads waiting on each lock as a {@link Tracer} counter.
+   */
+  public void setTraceCounters(boolean traceCounters) {
+    this.traceCounters = traceCounters;
+  }
+
+  /**
+   * Wraps a lock that only one thread can hold at a time. Locks wrapped with the same name are
+   * reported together.
+   *
+   * @param owner The class that uses the lock. Call sites are reported as whoever called into it.
+   */
+  public @NonNull Lock wrap(@NonNull String name, @NonNull Lock lock, @NonNull Class<?> owner) {
+    return new ProfiledLock(new Tracker(this, getOrCreateStats(name), true, owner), lock);
+  }
+
+  /**
+   * Wraps a lock that many threads can hold at once, like the read side of a read-write lock. We
+   * only measure how long callers wait for those, since there's no single holder to time.
+   */
+  public @NonNull Lock wrapShared(@NonNull String name, @NonNull Lock lock, @NonNull Class<?> owner) {
+    return new ProfiledLock(new Tracker(this, getOrCreateStats(name), false, owner), lock);
+  }
+
+  /**
+   * @return The tracker for a lock we can't wrap. There is a single tracker per name, so use a
+   *         name per lock.
+   */
+  public @NonNull Tracker getTracker(@NonNull String name, @NonNull Class<?> owner) {
+    Tracker tracker = trackers.get(name);
+
+    if (tracker == null) {
+      Tracker created  = new Tracker(this, getOrCreateStats(name), true, owner);
+      Tracker existing = trackers.putIfAbsent(name, created);
+
+      tracker = existing != null ? existing : created;
+    }
+
+    return tracker;
+  }
+
+  /**
+   * Records that a thread was seen blocked trying to enter a monitor.
+   *
+   * @param stack    The blocked thread's stack. The top frame is the method holding the monitor.
+   * @param interval How long it's been since the last sample, which is our estimate of how long the
+   *                 thread has been waiting.
+   */
+  void onBlockedSample(@NonNull StackTraceElement[] stack, long interval) {
+    if (!enabled || stack.length == 0) {
+      return;
+    }
+
+    String    name  = MONITOR_PREFIX + simpleClassName(stack[0].getClassName());
+    LockStats stats = locks.get(name);
+
+    if (stats == null) {
+      if (monitorCount.incrementAndGet() > MAX_MONITORS) {
+        name = MONITOR_PREFIX + OTHER;
+      }
+      stats = getOrCreateStats(name);
+      stats.sampled = true;
+    }
+
+    String callSite = stack.length > 1 ? formatFrame(stack[0]) + " from " + formatFrame(stack[1])
+                                       : formatFrame(stack[0]);
+
+    stats.contended.incrementAndGet();
+    stats.totalWait.addAndGet(interval);
+    stats.onCallSite(callSite, interval);
+  }
+
+  /**
+   * @return Every lock we've seen, with the ones we've spent the most time waiting on first.
+   */
+  public @NonNull List<LockSummary> getSummaries() {
+    List<LockSummary> summaries = new ArrayList<>(locks.size());
+
+    for (Map.Entry<String, LockStats> entry : locks.entrySet()) {
+      summaries.add(entry.getValue().summarize(entry.getKey()));
+    }
+
+    Collections.sort(summaries, (lhs, rhs) -> Long.compare(rhs.getTotalWait(), lhs.getTotalWait()));
+
+    return summaries;
+  }
+
+  private @NonNull LockStats getOrCreateStats(@NonNull String name) {
+    LockStats stats = locks.get(name);
+
+    if (stats == null) {
+      LockStats created  = new LockStats(name);
+      LockStats existing = locks.putIfAbsent(name, created);
+
+      stats = existing != null ? existing : created;
+    }
+
+    return stats;
+  }
+
+  /**
+   * @return The first frame that isn't part of the profiler, a lock implementation, or the class
+   *         that owns the lock.
+   */
+  private static @NonNull String findCallSite(@NonNull String ownerPrefix) {
+    for (StackTraceElement element : new Throwable().getStackTrace()) {
+      String className = element.getClassName();
+
+      if (!className.startsWith(LockProfiler.class.getName())  &&
+          !className.startsWith(ProfiledLock.class.getName())  &&
+          !className.startsWith("java.util.concurrent.")       &&
+          !className.startsWith(ownerPrefix))
+      {
+        return formatFrame(element);
+      }
+    }
+
+    return OTHER;
+  }
+
+  private static @NonNull String formatFrame(@NonNull StackTraceElement element) {
+    return simpleClassName(element.getClassName()) + "." + element.getMethodName() + ":" + element.getLineNumber();
+  }
+
+  private static @NonNull String simpleClassName(@NonNull String className) {
+    return className.substring(className.lastIndexOf('.') + 1);
+  }
+
+  private static void updateMax(@NonNull AtomicLong max, long value) {
+    long current;
+
+    do {
+      current = max.get();
+    } while (value > current && !max.compareAndSet(current, value));
+  }
+
+  public interface EnabledListener {
+    void onEnabledChanged(boolean enabled);
+  }
+
+  /**
+   * Reports the acquires and releases of a single lock. Acquires and releases for exclusive locks
+   * must come from the thread holding the lock, and re-entrant acquires only count once.
+   */
+  public static final class Tracker {
+
+    private final LockProfiler profiler;
+    private final LockStats    stats;
+    private final boolean      exclusive;
+    private final String       ownerPrefix;
+
+    // Only touched by the thread holding the lock
+    private Thread holder;
+    private int    holdCount;
+    private long   heldSince;
+
+    private Tracker(@NonNull LockProfiler profiler, @NonNull LockStats stats, boolean exclusive, @NonNull Class<?> owner) {
+      this.profiler    = profiler;
+      this.stats       = stats;
+      this.exclusive   = exclusive;
+      this.ownerPrefix = owner.getName();
+    }
+
+    /**
+     * @return A start time to pass to {@link #onAcquired(long)}, or 0 if we're not enabled.
+     */
+    public long start() {
+      return profiler.enabled ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Call right after acquiring the lock. Since we don't know whether the caller had to wait,
+     * anything over {@link #CONTENDED_THRESHOLD} counts as contended.
+     */
+    public void onAcquired(long startTime) {
+      if (startTime == 0) {
+        return;
+      }
+
+      long wait = System.nanoTime() - startTime;
+      onAcquired(wait, wait > CONTENDED_THRESHOLD);
+    }
+
+    /**
+     * Call right before releasing the lock.
+     */
+    public void onReleased() {
+      if (!exclusive || holder != Thread.currentThread() || --holdCount > 0) {
+        return;
+      }
+
+      long held = System.nanoTime() - heldSince;
+
+      holder = null;
+      stats.totalHold.addAndGet(held);
+      updateMax(stats.maxHold, held);
+    }
+
+    boolean isEnabled() {
+      return profiler.enabled;
+    }
+
+    /**
+     * Call when a thread is about to block on the lock.
+     */
+    void onWaiting() {
+      int waiters = stats.waiters.incrementAndGet();
+
+      if (profiler.traceCounters) {
+        Tracer.getInstance().counter(stats.counterName, waiters);
+      }
+    }
+
+    void onAcquired(long wait, boolean contended) {
+      if (exclusive) {
+        Thread current = Thread.currentThread();
+
+        if (holder == current) {
+          holdCount++;
+          return;
+        }
+
+        holder    = current;
+        holdCount = 1;
+        heldSince = System.nanoTime();
+      }
+
+      stats.acquisitions.incrementAndGet();
+
+      if (contended) {
+        stats.contended.incrementAndGet();
+        stats.totalWait.addAndGet(wait);
+        updateMax(stats.maxWait, wait);
+        stats.onCallSite(findCallSite(ownerPrefix), wait);
+      }
+    }
+
+    /**
+     * Call once a thread that called {@link #onWaiting()} stops waiting, whether or not it got the
+     * lock.
+     */
+    void onDoneWaiting() {
+      int waiters = stats.waiters.decrementAndGet();
+
+      if (profiler.traceCounters) {
+        Tracer.getInstance().counter(stats.counterName, waiters);
+      }
+    }
+  }
+
+  private static final class LockStats {
+    private final String        counterName;
+    private final AtomicLong    acquisitions = new AtomicLong(0);
+    private final AtomicLong    contended    = new AtomicLong(0);
+    private final AtomicLong    totalWait    = new AtomicLong(0);
+    private final AtomicLong    maxWait      = new AtomicLong(0);
+    private final AtomicLong    totalHold    = new AtomicLong(0);
+    private final AtomicLong    maxHold      = new AtomicLong(0);
+    private final AtomicInteger waiters      = new AtomicInteger(0);
+
+    private final Map<String, CallSiteStats> callSites = new ConcurrentHashMap<>();
+
+    private volatile boolean sampled;
+
+    LockStats(@NonNull String name) {
+      this.counterName = "Waiting for " + name;
+    }
+
+    void onCallSite(@NonNull String callSite, long wait) {
+      CallSiteStats stats = callSites.get(callSite);
+
+      if (stats == null) {
+        if (callSites.size() >= MAX_CALL_SITES) {
+          callSite = OTHER;
+        }
+
+        CallSiteStats created  = new CallSiteStats();
+        CallSiteStats existing = callSites.putIfAbsent(callSite, created);
+
+        stats = existing != null ? existing : created;
+      }
+
+      stats.count.incrementAndGet();
+      stats.totalWait.addAndGet(wait);
+    }
+
+    @NonNull LockSummary summarize(@NonNull String name) {
+      List<CallSiteSummary> sites = new ArrayList<>(callSites.size());
+
+      for (Map.Entry<String, CallSiteStats> entry : callSites.entrySet()) {
+        sites.add(new CallSiteSummary(entry.getKey(), entry.getValue().count.get(), entry.getValue().totalWait.get()));
+      }
+
+      Collections.sort(sites, (lhs, rhs) -> Long.compare(rhs.getTotalWait(), lhs.getTotalWait()));
+
+      return new LockSummary(name,
+                             sampled,
+                             acquisitions.get(),
+                             contended.get(),
+                             totalWait.get(),
+                             maxWait.get(),
+                             totalHold.get(),
+                             maxHold.get(),
+                             sites);
+    }
+  }
+
+  private static final class CallSiteStats {
+    private final AtomicLong count     = new AtomicLong(0);
+    private final AtomicLong totalWait = new AtomicLong(0);
+  }
+
+  /**
+   * A point-in-time copy of what we know about a single lock. Times are in nanoseconds.
+   */
+  public static final class LockSummary {
+    private final String                name;
+    private final boolean               sampled;
+    private final long                  acquisitions;
+    private final long                  contended;
+    private final long                  totalWait;
+    private final long                  maxWait;
+    private final long                  totalHold;
+    private final long                  maxHold;
+    private final List<CallSiteSummary> callSites;
+
+    private LockSummary(@NonNull String name,
+                        boolean sampled,
+                        long acquisitions,
+                        long contended,
+                        long totalWait,
+                        long maxWait,
+                        long totalHold,
+                        long maxHold,
+                        @NonNull List<CallSiteSummary> callSites)
+    {
+      this.name         = name;
+      this.sampled      = sampled;
+      this.acquisitions = acquisitions;
+      this.contended    = contended;
+      this.totalWait    = totalWait;
+      this.maxWait      = maxWait;
+      this.totalHold    = totalHold;
+      this.maxHold      = maxHold;
+      this.callSites    = callSites;
+    }
+
+    public @NonNull String getName() {
+      return name;
+    }
+
+    /**
+     * @return True if this is a monitor we only know about from sampling. For those, the
+     *         contended count is the number of samples that saw a blocked thread, the wait time is
+     *         an estimate, and there are no acquisition or hold numbers.
+     */
+    public boolean isSampled() {
+      return sampled;
+    }
+
+    public long getAcquisitions() {
+      return acquisitions;
+    }
+
+    public long getContended() {
+      return contended;
+    }
+
+    public long getTotalWait() {
+      return totalWait;
+    }
+
+    public long getMaxWait() {
+      return maxWait;
+    }
+
+    public long getTotalHold() {
+      return totalHold;
+    }
+
+    public long getMaxHold() {
+      return maxHold;
+    }
+
+    /**
+     * @return The call sites that had to wait, with the ones that waited the longest first.
+     */
+    public @NonNull List<CallSiteSummary> getCallSites() {
+      return callSites;
+    }
+  }
+
+  public static final class CallSiteSummary {
+    private final String callSite;
+    private final long   count;
+    private final long   totalWait;
+
+    private CallSiteSummary(@NonNull String callSite, long count, long totalWait) {
+      this.callSite  = callSite;
+      this.count     = count;
+      this.totalWait = totalWait;
+    }
+
+    public @NonNull String getCallSite() {
+      return callSite;
+    }
+
+    public long getCount() {
+      return count;
+    }
+
+    public long getTotalWait() {
+      return totalWait;
+    }
+  }
+}
@@ -0,0 +1,138 @@
+package su.sres.core.util.concurrent;
+
+import androidx.annotation.NonNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * A {@link Lock} that reports to {@link LockProfiler} while it's enabled. We try to take the lock
+ * first, so only callers that actually have to wait pay for timing and finding their call site.
+ * That first try has a zero timeout rather than being a plain {@link Lock#tryLock()}, which ignores
+ * fairness and would let a read lock barge ahead of a writer that's already waiting.
+ *
+ * Time spent waiting on a {@link Condition} from {@link #newCondition()} still counts as holding
+ * the lock.
+ */
+final class ProfiledLock implements Lock {
+
+  private final LockProfiler.Tracker tracker;
+  private final Lock                 delegate;
+
+  ProfiledLock(@NonNull LockProfiler.Tracker tracker, @NonNull Lock delegate) {
+    this.tracker  = tracker;
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void lock() {
+    if (!tracker.isEnabled()) {
+      delegate.lock();
+      return;
+    }
+
+    if (tryLockWithoutBarging()) {
+      tracker.onAcquired(0, false);
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    tracker.onWaiting();
+    try {
+      delegate.lock();
+    } finally {
+      tracker.onDoneWaiting();
+    }
+
+    tracker.onAcquired(System.nanoTime() - start, true);
+  }
+
+  @Override
+  public void lockInterruptibly() throws InterruptedException {
+    if (!tracker.isEnabled()) {
+      delegate.lockInterruptibly();
+      return;
+    }
+
+    if (delegate.tryLock(0, TimeUnit.NANOSECONDS)) {
+      tracker.onAcquired(0, false);
+      return;
+    }
+
+    long start = System.nanoTime();
+
+    tracker.onWaiting();
+    try {
+      delegate.lockInterruptibly();
+    } finally {
+      tracker.onDoneWaiting();
+    }
+
+    tracker.onAcquired(System.nanoTime() - start, true);
+  }
+
+  @Override
+  public boolean tryLock() {
+    boolean acquired = delegate.tryLock();
+
+    if (acquired && tracker.isEnabled()) {
+      tracker.onAcquired(0, false);
+    }
+
+    return acquired;
+  }
+
+  @Override
+  public boolean tryLock(long time, @NonNull TimeUnit unit) throws InterruptedException {
+    if (!tracker.isEnabled()) {
+      return delegate.tryLock(time, unit);
+    }
+
+    if (delegate.tryLock(0, TimeUnit.NANOSECONDS)) {
+      tracker.onAcquired(0, false);
+      return true;
+    }
+
+    long    start = System.nanoTime();
+    boolean acquired;
+
+    tracker.onWaiting();
+    try {
+      acquired = delegate.tryLock(time, unit);
+    } finally {
+      tracker.onDoneWaiting();
+    }
+
+    if (acquired) {
+      tracker.onAcquired(System.nanoTime() - start, true);
+    }
+
+    return acquired;
+  }
+
+  @Override
+  public void unlock() {
+    tracker.onReleased();
+    delegate.unlock();
+  }
+
+  @Override
+  public @NonNull Condition newCondition() {
+    return delegate.newCondition();
+  }
+
+  /**
+   * The fast path of {@link #lock()}, which can't be interrupted. If the thread is already
+   * interrupted we keep the flag and take the slow path, which ignores it.
+   */
+  private boolean tryLockWithoutBarging() {
+    try {
+      return delegate.tryLock(0, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+}
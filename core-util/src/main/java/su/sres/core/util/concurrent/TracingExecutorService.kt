@@ -7,20 +7,25 @@ import java.util.concurrent.ThreadPoolExecutor
 
 /**
  * An executor that will keep track of the stack trace at the time of calling [execute] and use that to build a more useful stack trace in the event of a crash.
+ * How much of the stack is kept is decided by [CallerStackCapture].
  */
 internal class TracingExecutorService(val wrapped: ExecutorService) : ExecutorService by wrapped {
 
   override fun execute(command: Runnable?) {
-    val callerStackTrace = Throwable()
+    val callerStackTrace: Throwable? = CallerStackCapture.capture(command)
 
     wrapped.execute {
       val currentThread: Thread = Thread.currentThread()
       val currentHandler: Thread.UncaughtExceptionHandler? = currentThread.uncaughtExceptionHandler
       val originalHandler: Thread.UncaughtExceptionHandler? = if (currentHandler is TracingUncaughtExceptionHandler) currentHandler.originalHandler else currentHandler
 
-      currentThread.uncaughtExceptionHandler = TracingUncaughtExceptionHandler(originalHandler, callerStackTrace)
+      if (callerStackTrace != null) {
+        currentThread.uncaughtExceptionHandler = TracingUncaughtExceptionHandler(originalHandler, callerStackTrace)
+        TracedThreads.callerStackTraces.put(currentThread.id, callerStackTrace)
+      } else {
+        currentThread.uncaughtExceptionHandler = originalHandler
+      }
 
-      TracedThreads.callerStackTraces.put(currentThread.id, callerStackTrace)
       try {
         command?.run()
       } finally {
@@ -0,0 +1,427 @@
+package su.sres.core.util.tracing;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.google.protobuf.CodedOutputStream;
+
+import su.sres.core.util.StreamUtil;
+import su.sres.core.util.logging.Log;
+import su.sres.core.util.tracing.TraceProtos.TracePacket;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Backs the recording mode of {@link Tracer}, where we keep everything rather than just the most
+ * recent events.
+ *
+ * Every thread that traces gets its own preallocated buffer of events, which only holds primitives
+ * and references to the strings the caller passed in. Adding an event doesn't allocate or take a
+ * lock. A background thread periodically drains those buffers, turns the events into
+ * {@link TracePacket}s, and streams them to disk. Once a file gets too big we start a new one, and
+ * only keep the last few around.
+ *
+ * Each file is a valid Perfetto trace on its own, and so is the concatenation of all of them, which
+ * is what {@link #serialize()} gives you.
+ *
+ * If a thread manages to fill its buffer before we drain it, we drop its new events rather than
+ * block it, and log how many we lost.
+ */
+final class TraceRecorder {
+
+  private static final String TAG = Log.tag(TraceRecorder.class);
+
+  private static final String FILE_PREFIX = "trace-";
+  private static final String FILE_SUFFIX = ".perfetto-trace";
+
+  /** The field number of {@code packet} in the Trace proto. */
+  private static final int TRACE_PACKET_FIELD = 1;
+
+  static final byte TYPE_BEGIN   = 1;
+  static final byte TYPE_END     = 2;
+  static final byte TYPE_COUNTER = 3;
+
+  private static final int  BUFFER_SIZE    = 4096;
+  private static final long FLUSH_INTERVAL = TimeUnit.MILLISECONDS.toNanos(500);
+
+  private final Tracer.Clock clock;
+  private final File         directory;
+  private final long         maxFileSize;
+  private final int          maxFiles;
+
+  private final List<EventBuffer>        buffers;
+  private final ThreadLocal<EventBuffer> threadBuffer;
+  private final Thread                   flushThread;
+
+  private volatile boolean stopped;
+  private volatile boolean wakeRequested;
+
+  // Everything below is only touched while holding the lock on this object.
+  private final Map<Long, TracePacket> tracks;
+  private final ArrayDeque<File>       files;
+
+  private CodedOutputStream output;
+  private OutputStream      fileOutput;
+  private int               fileIndex;
+  private long              lastSyncTime;
+
+  TraceRecorder(@NonNull Tracer.Clock clock, @NonNull File directory, long maxFileSize, int maxFiles) {
+    this.clock        = clock;
+    this.directory    = directory;
+    this.maxFileSize  = maxFileSize;
+    this.maxFiles     = maxFiles;
+    this.buffers      = new CopyOnWriteArrayList<>();
+    this.tracks       = new LinkedHashMap<>();
+    this.files        = new ArrayDeque<>();
+    this.lastSyncTime = Long.MIN_VALUE;
+    this.threadBuffer = new ThreadLocal<EventBuffer>() {
+      @Override
+      protected EventBuffer initialValue() {
+        EventBuffer buffer = new EventBuffer(Thread.currentThread(), BUFFER_SIZE);
+        buffers.add(buffer);
+        return buffer;
+      }
+    };
+
+    this.flushThread = new Thread(this::flushLoop, "tracer-flush");
+    this.flushThread.setDaemon(true);
+    this.flushThread.setPriority(Thread.MIN_PRIORITY);
+  }
+
+  void start() {
+    flushThread.start();
+  }
+
+  /**
+   * Flushes whatever is left and closes the current file. Events added after this are ignored.
+   */
+  synchronized void stop() {
+    stopped = true;
+    LockSupport.unpark(flushThread);
+
+    flush();
+    closeOutput();
+  }
+
+  void add(byte type, @NonNull String name, long trackId, @Nullable String key, @Nullable String value, @Nullable Map<String, String> values) {
+    add(type, name, trackId, key, value, values, 0);
+  }
+
+  /**
+   * @param name The name of the counter track, which is also used to describe it if it's new.
+   */
+  void addCounter(@NonNull String name, long trackId, long counterValue) {
+    add(TYPE_COUNTER, name, trackId, null, null, null, counterValue);
+  }
+
+  private void add(byte type, @NonNull String name, long trackId, @Nullable String key, @Nullable String value, @Nullable Map<String, String> values, long counterValue) {
+    long        time   = clock.getTimeNanos();
+    EventBuffer buffer = threadBuffer.get();
+
+    if (buffer.add(type, name, time, trackId, key, value, values, counterValue) && !wakeRequested) {
+      wakeRequested = true;
+      LockSupport.unpark(flushThread);
+    }
+  }
+
+  /**
+   * @return Everything we have on disk as a single Perfetto trace, oldest events first.
+   */
+  synchronized @NonNull byte[] serialize() {
+    flush();
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    for (File file : files) {
+      try (InputStream in = new FileInputStream(file)) {
+        StreamUtil.copy(in, out);
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to read " + file.getName(), e);
+      }
+    }
+
+    try {
+      CodedOutputStream trailer = CodedOutputStream.newInstance(out);
+      trailer.writeMessage(TRACE_PACKET_FIELD, Tracer.forSynchronization(clock.getTimeNanos()));
+      trailer.flush();
+    } catch (IOException e) {
+      throw new AssertionError(e);
+    }
+
+    return out.toByteArray();
+  }
+
+  private void flushLoop() {
+    while (!stopped) {
+      LockSupport.parkNanos(this, FLUSH_INTERVAL);
+      wakeRequested = false;
+
+      synchronized (this) {
+        if (!stopped) {
+          flush();
+        }
+      }
+    }
+  }
+
+  /**
+   * Drains every thread's buffer to the current file, starting a new file afterwards if this one
+   * has gotten too big. If we fail to write, the events are lost and we try again with a fresh
+   * file next time.
+   */
+  private synchronized void flush() {
+    if (output == null && !hasPendingEvents()) {
+      return;
+    }
+
+    try {
+      if (output == null) {
+        openOutput();
+      }
+
+      long now = clock.getTimeNanos();
+      if (now - lastSyncTime > Tracer.SYNCHRONIZATION_INTERVAL) {
+        writePacket(Tracer.forSynchronization(now));
+        lastSyncTime = now;
+      }
+
+      for (EventBuffer buffer : buffers) {
+        buffer.drain(this);
+
+        if (buffer.isFinished()) {
+          buffers.remove(buffer);
+        }
+      }
+
+      output.flush();
+
+      if (output.getTotalBytesWritten() >= maxFileSize) {
+        closeOutput();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to write trace file.", e);
+      closeOutput();
+    }
+  }
+
+  private boolean hasPendingEvents() {
+    for (EventBuffer buffer : buffers) {
+      if (buffer.hasPending()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void openOutput() throws IOException {
+    if (fileIndex == 0) {
+      clearDirectory();
+    }
+
+    File file = new File(directory, FILE_PREFIX + fileIndex + FILE_SUFFIX);
+    fileIndex++;
+
+    fileOutput = new FileOutputStream(file);
+    output     = CodedOutputStream.newInstance(fileOutput);
+    files.addLast(file);
+
+    while (files.size() > maxFiles) {
+      File oldest = files.removeFirst();
+      if (!oldest.delete()) {
+        Log.w(TAG, "Failed to delete " + oldest.getName());
+      }
+    }
+
+    // Every file starts with the tracks we know about so it can be read without the ones before it
+    lastSyncTime = clock.getTimeNanos();
+    writePacket(Tracer.forSynchronization(lastSyncTime));
+    for (TracePacket track : tracks.values()) {
+      writePacket(track);
+    }
+  }
+
+  private void closeOutput() {
+    if (output != null) {
+      try {
+        output.flush();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to flush trace file.", e);
+      }
+    }
+
+    StreamUtil.close(fileOutput);
+    output     = null;
+    fileOutput = null;
+  }
+
+  private void clearDirectory() throws IOException {
+    if (!directory.exists() && !directory.mkdirs()) {
+      throw new IOException("Failed to create " + directory);
+    }
+
+    File[] existing = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(FILE_SUFFIX));
+    if (existing != null) {
+      for (File file : existing) {
+        if (!file.delete()) {
+          Log.w(TAG, "Failed to delete " + file.getName());
+        }
+      }
+    }
+  }
+
+  private void writeEvent(@NonNull EventBuffer buffer, byte type, @NonNull String name, long time, long trackId, @Nullable String key, @Nullable String value, @Nullable Map<String, String> values, long counterValue)
+      throws IOException
+  {
+    if (!tracks.containsKey(trackId)) {
+      TracePacket track = type == TYPE_COUNTER ? Tracer.forCounterTrack(trackId, name)
+                                               : Tracer.forTrack(trackId, Tracer.trackName(trackId, buffer.threadName));
+      tracks.put(trackId, track);
+      writePacket(track);
+    }
+
+    if (type == TYPE_COUNTER) {
+      writePacket(Tracer.forCounter(time, trackId, counterValue));
+    } else if (type == TYPE_BEGIN) {
+      if (values == null && key != null) {
+        values = Collections.singletonMap(key, value);
+      }
+      writePacket(Tracer.forMethodStart(name, time, trackId, values));
+    } else {
+      writePacket(Tracer.forMethodEnd(name, time, trackId));
+    }
+  }
+
+  private void writePacket(@NonNull TracePacket packet) throws IOException {
+    output.writeMessage(TRACE_PACKET_FIELD, packet);
+  }
+
+  /**
+   * A fixed-size queue of events for a single thread. Only that thread adds to it, and only the
+   * flusher, while holding the recorder's lock, drains it.
+   */
+  private static final class EventBuffer {
+
+    private final WeakReference<Thread> thread;
+    private final String                threadName;
+    private final int                   size;
+    private final int                   mask;
+
+    private final byte[]   types;
+    private final long[]   times;
+    private final long[]   trackIds;
+    private final String[] names;
+    private final String[] keys;
+    private final String[] values;
+    private final Object[] annotations;
+    private final long[]   counterValues;
+
+    /** Every event before this position has been written. Only set by the owning thread. */
+    private final AtomicLong published = new AtomicLong(0);
+
+    /** Every event before this position has been drained. Only set by the flusher. */
+    private volatile long drained;
+
+    /** Only written by the owning thread, read by the flusher. */
+    private volatile long dropped;
+    private          long reportedDropped;
+
+    private long position;
+
+    EventBuffer(@NonNull Thread thread, int capacity) {
+      this.thread        = new WeakReference<>(thread);
+      this.threadName    = thread.getName();
+      this.size          = Integer.highestOneBit(capacity - 1) << 1;
+      this.mask          = size - 1;
+      this.types         = new byte[size];
+      this.times         = new long[size];
+      this.trackIds      = new long[size];
+      this.names         = new String[size];
+      this.keys          = new String[size];
+      this.values        = new String[size];
+      this.annotations   = new Object[size];
+      this.counterValues = new long[size];
+    }
+
+    /**
+     * @return True if the buffer is at least half full, meaning the flusher should come drain it.
+     */
+    boolean add(byte type, @NonNull String name, long time, long trackId, @Nullable String key, @Nullable String value, @Nullable Map<String, String> values, long counterValue) {
+      long pending = position - drained;
+
+      if (pending >= size) {
+        dropped++;
+        return true;
+      }
+
+      int i = (int) (position & mask);
+      types[i]         = type;
+      times[i]         = time;
+      trackIds[i]      = trackId;
+      names[i]         = name;
+      keys[i]          = key;
+      this.values[i]   = value;
+      annotations[i]   = values;
+      counterValues[i] = counterValue;
+
+      position++;
+      published.lazySet(position);
+
+      return pending + 1 >= size / 2;
+    }
+
+    @SuppressWarnings("unchecked")
+    void drain(@NonNull TraceRecorder recorder) throws IOException {
+      long end = published.get();
+      long next = drained;
+
+      try {
+        for (; next < end; next++) {
+          int i = (int) (next & mask);
+
+          recorder.writeEvent(this, types[i], names[i], times[i], trackIds[i], keys[i], values[i], (Map<String, String>) annotations[i], counterValues[i]);
+
+          names[i]       = null;
+          keys[i]        = null;
+          values[i]      = null;
+          annotations[i] = null;
+        }
+      } finally {
+        drained = next;
+      }
+
+      long droppedNow = dropped;
+      if (droppedNow != reportedDropped) {
+        Log.w(TAG, "Dropped " + (droppedNow - reportedDropped) + " trace events on " + threadName + " because the buffer was full.");
+        reportedDropped = droppedNow;
+      }
+    }
+
+    boolean hasPending() {
+      return drained != published.get();
+    }
+
+    /**
+     * @return True if the thread is gone and we've drained everything it added.
+     */
+    boolean isFinished() {
+      Thread owner = thread.get();
+      return (owner == null || !owner.isAlive()) && !hasPending();
+    }
+  }
+}
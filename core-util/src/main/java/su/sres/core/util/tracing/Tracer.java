@@ -3,14 +3,17 @@ package su.sres.core.util.tracing;
 import android.os.SystemClock;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import com.google.protobuf.ByteString;
 
+import su.sres.core.util.tracing.TraceProtos.CounterDescriptor;
 import su.sres.core.util.tracing.TraceProtos.Trace;
 import su.sres.core.util.tracing.TraceProtos.TracePacket;
 import su.sres.core.util.tracing.TraceProtos.TrackDescriptor;
 import su.sres.core.util.tracing.TraceProtos.TrackEvent;
 
+import java.io.File;
 import java.nio.ByteBuffer;
 import java.util.Collections;
 import java.util.Map;
@@ -32,6 +35,7 @@ import java.util.concurrent.atomic.AtomicInteger;
  *   - Threads
  *   - Start of a method
  *   - End of a method
+ *   - The value of a counter
  *   - (And a bunch of other stuff that's not relevant to use at this point)
  *
  * We keep a circular buffer of TracePackets for method calls, and we keep a separate list of
@@ -39,6 +43,10 @@ import java.util.concurrent.atomic.AtomicInteger;
  *
  * Serializing is just a matter of throwing all the TracePackets we have into a proto.
  *
+ * That only covers the last few seconds, though. To capture something longer, like a cold start or
+ * a big message drain, use {@link #startRecording(File)}, which streams every event to disk instead
+ * (see {@link TraceRecorder}).
+ *
  * Note: This class aims to be largely-thread-safe, but prioritizes speed and memory efficiency
  * above all else. These methods are going to be called very quickly from every thread imaginable,
  * and we want to create as little overhead as possible. The idea being that it's ok if we don't,
@@ -56,9 +64,16 @@ public final class Tracer {
 
     private static final Tracer INSTANCE = new Tracer();
 
-    private static final int    TRUSTED_SEQUENCE_ID      = 1;
-    private static final byte[] SYNCHRONIZATION_MARKER   = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
-    private static final long   SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
+    private static final int    TRUSTED_SEQUENCE_ID    = 1;
+    private static final byte[] SYNCHRONIZATION_MARKER = toByteArray(UUID.fromString("82477a76-b28d-42ba-81dc-33326d57a079"));
+
+    static final long SYNCHRONIZATION_INTERVAL = TimeUnit.SECONDS.toNanos(3);
+
+    /** Counter tracks are keyed by name. This keeps their IDs well away from thread IDs. */
+    private static final long COUNTER_TRACK_ID_BASE = 0x7C00_0000_0000_0000L;
+
+    private static final long RECORDING_MAX_FILE_SIZE = 4 * 1024 * 1024;
+    private static final int  RECORDING_MAX_FILES     = 4;
 
     private final Clock                  clock;
     private final Map<Long, TracePacket> threadPackets;
@@ -68,8 +83,15 @@ public final class Tracer {
     private long lastSyncTime;
     private long maxBufferSize;
 
+    private volatile TraceRecorder recorder;
+
     private Tracer() {
-        this.clock         = SystemClock::elapsedRealtimeNanos;
+        this(SystemClock::elapsedRealtimeNanos);
+    }
+
+    @VisibleForTesting
+    Tracer(@NonNull Clock clock) {
+        this.clock         = clock;
         this.threadPackets = new ConcurrentHashMap<>();
         this.eventPackets  = new ConcurrentLinkedQueue<>();
         this.eventCount    = new AtomicInteger(0);
@@ -84,6 +106,41 @@ public final class Tracer {
         this.maxBufferSize = maxBufferSize;
     }
 
+    /**
+     * Starts streaming every event to a set of rotating files in the provided directory, replacing
+     * whatever was in there before. While recording, {@link #serialize()} returns the contents of
+     * those files rather than the in-memory buffer.
+     */
+    public synchronized void startRecording(@NonNull File directory) {
+        startRecording(directory, RECORDING_MAX_FILE_SIZE, RECORDING_MAX_FILES);
+    }
+
+    @VisibleForTesting
+    synchronized void startRecording(@NonNull File directory, long maxFileSize, int maxFiles) {
+        if (recorder != null) {
+            recorder.stop();
+        }
+
+        TraceRecorder recorder = new TraceRecorder(clock, directory, maxFileSize, maxFiles);
+        recorder.start();
+
+        this.recorder = recorder;
+    }
+
+    /**
+     * Stops recording and goes back to keeping events in memory. The recorded files are left on disk.
+     */
+    public synchronized void stopRecording() {
+        if (recorder != null) {
+            recorder.stop();
+            recorder = null;
+        }
+    }
+
+    public boolean isRecording() {
+        return recorder != null;
+    }
+
     public void start(@NonNull String methodName) {
         start(methodName, Thread.currentThread().getId(), null);
     }
@@ -97,7 +154,13 @@ public final class Tracer {
     }
 
     public void start(@NonNull String methodName, long trackId, @NonNull String key, @Nullable String value) {
-        start(methodName, trackId, Collections.singletonMap(key, value));
+        TraceRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.add(TraceRecorder.TYPE_BEGIN, methodName, trackId, key, value, null);
+        } else {
+            start(methodName, trackId, Collections.singletonMap(key, value));
+        }
     }
 
     public void start(@NonNull String methodName, @Nullable Map<String, String> values) {
@@ -105,6 +168,13 @@ public final class Tracer {
     }
 
     public void start(@NonNull String methodName, long trackId, @Nullable Map<String, String> values) {
+        TraceRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.add(TraceRecorder.TYPE_BEGIN, methodName, trackId, null, null, values);
+            return;
+        }
+
         long time = clock.getTimeNanos();
 
         if (time - lastSyncTime > SYNCHRONIZATION_INTERVAL) {
@@ -120,14 +190,46 @@ public final class Tracer {
     }
 
     public void end(@NonNull String methodName) {
-        addPacket(forMethodEnd(methodName, clock.getTimeNanos(), Thread.currentThread().getId()));
+        end(methodName, Thread.currentThread().getId());
     }
 
     public void end(@NonNull String methodName, long trackId) {
-        addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
+        TraceRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.add(TraceRecorder.TYPE_END, methodName, trackId, null, null, null);
+        } else {
+            addPacket(forMethodEnd(methodName, clock.getTimeNanos(), trackId));
+        }
+    }
+
+    /**
+     * Sets the value of the counter track with the given name, creating it if needed. Perfetto
+     * shows it as a graph, so it's a good fit for things like queue lengths or waiting threads.
+     */
+    public void counter(@NonNull String trackName, long value) {
+        long          trackId  = counterTrackId(trackName);
+        TraceRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            recorder.addCounter(trackName, trackId, value);
+            return;
+        }
+
+        if (!threadPackets.containsKey(trackId)) {
+            threadPackets.put(trackId, forCounterTrack(trackId, trackName));
+        }
+
+        addPacket(forCounter(clock.getTimeNanos(), trackId, value));
     }
 
     public @NonNull byte[] serialize() {
+        TraceRecorder recorder = this.recorder;
+
+        if (recorder != null) {
+            return recorder.serialize();
+        }
+
         Trace.Builder trace = Trace.newBuilder();
 
         for (TracePacket thread : threadPackets.values()) {
@@ -172,7 +274,11 @@ public final class Tracer {
         }
     }
 
-    private static TracePacket forTrack(long id, String name) {
+    static @NonNull String trackName(long id, @NonNull String threadName) {
+        return id == TrackId.DB_LOCK ? TrackId.DB_LOCK_NAME : threadName;
+    }
+
+    static TracePacket forTrack(long id, String name) {
         return TracePacket.newBuilder()
                 .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
                 .setTrackDescriptor(TrackDescriptor.newBuilder()
@@ -182,7 +288,32 @@ public final class Tracer {
 
     }
 
-    private static TracePacket forMethodStart(@NonNull String name, long time, long threadId, @Nullable Map<String, String> values) {
+    static long counterTrackId(@NonNull String trackName) {
+        return COUNTER_TRACK_ID_BASE | (trackName.hashCode() & 0xFFFF_FFFFL);
+    }
+
+    static TracePacket forCounterTrack(long id, @NonNull String name) {
+        return TracePacket.newBuilder()
+                .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+                .setTrackDescriptor(TrackDescriptor.newBuilder()
+                        .setUuid(id)
+                        .setName(name)
+                        .setCounter(CounterDescriptor.newBuilder()))
+                .build();
+    }
+
+    static TracePacket forCounter(long time, long trackId, long value) {
+        return TracePacket.newBuilder()
+                .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
+                .setTimestamp(time)
+                .setTrackEvent(TrackEvent.newBuilder()
+                        .setTrackUuid(trackId)
+                        .setType(TrackEvent.Type.TYPE_COUNTER)
+                        .setCounterValue(value))
+                .build();
+    }
+
+    static TracePacket forMethodStart(@NonNull String name, long time, long threadId, @Nullable Map<String, String> values) {
         TrackEvent.Builder event = TrackEvent.newBuilder()
                 .setTrackUuid(threadId)
                 .setName(name)
@@ -208,7 +339,7 @@ public final class Tracer {
                 .build();
     }
 
-    private static TracePacket forMethodEnd(@NonNull String name, long time, long threadId) {
+    static TracePacket forMethodEnd(@NonNull String name, long time, long threadId) {
         return TracePacket.newBuilder()
                 .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
                 .setTimestamp(time)
@@ -219,7 +350,7 @@ public final class Tracer {
                 .build();
     }
 
-    private static TracePacket forSynchronization(long time) {
+    static TracePacket forSynchronization(long time) {
         return TracePacket.newBuilder()
                 .setTrustedPacketSequenceId(TRUSTED_SEQUENCE_ID)
                 .setTimestamp(time)
@@ -235,7 +366,7 @@ public final class Tracer {
         return buffer.array();
     }
 
-    private interface Clock {
+    interface Clock {
         long getTimeNanos();
     }
 }
@@ -0,0 +1,99 @@
+package su.sres.core.util.concurrent;
+
+import org.junit.After;
+import org.junit.Test;
+
+import su.sres.core.util.concurrent.CallerStackCapture.Strategy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public final class CallerStackCaptureTest {
+
+  @After
+  public void tearDown() {
+    CallerStackCapture.setStrategy(Strategy.SAMPLED);
+    CallerStackCapture.setSampleRate(CallerStackCapture.DEFAULT_SAMPLE_RATE);
+  }
+
+  @Test
+  public void capture_none() {
+    CallerStackCapture.setStrategy(Strategy.NONE);
+
+    assertNull(CallerStackCapture.capture(new Task()));
+  }
+
+  @Test
+  public void capture_full() {
+    CallerStackCapture.setStrategy(Strategy.FULL);
+
+    Throwable caller = CallerStackCapture.capture(new Task());
+
+    assertTrue(caller.getStackTrace().length > 1);
+    assertTrue(containsFrame(caller, CallerStackCaptureTest.class.getName()));
+  }
+
+  @Test
+  public void capture_callerClass() {
+    CallerStackCapture.setStrategy(Strategy.CALLER_CLASS);
+
+    Throwable caller = CallerStackCapture.capture(new Task());
+
+    assertEquals(1, caller.getStackTrace().length);
+    assertEquals(Task.class.getName(), caller.getStackTrace()[0].getClassName());
+    assertSame(caller, CallerStackCapture.capture(new Task()));
+  }
+
+  @Test
+  public void capture_callerClass_nullCommand() {
+    CallerStackCapture.setStrategy(Strategy.CALLER_CLASS);
+
+    assertNull(CallerStackCapture.capture(null));
+  }
+
+  @Test
+  public void capture_sampled_everyTask() {
+    CallerStackCapture.setStrategy(Strategy.SAMPLED);
+    CallerStackCapture.setSampleRate(1);
+
+    assertTrue(CallerStackCapture.capture(new Task()).getStackTrace().length > 1);
+  }
+
+  @Test
+  public void capture_sampled_restGetTokens() {
+    CallerStackCapture.setStrategy(Strategy.SAMPLED);
+    CallerStackCapture.setSampleRate(10);
+
+    int full = 0;
+
+    for (int i = 0; i < 10_000; i++) {
+      if (CallerStackCapture.capture(new Task()).getStackTrace().length > 1) {
+        full++;
+      }
+    }
+
+    assertTrue(full > 500 && full < 1500);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void setSampleRate_zero() {
+    CallerStackCapture.setSampleRate(0);
+  }
+
+  private static boolean containsFrame(Throwable throwable, String className) {
+    for (StackTraceElement element : throwable.getStackTrace()) {
+      if (element.getClassName().equals(className)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static final class Task implements Runnable {
+    @Override
+    public void run() {
+    }
+  }
+}
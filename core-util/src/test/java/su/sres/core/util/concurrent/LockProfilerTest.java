@@ -0,0 +1,223 @@
+package su.sres.core.util.concurrent;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import su.sres.core.util.concurrent.LockProfiler.LockSummary;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class LockProfilerTest {
+
+  private LockProfiler profiler;
+
+  @Before
+  public void setUp() {
+    profiler = new LockProfiler();
+    profiler.setEnabled(true);
+  }
+
+  @Test
+  public void wrap_disabled_recordsNothing() {
+    profiler.setEnabled(false);
+
+    Lock lock = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+    lock.lock();
+    lock.unlock();
+
+    LockSummary summary = single();
+    assertEquals(0, summary.getAcquisitions());
+    assertEquals(0, summary.getTotalHold());
+  }
+
+  @Test
+  public void setEnabled_notifiesListenersOnlyOnChange() {
+    List<Boolean> changes = new ArrayList<>();
+    profiler.addEnabledListener(changes::add);
+
+    profiler.setEnabled(true);
+    profiler.setEnabled(false);
+    profiler.setEnabled(false);
+    profiler.setEnabled(true);
+
+    assertEquals(Arrays.asList(false, true), changes);
+  }
+
+  @Test
+  public void wrap_uncontended_countsAcquisitionsOnly() throws Exception {
+    Lock lock = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+
+    lock.lock();
+    Thread.sleep(10);
+    lock.unlock();
+
+    LockSummary summary = single();
+    assertEquals(1, summary.getAcquisitions());
+    assertEquals(0, summary.getContended());
+    assertEquals(0, summary.getTotalWait());
+    assertTrue(summary.getTotalHold() >= TimeUnit.MILLISECONDS.toNanos(10));
+    assertTrue(summary.getCallSites().isEmpty());
+  }
+
+  @Test
+  public void wrap_reentrant_countsOnce() {
+    Lock lock = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+
+    lock.lock();
+    lock.lock();
+    lock.unlock();
+    lock.unlock();
+
+    LockSummary summary = single();
+    assertEquals(1, summary.getAcquisitions());
+    assertEquals(summary.getTotalHold(), summary.getMaxHold());
+  }
+
+  @Test
+  public void wrap_contended_recordsWaitAndCallSite() throws Exception {
+    Lock           lock     = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+    CountDownLatch started  = new CountDownLatch(1);
+    CountDownLatch acquired = new CountDownLatch(1);
+
+    lock.lock();
+
+    Thread waiter = new Thread(() -> {
+      started.countDown();
+      lock.lock();
+      lock.unlock();
+      acquired.countDown();
+    });
+    waiter.start();
+
+    assertTrue(started.await(1, TimeUnit.SECONDS));
+    assertFalse(acquired.await(50, TimeUnit.MILLISECONDS));
+    lock.unlock();
+    assertTrue(acquired.await(1, TimeUnit.SECONDS));
+
+    LockSummary summary = single();
+    assertEquals(2, summary.getAcquisitions());
+    assertEquals(1, summary.getContended());
+    assertTrue(summary.getTotalWait() >= TimeUnit.MILLISECONDS.toNanos(25));
+    assertEquals(summary.getTotalWait(), summary.getMaxWait());
+    assertEquals(1, summary.getCallSites().size());
+    assertEquals(1, summary.getCallSites().get(0).getCount());
+  }
+
+  @Test
+  public void wrap_sameName_reportedTogether() {
+    Lock first  = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+    Lock second = profiler.wrap("lock", new ReentrantLock(), LockProfilerTest.class);
+
+    first.lock();
+    second.lock();
+    second.unlock();
+    first.unlock();
+
+    assertEquals(2, single().getAcquisitions());
+  }
+
+  @Test
+  public void wrapShared_recordsNoHoldTime() throws Exception {
+    Lock lock = profiler.wrapShared("lock", new ReentrantLock(), LockProfilerTest.class);
+
+    lock.lock();
+    Thread.sleep(5);
+    lock.unlock();
+
+    LockSummary summary = single();
+    assertEquals(1, summary.getAcquisitions());
+    assertEquals(0, summary.getTotalHold());
+  }
+
+  @Test
+  public void wrapShared_readLock_waitsBehindQueuedWriter() throws Exception {
+    ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
+    Lock                   lock          = profiler.wrapShared("lock", readWriteLock.readLock(), LockProfilerTest.class);
+    List<String>           order         = Collections.synchronizedList(new ArrayList<>());
+
+    readWriteLock.readLock().lock();
+
+    Thread writer = new Thread(() -> {
+      readWriteLock.writeLock().lock();
+      order.add("writer");
+      readWriteLock.writeLock().unlock();
+    });
+    writer.start();
+
+    while (!readWriteLock.hasQueuedThread(writer)) {
+      Thread.sleep(1);
+    }
+
+    Thread reader = new Thread(() -> {
+      lock.lock();
+      order.add("reader");
+      lock.unlock();
+    });
+    reader.start();
+
+    Thread.sleep(50);
+    assertTrue(order.isEmpty());
+
+    readWriteLock.readLock().unlock();
+    writer.join(1000);
+    reader.join(1000);
+
+    assertEquals(Arrays.asList("writer", "reader"), order);
+  }
+
+  @Test
+  public void getTracker_sameName_sameTracker() {
+    assertTrue(profiler.getTracker("db", LockProfilerTest.class) == profiler.getTracker("db", LockProfilerTest.class));
+  }
+
+  @Test
+  public void tracker_slowAcquire_countsAsContended() {
+    LockProfiler.Tracker tracker = profiler.getTracker("db", LockProfilerTest.class);
+
+    tracker.onAcquired(System.nanoTime() - LockProfiler.CONTENDED_THRESHOLD * 2);
+    tracker.onReleased();
+    tracker.onAcquired(System.nanoTime());
+    tracker.onReleased();
+
+    LockSummary summary = single();
+    assertEquals(2, summary.getAcquisitions());
+    assertEquals(1, summary.getContended());
+    assertTrue(summary.getTotalWait() >= LockProfiler.CONTENDED_THRESHOLD * 2);
+  }
+
+  @Test
+  public void onBlockedSample_groupsByMonitorClass() {
+    StackTraceElement[] stack = new StackTraceElement[] {
+        new StackTraceElement("su.sres.jobmanager.JobController", "onSuccess", "JobController.java", 10),
+        new StackTraceElement("su.sres.jobmanager.JobRunner", "run", "JobRunner.java", 20)
+    };
+
+    profiler.onBlockedSample(stack, 100);
+    profiler.onBlockedSample(stack, 200);
+
+    LockSummary summary = single();
+    assertEquals("Monitor: JobController", summary.getName());
+    assertTrue(summary.isSampled());
+    assertEquals(2, summary.getContended());
+    assertEquals(300, summary.getTotalWait());
+    assertEquals("JobController.onSuccess:10 from JobRunner.run:20", summary.getCallSites().get(0).getCallSite());
+  }
+
+  private LockSummary single() {
+    List<LockSummary> summaries = profiler.getSummaries();
+    assertEquals(1, summaries.size());
+    return summaries.get(0);
+  }
+}
@@ -0,0 +1,240 @@
+package su.sres.core.util.tracing;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import su.sres.core.util.tracing.TraceProtos.DebugAnnotation;
+import su.sres.core.util.tracing.TraceProtos.Trace;
+import su.sres.core.util.tracing.TraceProtos.TracePacket;
+import su.sres.core.util.tracing.TraceProtos.TrackEvent;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public final class TracerTest {
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final AtomicLong time = new AtomicLong(1000);
+
+  private Tracer tracer;
+  private File   directory;
+
+  @Before
+  public void setUp() {
+    tracer    = new Tracer(time::incrementAndGet);
+    directory = new File(temporaryFolder.getRoot(), "traces");
+  }
+
+  @After
+  public void tearDown() {
+    tracer.stopRecording();
+  }
+
+  @Test
+  public void recording_startAndEnd_writesSliceOnThreadTrack() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+
+    tracer.start("method", "key", "value");
+    tracer.end("method");
+
+    Trace trace    = Trace.parseFrom(tracer.serialize());
+    long  threadId = Thread.currentThread().getId();
+
+    assertEquals(Thread.currentThread().getName(), trackName(trace, threadId));
+
+    List<TrackEvent> events = events(trace);
+    assertEquals(2, events.size());
+
+    TrackEvent begin = events.get(0);
+    assertEquals("method", begin.getName());
+    assertEquals(threadId, begin.getTrackUuid());
+    assertEquals(TrackEvent.Type.TYPE_SLICE_BEGIN, begin.getType());
+    assertEquals(1, begin.getDebugAnnotationsList().size());
+
+    DebugAnnotation annotation = begin.getDebugAnnotationsList().get(0);
+    assertEquals("key", annotation.getName());
+    assertEquals("value", annotation.getStringValue());
+
+    TrackEvent end = events.get(1);
+    assertEquals("method", end.getName());
+    assertEquals(threadId, end.getTrackUuid());
+    assertEquals(TrackEvent.Type.TYPE_SLICE_END, end.getType());
+  }
+
+  @Test
+  public void recording_dbLockTrack_isNamed() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+
+    tracer.start("LOCK", Tracer.TrackId.DB_LOCK, "thread", "main");
+    tracer.end("LOCK", Tracer.TrackId.DB_LOCK);
+
+    Trace trace = Trace.parseFrom(tracer.serialize());
+
+    assertEquals("Database Lock", trackName(trace, Tracer.TrackId.DB_LOCK));
+    assertEquals(2, events(trace).size());
+  }
+
+  @Test
+  public void recording_otherThreads_getTheirOwnTracks() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+
+    Thread thread = new Thread(() -> {
+      tracer.start("background");
+      tracer.end("background");
+    }, "background-thread");
+
+    thread.start();
+    thread.join();
+
+    Trace trace = Trace.parseFrom(tracer.serialize());
+
+    assertEquals("background-thread", trackName(trace, thread.getId()));
+
+    List<TrackEvent> events = events(trace);
+    assertEquals(2, events.size());
+    assertEquals(thread.getId(), events.get(0).getTrackUuid());
+    assertEquals(thread.getId(), events.get(1).getTrackUuid());
+  }
+
+  @Test
+  public void recording_manyEvents_keepsEveryEventInOrder() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+
+    for (int i = 0; i < 20_000; i++) {
+      tracer.start("method");
+      tracer.end("method");
+
+      if (i % 1000 == 0) {
+        tracer.serialize();
+      }
+    }
+
+    List<TrackEvent> events = events(Trace.parseFrom(tracer.serialize()));
+
+    assertEquals(40_000, events.size());
+    for (int i = 0; i < events.size(); i++) {
+      assertEquals(i % 2 == 0 ? TrackEvent.Type.TYPE_SLICE_BEGIN : TrackEvent.Type.TYPE_SLICE_END, events.get(i).getType());
+    }
+  }
+
+  @Test
+  public void recording_rotation_keepsMostRecentFilesWithTracks() throws Exception {
+    tracer.startRecording(directory, 1, 2);
+
+    for (int i = 0; i < 5; i++) {
+      tracer.start("method" + i);
+      tracer.end("method" + i);
+      tracer.serialize();
+    }
+
+    assertEquals(2, directory.listFiles().length);
+
+    Trace            trace  = Trace.parseFrom(tracer.serialize());
+    List<TrackEvent> events = events(trace);
+
+    assertEquals(Thread.currentThread().getName(), trackName(trace, Thread.currentThread().getId()));
+    assertEquals(4, events.size());
+    assertEquals("method3", events.get(0).getName());
+    assertEquals("method4", events.get(3).getName());
+  }
+
+  @Test
+  public void startRecording_clearsPreviousFiles() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+    tracer.start("first");
+    tracer.end("first");
+    tracer.stopRecording();
+
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+    tracer.start("second");
+    tracer.end("second");
+
+    List<TrackEvent> events = events(Trace.parseFrom(tracer.serialize()));
+
+    assertEquals(2, events.size());
+    assertEquals("second", events.get(0).getName());
+  }
+
+  @Test
+  public void counter_inMemory_writesCounterTrack() throws Exception {
+    tracer.counter("waiters", 2);
+    tracer.counter("waiters", 0);
+
+    assertCounters(Trace.parseFrom(tracer.serialize()));
+  }
+
+  @Test
+  public void recording_counter_writesCounterTrack() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+
+    tracer.counter("waiters", 2);
+    tracer.counter("waiters", 0);
+
+    assertCounters(Trace.parseFrom(tracer.serialize()));
+  }
+
+  @Test
+  public void stopRecording_goesBackToMemory() throws Exception {
+    tracer.startRecording(directory, Long.MAX_VALUE, 4);
+    tracer.stopRecording();
+
+    tracer.start("method");
+    tracer.end("method");
+
+    assertTrue(!tracer.isRecording());
+    assertEquals(2, events(Trace.parseFrom(tracer.serialize())).size());
+  }
+
+  private static void assertCounters(Trace trace) {
+    long trackId = Tracer.counterTrackId("waiters");
+
+    assertEquals("waiters", trackName(trace, trackId));
+
+    List<TrackEvent> events = events(trace);
+    assertEquals(2, events.size());
+    assertEquals(TrackEvent.Type.TYPE_COUNTER, events.get(0).getType());
+    assertEquals(trackId, events.get(0).getTrackUuid());
+    assertEquals(2, events.get(0).getCounterValue());
+    assertEquals(0, events.get(1).getCounterValue());
+
+    for (TracePacket packet : trace.getPacketList()) {
+      if (packet.hasTrackDescriptor() && packet.getTrackDescriptor().getUuid() == trackId) {
+        assertTrue(packet.getTrackDescriptor().hasCounter());
+      }
+    }
+  }
+
+  private static List<TrackEvent> events(Trace trace) {
+    List<TrackEvent> events = new ArrayList<>();
+
+    for (TracePacket packet : trace.getPacketList()) {
+      if (packet.hasTrackEvent()) {
+        events.add(packet.getTrackEvent());
+      }
+    }
+
+    return events;
+  }
+
+  private static String trackName(Trace trace, long uuid) {
+    String name = null;
+
+    for (TracePacket packet : trace.getPacketList()) {
+      if (packet.hasTrackDescriptor() && packet.getTrackDescriptor().getUuid() == uuid) {
+        name = packet.getTrackDescriptor().getName();
+      }
+    }
+
+    return name;
+  }
+}
@@ -35,6 +35,7 @@ import su.sres.signalservice.api.messages.calls.SystemCertificatesVersion;
 import su.sres.signalservice.api.push.exceptions.NoContentException;
 import su.sres.signalservice.api.push.exceptions.NonSuccessfulResponseCodeException;
 import su.sres.signalservice.api.push.exceptions.PushNetworkException;
+import su.sres.signalservice.api.storage.DirectoryEntryListener;
 import su.sres.signalservice.api.storage.StorageId;
 import su.sres.signalservice.api.storage.StorageKey;
 import su.sres.signalservice.api.messages.calls.ConfigurationInfo;
@@ -366,9 +367,12 @@ public class SignalServiceAccountManager {
     return pushServiceSocket.isIdentifierRegistered(identifier);
   }
 
-  public DirectoryResponse getDirectoryResponse(long directoryVersion, boolean forceFull) throws IOException {
+  /**
+   * @param listener Receives each entry of the update as it's read, since the returned response doesn't have them.
+   */
+  public DirectoryResponse getDirectoryResponse(long directoryVersion, boolean forceFull, DirectoryEntryListener listener) throws IOException {
 
-    return this.pushServiceSocket.getDirectoryResponse(directoryVersion, forceFull);
+    return this.pushServiceSocket.getDirectoryResponse(directoryVersion, forceFull, listener);
   }
 
   public byte[] getLicense() throws IOException {
@@ -12,7 +12,9 @@ import org.whispersystems.libsignal.InvalidMessageException;
 import org.whispersystems.libsignal.util.guava.Optional;
 
 import su.sres.signalservice.api.crypto.AttachmentCipherInputStream;
+import su.sres.signalservice.api.crypto.AttachmentCipherOutputStream;
 import su.sres.signalservice.api.crypto.ProfileCipherInputStream;
+import su.sres.signalservice.api.crypto.StreamingAttachmentDecryptor;
 import su.sres.signalservice.api.crypto.UnidentifiedAccess;
 import su.sres.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
 import su.sres.signalservice.api.messages.SignalServiceAttachmentPointer;
@@ -28,9 +30,11 @@ import su.sres.signalservice.api.util.CredentialsProvider;
 import su.sres.signalservice.api.util.SleepTimer;
 import su.sres.signalservice.api.util.UuidUtil;
 import su.sres.signalservice.internal.configuration.SignalServiceConfiguration;
+import su.sres.signalservice.internal.crypto.PaddingInputStream;
 import su.sres.signalservice.internal.push.PushServiceSocket;
 import su.sres.signalservice.internal.push.SignalServiceEnvelopeEntity;
 import su.sres.signalservice.internal.push.SignalServiceMessagesResult;
+import su.sres.signalservice.internal.push.http.SegmentedDownloadSpec;
 import su.sres.signalservice.internal.sticker.StickerProtos;
 import su.sres.signalservice.internal.util.Util;
 import su.sres.signalservice.internal.util.concurrent.FutureTransformers;
@@ -41,6 +45,8 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -157,6 +163,95 @@ public class SignalServiceMessageReceiver {
     return AttachmentCipherInputStream.createForAttachment(destination, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get());
   }
 
+  /**
+   * Retrieves a SignalServiceAttachment and decrypts it into {@code plaintextOutput} as it arrives,
+   * verifying it along the way, so the ciphertext is never written to disk.
+   *
+   * @param pointer           The {@link SignalServiceAttachmentPointer}
+   *                          received in a {@link SignalServiceDataMessage}.
+   * @param listener          An optional listener (may be null) to receive callbacks on download progress.
+   * @param existingPlaintext The plaintext a previous, interrupted attempt already wrote, which is
+   *                          read in full before anything is written. Ignored if existingLength is 0.
+   * @param existingLength    How much plaintext was already written. Must be a multiple of
+   *                          {@link StreamingAttachmentDecryptor#BLOCK_SIZE}.
+   * @param plaintextOutput   Receives the plaintext after existingLength. If this throws an
+   *                          InvalidMessageException, everything written, including the existing
+   *                          plaintext, must be discarded. After an IOException, whatever was written
+   *                          can be resumed from.
+   * @return The total length of the plaintext.
+   * @throws IOException
+   * @throws InvalidMessageException
+   */
+  public long retrieveAttachment(SignalServiceAttachmentPointer pointer, long maxSizeBytes, ProgressListener listener,
+                                 InputStream existingPlaintext, long existingLength, OutputStream plaintextOutput)
+      throws IOException, InvalidMessageException, MissingConfigurationException
+  {
+    if (!pointer.getDigest().isPresent())
+      throw new InvalidMessageException("No attachment digest!");
+
+    StreamingAttachmentDecryptor decryptor;
+
+    if (existingLength > 0) {
+      byte[] iv = socket.retrieveAttachmentRange(pointer.getCdnNumber(), pointer.getRemoteId(), 0, StreamingAttachmentDecryptor.BLOCK_SIZE);
+      decryptor = StreamingAttachmentDecryptor.resume(pointer.getKey(), pointer.getDigest().get(), pointer.getSize().or(0), iv, existingPlaintext, existingLength, plaintextOutput);
+    } else {
+      decryptor = new StreamingAttachmentDecryptor(pointer.getKey(), pointer.getDigest().get(), pointer.getSize().or(0), plaintextOutput);
+    }
+
+    socket.retrieveAttachment(pointer.getCdnNumber(), pointer.getRemoteId(), decryptor, decryptor.getCiphertextOffset(), maxSizeBytes, listener);
+    return decryptor.finish();
+  }
+
+  /**
+   * Splits the ciphertext of an attachment into {@code segmentCount} ranges for
+   * {@link #retrieveAttachmentSegments}. The attachment's size must be known.
+   */
+  public SegmentedDownloadSpec createSegmentedDownloadSpec(SignalServiceAttachmentPointer pointer, int segmentCount) {
+    long ciphertextLength = AttachmentCipherOutputStream.getCiphertextLength(PaddingInputStream.getPaddedSize(pointer.getSize().get()));
+    return SegmentedDownloadSpec.split(ciphertextLength, segmentCount);
+  }
+
+  /**
+   * Downloads the ciphertext of an attachment into {@code destination} over parallel range requests,
+   * one per segment. Progress is recorded in {@code segments} as it's written, so after an
+   * IOException the same spec and file can be passed in again to continue.
+   * <p>
+   * Once {@link SegmentedDownloadSpec#isComplete()}, use {@link #decryptAttachment} to verify and
+   * decrypt the file.
+   *
+   * @param listener An optional listener (may be null) to receive callbacks on download progress.
+   */
+  public void retrieveAttachmentSegments(SignalServiceAttachmentPointer pointer, SegmentedDownloadSpec segments, File destination, long maxSizeBytes, ProgressListener listener)
+      throws IOException, MissingConfigurationException
+  {
+    try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+      if (file.length() != segments.getTotalLength()) {
+        if (segments.getDownloadedLength() > 0) {
+          throw new IllegalArgumentException("Resuming into a file of the wrong length: " + file.length() + " vs " + segments.getTotalLength());
+        }
+
+        file.setLength(segments.getTotalLength());
+      }
+
+      socket.retrieveAttachmentSegments(pointer.getCdnNumber(), pointer.getRemoteId(), segments, file.getChannel(), maxSizeBytes, listener);
+    }
+  }
+
+  /**
+   * Verifies and decrypts an attachment that was downloaded to {@code ciphertext}, writing the
+   * plaintext to {@code plaintextOutput}. If this throws, everything written must be discarded.
+   *
+   * @return The length of the plaintext.
+   */
+  public long decryptAttachment(SignalServiceAttachmentPointer pointer, File ciphertext, OutputStream plaintextOutput)
+      throws IOException, InvalidMessageException
+  {
+    if (!pointer.getDigest().isPresent())
+      throw new InvalidMessageException("No attachment digest!");
+
+    return AttachmentCipherInputStream.decryptAttachment(ciphertext, pointer.getSize().or(0), pointer.getKey(), pointer.getDigest().get(), plaintextOutput);
+  }
+
   public InputStream retrieveSticker(byte[] packId, byte[] packKey, int stickerId)
       throws IOException, InvalidMessageException
   {
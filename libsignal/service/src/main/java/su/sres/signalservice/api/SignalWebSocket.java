@@ -20,6 +20,8 @@ import su.sres.signalservice.internal.websocket.WebsocketResponse;
 import su.sres.util.Base64;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.TimeoutException;
 
 import io.reactivex.rxjava3.core.Single;
@@ -245,18 +247,7 @@ public final class SignalWebSocket {
       WebSocketResponseMessage response = createWebSocketResponse(request);
       try {
         if (isSignalServiceEnvelope(request)) {
-          Optional<String> timestampHeader = findHeader(request);
-          long             timestamp       = 0;
-
-          if (timestampHeader.isPresent()) {
-            try {
-              timestamp = Long.parseLong(timestampHeader.get());
-            } catch (NumberFormatException e) {
-              Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
-            }
-          }
-
-          SignalServiceEnvelope envelope = new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+          SignalServiceEnvelope envelope = toEnvelope(request);
 
           callback.onMessage(envelope);
           return Optional.of(envelope);
@@ -269,6 +260,76 @@ public final class SignalWebSocket {
     }
   }
 
+  /**
+   * <p>
+   * A blocking call that reads a batch of messages off the pipe. It waits for the first request,
+   * then takes up to batchSize - 1 more that have already arrived, without waiting for them.
+   * <p>
+   * The batch is handed to the {@link MessageBatchReceivedCallback}, and only once that returns
+   * successfully are the messages acknowledged to the server. If the callback throws, nothing in
+   * the batch is acknowledged and the server will redeliver it on the next connection.
+   * <p>
+   * The batch stops early when an empty response is hit, in which case this returns true. See
+   * {@link #readOrEmpty(long, MessageReceivedCallback)} for the caveats around empty responses.
+   *
+   * @param timeout   The timeout to wait for the first message.
+   * @param batchSize The maximum number of requests to read at once.
+   * @param callback  A callback that will be called with the envelopes before they are acknowledged.
+   * @return True if the server indicated that its queue is now empty, otherwise false.
+   */
+  @SuppressWarnings("DuplicateThrows")
+  public boolean readMessageBatch(long timeout, int batchSize, MessageBatchReceivedCallback callback)
+      throws TimeoutException, WebSocketUnavailableException, IOException
+  {
+    List<WebSocketResponseMessage> responses = new ArrayList<>(batchSize);
+    List<SignalServiceEnvelope>    envelopes = new ArrayList<>(batchSize);
+    boolean                        empty     = false;
+
+    WebSocketRequestMessage request = getWebSocket().readRequest(timeout);
+
+    while (request != null) {
+      responses.add(createWebSocketResponse(request));
+
+      if (isSignalServiceEnvelope(request)) {
+        envelopes.add(toEnvelope(request));
+      } else if (isSocketEmptyRequest(request)) {
+        empty = true;
+        break;
+      }
+
+      if (responses.size() >= batchSize) {
+        break;
+      }
+
+      request = getWebSocket().readRequestIfAvailable();
+    }
+
+    if (!envelopes.isEmpty()) {
+      callback.onMessageBatch(envelopes);
+    }
+
+    for (WebSocketResponseMessage response : responses) {
+      getWebSocket().sendResponse(response);
+    }
+
+    return empty;
+  }
+
+  private static SignalServiceEnvelope toEnvelope(WebSocketRequestMessage request) {
+    Optional<String> timestampHeader = findHeader(request);
+    long             timestamp       = 0;
+
+    if (timestampHeader.isPresent()) {
+      try {
+        timestamp = Long.parseLong(timestampHeader.get());
+      } catch (NumberFormatException e) {
+        Log.w(TAG, "Failed to parse " + SERVER_DELIVERED_TIMESTAMP_HEADER);
+      }
+    }
+
+    return new SignalServiceEnvelope(request.getBody().toByteArray(), timestamp);
+  }
+
   private static boolean isSignalServiceEnvelope(WebSocketRequestMessage message) {
     return "PUT".equals(message.getVerb()) && "/api/v1/message".equals(message.getPath());
   }
@@ -317,5 +378,13 @@ public final class SignalWebSocket {
   public interface MessageReceivedCallback {
     void onMessage(SignalServiceEnvelope envelope);
   }
+
+  /**
+   * For receiving a callback when a batch of messages has been received. The envelopes are in the
+   * order the server sent them.
+   */
+  public interface MessageBatchReceivedCallback {
+    void onMessageBatch(List<SignalServiceEnvelope> envelopes);
+  }
 }
 
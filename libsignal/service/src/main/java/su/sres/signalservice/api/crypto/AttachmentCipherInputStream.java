@@ -18,6 +18,7 @@ import java.io.FileInputStream;
 import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
@@ -85,6 +86,36 @@ public class AttachmentCipherInputStream extends FilterInputStream {
     }
   }
 
+  /**
+   * Verifies and decrypts an attachment in a single pass over the file, writing the plaintext to
+   * {@code plaintextOutput} as it goes.
+   * <p>
+   * Unlike {@link #createForAttachment(File, long, byte[], byte[])}, plaintext is written before the
+   * MAC has been checked, so if this throws, the caller must discard everything that was written.
+   *
+   * @return The number of plaintext bytes written.
+   */
+  public static long decryptAttachment(File file, long plaintextLength, byte[] combinedKeyMaterial, byte[] digest, OutputStream plaintextOutput)
+      throws InvalidMessageException, IOException
+  {
+    if (digest == null) {
+      throw new InvalidMessageException("Missing digest!");
+    }
+
+    StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(combinedKeyMaterial, digest, plaintextLength, plaintextOutput);
+
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] buffer = new byte[64 * 1024];
+      int    read;
+
+      while ((read = in.read(buffer)) != -1) {
+        decryptor.write(buffer, 0, read);
+      }
+    }
+
+    return decryptor.finish();
+  }
+
   public static InputStream createForStickerData(byte[] data, byte[] packKey)
           throws InvalidMessageException, IOException
   {
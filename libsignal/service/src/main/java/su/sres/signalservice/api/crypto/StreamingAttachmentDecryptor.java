@@ -0,0 +1,271 @@
+package su.sres.signalservice.api.crypto;
+
+import org.whispersystems.libsignal.InvalidMessageException;
+import su.sres.signalservice.internal.util.Util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.InvalidAlgorithmParameterException;
+import java.security.InvalidKeyException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.Mac;
+import javax.crypto.NoSuchPaddingException;
+import javax.crypto.ShortBufferException;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Decrypts an attachment as its ciphertext is written in, so it can be fed straight from the network
+ * without ever storing the ciphertext. The MAC and digest are computed along the way, and checked by
+ * {@link #finish()}.
+ * <p>
+ * Plaintext is written to the output before the MAC has been checked, so the caller must discard
+ * it unless {@link #finish()} succeeds.
+ * <p>
+ * Since the plaintext is only ever written in whole cipher blocks, a download that was interrupted
+ * can be picked up again with {@link #resume}. Re-encrypting the plaintext that was already written
+ * gives back the exact ciphertext it came from, which is all that's needed to rebuild the MAC,
+ * digest and CBC state.
+ */
+public final class StreamingAttachmentDecryptor extends OutputStream {
+
+  public static final int BLOCK_SIZE = 16;
+
+  private static final int CIPHER_KEY_SIZE = 32;
+  private static final int MAC_KEY_SIZE    = 32;
+
+  private final Cipher        cipher;
+  private final SecretKeySpec cipherKey;
+  private final Mac           mac;
+  private final MessageDigest digest;
+  private final byte[]        theirDigest;
+  private final OutputStream  plaintextOutput;
+  private final byte[]        iv;
+  private final byte[]        tail;
+
+  private long   ciphertextOffset;
+  private int    ivLength;
+  private int    tailLength;
+  private long   remainingPlaintext;
+  private long   written;
+  private byte[] plaintext = new byte[0];
+
+  /**
+   * @param plaintextLength The length of the attachment before it was padded, or 0 if unknown.
+   */
+  public StreamingAttachmentDecryptor(byte[] combinedKeyMaterial, byte[] digest, long plaintextLength, OutputStream plaintextOutput) {
+    this(combinedKeyMaterial, digest, plaintextLength, plaintextOutput, 0);
+  }
+
+  private StreamingAttachmentDecryptor(byte[] combinedKeyMaterial, byte[] digest, long plaintextLength, OutputStream plaintextOutput, long existingLength) {
+    try {
+      byte[][] parts = Util.split(combinedKeyMaterial, CIPHER_KEY_SIZE, MAC_KEY_SIZE);
+
+      this.cipher             = Cipher.getInstance("AES/CBC/PKCS5Padding");
+      this.cipherKey          = new SecretKeySpec(parts[0], "AES");
+      this.mac                = Mac.getInstance("HmacSHA256");
+      this.digest             = MessageDigest.getInstance("SHA256");
+      this.theirDigest        = digest;
+      this.plaintextOutput    = plaintextOutput;
+      this.iv                 = new byte[BLOCK_SIZE];
+      this.tail               = new byte[mac.getMacLength()];
+      this.remainingPlaintext = plaintextLength != 0 ? plaintextLength - existingLength : Long.MAX_VALUE;
+      this.written            = existingLength;
+
+      this.mac.init(new SecretKeySpec(parts[1], "HmacSHA256"));
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  /**
+   * Picks up a download that was interrupted after {@code existingLength} bytes of plaintext had
+   * been written. Reads all of {@code existingPlaintext}, then expects the ciphertext from
+   * {@link #getCiphertextOffset()} onwards.
+   *
+   * @param iv                The first {@link #BLOCK_SIZE} bytes of the ciphertext.
+   * @param existingPlaintext The plaintext written so far. Must be a multiple of {@link #BLOCK_SIZE}.
+   */
+  public static StreamingAttachmentDecryptor resume(byte[] combinedKeyMaterial, byte[] digest, long plaintextLength,
+                                                    byte[] iv, InputStream existingPlaintext, long existingLength,
+                                                    OutputStream plaintextOutput)
+      throws IOException
+  {
+    if (existingLength % BLOCK_SIZE != 0) {
+      throw new IllegalArgumentException("Can only resume at a block boundary: " + existingLength);
+    }
+
+    if (iv.length != BLOCK_SIZE) {
+      throw new IllegalArgumentException("Bad IV length: " + iv.length);
+    }
+
+    StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(combinedKeyMaterial, digest, plaintextLength, plaintextOutput, existingLength);
+    decryptor.replay(iv, existingPlaintext, existingLength);
+
+    return decryptor;
+  }
+
+  /**
+   * @return Where in the ciphertext the next byte written to this should come from.
+   */
+  public long getCiphertextOffset() {
+    return ciphertextOffset;
+  }
+
+  @Override
+  public void write(int b) throws IOException {
+    write(new byte[] { (byte) b }, 0, 1);
+  }
+
+  @Override
+  public void write(byte[] buffer, int offset, int length) throws IOException {
+    if (ivLength < BLOCK_SIZE) {
+      int ivRead = Math.min(length, BLOCK_SIZE - ivLength);
+
+      System.arraycopy(buffer, offset, iv, ivLength, ivRead);
+      ivLength += ivRead;
+      offset   += ivRead;
+      length   -= ivRead;
+
+      if (ivLength == BLOCK_SIZE) {
+        mac.update(iv);
+        digest.update(iv);
+        initCipher(iv);
+      }
+    }
+
+    // The last bytes could always turn out to be the MAC, so they're held back until more arrive
+    int total = tailLength + length;
+
+    if (total <= tail.length) {
+      System.arraycopy(buffer, offset, tail, tailLength, length);
+      tailLength = total;
+      return;
+    }
+
+    int process   = total - tail.length;
+    int fromTail  = Math.min(tailLength, process);
+    int fromInput = process - fromTail;
+
+    update(tail, 0, fromTail);
+    update(buffer, offset, fromInput);
+
+    System.arraycopy(tail, fromTail, tail, 0, tailLength - fromTail);
+    System.arraycopy(buffer, offset + fromInput, tail, tailLength - fromTail, length - fromInput);
+    tailLength = tail.length;
+  }
+
+  /**
+   * Checks the MAC and digest, and writes the last of the plaintext if they match.
+   *
+   * @return The total length of the plaintext, including anything written before a resume.
+   */
+  public long finish() throws InvalidMessageException, IOException {
+    if (ivLength < BLOCK_SIZE || tailLength < tail.length) {
+      throw new InvalidMessageException("Message shorter than crypto overhead!");
+    }
+
+    if (!MessageDigest.isEqual(mac.doFinal(), tail)) {
+      throw new InvalidMessageException("MAC doesn't match!");
+    }
+
+    if (theirDigest == null || !MessageDigest.isEqual(digest.digest(tail), theirDigest)) {
+      throw new InvalidMessageException("Digest doesn't match!");
+    }
+
+    try {
+      byte[] last = cipher.doFinal();
+      writeLimited(last, last.length);
+    } catch (IllegalBlockSizeException | BadPaddingException e) {
+      throw new InvalidMessageException(e);
+    }
+
+    return written;
+  }
+
+  private void update(byte[] ciphertext, int offset, int length) throws IOException {
+    if (length == 0) {
+      return;
+    }
+
+    mac.update(ciphertext, offset, length);
+    digest.update(ciphertext, offset, length);
+
+    if (plaintext.length < length + BLOCK_SIZE) {
+      plaintext = new byte[length + BLOCK_SIZE];
+    }
+
+    try {
+      writeLimited(plaintext, cipher.update(ciphertext, offset, length, plaintext, 0));
+    } catch (ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void writeLimited(byte[] buffer, int length) throws IOException {
+    int toWrite = (int) Math.min(length, remainingPlaintext);
+
+    if (toWrite > 0) {
+      plaintextOutput.write(buffer, 0, toWrite);
+      remainingPlaintext -= toWrite;
+      written            += toWrite;
+    }
+  }
+
+  private void replay(byte[] originalIv, InputStream existingPlaintext, long existingLength) throws IOException {
+    System.arraycopy(originalIv, 0, iv, 0, BLOCK_SIZE);
+    ivLength         = BLOCK_SIZE;
+    ciphertextOffset = BLOCK_SIZE + existingLength;
+
+    mac.update(iv);
+    digest.update(iv);
+
+    try {
+      Cipher encrypt = Cipher.getInstance("AES/CBC/NoPadding");
+      encrypt.init(Cipher.ENCRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+
+      byte[] buffer         = new byte[64 * 1024];
+      byte[] ciphertext     = new byte[buffer.length + BLOCK_SIZE];
+      byte[] lastCiphertext = iv;
+      long   remaining      = existingLength;
+
+      while (remaining > 0) {
+        int read = existingPlaintext.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+
+        if (read == -1) {
+          throw new IOException("Existing plaintext ended early!");
+        }
+
+        int encrypted = encrypt.update(buffer, 0, read, ciphertext, 0);
+
+        mac.update(ciphertext, 0, encrypted);
+        digest.update(ciphertext, 0, encrypted);
+
+        if (encrypted > 0) {
+          lastCiphertext = new byte[BLOCK_SIZE];
+          System.arraycopy(ciphertext, encrypted - BLOCK_SIZE, lastCiphertext, 0, BLOCK_SIZE);
+        }
+
+        remaining -= read;
+      }
+
+      initCipher(lastCiphertext);
+    } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | InvalidAlgorithmParameterException | ShortBufferException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private void initCipher(byte[] iv) {
+    try {
+      cipher.init(Cipher.DECRYPT_MODE, cipherKey, new IvParameterSpec(iv));
+    } catch (InvalidKeyException | InvalidAlgorithmParameterException e) {
+      throw new AssertionError(e);
+    }
+  }
+}
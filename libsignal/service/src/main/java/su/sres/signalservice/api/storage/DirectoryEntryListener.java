@@ -0,0 +1,15 @@
+package su.sres.signalservice.api.storage;
+
+import java.io.IOException;
+
+/**
+ * Receives the entries of a directory update one at a time, as they're read off the wire.
+ */
+public interface DirectoryEntryListener {
+
+  /**
+   * @param userLogin The login of the entry, or an empty string for an empty incremental update.
+   * @param value     The JSON entry value, an empty string if it has none, or "-1" for a removal.
+   */
+  void onEntry(String userLogin, String value) throws IOException;
+}
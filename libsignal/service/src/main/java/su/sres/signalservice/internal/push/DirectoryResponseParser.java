@@ -0,0 +1,97 @@
+package su.sres.signalservice.internal.push;
+
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.WireFormat;
+
+import su.sres.signalservice.api.storage.DirectoryEntryListener;
+import su.sres.signalservice.api.storage.protos.DirectoryResponse;
+import su.sres.signalservice.api.storage.protos.DirectoryUpdate;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a {@link DirectoryResponse} off a stream without building its entry map. A full directory
+ * can have hundreds of thousands of entries, and {@link DirectoryResponse#parseFrom(InputStream)}
+ * would hold every one of them as a pair of strings until the whole update has been applied. Instead,
+ * each entry is handed to a {@link DirectoryEntryListener} as soon as it's read, and the returned
+ * response has everything but the entries.
+ */
+public final class DirectoryResponseParser {
+
+  private static final int RESPONSE_VERSION_TAG          = tag(DirectoryResponse.VERSION_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+  private static final int RESPONSE_IS_UPDATE_TAG        = tag(DirectoryResponse.IS_UPDATE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+  private static final int RESPONSE_DIRECTORY_UPDATE_TAG = tag(DirectoryResponse.DIRECTORY_UPDATE_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int UPDATE_TYPE_TAG               = tag(DirectoryUpdate.TYPE_FIELD_NUMBER, WireFormat.WIRETYPE_VARINT);
+  private static final int UPDATE_DIRECTORY_ENTRY_TAG    = tag(DirectoryUpdate.DIRECTORY_ENTRY_FIELD_NUMBER, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int ENTRY_KEY_TAG                 = tag(1, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+  private static final int ENTRY_VALUE_TAG               = tag(2, WireFormat.WIRETYPE_LENGTH_DELIMITED);
+
+  private DirectoryResponseParser() {}
+
+  public static DirectoryResponse parse(InputStream in, DirectoryEntryListener listener) throws IOException {
+    CodedInputStream          input    = CodedInputStream.newInstance(in);
+    DirectoryResponse.Builder response = DirectoryResponse.newBuilder();
+
+    int tag;
+
+    while ((tag = input.readTag()) != 0) {
+      if (tag == RESPONSE_VERSION_TAG) {
+        response.setVersion(input.readUInt64());
+      } else if (tag == RESPONSE_IS_UPDATE_TAG) {
+        response.setIsUpdate(input.readBool());
+      } else if (tag == RESPONSE_DIRECTORY_UPDATE_TAG) {
+        response.setDirectoryUpdate(readUpdate(input, listener));
+      } else {
+        input.skipField(tag);
+      }
+    }
+
+    return response.build();
+  }
+
+  private static DirectoryUpdate readUpdate(CodedInputStream input, DirectoryEntryListener listener) throws IOException {
+    DirectoryUpdate.Builder update   = DirectoryUpdate.newBuilder();
+    int                     oldLimit = input.pushLimit(input.readRawVarint32());
+    int                     tag;
+
+    while ((tag = input.readTag()) != 0) {
+      if (tag == UPDATE_TYPE_TAG) {
+        update.setTypeValue(input.readEnum());
+      } else if (tag == UPDATE_DIRECTORY_ENTRY_TAG) {
+        readEntry(input, listener);
+      } else {
+        input.skipField(tag);
+      }
+    }
+
+    input.popLimit(oldLimit);
+
+    return update.build();
+  }
+
+  private static void readEntry(CodedInputStream input, DirectoryEntryListener listener) throws IOException {
+    int    oldLimit  = input.pushLimit(input.readRawVarint32());
+    String userLogin = "";
+    String value     = "";
+    int    tag;
+
+    while ((tag = input.readTag()) != 0) {
+      if (tag == ENTRY_KEY_TAG) {
+        userLogin = input.readStringRequireUtf8();
+      } else if (tag == ENTRY_VALUE_TAG) {
+        value = input.readStringRequireUtf8();
+      } else {
+        input.skipField(tag);
+      }
+    }
+
+    input.popLimit(oldLimit);
+
+    listener.onEntry(userLogin, value);
+  }
+
+  private static int tag(int fieldNumber, int wireType) {
+    return (fieldNumber << 3) | wireType;
+  }
+}
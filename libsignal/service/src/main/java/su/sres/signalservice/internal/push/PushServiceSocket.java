@@ -84,6 +84,7 @@ import su.sres.signalservice.api.push.exceptions.ResumeLocationInvalidException;
 import su.sres.signalservice.api.push.exceptions.UnregisteredUserException;
 import su.sres.signalservice.api.push.exceptions.UsernameMalformedException;
 import su.sres.signalservice.api.push.exceptions.UsernameTakenException;
+import su.sres.signalservice.api.storage.DirectoryEntryListener;
 import su.sres.signalservice.api.storage.StorageAuthResponse;
 import su.sres.signalservice.api.subscriptions.ActiveSubscription;
 import su.sres.signalservice.api.subscriptions.SubscriptionClientSecret;
@@ -109,10 +110,13 @@ import su.sres.signalservice.internal.push.exceptions.PaymentsRegionException;
 import su.sres.signalservice.internal.push.exceptions.StaleDevicesException;
 import su.sres.signalservice.internal.push.http.AcceptLanguagesUtil;
 import su.sres.signalservice.internal.push.http.CancelationSignal;
+import su.sres.signalservice.internal.push.http.ConnectionReuseTracker;
 import su.sres.signalservice.internal.push.http.DigestingRequestBody;
 import su.sres.signalservice.internal.push.http.NoCipherOutputStreamFactory;
 import su.sres.signalservice.internal.push.http.OutputStreamFactory;
 import su.sres.signalservice.internal.push.http.ResumableUploadSpec;
+import su.sres.signalservice.internal.push.http.SegmentedDownloadSpec;
+import su.sres.signalservice.internal.push.http.SegmentedDownloader;
 import su.sres.signalservice.internal.storage.protos.ReadOperation;
 import su.sres.signalservice.internal.storage.protos.StorageItems;
 import su.sres.signalservice.internal.storage.protos.StorageManifest;
@@ -141,6 +145,7 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.math.BigDecimal;
+import java.nio.channels.FileChannel;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
@@ -152,6 +157,7 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.Future;
@@ -277,9 +283,13 @@ public class PushServiceSocket {
 
   private static final int MAX_FOLLOW_UPS = 20;
 
+  private static final int MAX_SEGMENT_ATTEMPTS = 3;
+
   private       long      soTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
   private final Set<Call> connections     = new HashSet<>();
 
+  private final ConnectionReuseTracker connectionReuseTracker = new ConnectionReuseTracker();
+
   private ServiceConnectionHolder[] serviceClients;
   private // final
   Map<Integer, ConnectionHolder[]> cdnClientsMap;
@@ -301,9 +311,9 @@ public class PushServiceSocket {
     this.credentialsProvider       = credentialsProvider;
     this.signalAgent               = signalAgent;
     this.automaticNetworkRetry     = automaticNetworkRetry;
-    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy());
-    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy());
-    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy());
+    this.serviceClients            = createServiceConnectionHolders(configuration.getSignalServiceUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy(), connectionReuseTracker);
+    this.cdnClientsMap             = createCdnClientsMap(configuration.getSignalCdnUrlMap(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy(), connectionReuseTracker);
+    this.storageClients            = createConnectionHolders(configuration.getSignalStorageUrls(), configuration.getNetworkInterceptors(), configuration.getDns(), configuration.getShadowProxy(), connectionReuseTracker);
     this.random                    = new SecureRandom();
     this.clientZkProfileOperations = clientZkProfileOperations;
   }
@@ -677,13 +687,60 @@ public class PushServiceSocket {
   public void retrieveAttachment(int cdnNumber, SignalServiceAttachmentRemoteId cdnPath, File destination, long maxSizeBytes, ProgressListener listener)
       throws IOException, MissingConfigurationException
   {
-    final String path;
+    downloadFromCdn(destination, cdnNumber, getAttachmentDownloadPath(cdnPath), maxSizeBytes, listener);
+  }
+
+  /**
+   * Streams the attachment from {@code offset} onwards into {@code destination}, rather than into a file.
+   */
+  public void retrieveAttachment(int cdnNumber, SignalServiceAttachmentRemoteId cdnPath, OutputStream destination, long offset, long maxSizeBytes, ProgressListener listener)
+      throws IOException, MissingConfigurationException
+  {
+    downloadFromCdn(destination, offset, -1, cdnNumber, getAttachmentDownloadPath(cdnPath), maxSizeBytes, listener);
+  }
+
+  public byte[] retrieveAttachmentRange(int cdnNumber, SignalServiceAttachmentRemoteId cdnPath, long offset, int length)
+      throws IOException, MissingConfigurationException
+  {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    downloadFromCdn(output, offset, length, cdnNumber, getAttachmentDownloadPath(cdnPath), length, null);
+
+    if (output.size() != length) {
+      throw new PushNetworkException("Expected " + length + " bytes, got " + output.size());
+    }
+
+    return output.toByteArray();
+  }
+
+  /**
+   * Fills in whatever is missing from {@code destination}, which must already be
+   * {@link SegmentedDownloadSpec#getTotalLength()} bytes long, with one range request per segment.
+   */
+  public void retrieveAttachmentSegments(int cdnNumber, SignalServiceAttachmentRemoteId cdnPath, SegmentedDownloadSpec segments, FileChannel destination, long maxSizeBytes, ProgressListener listener)
+      throws IOException, MissingConfigurationException
+  {
+    if (!cdnClientsMap.containsKey(cdnNumber)) {
+      throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
+    }
+
+    String              path       = getAttachmentDownloadPath(cdnPath);
+    SegmentedDownloader downloader = new SegmentedDownloader((offset, length, outputStream) -> {
+      try {
+        downloadFromCdn(outputStream, offset, length, cdnNumber, path, maxSizeBytes, null);
+      } catch (MissingConfigurationException e) {
+        throw new AssertionError(e);
+      }
+    }, MAX_SEGMENT_ATTEMPTS);
+
+    downloader.download(segments, destination, listener);
+  }
+
+  private static String getAttachmentDownloadPath(SignalServiceAttachmentRemoteId cdnPath) {
     if (cdnPath.getV2().isPresent()) {
-      path = String.format(Locale.US, ATTACHMENT_ID_DOWNLOAD_PATH, cdnPath.getV2().get());
+      return String.format(Locale.US, ATTACHMENT_ID_DOWNLOAD_PATH, cdnPath.getV2().get());
     } else {
-      path = String.format(Locale.US, ATTACHMENT_KEY_DOWNLOAD_PATH, cdnPath.getV3().get());
+      return String.format(Locale.US, ATTACHMENT_KEY_DOWNLOAD_PATH, cdnPath.getV3().get());
     }
-    downloadFromCdn(destination, cdnNumber, path, maxSizeBytes, listener);
   }
 
   public byte[] retrieveSticker(byte[] packId, int stickerId)
@@ -880,7 +937,7 @@ public class PushServiceSocket {
     makeServiceRequest(SUBMIT_RATE_LIMIT_CHALLENGE, "PUT", payload);
   }
 
-  public DirectoryResponse getDirectoryResponse(long directoryVersion, boolean forceFull)
+  public DirectoryResponse getDirectoryResponse(long directoryVersion, boolean forceFull, DirectoryEntryListener listener)
       throws IOException
   {
     String resp;
@@ -891,7 +948,7 @@ public class PushServiceSocket {
     }
 
     try (ResponseBody responseBody = makePlainDirectoryRequest(resp, "GET", null)) {
-      return DirectoryResponse.parseFrom(responseBody.bytes());
+      return DirectoryResponseParser.parse(responseBody.byteStream(), listener);
     }
   }
 
@@ -1194,17 +1251,22 @@ public class PushServiceSocket {
 
   private void downloadFromCdn(OutputStream outputStream, long offset, int cdnNumber, String path, long maxSizeBytes, ProgressListener listener)
       throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException
+  {
+    downloadFromCdn(outputStream, offset, -1, cdnNumber, path, maxSizeBytes, listener);
+  }
+
+  /**
+   * @param length How many bytes to request from {@code offset}, or -1 for everything after it.
+   */
+  private void downloadFromCdn(OutputStream outputStream, long offset, long length, int cdnNumber, String path, long maxSizeBytes, ProgressListener listener)
+      throws PushNetworkException, NonSuccessfulResponseCodeException, MissingConfigurationException
   {
     ConnectionHolder[] cdnNumberClients = cdnClientsMap.get(cdnNumber);
     if (cdnNumberClients == null) {
       throw new MissingConfigurationException("Attempted to download from unsupported CDN number: " + cdnNumber + ", Our configuration supports: " + cdnClientsMap.keySet());
     }
     ConnectionHolder connectionHolder = getRandom(cdnNumberClients, random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     Request.Builder request = new Request.Builder().url(connectionHolder.getUrl() + "/" + path).get();
 
@@ -1212,7 +1274,9 @@ public class PushServiceSocket {
       request.addHeader("Host", connectionHolder.getHostHeader().get());
     }
 
-    if (offset > 0) {
+    if (length > 0) {
+      request.addHeader("Range", "bytes=" + offset + "-" + (offset + length - 1));
+    } else if (offset > 0) {
       Log.i(TAG, "Starting download from CDN with offset " + offset);
       request.addHeader("Range", "bytes=" + offset + "-");
     }
@@ -1280,11 +1344,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(0), random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     DigestingRequestBody file = new DigestingRequestBody(data, outputStreamFactory, contentType, length, progressListener, cancelationSignal, 0);
 
@@ -1335,11 +1395,7 @@ public class PushServiceSocket {
 
   private String getResumableUploadUrl(String signedUrl, Map<String, String> headers) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     Request.Builder request = new Request.Builder().url(buildConfiguredUrl(connectionHolder, signedUrl))
                                                    .post(RequestBody.create(null, ""));
@@ -1386,11 +1442,7 @@ public class PushServiceSocket {
 
   private byte[] uploadToCdn2(String resumableUrl, InputStream data, String contentType, long length, OutputStreamFactory outputStreamFactory, ProgressListener progressListener, CancelationSignal cancelationSignal) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     ResumeInfo           resumeInfo = getResumeInfo(resumableUrl, length);
     DigestingRequestBody file       = new DigestingRequestBody(data, outputStreamFactory, contentType, length, progressListener, cancelationSignal, resumeInfo.contentStart);
@@ -1437,11 +1489,7 @@ public class PushServiceSocket {
 
   private ResumeInfo getResumeInfo(String resumableUrl, long contentLength) throws IOException {
     ConnectionHolder connectionHolder = getRandom(cdnClientsMap.get(2), random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     final long   offset;
     final String contentRange;
@@ -1628,7 +1676,7 @@ public class PushServiceSocket {
                                                         Map<String, String> headers,
                                                         Optional<UnidentifiedAccess> unidentifiedAccessKey)
   {
-    OkHttpClient okHttpClient = buildOkHttpClient(unidentifiedAccessKey.isPresent());
+    OkHttpClient okHttpClient = getServiceClient(unidentifiedAccessKey.isPresent());
     Call         call         = okHttpClient.newCall(buildServiceRequest(urlFragment, method, jsonRequestBody(jsonBody), headers, unidentifiedAccessKey, false));
 
     synchronized (connections) {
@@ -1768,7 +1816,7 @@ public class PushServiceSocket {
       throws PushNetworkException
   {
     try {
-      OkHttpClient okHttpClient = buildOkHttpClient(unidentifiedAccess.isPresent());
+      OkHttpClient okHttpClient = getServiceClient(unidentifiedAccess.isPresent());
       Call         call         = okHttpClient.newCall(buildServiceRequest(urlFragment, method, body, headers, unidentifiedAccess, doNotAddAuthenticationOrUnidentifiedAccessKey));
 
       synchronized (connections) {
@@ -1787,15 +1835,15 @@ public class PushServiceSocket {
     }
   }
 
-  private OkHttpClient buildOkHttpClient(boolean unidentified) {
+  private OkHttpClient getServiceClient(boolean unidentified) {
     ServiceConnectionHolder connectionHolder = (ServiceConnectionHolder) getRandom(serviceClients, random);
-    OkHttpClient            baseClient       = unidentified ? connectionHolder.getUnidentifiedClient() : connectionHolder.getClient();
+    ClientSettings          settings         = new ClientSettings(soTimeoutMillis, automaticNetworkRetry, true);
 
-    return baseClient.newBuilder()
-                     .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                     .retryOnConnectionFailure(automaticNetworkRetry)
-                     .build();
+    return unidentified ? connectionHolder.getUnidentifiedClient(settings) : connectionHolder.getClient(settings);
+  }
+
+  private OkHttpClient getClient(ConnectionHolder connectionHolder) {
+    return connectionHolder.getClient(new ClientSettings(soTimeoutMillis, true, true));
   }
 
   private Request buildServiceRequest(String urlFragment,
@@ -1868,11 +1916,7 @@ public class PushServiceSocket {
       throws PushNetworkException, NonSuccessfulResponseCodeException
   {
     ConnectionHolder connectionHolder = getRandom(storageClients, random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = getClient(connectionHolder);
 
     // Log.d(TAG, "Opening URL: <REDACTED>");
 
@@ -1945,12 +1989,7 @@ public class PushServiceSocket {
 
   public CallingResponse makeCallingRequest(long requestId, String url, String httpMethod, List<Pair<String, String>> headers, byte[] body) {
     ConnectionHolder connectionHolder = getRandom(serviceClients, random);
-    OkHttpClient okHttpClient = connectionHolder.getClient()
-                                                .newBuilder()
-                                                .followRedirects(false)
-                                                .connectTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .readTimeout(soTimeoutMillis, TimeUnit.MILLISECONDS)
-                                                .build();
+    OkHttpClient okHttpClient = connectionHolder.getClient(new ClientSettings(soTimeoutMillis, true, false));
 
     RequestBody requestBody = body != null ? RequestBody.create(null, body) : null;
     Request.Builder builder = new Request.Builder()
@@ -1996,13 +2035,16 @@ public class PushServiceSocket {
   private ServiceConnectionHolder[] createServiceConnectionHolders(SignalUrl[] urls,
                                                                    List<Interceptor> interceptors,
                                                                    Optional<Dns> dns,
-                                                                   Optional<ShadowProxy> proxy)
+                                                                   Optional<ShadowProxy> proxy,
+                                                                   ConnectionReuseTracker tracker)
   {
     List<ServiceConnectionHolder> serviceConnectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, proxy),
-                                                               createConnectionClient(url, interceptors, dns, proxy),
+      // The unidentified client gets its own connection pool, so sealed sender requests never share
+      // a connection with authenticated ones
+      serviceConnectionHolders.add(new ServiceConnectionHolder(createConnectionClient(url, interceptors, dns, proxy, tracker),
+                                                               createConnectionClient(url, interceptors, dns, proxy, tracker),
                                                                url.getUrl(), url.getHostHeader()));
     }
 
@@ -2012,13 +2054,14 @@ public class PushServiceSocket {
   private static Map<Integer, ConnectionHolder[]> createCdnClientsMap(final Map<Integer, SignalCdnUrl[]> signalCdnUrlMap,
                                                                       final List<Interceptor> interceptors,
                                                                       final Optional<Dns> dns,
-                                                                      final Optional<ShadowProxy> proxy)
+                                                                      final Optional<ShadowProxy> proxy,
+                                                                      final ConnectionReuseTracker tracker)
   {
     validateConfiguration(signalCdnUrlMap);
     final Map<Integer, ConnectionHolder[]> result = new HashMap<>();
     for (Map.Entry<Integer, SignalCdnUrl[]> entry : signalCdnUrlMap.entrySet()) {
       result.put(entry.getKey(),
-                 createConnectionHolders(entry.getValue(), interceptors, dns, proxy));
+                 createConnectionHolders(entry.getValue(), interceptors, dns, proxy, tracker));
     }
     return Collections.unmodifiableMap(result);
   }
@@ -2029,17 +2072,17 @@ public class PushServiceSocket {
     }
   }
 
-  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<ShadowProxy> proxy) {
+  private static ConnectionHolder[] createConnectionHolders(SignalUrl[] urls, List<Interceptor> interceptors, Optional<Dns> dns, Optional<ShadowProxy> proxy, ConnectionReuseTracker tracker) {
     List<ConnectionHolder> connectionHolders = new LinkedList<>();
 
     for (SignalUrl url : urls) {
-      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, proxy), url.getUrl(), url.getHostHeader()));
+      connectionHolders.add(new ConnectionHolder(createConnectionClient(url, interceptors, dns, proxy, tracker), url.getUrl(), url.getHostHeader()));
     }
 
     return connectionHolders.toArray(new ConnectionHolder[0]);
   }
 
-  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns, Optional<ShadowProxy> proxy) {
+  private static OkHttpClient createConnectionClient(SignalUrl url, List<Interceptor> interceptors, Optional<Dns> dns, Optional<ShadowProxy> proxy, ConnectionReuseTracker tracker) {
     try {
       TrustManager[] trustManagers = BlacklistingTrustManager.createFor(url.getTrustStore());
 
@@ -2059,7 +2102,8 @@ public class PushServiceSocket {
              .connectionSpecs(url.getConnectionSpecs().or(Util.immutableList(ConnectionSpec.RESTRICTED_TLS)))
              .build();
 
-      builder.connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS));
+      builder.connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS))
+             .eventListener(tracker);
 
       for (Interceptor interceptor : interceptors) {
         builder.addInterceptor(interceptor);
@@ -2202,9 +2246,10 @@ public class PushServiceSocket {
   }
 
   private static class ConnectionHolder {
-    private final OkHttpClient     client;
-    private final String           url;
-    private final Optional<String> hostHeader;
+    private final OkHttpClient                      client;
+    private final String                            url;
+    private final Optional<String>                  hostHeader;
+    private final Map<ClientSettings, OkHttpClient> configuredClients = new HashMap<>();
 
     private ConnectionHolder(OkHttpClient client, String url, Optional<String> hostHeader) {
       this.client     = client;
@@ -2216,6 +2261,25 @@ public class PushServiceSocket {
       return client;
     }
 
+    /**
+     * @return The client with {@code settings} applied. It's built the first time those settings
+     *         are asked for, and shared by every request that uses them after that.
+     */
+    synchronized OkHttpClient getClient(ClientSettings settings) {
+      return getConfiguredClient(client, configuredClients, settings);
+    }
+
+    static OkHttpClient getConfiguredClient(OkHttpClient base, Map<ClientSettings, OkHttpClient> configuredClients, ClientSettings settings) {
+      OkHttpClient configured = configuredClients.get(settings);
+
+      if (configured == null) {
+        configured = settings.applyTo(base);
+        configuredClients.put(settings, configured);
+      }
+
+      return configured;
+    }
+
     public String getUrl() {
       return url;
     }
@@ -2227,7 +2291,8 @@ public class PushServiceSocket {
 
   private static class ServiceConnectionHolder extends ConnectionHolder {
 
-    private final OkHttpClient unidentifiedClient;
+    private final OkHttpClient                      unidentifiedClient;
+    private final Map<ClientSettings, OkHttpClient> configuredUnidentifiedClients = new HashMap<>();
 
     private ServiceConnectionHolder(OkHttpClient identifiedClient, OkHttpClient unidentifiedClient, String url, Optional<String> hostHeader) {
       super(identifiedClient, url, hostHeader);
@@ -2237,6 +2302,50 @@ public class PushServiceSocket {
     OkHttpClient getUnidentifiedClient() {
       return unidentifiedClient;
     }
+
+    synchronized OkHttpClient getUnidentifiedClient(ClientSettings settings) {
+      return getConfiguredClient(unidentifiedClient, configuredUnidentifiedClients, settings);
+    }
+  }
+
+  /**
+   * The per-client settings that requests ask for. Requests with equal settings share a client,
+   * and all clients built from the same base share its connection pool and dispatcher.
+   */
+  private static final class ClientSettings {
+    private final long    timeoutMillis;
+    private final boolean retryOnConnectionFailure;
+    private final boolean followRedirects;
+
+    private ClientSettings(long timeoutMillis, boolean retryOnConnectionFailure, boolean followRedirects) {
+      this.timeoutMillis            = timeoutMillis;
+      this.retryOnConnectionFailure = retryOnConnectionFailure;
+      this.followRedirects          = followRedirects;
+    }
+
+    OkHttpClient applyTo(OkHttpClient base) {
+      return base.newBuilder()
+                 .connectTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                 .readTimeout(timeoutMillis, TimeUnit.MILLISECONDS)
+                 .retryOnConnectionFailure(retryOnConnectionFailure)
+                 .followRedirects(followRedirects)
+                 .build();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+      ClientSettings that = (ClientSettings) o;
+      return timeoutMillis == that.timeoutMillis &&
+             retryOnConnectionFailure == that.retryOnConnectionFailure &&
+             followRedirects == that.followRedirects;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(timeoutMillis, retryOnConnectionFailure, followRedirects);
+    }
   }
 
   private interface ResponseCodeHandler {
@@ -0,0 +1,75 @@
+package su.sres.signalservice.internal.push.http;
+
+import org.whispersystems.libsignal.logging.Log;
+
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+
+/**
+ * Counts how many calls got a connection, and how many of those had to open a new one, so we can
+ * see how often connections are reused. Logs a summary every {@link #LOG_INTERVAL} calls.
+ * <p>
+ * One instance can be shared by every client, since OkHttp calls it from whichever thread the call
+ * runs on.
+ */
+public final class ConnectionReuseTracker extends EventListener {
+
+  private static final String TAG = ConnectionReuseTracker.class.getSimpleName();
+
+  private static final long LOG_INTERVAL = 100;
+
+  private final AtomicLong acquired  = new AtomicLong();
+  private final AtomicLong connected = new AtomicLong();
+
+  @Override
+  public void connectEnd(Call call, InetSocketAddress inetSocketAddress, Proxy proxy, Protocol protocol) {
+    connected.incrementAndGet();
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    if (acquired.incrementAndGet() % LOG_INTERVAL == 0) {
+      Log.i(TAG, toString());
+    }
+  }
+
+  /**
+   * @return How many times a call was given a connection, new or reused.
+   */
+  public long getAcquiredCount() {
+    return acquired.get();
+  }
+
+  /**
+   * @return How many connections were opened.
+   */
+  public long getConnectedCount() {
+    return connected.get();
+  }
+
+  /**
+   * @return The fraction of calls that got a connection that was already open, from 0 to 1.
+   */
+  public double getReuseRate() {
+    long acquired  = getAcquiredCount();
+    long connected = getConnectedCount();
+
+    if (acquired == 0) {
+      return 0;
+    }
+
+    return Math.max(0, acquired - connected) / (double) acquired;
+  }
+
+  @Override
+  public String toString() {
+    return String.format(Locale.US, "Connections: %d acquired, %d opened, %.1f%% reused", getAcquiredCount(), getConnectedCount(), getReuseRate() * 100);
+  }
+}
@@ -0,0 +1,108 @@
+package su.sres.signalservice.internal.push.http;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Describes how a download is split into byte ranges that are fetched in parallel, and how much of
+ * each range has been written so far. Segment {@code i} covers {@code [end(i - 1), end(i))}.
+ * <p>
+ * The ends and progress can be stored and handed back to {@link #SegmentedDownloadSpec(long[], long[])}
+ * to pick the download up again later.
+ */
+public final class SegmentedDownloadSpec {
+
+  private final long[]          segmentEnds;
+  private final AtomicLongArray segmentProgress;
+
+  public SegmentedDownloadSpec(long[] segmentEnds, long[] segmentProgress) {
+    if (segmentEnds.length == 0 || segmentEnds.length != segmentProgress.length) {
+      throw new IllegalArgumentException("Bad segment count: " + segmentEnds.length + ", " + segmentProgress.length);
+    }
+
+    for (int i = 0; i < segmentEnds.length; i++) {
+      long start = i == 0 ? 0 : segmentEnds[i - 1];
+
+      if (segmentEnds[i] <= start || segmentProgress[i] < 0 || segmentProgress[i] > segmentEnds[i] - start) {
+        throw new IllegalArgumentException("Bad segment " + i + ": " + start + "-" + segmentEnds[i] + ", " + segmentProgress[i]);
+      }
+    }
+
+    this.segmentEnds     = segmentEnds.clone();
+    this.segmentProgress = new AtomicLongArray(segmentProgress);
+  }
+
+  /**
+   * Splits {@code totalLength} bytes into {@code segmentCount} segments of roughly equal size.
+   */
+  public static SegmentedDownloadSpec split(long totalLength, int segmentCount) {
+    int    count = (int) Math.max(1, Math.min(segmentCount, totalLength));
+    long[] ends  = new long[count];
+
+    for (int i = 0; i < count; i++) {
+      ends[i] = totalLength * (i + 1) / count;
+    }
+
+    return new SegmentedDownloadSpec(ends, new long[count]);
+  }
+
+  public int getSegmentCount() {
+    return segmentEnds.length;
+  }
+
+  public long getSegmentStart(int segment) {
+    return segment == 0 ? 0 : segmentEnds[segment - 1];
+  }
+
+  public long getSegmentEnd(int segment) {
+    return segmentEnds[segment];
+  }
+
+  /**
+   * @return How many bytes at the start of the segment have been written.
+   */
+  public long getSegmentProgress(int segment) {
+    return segmentProgress.get(segment);
+  }
+
+  public long getTotalLength() {
+    return segmentEnds[segmentEnds.length - 1];
+  }
+
+  public long getDownloadedLength() {
+    long downloaded = 0;
+
+    for (int i = 0; i < segmentProgress.length(); i++) {
+      downloaded += segmentProgress.get(i);
+    }
+
+    return downloaded;
+  }
+
+  public boolean isComplete() {
+    return getDownloadedLength() == getTotalLength();
+  }
+
+  public long[] getSegmentEnds() {
+    return segmentEnds.clone();
+  }
+
+  public long[] getSegmentProgress() {
+    long[] progress = new long[segmentProgress.length()];
+
+    for (int i = 0; i < progress.length; i++) {
+      progress[i] = segmentProgress.get(i);
+    }
+
+    return progress;
+  }
+
+  void addSegmentProgress(int segment, long length) {
+    segmentProgress.addAndGet(segment, length);
+  }
+
+  @Override
+  public String toString() {
+    return "SegmentedDownloadSpec{ends=" + Arrays.toString(segmentEnds) + ", progress=" + segmentProgress + "}";
+  }
+}
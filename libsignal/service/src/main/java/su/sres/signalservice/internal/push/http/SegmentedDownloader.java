@@ -0,0 +1,186 @@
+package su.sres.signalservice.internal.push.http;
+
+import org.whispersystems.libsignal.logging.Log;
+import su.sres.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import su.sres.signalservice.api.push.exceptions.PushNetworkException;
+import su.sres.signalservice.api.push.exceptions.RangeException;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Downloads the segments of a {@link SegmentedDownloadSpec} over parallel range requests, writing
+ * each one straight to its place in a file that's already the full size.
+ * <p>
+ * A segment that fails with a {@link PushNetworkException} is retried from where it stopped. If it
+ * keeps failing, the other segments are still allowed to finish before the failure is rethrown, so
+ * the spec records as much progress as possible.
+ */
+public final class SegmentedDownloader {
+
+  private static final String TAG = SegmentedDownloader.class.getSimpleName();
+
+  public interface RangeFetcher {
+    /**
+     * Writes the bytes in {@code [offset, offset + length)} to {@code outputStream}.
+     */
+    void fetch(long offset, long length, OutputStream outputStream) throws IOException;
+  }
+
+  private final RangeFetcher fetcher;
+  private final int          maxAttemptsPerSegment;
+
+  public SegmentedDownloader(RangeFetcher fetcher, int maxAttemptsPerSegment) {
+    this.fetcher               = fetcher;
+    this.maxAttemptsPerSegment = maxAttemptsPerSegment;
+  }
+
+  /**
+   * Downloads whatever is missing from each segment of {@code spec} into {@code destination}, and
+   * reports the combined progress of all segments to {@code listener}.
+   */
+  public void download(SegmentedDownloadSpec spec, FileChannel destination, ProgressListener listener) throws IOException {
+    ExecutorService    executor = Executors.newFixedThreadPool(spec.getSegmentCount());
+    List<Future<Void>> futures  = new ArrayList<>(spec.getSegmentCount());
+    ProgressAggregator progress = new ProgressAggregator(spec, listener);
+    IOException        failure  = null;
+
+    try {
+      for (int i = 0; i < spec.getSegmentCount(); i++) {
+        final int segment = i;
+        futures.add(executor.submit(() -> {
+          downloadSegment(spec, segment, destination, progress);
+          return null;
+        }));
+      }
+
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException) {
+            if (failure == null || failure instanceof PushNetworkException) {
+              failure = (IOException) e.getCause();
+            }
+          } else if (e.getCause() instanceof RuntimeException) {
+            throw (RuntimeException) e.getCause();
+          } else {
+            throw new AssertionError(e);
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      failure = new InterruptedIOException("Interrupted while downloading segments");
+    } finally {
+      executor.shutdownNow();
+    }
+
+    // The progress in the spec is only worth saving if what it describes is actually on disk
+    destination.force(false);
+
+    if (failure != null) {
+      Log.w(TAG, "Segmented download failed: " + spec);
+      throw failure;
+    }
+  }
+
+  private void downloadSegment(SegmentedDownloadSpec spec, int segment, FileChannel destination, ProgressAggregator progress)
+      throws IOException
+  {
+    for (int attempt = 1; ; attempt++) {
+      long offset    = spec.getSegmentStart(segment) + spec.getSegmentProgress(segment);
+      long remaining = spec.getSegmentEnd(segment) - offset;
+
+      if (remaining == 0) {
+        return;
+      }
+
+      try {
+        fetcher.fetch(offset, remaining, new SegmentOutputStream(spec, segment, destination, progress));
+      } catch (PushNetworkException e) {
+        if (attempt >= maxAttemptsPerSegment || Thread.currentThread().isInterrupted()) {
+          throw e;
+        }
+
+        Log.w(TAG, "Segment " + segment + " failed on attempt " + attempt + ", retrying from " + (spec.getSegmentStart(segment) + spec.getSegmentProgress(segment)), e);
+        continue;
+      }
+
+      if (spec.getSegmentStart(segment) + spec.getSegmentProgress(segment) < spec.getSegmentEnd(segment)) {
+        Log.w(TAG, "Segment " + segment + " ended early at " + (spec.getSegmentStart(segment) + spec.getSegmentProgress(segment)));
+        throw new RangeException(spec.getSegmentEnd(segment));
+      }
+    }
+  }
+
+  private static final class SegmentOutputStream extends OutputStream {
+
+    private final SegmentedDownloadSpec spec;
+    private final int                   segment;
+    private final FileChannel           destination;
+    private final ProgressAggregator    progress;
+
+    private SegmentOutputStream(SegmentedDownloadSpec spec, int segment, FileChannel destination, ProgressAggregator progress) {
+      this.spec        = spec;
+      this.segment     = segment;
+      this.destination = destination;
+      this.progress    = progress;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] { (byte) b }, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] buffer, int offset, int length) throws IOException {
+      long position = spec.getSegmentStart(segment) + spec.getSegmentProgress(segment);
+
+      // Happens if the server ignores the Range header and sends everything
+      if (position + length > spec.getSegmentEnd(segment)) {
+        throw new RangeException(position + length);
+      }
+
+      ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, offset, length);
+
+      while (byteBuffer.hasRemaining()) {
+        position += destination.write(byteBuffer, position);
+      }
+
+      spec.addSegmentProgress(segment, length);
+      progress.onSegmentProgress();
+    }
+  }
+
+  private static final class ProgressAggregator {
+
+    private final SegmentedDownloadSpec spec;
+    private final ProgressListener      listener;
+
+    private long lastReported = -1;
+
+    private ProgressAggregator(SegmentedDownloadSpec spec, ProgressListener listener) {
+      this.spec     = spec;
+      this.listener = listener;
+    }
+
+    synchronized void onSegmentProgress() {
+      long downloaded = spec.getDownloadedLength();
+
+      if (listener != null && downloaded > lastReported) {
+        listener.onAttachmentProgress(spec.getTotalLength(), downloaded);
+        lastReported = downloaded;
+      }
+    }
+  }
+}
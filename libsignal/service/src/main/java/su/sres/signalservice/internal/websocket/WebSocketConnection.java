@@ -191,6 +191,18 @@ public class WebSocketConnection extends WebSocketListener {
     }
   }
 
+  /**
+   * Like {@link #readRequest(long)}, but never waits. Returns null if there is nothing already
+   * queued up to read.
+   */
+  public synchronized WebSocketRequestMessage readRequestIfAvailable() throws IOException {
+    if (incomingRequests.isEmpty() && client == null) {
+      throw new IOException("Connection closed!");
+    }
+
+    return incomingRequests.isEmpty() ? null : incomingRequests.removeFirst();
+  }
+
   public synchronized Single<WebsocketResponse> sendRequest(WebSocketRequestMessage request) throws IOException {
     if (client == null) {
       throw new IOException("No connection!");
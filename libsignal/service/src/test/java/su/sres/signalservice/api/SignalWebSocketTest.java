@@ -0,0 +1,138 @@
+package su.sres.signalservice.api;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import su.sres.signalservice.api.messages.SignalServiceEnvelope;
+import su.sres.signalservice.api.websocket.WebSocketConnectionState;
+import su.sres.signalservice.api.websocket.WebSocketFactory;
+import su.sres.signalservice.internal.push.SignalServiceProtos.Envelope;
+import su.sres.signalservice.internal.websocket.WebSocketConnection;
+import su.sres.signalservice.internal.websocket.WebSocketProtos.WebSocketRequestMessage;
+import su.sres.signalservice.internal.websocket.WebSocketProtos.WebSocketResponseMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import io.reactivex.rxjava3.core.Observable;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public final class SignalWebSocketTest {
+
+  private WebSocketConnection connection;
+  private SignalWebSocket     subject;
+
+  @Before
+  public void setUp() {
+    WebSocketFactory factory = mock(WebSocketFactory.class);
+
+    connection = mock(WebSocketConnection.class);
+    when(factory.createWebSocket()).thenReturn(connection);
+    when(connection.connect()).thenReturn(Observable.<WebSocketConnectionState>never());
+
+    subject = new SignalWebSocket(factory);
+    subject.connect();
+  }
+
+  @Test
+  public void readMessageBatch_deliversEnvelopesInOrderAndAcknowledgesAll() throws Exception {
+    when(connection.readRequest(anyLong())).thenReturn(envelopeRequest(1));
+    when(connection.readRequestIfAvailable()).thenReturn(envelopeRequest(2), envelopeRequest(3), null);
+
+    List<Long> timestamps = new ArrayList<>();
+
+    boolean empty = subject.readMessageBatch(1000, 10, envelopes -> {
+      for (SignalServiceEnvelope envelope : envelopes) {
+        timestamps.add(envelope.getTimestamp());
+      }
+    });
+
+    assertFalse(empty);
+    assertEquals(3, timestamps.size());
+    assertEquals(1L, (long) timestamps.get(0));
+    assertEquals(2L, (long) timestamps.get(1));
+    assertEquals(3L, (long) timestamps.get(2));
+
+    ArgumentCaptor<WebSocketResponseMessage> responses = ArgumentCaptor.forClass(WebSocketResponseMessage.class);
+    verify(connection, times(3)).sendResponse(responses.capture());
+    assertEquals(1, responses.getAllValues().get(0).getId());
+    assertEquals(2, responses.getAllValues().get(1).getId());
+    assertEquals(3, responses.getAllValues().get(2).getId());
+  }
+
+  @Test
+  public void readMessageBatch_stopsAtBatchSize() throws Exception {
+    when(connection.readRequest(anyLong())).thenReturn(envelopeRequest(1));
+    when(connection.readRequestIfAvailable()).thenReturn(envelopeRequest(2), envelopeRequest(3));
+
+    List<SignalServiceEnvelope> received = new ArrayList<>();
+
+    subject.readMessageBatch(1000, 2, received::addAll);
+
+    assertEquals(2, received.size());
+    verify(connection, times(1)).readRequestIfAvailable();
+    verify(connection, times(2)).sendResponse(any());
+  }
+
+  @Test
+  public void readMessageBatch_stopsAtEmptyMarker() throws Exception {
+    when(connection.readRequest(anyLong())).thenReturn(envelopeRequest(1));
+    when(connection.readRequestIfAvailable()).thenReturn(emptyRequest(2), envelopeRequest(3));
+
+    List<SignalServiceEnvelope> received = new ArrayList<>();
+
+    boolean empty = subject.readMessageBatch(1000, 10, received::addAll);
+
+    assertTrue(empty);
+    assertEquals(1, received.size());
+    verify(connection, times(2)).sendResponse(any());
+  }
+
+  @Test
+  public void readMessageBatch_doesNotAcknowledgeWhenCallbackFails() throws Exception {
+    when(connection.readRequest(anyLong())).thenReturn(envelopeRequest(1));
+    when(connection.readRequestIfAvailable()).thenReturn(envelopeRequest(2), null);
+
+    try {
+      subject.readMessageBatch(1000, 10, envelopes -> {
+        throw new IllegalStateException();
+      });
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected
+    }
+
+    verify(connection, never()).sendResponse(any());
+  }
+
+  private static WebSocketRequestMessage envelopeRequest(long id) {
+    return WebSocketRequestMessage.newBuilder()
+                                  .setId(id)
+                                  .setVerb("PUT")
+                                  .setPath("/api/v1/message")
+                                  .setBody(ByteString.copyFrom(Envelope.newBuilder().setTimestamp(id).build().toByteArray()))
+                                  .build();
+  }
+
+  private static WebSocketRequestMessage emptyRequest(long id) {
+    return WebSocketRequestMessage.newBuilder()
+                                  .setId(id)
+                                  .setVerb("PUT")
+                                  .setPath("/api/v1/queue/empty")
+                                  .build();
+  }
+}
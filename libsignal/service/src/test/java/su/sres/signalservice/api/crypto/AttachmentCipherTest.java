@@ -22,6 +22,7 @@ import java.security.Security;
 import java.util.Arrays;
 
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static su.sres.signalservice.testutil.LibSignalLibraryUtil.assumeLibSignalSupportedOnOS;
 
@@ -197,6 +198,122 @@ public final class AttachmentCipherTest {
         assertTrue(hitCorrectException);
     }
 
+    @Test
+    public void attachment_singlePass_encryptDecrypt() throws IOException, InvalidMessageException {
+        byte[]                key             = Util.getSecretBytes(64);
+        byte[]                plaintextInput  = Util.getSecretBytes(200 * 1024 + 7);
+        EncryptResult         encryptResult   = encryptData(plaintextInput, key);
+        File                  cipherFile      = writeToFile(encryptResult.ciphertext);
+        ByteArrayOutputStream plaintextOutput = new ByteArrayOutputStream();
+        long                  written         = AttachmentCipherInputStream.decryptAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest, plaintextOutput);
+
+        assertEquals(plaintextInput.length, written);
+        assertArrayEquals(plaintextInput, plaintextOutput.toByteArray());
+
+        cipherFile.delete();
+    }
+
+    @Test
+    public void attachment_singlePass_encryptDecryptPaddedContent() throws IOException, InvalidMessageException {
+        int[] lengths = { 531, 600, 724, 1019, 1024, 70000 };
+
+        for (int length : lengths) {
+            byte[] plaintextInput = Util.getSecretBytes(length);
+
+            byte[]                key             = Util.getSecretBytes(64);
+            ByteArrayInputStream  inputStream     = new ByteArrayInputStream(plaintextInput);
+            InputStream           dataStream      = new PaddingInputStream(inputStream, length);
+            ByteArrayOutputStream encryptedStream = new ByteArrayOutputStream();
+            DigestingOutputStream digestStream    = new AttachmentCipherOutputStreamFactory(key, null).createFor(encryptedStream);
+
+            Util.copy(dataStream, digestStream);
+            digestStream.flush();
+
+            byte[] digest        = digestStream.getTransmittedDigest();
+            byte[] encryptedData = encryptedStream.toByteArray();
+
+            encryptedStream.close();
+            inputStream.close();
+
+            File                  cipherFile      = writeToFile(encryptedData);
+            ByteArrayOutputStream plaintextOutput = new ByteArrayOutputStream();
+
+            AttachmentCipherInputStream.decryptAttachment(cipherFile, length, key, digest, plaintextOutput);
+
+            assertArrayEquals(plaintextInput, plaintextOutput.toByteArray());
+
+            cipherFile.delete();
+        }
+    }
+
+    @Test
+    public void attachment_singlePass_matchesTwoPass() throws IOException, InvalidMessageException {
+        byte[]                key             = Util.getSecretBytes(64);
+        byte[]                plaintextInput  = Util.getSecretBytes(100000);
+        EncryptResult         encryptResult   = encryptData(plaintextInput, key);
+        File                  cipherFile      = writeToFile(encryptResult.ciphertext);
+        ByteArrayOutputStream plaintextOutput = new ByteArrayOutputStream();
+
+        AttachmentCipherInputStream.decryptAttachment(cipherFile, 0, key, encryptResult.digest, plaintextOutput);
+
+        assertArrayEquals(readInputStreamFully(AttachmentCipherInputStream.createForAttachment(cipherFile, 0, key, encryptResult.digest)),
+                          plaintextOutput.toByteArray());
+
+        cipherFile.delete();
+    }
+
+    @Test
+    public void attachment_singlePass_decryptFailOnBadMac() throws IOException {
+        File    cipherFile          = null;
+        boolean hitCorrectException = false;
+
+        try {
+            byte[]        key              = Util.getSecretBytes(64);
+            byte[]        plaintextInput   = "Uncle Ben".getBytes();
+            EncryptResult encryptResult    = encryptData(plaintextInput, key);
+            byte[]        badMacCiphertext = Arrays.copyOf(encryptResult.ciphertext, encryptResult.ciphertext.length);
+
+            badMacCiphertext[badMacCiphertext.length - 1] += 1;
+
+            cipherFile = writeToFile(badMacCiphertext);
+
+            AttachmentCipherInputStream.decryptAttachment(cipherFile, plaintextInput.length, key, encryptResult.digest, new ByteArrayOutputStream());
+        } catch (InvalidMessageException e) {
+            hitCorrectException = true;
+        } finally {
+            if (cipherFile != null) {
+                cipherFile.delete();
+            }
+        }
+
+        assertTrue(hitCorrectException);
+    }
+
+    @Test
+    public void attachment_singlePass_decryptFailOnBadDigest() throws IOException {
+        File    cipherFile          = null;
+        boolean hitCorrectException = false;
+
+        try {
+            byte[]        key            = Util.getSecretBytes(64);
+            byte[]        plaintextInput = "Mary Jane".getBytes();
+            EncryptResult encryptResult  = encryptData(plaintextInput, key);
+            byte[]        badDigest      = new byte[32];
+
+            cipherFile = writeToFile(encryptResult.ciphertext);
+
+            AttachmentCipherInputStream.decryptAttachment(cipherFile, plaintextInput.length, key, badDigest, new ByteArrayOutputStream());
+        } catch (InvalidMessageException e) {
+            hitCorrectException = true;
+        } finally {
+            if (cipherFile != null) {
+                cipherFile.delete();
+            }
+        }
+
+        assertTrue(hitCorrectException);
+    }
+
     @Test
     public void sticker_encryptDecrypt() throws IOException, InvalidMessageException {
         assumeLibSignalSupportedOnOS();
@@ -0,0 +1,289 @@
+package su.sres.signalservice.api.crypto;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.conscrypt.Conscrypt;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.whispersystems.libsignal.InvalidMessageException;
+
+import su.sres.signalservice.internal.crypto.PaddingInputStream;
+import su.sres.signalservice.internal.util.Util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.security.Security;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public final class StreamingAttachmentDecryptorTest {
+
+    static {
+        Security.insertProviderAt(Conscrypt.newProvider(), 1);
+    }
+
+    private static final int     LENGTH = 100_003;
+    private static final Pattern RANGE  = Pattern.compile("bytes=(\\d+)-(\\d*)");
+
+    private final byte[] key       = Util.getSecretBytes(64);
+    private final byte[] plaintext = Util.getSecretBytes(LENGTH);
+
+    private byte[] ciphertext;
+    private byte[] digest;
+
+    private HttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        ByteArrayOutputStream        encrypted = new ByteArrayOutputStream();
+        AttachmentCipherOutputStream out       = new AttachmentCipherOutputStream(key, null, encrypted);
+
+        Util.copy(new PaddingInputStream(new ByteArrayInputStream(plaintext), LENGTH), out);
+        out.flush();
+
+        ciphertext = encrypted.toByteArray();
+        digest     = out.getTransmittedDigest();
+    }
+
+    @After
+    public void tearDown() {
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    @Test
+    public void decrypt_inOneWrite() throws IOException, InvalidMessageException {
+        ByteArrayOutputStream        output    = new ByteArrayOutputStream();
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, output);
+
+        decryptor.write(ciphertext);
+
+        assertEquals(LENGTH, decryptor.finish());
+        assertArrayEquals(plaintext, output.toByteArray());
+    }
+
+    @Test
+    public void decrypt_inOddSizedWrites() throws IOException, InvalidMessageException {
+        for (int chunkSize : new int[] { 1, 7, 15, 17, 31, 33, 4099 }) {
+            ByteArrayOutputStream        output    = new ByteArrayOutputStream();
+            StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, output);
+
+            for (int i = 0; i < ciphertext.length; i += chunkSize) {
+                decryptor.write(ciphertext, i, Math.min(chunkSize, ciphertext.length - i));
+            }
+
+            assertEquals(LENGTH, decryptor.finish());
+            assertArrayEquals(plaintext, output.toByteArray());
+        }
+    }
+
+    @Test
+    public void decrypt_unknownLength_includesPadding() throws IOException, InvalidMessageException {
+        ByteArrayOutputStream        output    = new ByteArrayOutputStream();
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, 0, output);
+
+        decryptor.write(ciphertext);
+        decryptor.finish();
+
+        assertEquals(PaddingInputStream.getPaddedSize(LENGTH), output.size());
+        assertArrayEquals(plaintext, Arrays.copyOf(output.toByteArray(), LENGTH));
+    }
+
+    @Test
+    public void resume_atBlockBoundaries() throws IOException, InvalidMessageException {
+        int[] resumePoints = { 16, 4096, 65536, LENGTH - (LENGTH % 16) };
+
+        for (int existingLength : resumePoints) {
+            ByteArrayOutputStream        output    = new ByteArrayOutputStream();
+            StreamingAttachmentDecryptor decryptor = StreamingAttachmentDecryptor.resume(key, digest, LENGTH,
+                                                                                         Arrays.copyOf(ciphertext, 16),
+                                                                                         new ByteArrayInputStream(plaintext, 0, existingLength),
+                                                                                         existingLength,
+                                                                                         output);
+
+            assertEquals(16 + existingLength, decryptor.getCiphertextOffset());
+
+            decryptor.write(ciphertext, (int) decryptor.getCiphertextOffset(), ciphertext.length - (int) decryptor.getCiphertextOffset());
+
+            assertEquals(LENGTH, decryptor.finish());
+            assertArrayEquals(Arrays.copyOfRange(plaintext, existingLength, LENGTH), output.toByteArray());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void resume_failsOffBlockBoundary() throws IOException {
+        StreamingAttachmentDecryptor.resume(key, digest, LENGTH, Arrays.copyOf(ciphertext, 16), new ByteArrayInputStream(plaintext), 17, new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void resume_failsWithWrongExistingPlaintext() throws IOException {
+        byte[] wrong = Arrays.copyOf(plaintext, 4096);
+        wrong[100] ^= 1;
+
+        StreamingAttachmentDecryptor decryptor = StreamingAttachmentDecryptor.resume(key, digest, LENGTH, Arrays.copyOf(ciphertext, 16), new ByteArrayInputStream(wrong), wrong.length, new ByteArrayOutputStream());
+        decryptor.write(ciphertext, 16 + wrong.length, ciphertext.length - 16 - wrong.length);
+
+        assertFinishFails(decryptor);
+    }
+
+    @Test
+    public void finish_failsOnBadMac() throws IOException {
+        byte[] badMac = ciphertext.clone();
+        badMac[badMac.length - 1] ^= 1;
+
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, new ByteArrayOutputStream());
+        decryptor.write(badMac);
+
+        assertFinishFails(decryptor);
+    }
+
+    @Test
+    public void finish_failsOnBadDigest() throws IOException {
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, new byte[32], LENGTH, new ByteArrayOutputStream());
+        decryptor.write(ciphertext);
+
+        assertFinishFails(decryptor);
+    }
+
+    @Test
+    public void finish_failsWhenTruncated() throws IOException {
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, new ByteArrayOutputStream());
+        decryptor.write(ciphertext, 0, ciphertext.length - 1000);
+
+        assertFinishFails(decryptor);
+    }
+
+    @Test
+    public void finish_failsWhenShorterThanOverhead() throws IOException {
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, new ByteArrayOutputStream());
+        decryptor.write(ciphertext, 0, 40);
+
+        assertFinishFails(decryptor);
+    }
+
+    @Test
+    public void downloadFromLocalCdn_resumesAfterDroppedConnection() throws Exception {
+        startCdn();
+
+        ByteArrayOutputStream        output    = new ByteArrayOutputStream();
+        StreamingAttachmentDecryptor decryptor = new StreamingAttachmentDecryptor(key, digest, LENGTH, output);
+
+        try {
+            download(decryptor, 0, -1, ciphertext.length / 3);
+            fail();
+        } catch (IOException e) {
+            // Expected
+        }
+
+        long   existingLength = output.size() - (output.size() % StreamingAttachmentDecryptor.BLOCK_SIZE);
+        byte[] existing       = Arrays.copyOf(output.toByteArray(), (int) existingLength);
+
+        ByteArrayOutputStream iv = new ByteArrayOutputStream();
+        download(iv, 0, StreamingAttachmentDecryptor.BLOCK_SIZE - 1, Long.MAX_VALUE);
+
+        ByteArrayOutputStream        resumedOutput = new ByteArrayOutputStream();
+        StreamingAttachmentDecryptor resumed       = StreamingAttachmentDecryptor.resume(key, digest, LENGTH, iv.toByteArray(),
+                                                                                         new ByteArrayInputStream(existing), existingLength,
+                                                                                         resumedOutput);
+        download(resumed, resumed.getCiphertextOffset(), -1, Long.MAX_VALUE);
+
+        assertEquals(LENGTH, resumed.finish());
+
+        byte[] result = new byte[LENGTH];
+        System.arraycopy(existing, 0, result, 0, existing.length);
+        System.arraycopy(resumedOutput.toByteArray(), 0, result, existing.length, resumedOutput.size());
+
+        assertArrayEquals(plaintext, result);
+    }
+
+    private void assertFinishFails(StreamingAttachmentDecryptor decryptor) throws IOException {
+        try {
+            decryptor.finish();
+            fail();
+        } catch (InvalidMessageException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * A stand-in for the CDN that honors Range requests.
+     */
+    private void startCdn() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+
+        server.createContext("/attachments/", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            int    start = 0;
+            int    end   = ciphertext.length - 1;
+
+            if (range != null) {
+                Matcher matcher = RANGE.matcher(range);
+
+                if (!matcher.matches() || Integer.parseInt(matcher.group(1)) >= ciphertext.length) {
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+
+                start = Integer.parseInt(matcher.group(1));
+
+                if (!matcher.group(2).isEmpty()) {
+                    end = Math.min(end, Integer.parseInt(matcher.group(2)));
+                }
+
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + ciphertext.length);
+            }
+
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(range != null ? 206 : 200, length);
+
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(ciphertext, start, length);
+            }
+        });
+
+        server.start();
+    }
+
+    /**
+     * Fetches a range the way PushServiceSocket does, giving up with an IOException after
+     * {@code dropAfter} bytes to simulate the connection going away.
+     */
+    private void download(OutputStream destination, long offset, long end, long dropAfter) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/attachments/test").openConnection();
+
+        if (offset > 0 || end >= 0) {
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (end >= 0 ? end : ""));
+        }
+
+        try (InputStream in = connection.getInputStream()) {
+            byte[] buffer    = new byte[32768];
+            long   totalRead = 0;
+            int    read;
+
+            while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, dropAfter - totalRead))) > 0) {
+                destination.write(buffer, 0, read);
+                totalRead += read;
+            }
+
+            if (totalRead == dropAfter) {
+                throw new IOException("Connection dropped");
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+}
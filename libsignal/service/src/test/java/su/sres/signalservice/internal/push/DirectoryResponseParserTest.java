@@ -0,0 +1,79 @@
+package su.sres.signalservice.internal.push;
+
+import org.junit.Test;
+
+import su.sres.signalservice.api.storage.protos.DirectoryResponse;
+import su.sres.signalservice.api.storage.protos.DirectoryUpdate;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DirectoryResponseParserTest {
+
+  @Test
+  public void parse_fullUpdate_handsEveryEntryToTheListener() throws IOException {
+    Map<String, String> entries = new HashMap<>();
+
+    for (int i = 0; i < 1000; i++) {
+      entries.put("user" + i, i % 10 == 0 ? "" : "{\"uuid\":\"ebef429e-695e-4f51-bcc4-" + String.format("%012d", i) + "\"}");
+    }
+
+    DirectoryResponse original = DirectoryResponse.newBuilder()
+                                                  .setVersion(42)
+                                                  .setDirectoryUpdate(DirectoryUpdate.newBuilder()
+                                                                                     .setType(DirectoryUpdate.Type.FULL)
+                                                                                     .putAllDirectoryEntry(entries))
+                                                  .build();
+
+    Map<String, String> parsedEntries = new HashMap<>();
+    DirectoryResponse   parsed        = DirectoryResponseParser.parse(new ByteArrayInputStream(original.toByteArray()), parsedEntries::put);
+
+    assertEquals(entries, parsedEntries);
+    assertEquals(42, parsed.getVersion());
+    assertEquals(DirectoryResponse.StatusOrUpdateCase.DIRECTORY_UPDATE, parsed.getStatusOrUpdateCase());
+    assertEquals(DirectoryUpdate.Type.FULL, parsed.getDirectoryUpdate().getType());
+    assertEquals(0, parsed.getDirectoryUpdate().getDirectoryEntryCount());
+  }
+
+  @Test
+  public void parse_incrementalUpdate_keepsTypeAndRemovals() throws IOException {
+    DirectoryResponse original = DirectoryResponse.newBuilder()
+                                                  .setVersion(7)
+                                                  .setDirectoryUpdate(DirectoryUpdate.newBuilder()
+                                                                                     .setType(DirectoryUpdate.Type.INCREMENTAL)
+                                                                                     .putDirectoryEntry("alice", "-1")
+                                                                                     .putDirectoryEntry("", ""))
+                                                  .build();
+
+    Map<String, String> parsedEntries = new HashMap<>();
+    DirectoryResponse   parsed        = DirectoryResponseParser.parse(new ByteArrayInputStream(original.toByteArray()), parsedEntries::put);
+
+    assertEquals(2, parsedEntries.size());
+    assertEquals("-1", parsedEntries.get("alice"));
+    assertEquals("", parsedEntries.get(""));
+    assertEquals(7, parsed.getVersion());
+    assertEquals(DirectoryUpdate.Type.INCREMENTAL, parsed.getDirectoryUpdate().getType());
+  }
+
+  @Test
+  public void parse_noUpdate_hasNoEntries() throws IOException {
+    DirectoryResponse original = DirectoryResponse.newBuilder()
+                                                  .setVersion(3)
+                                                  .setIsUpdate(false)
+                                                  .build();
+
+    Map<String, String> parsedEntries = new HashMap<>();
+    DirectoryResponse   parsed        = DirectoryResponseParser.parse(new ByteArrayInputStream(original.toByteArray()), parsedEntries::put);
+
+    assertTrue(parsedEntries.isEmpty());
+    assertEquals(3, parsed.getVersion());
+    assertEquals(DirectoryResponse.StatusOrUpdateCase.IS_UPDATE, parsed.getStatusOrUpdateCase());
+    assertFalse(parsed.getIsUpdate());
+  }
+}
@@ -0,0 +1,95 @@
+package su.sres.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.TimeUnit;
+
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import static org.junit.Assert.assertEquals;
+
+public final class ConnectionReuseTrackerTest {
+
+    private static final int REQUESTS = 10;
+
+    private HttpServer             server;
+    private ConnectionReuseTracker tracker;
+    private OkHttpClient           client;
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "ok".getBytes();
+            exchange.sendResponseHeaders(200, body.length);
+
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        });
+        server.start();
+
+        tracker = new ConnectionReuseTracker();
+        client  = new OkHttpClient.Builder().connectionPool(new ConnectionPool(5, 45, TimeUnit.SECONDS))
+                                            .eventListener(tracker)
+                                            .build();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void sharedClient_reusesOneConnection() throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            execute(client);
+        }
+
+        assertEquals(REQUESTS, tracker.getAcquiredCount());
+        assertEquals(1, tracker.getConnectedCount());
+        assertEquals(0.9, tracker.getReuseRate(), 0.001);
+    }
+
+    @Test
+    public void derivedClients_shareTheBaseConnectionPool() throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            execute(client.newBuilder().readTimeout(i + 1, TimeUnit.SECONDS).build());
+        }
+
+        assertEquals(1, tracker.getConnectedCount());
+    }
+
+    @Test
+    public void separatePools_neverReuse() throws IOException {
+        for (int i = 0; i < REQUESTS; i++) {
+            execute(client.newBuilder().connectionPool(new ConnectionPool()).build());
+        }
+
+        assertEquals(REQUESTS, tracker.getConnectedCount());
+        assertEquals(0, tracker.getReuseRate(), 0.001);
+    }
+
+    @Test
+    public void noCalls_reuseRateIsZero() {
+        assertEquals(0, tracker.getReuseRate(), 0.001);
+    }
+
+    private void execute(OkHttpClient client) throws IOException {
+        Request request = new Request.Builder().url("http://127.0.0.1:" + server.getAddress().getPort() + "/").build();
+
+        try (Response response = client.newCall(request).execute()) {
+            assertEquals("ok", response.body().string());
+        }
+    }
+}
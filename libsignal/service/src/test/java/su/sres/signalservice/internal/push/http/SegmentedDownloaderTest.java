@@ -0,0 +1,287 @@
+package su.sres.signalservice.internal.push.http;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import su.sres.signalservice.api.messages.SignalServiceAttachment.ProgressListener;
+import su.sres.signalservice.api.push.exceptions.PushNetworkException;
+import su.sres.signalservice.api.push.exceptions.RangeException;
+import su.sres.signalservice.internal.util.Util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public final class SegmentedDownloaderTest {
+
+    private static final int     LENGTH   = 1_000_003;
+    private static final int     SEGMENTS = 4;
+    private static final Pattern RANGE    = Pattern.compile("bytes=(\\d+)-(\\d+)");
+
+    private final byte[]          data            = Util.getSecretBytes(LENGTH);
+    private final List<String>    requestedRanges = Collections.synchronizedList(new ArrayList<>());
+    private final ExecutorService serverExecutor  = Executors.newCachedThreadPool();
+
+    private HttpServer     server;
+    private File           destination;
+    private boolean        ignoreRange;
+    private CountDownLatch concurrentRequests;
+
+    @Before
+    public void setUp() throws IOException {
+        destination = File.createTempFile("segments", ".tmp");
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(serverExecutor);
+        server.createContext("/attachments/", exchange -> {
+            String range = exchange.getRequestHeaders().getFirst("Range");
+            requestedRanges.add(range);
+
+            if (concurrentRequests != null) {
+                concurrentRequests.countDown();
+
+                try {
+                    concurrentRequests.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+            }
+
+            int start = 0;
+            int end   = data.length - 1;
+
+            if (range != null && !ignoreRange) {
+                Matcher matcher = RANGE.matcher(range);
+
+                if (!matcher.matches() || Integer.parseInt(matcher.group(1)) >= data.length) {
+                    exchange.sendResponseHeaders(416, -1);
+                    exchange.close();
+                    return;
+                }
+
+                start = Integer.parseInt(matcher.group(1));
+                end   = Math.min(end, Integer.parseInt(matcher.group(2)));
+
+                exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + data.length);
+            }
+
+            int length = end - start + 1;
+            exchange.sendResponseHeaders(range != null && !ignoreRange ? 206 : 200, length);
+
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(data, start, length);
+            }
+        });
+        server.start();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop(0);
+        serverExecutor.shutdownNow();
+        //noinspection ResultOfMethodCallIgnored
+        destination.delete();
+    }
+
+    @Test
+    public void split_coversEveryByteOnce() {
+        SegmentedDownloadSpec spec = SegmentedDownloadSpec.split(LENGTH, SEGMENTS);
+
+        assertEquals(SEGMENTS, spec.getSegmentCount());
+        assertEquals(0, spec.getSegmentStart(0));
+        assertEquals(LENGTH, spec.getSegmentEnd(SEGMENTS - 1));
+
+        for (int i = 1; i < SEGMENTS; i++) {
+            assertEquals(spec.getSegmentEnd(i - 1), spec.getSegmentStart(i));
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void spec_rejectsProgressPastSegmentEnd() {
+        new SegmentedDownloadSpec(new long[] { 10, 20 }, new long[] { 10, 11 });
+    }
+
+    @Test
+    public void download_fillsEverySegment() throws IOException {
+        SegmentedDownloadSpec spec     = SegmentedDownloadSpec.split(LENGTH, SEGMENTS);
+        AtomicLong            reported = new AtomicLong();
+
+        download(spec, new HttpFetcher(), (total, progress) -> {
+            assertEquals(LENGTH, total);
+            assertTrue(progress > reported.get());
+            reported.set(progress);
+        });
+
+        assertTrue(spec.isComplete());
+        assertEquals(LENGTH, reported.get());
+        assertEquals(SEGMENTS, requestedRanges.size());
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void download_requestsSegmentsConcurrently() throws IOException {
+        concurrentRequests = new CountDownLatch(SEGMENTS);
+
+        download(SegmentedDownloadSpec.split(LENGTH, SEGMENTS), new HttpFetcher(), null);
+
+        assertEquals(0, concurrentRequests.getCount());
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void download_retriesDroppedSegmentFromWhereItStopped() throws IOException {
+        SegmentedDownloadSpec spec    = SegmentedDownloadSpec.split(LENGTH, SEGMENTS);
+        HttpFetcher           fetcher = new HttpFetcher();
+
+        fetcher.dropAfter = 50_000;
+        fetcher.drops     = 1;
+
+        download(spec, fetcher, null);
+
+        assertTrue(spec.isComplete());
+        assertEquals(SEGMENTS + 1, requestedRanges.size());
+
+        boolean resumed = false;
+        for (int i = 0; i < SEGMENTS; i++) {
+            resumed |= requestedRanges.contains("bytes=" + (spec.getSegmentStart(i) + 50_000) + "-" + (spec.getSegmentEnd(i) - 1));
+        }
+        assertTrue(resumed);
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test
+    public void download_resumesFromSavedProgress() throws IOException {
+        SegmentedDownloadSpec spec    = SegmentedDownloadSpec.split(LENGTH, SEGMENTS);
+        HttpFetcher           failing = new HttpFetcher();
+
+        failing.dropAfter = 50_000;
+        failing.drops     = Integer.MAX_VALUE;
+
+        try {
+            download(spec, failing, null);
+            fail();
+        } catch (PushNetworkException e) {
+            // Expected
+        }
+
+        assertFalse(spec.isComplete());
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertEquals(3 * 50_000, spec.getSegmentProgress(i));
+        }
+
+        SegmentedDownloadSpec saved = new SegmentedDownloadSpec(spec.getSegmentEnds(), spec.getSegmentProgress());
+        requestedRanges.clear();
+
+        download(saved, new HttpFetcher(), null);
+
+        assertTrue(saved.isComplete());
+        assertEquals(SEGMENTS, requestedRanges.size());
+
+        for (int i = 0; i < SEGMENTS; i++) {
+            assertTrue(requestedRanges.contains("bytes=" + (saved.getSegmentStart(i) + 3 * 50_000) + "-" + (saved.getSegmentEnd(i) - 1)));
+        }
+
+        assertArrayEquals(data, Files.readAllBytes(destination.toPath()));
+    }
+
+    @Test(expected = RangeException.class)
+    public void download_failsWhenServerIgnoresRange() throws IOException {
+        ignoreRange = true;
+
+        download(SegmentedDownloadSpec.split(LENGTH, SEGMENTS), new HttpFetcher(), null);
+    }
+
+    @Test(expected = RangeException.class)
+    public void download_failsWhenFileIsShorterThanExpected() throws IOException {
+        download(SegmentedDownloadSpec.split(LENGTH + 100, SEGMENTS), new HttpFetcher(), null);
+    }
+
+    private void download(SegmentedDownloadSpec spec, SegmentedDownloader.RangeFetcher fetcher, ProgressListener listener)
+        throws IOException
+    {
+        try (RandomAccessFile file = new RandomAccessFile(destination, "rw")) {
+            file.setLength(spec.getTotalLength());
+            new SegmentedDownloader(fetcher, 3).download(spec, file.getChannel(), listener);
+        }
+    }
+
+    /**
+     * Fetches ranges the way PushServiceSocket does. Drops the connection after {@code dropAfter}
+     * bytes, {@code drops} times in total, to simulate a flaky network.
+     */
+    private final class HttpFetcher implements SegmentedDownloader.RangeFetcher {
+
+        private long dropAfter = Long.MAX_VALUE;
+        private int  drops     = 0;
+
+        @Override
+        public void fetch(long offset, long length, OutputStream outputStream) throws IOException {
+            HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/attachments/test").openConnection();
+            connection.setRequestProperty("Range", "bytes=" + offset + "-" + (offset + length - 1));
+
+            try {
+                if (connection.getResponseCode() == 416) {
+                    throw new RangeException(offset);
+                }
+
+                try (InputStream in = connection.getInputStream()) {
+                    byte[] buffer    = new byte[8192];
+                    long   totalRead = 0;
+                    int    read;
+
+                    while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, dropAfter - totalRead))) > 0) {
+                        outputStream.write(buffer, 0, read);
+                        totalRead += read;
+                    }
+
+                    if (totalRead == dropAfter && shouldDrop()) {
+                        throw new PushNetworkException("Connection dropped");
+                    }
+
+                    Util.copy(in, outputStream);
+                }
+            } catch (PushNetworkException | RangeException e) {
+                throw e;
+            } catch (IOException e) {
+                throw new PushNetworkException(e);
+            } finally {
+                connection.disconnect();
+            }
+        }
+
+        private synchronized boolean shouldDrop() {
+            if (drops > 0) {
+                drops--;
+                return true;
+            }
+
+            return false;
+        }
+    }
+}
@@ -100,7 +100,8 @@ class FixedSizePagingController<Key, Data> implements PagingController<Key> {
         return;
       }
 
-      List<Data> loaded = dataSource.load(loadStart, loadEnd - loadStart, () -> invalidated);
+      Data       previous = loadStart > 0 ? data.get(loadStart - 1) : null;
+      List<Data> loaded   = dataSource.load(loadStart, loadEnd - loadStart, previous, () -> invalidated);
 
       if (invalidated) {
         Log.w(TAG, buildLog(aroundIndex, "Invalidated! Just after data was loaded."));
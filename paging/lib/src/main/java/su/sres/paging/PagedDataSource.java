@@ -26,6 +26,18 @@ public interface PagedDataSource<Key, Data> {
   @WorkerThread
   @NonNull List<Data> load(int start, int length, @NonNull CancellationSignal cancellationSignal);
 
+  /**
+   * Same as {@link #load(int, int, CancellationSignal)}, but also given the item directly before
+   * {@code start} if it has already been loaded. Sources that can seek to the item after
+   * {@code previous} faster than they can skip {@code start} items should override this.
+   *
+   * @param previous The item at {@code start - 1}, or null if it isn't loaded yet.
+   */
+  @WorkerThread
+  default @NonNull List<Data> load(int start, int length, @Nullable Data previous, @NonNull CancellationSignal cancellationSignal) {
+    return load(start, length, cancellationSignal);
+  }
+
   @WorkerThread
   @Nullable Data load(Key key);
 